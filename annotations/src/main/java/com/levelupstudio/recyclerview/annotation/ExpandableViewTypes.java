@@ -0,0 +1,33 @@
+package com.levelupstudio.recyclerview.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the {@link HolderLayout} ViewHolders used by an {@code ExpandableAdapter} for its groups and children.
+ * <p>A {@code <Adapter>_ViewTypes} class is generated at compile time with a view type constant for each ViewHolder,
+ * its index in {@link #groups()} or {@link #children()}, and {@code switch} based methods to create the ViewHolders
+ * and bind them. Each ViewHolder is bound by the method of the adapter taking it as its first parameter, followed by
+ * the group position, and the child position for the children:</p>
+ * <pre>
+ * void bindTitle(TitleHolder holder, int groupPosition)
+ * void bindItem(ItemHolder holder, int groupPosition, int childPosition)
+ * </pre>
+ * <p>The adapter calls the generated methods from {@code onCreateGroupViewHolder()}, {@code onCreateChildViewHolder()},
+ * {@code onBindGroupView()} and {@code onBindChildView()}.</p>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ExpandableViewTypes {
+	/**
+	 * The ViewHolders of the groups, in the order of their view type.
+	 */
+	Class<?>[] groups();
+
+	/**
+	 * The ViewHolders of the children, in the order of their view type.
+	 */
+	Class<?>[] children() default {};
+}
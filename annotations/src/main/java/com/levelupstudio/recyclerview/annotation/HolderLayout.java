@@ -0,0 +1,20 @@
+package com.levelupstudio.recyclerview.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the layout of an {@code ExpandableViewHolder} subclass. A {@code <Holder>_ViewHolder} subclass is generated
+ * at compile time, it inflates the layout and sets the fields annotated with {@link HolderView}.
+ * <p>The layout ID must be a constant, the {@code R} fields of an Android library module are not.</p>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface HolderLayout {
+	/**
+	 * The layout resource inflated for the ViewHolder.
+	 */
+	int value();
+}
@@ -0,0 +1,19 @@
+package com.levelupstudio.recyclerview.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A field of a {@link HolderLayout} ViewHolder set once with the View of the given ID when the ViewHolder is created.
+ * The field must not be {@code private} or {@code final}.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface HolderView {
+	/**
+	 * The ID of the View in the layout of the ViewHolder.
+	 */
+	int value();
+}
@@ -0,0 +1,413 @@
+package com.levelupstudio.recyclerview.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.levelupstudio.recyclerview.annotation.ExpandableViewTypes;
+import com.levelupstudio.recyclerview.annotation.HolderLayout;
+import com.levelupstudio.recyclerview.annotation.HolderView;
+
+/**
+ * Generates the ViewHolders declared with {@link HolderLayout} and the view types dispatch of the adapters declared
+ * with {@link ExpandableViewTypes}. The generated code only uses direct calls, no reflection.
+ */
+public class ExpandableViewsProcessor extends AbstractProcessor {
+	private static final String VIEW_HOLDER_CLASS = "com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder";
+	private static final String HOLDER_SUFFIX = "_ViewHolder";
+	private static final String VIEW_TYPES_SUFFIX = "_ViewTypes";
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		Set<String> types = new LinkedHashSet<>();
+		types.add(HolderLayout.class.getCanonicalName());
+		types.add(HolderView.class.getCanonicalName());
+		types.add(ExpandableViewTypes.class.getCanonicalName());
+		return types;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (TypeElement holder : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(HolderLayout.class))) {
+			if (isValidHolder(holder)) {
+				writeHolder(holder);
+			}
+		}
+		for (VariableElement field : ElementFilter.fieldsIn(roundEnv.getElementsAnnotatedWith(HolderView.class))) {
+			if (null == field.getEnclosingElement().getAnnotation(HolderLayout.class)) {
+				error(field, "@HolderView fields must be in a @HolderLayout class");
+			}
+		}
+		for (TypeElement adapter : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(ExpandableViewTypes.class))) {
+			writeViewTypes(adapter);
+		}
+		return true;
+	}
+
+	private boolean isValidHolder(TypeElement holder) {
+		boolean valid = true;
+		if (holder.getModifiers().contains(Modifier.PRIVATE) || holder.getModifiers().contains(Modifier.FINAL)) {
+			error(holder, "@HolderLayout classes must not be private or final");
+			valid = false;
+		}
+		if (holder.getNestingKind().isNested() && !holder.getModifiers().contains(Modifier.STATIC)) {
+			error(holder, "@HolderLayout classes must be static");
+			valid = false;
+		}
+		TypeElement viewHolder = processingEnv.getElementUtils().getTypeElement(VIEW_HOLDER_CLASS);
+		if (null != viewHolder && !processingEnv.getTypeUtils().isSubtype(holder.asType(), viewHolder.asType())) {
+			error(holder, "@HolderLayout classes must extend ExpandableViewHolder");
+			valid = false;
+		}
+		if (null == findViewConstructor(holder)) {
+			error(holder, "@HolderLayout classes need a constructor taking the View of the item");
+			valid = false;
+		}
+		for (VariableElement field : getHolderViews(holder)) {
+			if (field.getModifiers().contains(Modifier.PRIVATE) || field.getModifiers().contains(Modifier.FINAL) || field.getModifiers().contains(Modifier.STATIC)) {
+				error(field, "@HolderView fields must not be private, final or static");
+				valid = false;
+			}
+		}
+		return valid;
+	}
+
+	private ExecutableElement findViewConstructor(TypeElement holder) {
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(holder.getEnclosedElements())) {
+			if (!constructor.getModifiers().contains(Modifier.PRIVATE)
+					&& constructor.getParameters().size() == 1
+					&& constructor.getParameters().get(0).asType().toString().equals("android.view.View")) {
+				return constructor;
+			}
+		}
+		return null;
+	}
+
+	private List<VariableElement> getHolderViews(TypeElement holder) {
+		List<VariableElement> views = new ArrayList<>();
+		for (VariableElement field : ElementFilter.fieldsIn(holder.getEnclosedElements())) {
+			if (null != field.getAnnotation(HolderView.class))
+				views.add(field);
+		}
+		return views;
+	}
+
+	/**
+	 * Write the ViewHolder subclass setting the {@link HolderView} fields once.
+	 */
+	private void writeHolder(TypeElement holder) {
+		final String packageName = getPackageName(holder);
+		final String className = getFlatName(holder) + HOLDER_SUFFIX;
+		final int layout = holder.getAnnotation(HolderLayout.class).value();
+
+		StringBuilder sb = new StringBuilder();
+		writeHeader(sb, packageName);
+		sb.append("/**\n * ViewHolder generated for {@link ").append(holder.getQualifiedName()).append("}.\n */\n");
+		sb.append("public final class ").append(className).append(" extends ").append(holder.getQualifiedName()).append(" {\n");
+		sb.append("\tpublic static final int LAYOUT = ").append(layout).append(";\n\n");
+
+		sb.append("\t").append(className).append("(android.view.View itemView) {\n");
+		sb.append("\t\tsuper(itemView);\n");
+		for (VariableElement field : getHolderViews(holder)) {
+			sb.append("\t\tthis.").append(field.getSimpleName()).append(" = (").append(processingEnv.getTypeUtils().erasure(field.asType()))
+					.append(") itemView.findViewById(").append(field.getAnnotation(HolderView.class).value()).append(");\n");
+		}
+		sb.append("\t}\n\n");
+
+		sb.append("\tpublic static ").append(className).append(" create(android.view.ViewGroup parent) {\n");
+		sb.append("\t\treturn new ").append(className).append("(android.view.LayoutInflater.from(parent.getContext()).inflate(LAYOUT, parent, false));\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+
+		writeSource(holder, packageName, className, sb);
+	}
+
+	/**
+	 * Write the view type constants and the {@code switch} dispatch of an adapter.
+	 */
+	private void writeViewTypes(TypeElement adapter) {
+		final AnnotationMirror annotation = getAnnotationMirror(adapter, ExpandableViewTypes.class);
+		if (null == annotation)
+			return;
+		final List<TypeElement> groups = getClassValues(annotation, "groups");
+		final List<TypeElement> children = getClassValues(annotation, "children");
+		if (null == groups || null == children)
+			return; // the compiler reports the invalid classes
+		boolean valid = true;
+		for (TypeElement holder : groups) {
+			valid &= checkDeclaredHolder(adapter, holder);
+		}
+		for (TypeElement holder : children) {
+			valid &= checkDeclaredHolder(adapter, holder);
+		}
+		valid &= checkConstantNames(adapter, "GROUP", groups);
+		valid &= checkConstantNames(adapter, "CHILD", children);
+		final List<ExecutableElement> groupBinders = new ArrayList<>();
+		for (TypeElement holder : groups) {
+			ExecutableElement binder = findBinder(adapter, holder, 1);
+			valid &= null != binder;
+			groupBinders.add(binder);
+		}
+		final List<ExecutableElement> childBinders = new ArrayList<>();
+		for (TypeElement holder : children) {
+			ExecutableElement binder = findBinder(adapter, holder, 2);
+			valid &= null != binder;
+			childBinders.add(binder);
+		}
+		if (!valid)
+			return;
+
+		final String packageName = getPackageName(adapter);
+		final String className = getFlatName(adapter) + VIEW_TYPES_SUFFIX;
+		final String adapterType = getWildcardType(adapter);
+
+		StringBuilder sb = new StringBuilder();
+		writeHeader(sb, packageName);
+		sb.append("/**\n * View types of {@link ").append(adapter.getQualifiedName()).append("}.\n */\n");
+		sb.append("final class ").append(className).append(" {\n");
+		for (int i = 0; i < groups.size(); ++i) {
+			sb.append("\tstatic final int ").append(getConstantName("GROUP", groups.get(i))).append(" = ").append(i).append(";\n");
+		}
+		for (int i = 0; i < children.size(); ++i) {
+			sb.append("\tstatic final int ").append(getConstantName("CHILD", children.get(i))).append(" = ").append(i).append(";\n");
+		}
+		sb.append("\n\tprivate ").append(className).append("() {\n\t}\n");
+
+		writeCreate(sb, "createGroupViewHolder", "GROUP", groups);
+		writeCreate(sb, "createChildViewHolder", "CHILD", children);
+
+		sb.append("\n\tstatic void bindGroup(").append(adapterType).append(" adapter, ").append(VIEW_HOLDER_CLASS)
+				.append(" holder, int viewType, int groupPosition) {\n");
+		writeBindSwitch(sb, "GROUP", groups, groupBinders, "groupPosition");
+		sb.append("\t}\n");
+
+		sb.append("\n\tstatic void bindChild(").append(adapterType).append(" adapter, ").append(VIEW_HOLDER_CLASS)
+				.append(" holder, int viewType, int groupPosition, int childPosition) {\n");
+		writeBindSwitch(sb, "CHILD", children, childBinders, "groupPosition, childPosition");
+		sb.append("\t}\n");
+		sb.append("}\n");
+
+		writeSource(adapter, packageName, className, sb);
+	}
+
+	private void writeCreate(StringBuilder sb, String methodName, String kind, List<TypeElement> holders) {
+		sb.append("\n\tstatic ").append(VIEW_HOLDER_CLASS).append(' ').append(methodName).append("(android.view.ViewGroup parent, int viewType) {\n");
+		sb.append("\t\tswitch (viewType) {\n");
+		for (TypeElement holder : holders) {
+			sb.append("\t\tcase ").append(getConstantName(kind, holder)).append(":\n");
+			sb.append("\t\t\treturn ").append(getPackagePrefix(holder)).append(getFlatName(holder)).append(HOLDER_SUFFIX).append(".create(parent);\n");
+		}
+		sb.append("\t\tdefault:\n");
+		sb.append("\t\t\tthrow new IllegalArgumentException(\"unknown ").append(kind.toLowerCase(Locale.US)).append(" view type \" + viewType);\n");
+		sb.append("\t\t}\n");
+		sb.append("\t}\n");
+	}
+
+	private void writeBindSwitch(StringBuilder sb, String kind, List<TypeElement> holders, List<ExecutableElement> binders, String positions) {
+		sb.append("\t\tswitch (viewType) {\n");
+		for (int i = 0; i < holders.size(); ++i) {
+			sb.append("\t\tcase ").append(getConstantName(kind, holders.get(i))).append(":\n");
+			sb.append("\t\t\tadapter.").append(binders.get(i).getSimpleName()).append("((").append(holders.get(i).getQualifiedName())
+					.append(") holder, ").append(positions).append(");\n");
+			sb.append("\t\t\tbreak;\n");
+		}
+		sb.append("\t\tdefault:\n");
+		sb.append("\t\t\tthrow new IllegalArgumentException(\"unknown ").append(kind.toLowerCase(Locale.US)).append(" view type \" + viewType);\n");
+		sb.append("\t\t}\n");
+	}
+
+	private boolean checkDeclaredHolder(TypeElement adapter, TypeElement holder) {
+		if (null == holder.getAnnotation(HolderLayout.class)) {
+			error(adapter, holder.getQualifiedName() + " is not a @HolderLayout class");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check that the {@code holders} of the same kind get different view type constants.
+	 */
+	private boolean checkConstantNames(TypeElement adapter, String kind, List<TypeElement> holders) {
+		boolean valid = true;
+		final Map<String, TypeElement> names = new HashMap<>();
+		for (TypeElement holder : holders) {
+			final String name = getConstantName(kind, holder);
+			final TypeElement previous = names.put(name, holder);
+			if (null != previous) {
+				error(adapter, name + " is the view type of both " + previous.getQualifiedName() + " and " + holder.getQualifiedName());
+				valid = false;
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Find the method of the adapter binding {@code holder}, taking the holder and {@code positionCount} {@code int} positions.
+	 */
+	private ExecutableElement findBinder(TypeElement adapter, TypeElement holder, int positionCount) {
+		ExecutableElement result = null;
+		for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(adapter))) {
+			final List<? extends VariableElement> parameters = method.getParameters();
+			if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)
+					|| parameters.size() != positionCount + 1
+					|| !processingEnv.getTypeUtils().isSameType(parameters.get(0).asType(), holder.asType()))
+				continue;
+			boolean positions = true;
+			for (int i = 1; i < parameters.size(); ++i) {
+				positions &= parameters.get(i).asType().getKind() == TypeKind.INT;
+			}
+			if (!positions)
+				continue;
+			if (null != result) {
+				error(adapter, "several methods bind " + holder.getSimpleName() + ": " + result.getSimpleName() + " and " + method.getSimpleName());
+				return null;
+			}
+			result = method;
+		}
+		if (null == result) {
+			error(adapter, "missing the method binding " + holder.getSimpleName() + ": void bind(" + holder.getSimpleName()
+					+ (positionCount == 1 ? " holder, int groupPosition)" : " holder, int groupPosition, int childPosition)"));
+		}
+		return result;
+	}
+
+	private static AnnotationMirror getAnnotationMirror(Element element, Class<?> annotationClass) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationClass.getCanonicalName()))
+				return mirror;
+		}
+		return null;
+	}
+
+	/**
+	 * Read the {@code Class[]} value {@code name} of the annotation, the classes may not be compiled yet.
+	 *
+	 * @return {@code null} if a class can't be used, like a class not visible from the annotated one.
+	 */
+	private static List<TypeElement> getClassValues(AnnotationMirror annotation, String name) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+			if (!entry.getKey().getSimpleName().contentEquals(name))
+				continue;
+			List<TypeElement> result = new ArrayList<>();
+			for (Object value : (List<?>) entry.getValue().getValue()) {
+				Object type = ((AnnotationValue) value).getValue();
+				if (!(type instanceof DeclaredType))
+					return null;
+				result.add((TypeElement) ((DeclaredType) type).asElement());
+			}
+			return result;
+		}
+		return Collections.emptyList();
+	}
+
+	private String getPackageName(TypeElement type) {
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+	}
+
+	private String getPackagePrefix(TypeElement type) {
+		String packageName = getPackageName(type);
+		return packageName.isEmpty() ? "" : packageName + '.';
+	}
+
+	/**
+	 * Get the name of the class without its package, with {@code _} between the nested classes.
+	 */
+	private static String getFlatName(TypeElement type) {
+		StringBuilder sb = new StringBuilder(type.getSimpleName());
+		Element enclosing = type.getEnclosingElement();
+		while (enclosing.getKind() == ElementKind.CLASS || enclosing.getKind() == ElementKind.INTERFACE) {
+			sb.insert(0, '_').insert(0, enclosing.getSimpleName());
+			enclosing = enclosing.getEnclosingElement();
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the type of the adapter with wildcards for its type parameters.
+	 */
+	private static String getWildcardType(TypeElement type) {
+		StringBuilder sb = new StringBuilder(type.getQualifiedName());
+		final int parameterCount = type.getTypeParameters().size();
+		if (parameterCount != 0) {
+			sb.append('<');
+			for (int i = 0; i < parameterCount; ++i) {
+				if (i != 0)
+					sb.append(", ");
+				sb.append('?');
+			}
+			sb.append('>');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the name of the view type constant of {@code holder}, {@code URLHolder} becomes {@code CHILD_URL_HOLDER}.
+	 */
+	private static String getConstantName(String kind, TypeElement holder) {
+		StringBuilder sb = new StringBuilder(kind).append('_');
+		final String name = holder.getSimpleName().toString();
+		for (int i = 0; i < name.length(); ++i) {
+			final char c = name.charAt(i);
+			if (i != 0 && Character.isUpperCase(c)
+					&& (Character.isLowerCase(name.charAt(i - 1)) || (i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1))))) {
+				sb.append('_');
+			}
+			sb.append(Character.toUpperCase(c));
+		}
+		return sb.toString();
+	}
+
+	private static void writeHeader(StringBuilder sb, String packageName) {
+		sb.append("// Generated by ExpandableViewsProcessor, do not edit.\n");
+		if (!packageName.isEmpty()) {
+			sb.append("package ").append(packageName).append(";\n");
+		}
+		sb.append('\n');
+	}
+
+	private void writeSource(TypeElement origin, String packageName, String className, StringBuilder source) {
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? className : packageName + '.' + className, origin);
+			try (Writer writer = file.openWriter()) {
+				writer.write(source.toString());
+			}
+		} catch (IOException e) {
+			error(origin, "failed to write " + className + ": " + e.getMessage());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -0,0 +1,299 @@
+package com.levelupstudio.recyclerview.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.levelupstudio.recyclerview.annotation.HolderLayout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExpandableViewsProcessorTest {
+
+	/** the Android and library classes used by the generated code */
+	private static final JavaFileObject[] STUBS = {
+			source("android.content.Context",
+					"package android.content;",
+					"public class Context {}"),
+			source("android.view.View",
+					"package android.view;",
+					"public class View {",
+					"	public View findViewById(int id) { return null; }",
+					"}"),
+			source("android.view.ViewGroup",
+					"package android.view;",
+					"public class ViewGroup extends View {",
+					"	public android.content.Context getContext() { return null; }",
+					"}"),
+			source("android.view.LayoutInflater",
+					"package android.view;",
+					"public class LayoutInflater {",
+					"	public static LayoutInflater from(android.content.Context context) { return null; }",
+					"	public View inflate(int layout, ViewGroup root, boolean attachToRoot) { return null; }",
+					"}"),
+			source("android.widget.TextView",
+					"package android.widget;",
+					"public class TextView extends android.view.View {}"),
+			source("com.levelupstudio.recyclerview.ExpandableRecyclerView",
+					"package com.levelupstudio.recyclerview;",
+					"public class ExpandableRecyclerView {",
+					"	public static class ExpandableViewHolder {",
+					"		public ExpandableViewHolder(android.view.View itemView) {}",
+					"	}",
+					"}"),
+	};
+
+	private static final JavaFileObject TITLE_HOLDER = source("holders.TitleHolder",
+			"package holders;",
+			"@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+			"public class TitleHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+			"	@com.levelupstudio.recyclerview.annotation.HolderView(2) android.widget.TextView title;",
+			"	public TitleHolder(android.view.View itemView) { super(itemView); }",
+			"}");
+
+	private static final JavaFileObject ITEM_HOLDER = source("holders.ItemHolder",
+			"package holders;",
+			"@com.levelupstudio.recyclerview.annotation.HolderLayout(3)",
+			"public class ItemHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+			"	public ItemHolder(android.view.View itemView) { super(itemView); }",
+			"}");
+
+	private File outputDir;
+
+	@Before
+	public void setUp() throws IOException {
+		outputDir = File.createTempFile("processor", "");
+		assertTrue(outputDir.delete());
+		assertTrue(outputDir.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		delete(outputDir);
+	}
+
+	@Test
+	public void validViewTypes() {
+		final List<String> errors = compile(TITLE_HOLDER, ITEM_HOLDER, source("app.Adapter",
+				"package app;",
+				"@com.levelupstudio.recyclerview.annotation.ExpandableViewTypes(groups = holders.TitleHolder.class, children = holders.ItemHolder.class)",
+				"public class Adapter<T> {",
+				"	void bindTitle(holders.TitleHolder holder, int groupPosition) {}",
+				"	void bindItem(holders.ItemHolder holder, int groupPosition, int childPosition) {}",
+				"	com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder create(android.view.ViewGroup parent) {",
+				"		return Adapter_ViewTypes.createGroupViewHolder(parent, Adapter_ViewTypes.GROUP_TITLE_HOLDER);",
+				"	}",
+				"	void bind(com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder holder) {",
+				"		Adapter_ViewTypes.bindChild(this, holder, Adapter_ViewTypes.CHILD_ITEM_HOLDER, 0, 0);",
+				"	}",
+				"}"));
+		assertEquals(Collections.<String>emptyList(), errors);
+		assertTrue(new File(outputDir, "holders/TitleHolder_ViewHolder.class").isFile());
+		assertTrue(new File(outputDir, "app/Adapter_ViewTypes.class").isFile());
+	}
+
+	@Test
+	public void finalHolder() {
+		assertError("must not be private or final", source("holders.FinalHolder",
+				"package holders;",
+				"@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+				"public final class FinalHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+				"	public FinalHolder(android.view.View itemView) { super(itemView); }",
+				"}"));
+	}
+
+	@Test
+	public void innerHolder() {
+		assertError("must be static", source("holders.Outer",
+				"package holders;",
+				"public class Outer {",
+				"	@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+				"	public class InnerHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+				"		public InnerHolder(android.view.View itemView) { super(itemView); }",
+				"	}",
+				"}"));
+	}
+
+	@Test
+	public void notAViewHolder() {
+		assertError("must extend ExpandableViewHolder", source("holders.PlainHolder",
+				"package holders;",
+				"@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+				"public class PlainHolder {",
+				"	public PlainHolder(android.view.View itemView) {}",
+				"}"));
+	}
+
+	@Test
+	public void missingViewConstructor() {
+		assertError("need a constructor taking the View", source("holders.NoViewHolder",
+				"package holders;",
+				"@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+				"public class NoViewHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+				"	public NoViewHolder() { super(null); }",
+				"}"));
+	}
+
+	@Test
+	public void privateHolderView() {
+		assertError("@HolderView fields must not be private, final or static", source("holders.PrivateViewHolder",
+				"package holders;",
+				"@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+				"public class PrivateViewHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+				"	@com.levelupstudio.recyclerview.annotation.HolderView(2) private android.widget.TextView title;",
+				"	public PrivateViewHolder(android.view.View itemView) { super(itemView); }",
+				"}"));
+	}
+
+	@Test
+	public void holderViewOutsideHolder() {
+		assertError("@HolderView fields must be in a @HolderLayout class", source("holders.NotAHolder",
+				"package holders;",
+				"public class NotAHolder {",
+				"	@com.levelupstudio.recyclerview.annotation.HolderView(2) android.widget.TextView title;",
+				"}"));
+	}
+
+	@Test
+	public void undeclaredHolder() {
+		assertError("is not a @HolderLayout class", source("app.Adapter",
+				"package app;",
+				"@com.levelupstudio.recyclerview.annotation.ExpandableViewTypes(groups = String.class)",
+				"public class Adapter {",
+				"	void bind(String holder, int groupPosition) {}",
+				"}"));
+	}
+
+	@Test
+	public void missingBinder() {
+		assertError("missing the method binding TitleHolder", TITLE_HOLDER, source("app.Adapter",
+				"package app;",
+				"@com.levelupstudio.recyclerview.annotation.ExpandableViewTypes(groups = holders.TitleHolder.class)",
+				"public class Adapter {",
+				"	void bindTitle(holders.TitleHolder holder, int groupPosition, int childPosition) {}",
+				"}"));
+	}
+
+	@Test
+	public void severalBinders() {
+		assertError("several methods bind TitleHolder", TITLE_HOLDER, source("app.Adapter",
+				"package app;",
+				"@com.levelupstudio.recyclerview.annotation.ExpandableViewTypes(groups = holders.TitleHolder.class)",
+				"public class Adapter {",
+				"	void bindTitle(holders.TitleHolder holder, int groupPosition) {}",
+				"	void bindOther(holders.TitleHolder holder, int groupPosition) {}",
+				"}"));
+	}
+
+	@Test
+	public void holderNotVisibleFromAdapter() {
+		// the generated holder is public but the declared one is not visible from the adapter
+		assertError("HiddenHolder is not public", source("holders.HiddenHolder",
+				"package holders;",
+				"@com.levelupstudio.recyclerview.annotation.HolderLayout(1)",
+				"class HiddenHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+				"	HiddenHolder(android.view.View itemView) { super(itemView); }",
+				"}"), source("app.Adapter",
+				"package app;",
+				"@com.levelupstudio.recyclerview.annotation.ExpandableViewTypes(groups = holders.HiddenHolder.class)",
+				"public class Adapter {",
+				"}"));
+	}
+
+	@Test
+	public void duplicateConstantNames() {
+		assertError("GROUP_TITLE_HOLDER is the view type of both holders.TitleHolder and other.TitleHolder", TITLE_HOLDER, source("other.TitleHolder",
+				"package other;",
+				"@com.levelupstudio.recyclerview.annotation.HolderLayout(4)",
+				"public class TitleHolder extends com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder {",
+				"	public TitleHolder(android.view.View itemView) { super(itemView); }",
+				"}"), source("app.Adapter",
+				"package app;",
+				"@com.levelupstudio.recyclerview.annotation.ExpandableViewTypes(groups = {holders.TitleHolder.class, other.TitleHolder.class})",
+				"public class Adapter {",
+				"	void bindTitle(holders.TitleHolder holder, int groupPosition) {}",
+				"	void bindOtherTitle(other.TitleHolder holder, int groupPosition) {}",
+				"}"));
+	}
+
+	private void assertError(String message, JavaFileObject... sources) {
+		final List<String> errors = compile(sources);
+		for (String error : errors) {
+			if (error.contains(message))
+				return;
+		}
+		fail("no error \"" + message + "\" in " + errors);
+	}
+
+	/**
+	 * Compile the {@code sources} and the stubs with the processor.
+	 *
+	 * @return the errors of the compilation.
+	 */
+	private List<String> compile(JavaFileObject... sources) {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		final List<JavaFileObject> units = new ArrayList<>(Arrays.asList(STUBS));
+		units.addAll(Arrays.asList(sources));
+		try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.US, null)) {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(outputDir));
+			fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(outputDir));
+			fileManager.setLocation(StandardLocation.CLASS_PATH, Collections.singleton(new File(HolderLayout.class.getProtectionDomain().getCodeSource().getLocation().toURI())));
+			final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, null, null, units);
+			task.setProcessors(Collections.singleton(new ExpandableViewsProcessor()));
+			task.call();
+		} catch (Exception e) {
+			throw new AssertionError(e);
+		}
+		final List<String> errors = new ArrayList<>();
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+				errors.add(diagnostic.getMessage(Locale.US));
+		}
+		return errors;
+	}
+
+	private static JavaFileObject source(String className, String... lines) {
+		final StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line).append('\n');
+		}
+		final String content = sb.toString();
+		return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return content;
+			}
+		};
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,301 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Sizes the {@link RecyclerView.RecycledViewPool} of an {@link ExpandableRecyclerView} for each view type from the
+ * peak number of rows of that type on screen and the children of the groups recently expanded, within a budget
+ * of pooled ViewHolders.
+ * <p>When several views share a pool, the pool keeps the largest limit wanted by their sizers for each view type.</p>
+ *
+ * @see ExpandableRecyclerView#setAdaptivePoolSizing(int)
+ */
+final class AdaptivePoolSizer {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "AdaptivePoolSizer";
+
+	/** number of children of an expanded group looked at to count their view types */
+	private static final int MAX_COUNTED_CHILDREN = 64;
+
+	/** the registered sizers of the views using each pool, only used on the main thread */
+	private static final HashMap<RecyclerView.RecycledViewPool, ArrayList<AdaptivePoolSizer>> poolSizers = new HashMap<>();
+
+	private final ExpandableRecyclerView recyclerView;
+	private final int budget;
+	/** the budget is halved after the system was low on memory, until the demand grows again */
+	private boolean trimmed;
+	/** the pool the limits are applied to, {@code null} when not registered */
+	private RecyclerView.RecycledViewPool pool;
+	private boolean registered;
+
+	/** indexed by the dense view types of the {@link ViewTypeRegistry} */
+	private int[] peakOnScreen = new int[8];
+	private int[] expandDemand = new int[8];
+	private int[] appliedMax = new int[8];
+	private int[] counts = new int[8];
+
+	private Object trimCallbacks;
+
+	AdaptivePoolSizer(ExpandableRecyclerView recyclerView, int budget) {
+		this.recyclerView = recyclerView;
+		this.budget = budget;
+	}
+
+	/**
+	 * Record the number of rows of each view type currently on screen.
+	 */
+	void onLayout() {
+		final int viewTypeCount = getViewTypeCount();
+		if (viewTypeCount == 0)
+			return;
+		ensureCapacity(viewTypeCount);
+		Arrays.fill(counts, 0, viewTypeCount, 0);
+		for (int i = recyclerView.getChildCount() - 1; i >= 0; --i) {
+			View child = recyclerView.getChildAt(i);
+			RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(child);
+			if (null != holder && !RecyclerViewWithHeader.isHeaderOrFooter(holder)) {
+				final int viewType = holder.getItemViewType();
+				if (viewType >= 0 && viewType < viewTypeCount)
+					++counts[viewType];
+			}
+		}
+		boolean changed = false;
+		for (int viewType = 0; viewType < viewTypeCount; ++viewType) {
+			if (counts[viewType] > peakOnScreen[viewType]) {
+				peakOnScreen[viewType] = counts[viewType];
+				changed = true;
+			}
+		}
+		if (changed) {
+			trimmed = false;
+			applyLimits();
+		}
+	}
+
+	/**
+	 * Record the view types of the children of the group expanded at {@code groupPosition}.
+	 * The older expansions weigh less than the recent ones.
+	 */
+	void onGroupExpanded(ExpandableRecyclerView.ExpandableAdapter adapter, int groupPosition) {
+		final int childCount = adapter.getDisplayedChildrenCount(groupPosition);
+		final int countedChildren = Math.min(childCount, MAX_COUNTED_CHILDREN);
+		final ViewTypeRegistry viewTypes = adapter.getViewTypeRegistry();
+		final int sourceGroup = adapter.getSourceGroup(groupPosition);
+		for (int i = 0; i < countedChildren; ++i) {
+			final int viewType = viewTypes.getViewType(ViewTypeRegistry.KIND_CHILD, adapter.getChildViewType(sourceGroup, adapter.getSourceChild(groupPosition, i)));
+			ensureCapacity(viewType + 1);
+			++counts[viewType];
+		}
+		final int viewTypeCount = viewTypes.size();
+		ensureCapacity(viewTypeCount);
+		for (int viewType = 0; viewType < viewTypeCount; ++viewType) {
+			int demand = counts[viewType];
+			if (demand != 0 && countedChildren < childCount) {
+				// extrapolate to all the children
+				demand = (int) ((long) demand * childCount / countedChildren);
+			}
+			if (demand > expandDemand[viewType]) {
+				trimmed = false;
+			}
+			// decay the older expansions
+			expandDemand[viewType] = Math.max(demand, expandDemand[viewType] - (expandDemand[viewType] >> 2));
+			counts[viewType] = 0;
+		}
+		applyLimits();
+	}
+
+	void onTrimMemory(int level) {
+		if (DEBUG) Log.d(LOG_TAG, "onTrimMemory " + level);
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			// not visible anymore, keep nothing
+			Arrays.fill(expandDemand, 0);
+			recyclerView.getRecycledViewPool().clear();
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			trimmed = true;
+			applyLimits();
+		}
+	}
+
+	void onLowMemory() {
+		onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+	}
+
+	/**
+	 * Set the maximum number of pooled ViewHolders of each view type, scaled down to fit the budget.
+	 */
+	private void applyLimits() {
+		final int viewTypeCount = getViewTypeCount();
+		ensureCapacity(viewTypeCount);
+		long total = 0;
+		for (int viewType = 0; viewType < viewTypeCount; ++viewType) {
+			total += getWantedMax(viewType);
+		}
+		final int currentBudget = trimmed ? budget / 2 : budget;
+		final boolean poolChanged = attachPool();
+		for (int viewType = 0; viewType < viewTypeCount; ++viewType) {
+			int max = getWantedMax(viewType);
+			if (total > currentBudget) {
+				max = (int) ((long) max * currentBudget / total);
+			}
+			if (max != appliedMax[viewType] || poolChanged) {
+				if (DEBUG) Log.d(LOG_TAG, "type " + viewType + " max=" + max + " peak=" + peakOnScreen[viewType] + " expand=" + expandDemand[viewType]);
+				appliedMax[viewType] = max;
+				applySharedLimit(viewType);
+			}
+		}
+	}
+
+	/**
+	 * Join the sizers of the pool currently used by the view, leaving the previous one.
+	 *
+	 * @return {@code true} if the pool changed and all the limits must be applied again.
+	 */
+	private boolean attachPool() {
+		final RecyclerView.RecycledViewPool currentPool = recyclerView.getRecycledViewPool();
+		if (currentPool == pool)
+			return false;
+		detachPool();
+		pool = currentPool;
+		if (registered) {
+			ArrayList<AdaptivePoolSizer> sizers = poolSizers.get(pool);
+			if (null == sizers) {
+				sizers = new ArrayList<>(2);
+				poolSizers.put(pool, sizers);
+			}
+			sizers.add(this);
+		}
+		return true;
+	}
+
+	private void detachPool() {
+		if (null == pool)
+			return;
+		final RecyclerView.RecycledViewPool oldPool = pool;
+		pool = null;
+		final ArrayList<AdaptivePoolSizer> sizers = poolSizers.get(oldPool);
+		if (null != sizers && sizers.remove(this)) {
+			if (sizers.isEmpty()) {
+				poolSizers.remove(oldPool);
+			} else {
+				// the limits of the remaining views apply
+				for (int viewType = 0; viewType < appliedMax.length; ++viewType) {
+					if (appliedMax[viewType] != 0)
+						setSharedLimit(oldPool, sizers, viewType);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the limit of {@code viewType} in the pool to the largest one of the sizers sharing it.
+	 */
+	private void applySharedLimit(int viewType) {
+		final ArrayList<AdaptivePoolSizer> sizers = poolSizers.get(pool);
+		if (null == sizers)
+			pool.setMaxRecycledViews(viewType, appliedMax[viewType]);
+		else
+			setSharedLimit(pool, sizers, viewType);
+	}
+
+	private static void setSharedLimit(RecyclerView.RecycledViewPool pool, ArrayList<AdaptivePoolSizer> sizers, int viewType) {
+		int max = 0;
+		for (int i = 0; i < sizers.size(); ++i) {
+			final int[] sizerMax = sizers.get(i).appliedMax;
+			if (viewType < sizerMax.length)
+				max = Math.max(max, sizerMax[viewType]);
+		}
+		pool.setMaxRecycledViews(viewType, max);
+	}
+
+	/**
+	 * Enough ViewHolders to fill the screen again and to expand a group like the recent ones.
+	 */
+	private int getWantedMax(int viewType) {
+		if (peakOnScreen[viewType] == 0 && expandDemand[viewType] == 0)
+			return appliedMax[viewType] == 0 ? 0 : 1;
+		return peakOnScreen[viewType] + expandDemand[viewType];
+	}
+
+	private int getViewTypeCount() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		return null == adapter ? 0 : adapter.getViewTypeRegistry().size();
+	}
+
+	private void ensureCapacity(int viewTypeCount) {
+		if (viewTypeCount > peakOnScreen.length) {
+			final int capacity = Math.max(viewTypeCount, peakOnScreen.length * 2);
+			peakOnScreen = Arrays.copyOf(peakOnScreen, capacity);
+			expandDemand = Arrays.copyOf(expandDemand, capacity);
+			appliedMax = Arrays.copyOf(appliedMax, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+		}
+	}
+
+	void register(Context context) {
+		trimmed = false;
+		registered = true;
+		// join the sizers of the pool with all the limits
+		detachPool();
+		applyLimits();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH && null == trimCallbacks) {
+			trimCallbacks = TrimCallbacks.register(context.getApplicationContext(), this);
+		}
+	}
+
+	void unregister(Context context) {
+		registered = false;
+		detachPool();
+		if (null != trimCallbacks) {
+			TrimCallbacks.unregister(context.getApplicationContext(), trimCallbacks);
+			trimCallbacks = null;
+		}
+	}
+
+	/**
+	 * Kept in its own class since {@link ComponentCallbacks2} doesn't exist before ICS.
+	 */
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private static final class TrimCallbacks implements ComponentCallbacks2 {
+		private final AdaptivePoolSizer sizer;
+
+		private TrimCallbacks(AdaptivePoolSizer sizer) {
+			this.sizer = sizer;
+		}
+
+		static Object register(Context context, AdaptivePoolSizer sizer) {
+			TrimCallbacks callbacks = new TrimCallbacks(sizer);
+			context.registerComponentCallbacks(callbacks);
+			return callbacks;
+		}
+
+		static void unregister(Context context, Object callbacks) {
+			context.unregisterComponentCallbacks((TrimCallbacks) callbacks);
+		}
+
+		@Override
+		public void onTrimMemory(int level) {
+			sizer.onTrimMemory(level);
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig) {
+		}
+
+		@Override
+		public void onLowMemory() {
+			sizer.onLowMemory();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+/**
+ * Default {@link Executor} used by the library for the work done outside of the main thread,
+ * when no other {@code Executor} is provided.
+ */
+final class BackgroundExecutor {
+	private static ExecutorService executor;
+
+	private BackgroundExecutor() {
+	}
+
+	/**
+	 * Get the shared {@link Executor} running its tasks on a single low priority thread.
+	 */
+	static synchronized Executor get() {
+		if (null == executor) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "ExpandableRecyclerView #" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,171 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Remembers the children of an {@link ExpandableRecyclerView} measured at a given width that didn't change since, by
+ * stable ID. A child ViewHolder still displaying the same unchanged child is still bound but its View keeps its measure:
+ * the bind is told with {@link ExpandableRecyclerView.ExpandableViewHolder#isMeasureCached()} so it doesn't request a
+ * layout, and the nested list keeps its scroll, so it isn't measured again.
+ * <p>The least recently used children are forgotten past the maximum number of entries.</p>
+ *
+ * @see ExpandableRecyclerView#setChildMeasureCacheSize(int)
+ */
+final class ChildMeasureCache {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ChildMeasureCache";
+
+	private static final class Key {
+		long itemId;
+		int width;
+		/** stable ID of the group of the child, not part of the key */
+		long groupId;
+
+		Key(long itemId, int width, long groupId) {
+			this.itemId = itemId;
+			this.width = width;
+			this.groupId = groupId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return itemId == other.itemId && width == other.width;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (itemId ^ (itemId >>> 32)) * 31 + width;
+		}
+	}
+
+	private final ExpandableRecyclerView recyclerView;
+	private final LinkedHashMap<Key, Boolean> measured;
+	/** reused for the lookups on the main thread */
+	private final Key lookupKey = new Key(RecyclerView.NO_ID, 0, RecyclerView.NO_ID);
+
+	private ExpandableRecyclerView.ExpandableAdapter observedAdapter;
+	private final RecyclerView.AdapterDataObserver observer = new RecyclerView.AdapterDataObserver() {
+		@Override
+		public void onChanged() {
+			clear();
+		}
+
+		@Override
+		public void onItemRangeChanged(int positionStart, int itemCount) {
+			// the content of these rows changed, the children with the same stable ID are measured again
+			final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+			if (null == adapter || measured.isEmpty())
+				return;
+			final int flatStart = Math.max(0, positionStart - recyclerView.getHeaderViewsCount());
+			final int flatEnd = Math.min(adapter.getItemCount(), positionStart - recyclerView.getHeaderViewsCount() + itemCount);
+			for (int flatPosition = flatStart; flatPosition < flatEnd; ++flatPosition) {
+				if (adapter.getFlatChild(flatPosition) != RecyclerView.NO_POSITION)
+					removeItem(adapter.getItemId(flatPosition));
+			}
+		}
+	};
+
+	ChildMeasureCache(ExpandableRecyclerView recyclerView, final int maxEntries) {
+		this.recyclerView = recyclerView;
+		this.measured = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	void release() {
+		if (null != observedAdapter) {
+			observedAdapter.unregisterAdapterDataObserver(observer);
+			observedAdapter = null;
+		}
+		clear();
+	}
+
+	/**
+	 * Record the children currently laid out as measured at the current width.
+	 */
+	void onLayout() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		if (null == adapter || !adapter.hasStableIds())
+			return;
+		final int width = getAvailableWidth();
+		for (int i = recyclerView.getChildCount() - 1; i >= 0; --i) {
+			final View child = recyclerView.getChildAt(i);
+			final RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(child);
+			if (!(holder instanceof ExpandableRecyclerView.ExpandableViewHolder) || child.isLayoutRequested())
+				continue;
+			final int flatPosition = recyclerView.getChildPosition(child) - recyclerView.getHeaderViewsCount();
+			if (flatPosition < 0 || flatPosition >= adapter.getItemCount() || adapter.getFlatChild(flatPosition) == RecyclerView.NO_POSITION)
+				continue;
+			final long itemId = adapter.getItemId(flatPosition);
+			if (itemId == RecyclerView.NO_ID)
+				continue;
+			final long groupId = adapter.getGroupItemId(adapter.getSourceGroup(adapter.getFlatGroup(flatPosition)));
+			measured.put(new Key(itemId, width, groupId), Boolean.TRUE);
+			((ExpandableRecyclerView.ExpandableViewHolder) holder).measuredChildId = itemId;
+		}
+	}
+
+	/**
+	 * Whether the {@code holder} can keep the measure of its View for the child with the stable ID {@code itemId}: it
+	 * was measured with that child at the current width and the child didn't change since.
+	 */
+	boolean isMeasured(ExpandableRecyclerView.ExpandableViewHolder holder, long itemId) {
+		if (itemId == RecyclerView.NO_ID || holder.measuredChildId != itemId)
+			return false;
+		lookupKey.itemId = itemId;
+		lookupKey.width = getAvailableWidth();
+		final boolean result = null != measured.get(lookupKey);
+		if (DEBUG && result) Log.v(LOG_TAG, "keep the measure of " + itemId + " in " + holder);
+		return result;
+	}
+
+	void removeItem(long itemId) {
+		for (Iterator<Key> it = measured.keySet().iterator(); it.hasNext(); ) {
+			if (it.next().itemId == itemId)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Forget the children of the group with the stable ID {@code groupId}.
+	 */
+	void removeGroup(long groupId) {
+		for (Iterator<Key> it = measured.keySet().iterator(); it.hasNext(); ) {
+			if (it.next().groupId == groupId)
+				it.remove();
+		}
+	}
+
+	void clear() {
+		measured.clear();
+	}
+
+	private int getAvailableWidth() {
+		return recyclerView.getWidth() - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight();
+	}
+
+	private ExpandableRecyclerView.ExpandableAdapter getAdapter() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		if (adapter != observedAdapter) {
+			if (null != observedAdapter)
+				observedAdapter.unregisterAdapterDataObserver(observer);
+			observedAdapter = adapter;
+			if (null != adapter)
+				adapter.registerAdapterDataObserver(observer);
+			clear();
+		}
+		return adapter;
+	}
+}
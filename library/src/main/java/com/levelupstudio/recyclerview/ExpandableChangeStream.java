@@ -0,0 +1,322 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+/**
+ * Applies a stream of {@link Change} on groups and children identified by their stable ID to an {@link ExpandableSnapshotAdapter}.
+ * <p>The changes received while a batch is being displayed are merged: only the last change for a stable ID is kept.
+ * A new batch is applied to the snapshot of the adapter on a background thread once the previous one is displayed,
+ * so the main thread notifies at most one batch per frame whatever the rate of the changes.</p>
+ * <p>When the main thread falls behind and {@code maxPending} changes are waiting, {@link #offer(Change)} refuses the
+ * changes to new stable IDs and {@link #put(Change)} blocks until the next batch is taken.</p>
+ *
+ * @param <G> the type of the groups
+ * @param <C> the type of the children
+ */
+public class ExpandableChangeStream<G, C> {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ExpandableChangeStream";
+
+	/**
+	 * Get the stable IDs of the groups and children, they must be unique in their parent.
+	 */
+	public interface StableIds<G, C> {
+		long getGroupId(G group);
+
+		long getChildId(C child);
+	}
+
+	/**
+	 * A change of a group or a child, identified by its stable ID.
+	 */
+	public static final class Change<G, C> {
+		private final long groupId;
+		private final long childId;
+		private final boolean isChild;
+		/** {@code null} for a removal */
+		private final Object value;
+
+		private Change(long groupId, long childId, boolean isChild, Object value) {
+			this.groupId = groupId;
+			this.childId = childId;
+			this.isChild = isChild;
+			this.value = value;
+		}
+
+		/**
+		 * The group with the stable ID {@code groupId} is added at the end or replaced.
+		 */
+		public static <G, C> Change<G, C> upsertGroup(long groupId, @NonNull G group) {
+			return new Change<>(groupId, 0, false, group);
+		}
+
+		public static <G, C> Change<G, C> removeGroup(long groupId) {
+			return new Change<>(groupId, 0, false, null);
+		}
+
+		/**
+		 * The child with the stable ID {@code childId} is added at the end of its group or replaced.
+		 * The change is dropped if the group doesn't exist once the group changes of the same batch are applied.
+		 */
+		public static <G, C> Change<G, C> upsertChild(long groupId, long childId, @NonNull C child) {
+			return new Change<>(groupId, childId, true, child);
+		}
+
+		public static <G, C> Change<G, C> removeChild(long groupId, long childId) {
+			return new Change<>(groupId, childId, true, null);
+		}
+
+		ChangeKey getKey() {
+			return new ChangeKey(groupId, childId, isChild);
+		}
+	}
+
+	/**
+	 * Identifies the group or child a {@link Change} applies to, the last change for a key supersedes the previous ones.
+	 */
+	static final class ChangeKey {
+		private final long groupId;
+		private final long childId;
+		private final boolean isChild;
+
+		ChangeKey(long groupId, long childId, boolean isChild) {
+			this.groupId = groupId;
+			this.childId = childId;
+			this.isChild = isChild;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ChangeKey))
+				return false;
+			ChangeKey other = (ChangeKey) o;
+			return groupId == other.groupId && childId == other.childId && isChild == other.isChild;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = groupId * 31 + childId;
+			return (int) (h ^ (h >>> 32)) + (isChild ? 1 : 0);
+		}
+	}
+
+	private final ExpandableSnapshotAdapter<?, G, C> adapter;
+	private final StableIds<G, C> stableIds;
+	private final int maxPending;
+	private Executor executor;
+
+	/** changes not taken in a batch yet, guarded by itself */
+	private final LinkedHashMap<ChangeKey, Change<G, C>> pending = new LinkedHashMap<>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	/** a batch is being applied or displayed */
+	private final AtomicBoolean batchInFlight = new AtomicBoolean();
+
+	private final Runnable applyBatch = new Runnable() {
+		@Override
+		public void run() {
+			applyBatch();
+		}
+	};
+
+	private final Runnable batchDisplayed = new Runnable() {
+		@Override
+		public void run() {
+			// the previous batch is displayed
+			batchInFlight.set(false);
+			scheduleBatch();
+		}
+	};
+
+	/**
+	 * @param maxPending the number of changes to distinct stable IDs waiting for the main thread before the producers are held back
+	 */
+	public ExpandableChangeStream(@NonNull ExpandableSnapshotAdapter<?, G, C> adapter, @NonNull StableIds<G, C> stableIds, int maxPending) {
+		this.adapter = adapter;
+		this.stableIds = stableIds;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Set the {@link Executor} applying the changes to the snapshots. A shared background thread is used by default.
+	 */
+	public void setExecutor(@Nullable Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Add a change to the next batch without blocking. Can be called from any thread.
+	 *
+	 * @return {@code false} if the change was refused because too many changes are waiting.
+	 */
+	public boolean offer(@NonNull Change<G, C> change) {
+		final ChangeKey key = change.getKey();
+		synchronized (pending) {
+			if (pending.size() >= maxPending && !pending.containsKey(key))
+				return false;
+			add(key, change);
+		}
+		scheduleBatch();
+		return true;
+	}
+
+	/**
+	 * Add a change to the next batch, waiting while too many changes are waiting. Must not be called on the main thread.
+	 */
+	@WorkerThread
+	public void put(@NonNull Change<G, C> change) throws InterruptedException {
+		if (Looper.myLooper() == Looper.getMainLooper())
+			throw new IllegalStateException("put() would block the main thread, use offer()");
+		final ChangeKey key = change.getKey();
+		synchronized (pending) {
+			while (pending.size() >= maxPending && !pending.containsKey(key)) {
+				pending.wait();
+			}
+			add(key, change);
+		}
+		scheduleBatch();
+	}
+
+	private void add(ChangeKey key, Change<G, C> change) {
+		// the previous change for the same stable ID is superseded
+		pending.put(key, change);
+		pendingCount.set(pending.size());
+	}
+
+	private void scheduleBatch() {
+		if (pendingCount.get() != 0 && batchInFlight.compareAndSet(false, true)) {
+			(null != executor ? executor : BackgroundExecutor.get()).execute(applyBatch);
+		}
+	}
+
+	private void applyBatch() {
+		final ArrayList<Change<G, C>> batch;
+		synchronized (pending) {
+			batch = new ArrayList<>(pending.values());
+			pending.clear();
+			pendingCount.set(0);
+			pending.notifyAll();
+		}
+		if (DEBUG) Log.d(LOG_TAG, "apply " + batch.size() + " changes");
+		// the next batch waits for the snapshot of this one to be displayed, even if the batch changed nothing
+		final ExpandableSnapshot<G, C> snapshot = adapter.updateSnapshot(new BatchMutation<>(batch, stableIds));
+		adapter.runWhenDisplayed(snapshot, batchDisplayed);
+	}
+
+	/**
+	 * Applies the changes of a batch to a snapshot: the replaced items first, then the removals from the end and the
+	 * additions at the end, so positions never need to be looked up again. The children of the groups added by the
+	 * batch are changed once their group is added.
+	 */
+	private static final class BatchMutation<G, C> implements ExpandableSnapshotAdapter.Mutation<G, C> {
+		private final List<Change<G, C>> batch;
+		private final StableIds<G, C> stableIds;
+
+		BatchMutation(List<Change<G, C>> batch, StableIds<G, C> stableIds) {
+			this.batch = batch;
+			this.stableIds = stableIds;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void apply(@NonNull ExpandableSnapshot.Editor<G, C> editor) {
+			final HashMap<Long, Integer> groupPositions = new HashMap<>();
+			for (int i = editor.getGroupCount() - 1; i >= 0; --i) {
+				groupPositions.put(stableIds.getGroupId(editor.getGroup(i)), i);
+			}
+
+			// children changes per group position, applied before any group position changes
+			final HashMap<Integer, ArrayList<Change<G, C>>> childChanges = new HashMap<>();
+			// children changes of the groups that don't exist yet, by group stable ID
+			final HashMap<Long, ArrayList<Change<G, C>>> newGroupChildChanges = new HashMap<>();
+			final ArrayList<Integer> removedGroups = new ArrayList<>();
+			final ArrayList<G> addedGroups = new ArrayList<>();
+			for (Change<G, C> change : batch) {
+				final Integer groupPosition = groupPositions.get(change.groupId);
+				if (change.isChild) {
+					if (null != groupPosition) {
+						addChange(childChanges, groupPosition, change);
+					} else {
+						addChange(newGroupChildChanges, change.groupId, change);
+					}
+				} else if (null == change.value) {
+					if (null != groupPosition)
+						removedGroups.add(groupPosition);
+				} else if (null != groupPosition) {
+					editor.setGroup(groupPosition, (G) change.value);
+				} else {
+					addedGroups.add((G) change.value);
+				}
+			}
+
+			for (HashMap.Entry<Integer, ArrayList<Change<G, C>>> entry : childChanges.entrySet()) {
+				applyChildChanges(editor, entry.getKey(), entry.getValue());
+			}
+
+			Collections.sort(removedGroups, Collections.reverseOrder());
+			for (Integer groupPosition : removedGroups) {
+				editor.removeGroup(groupPosition);
+			}
+
+			for (G group : addedGroups) {
+				editor.addGroup(group, null);
+				final ArrayList<Change<G, C>> changes = newGroupChildChanges.get(stableIds.getGroupId(group));
+				if (null != changes) {
+					applyChildChanges(editor, editor.getGroupCount() - 1, changes);
+				}
+			}
+		}
+
+		private static <K, G, C> void addChange(HashMap<K, ArrayList<Change<G, C>>> changesByKey, K key, Change<G, C> change) {
+			ArrayList<Change<G, C>> changes = changesByKey.get(key);
+			if (null == changes) {
+				changes = new ArrayList<>();
+				changesByKey.put(key, changes);
+			}
+			changes.add(change);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void applyChildChanges(ExpandableSnapshot.Editor<G, C> editor, int groupPosition, List<Change<G, C>> changes) {
+			final HashMap<Long, Integer> childPositions = new HashMap<>();
+			for (int i = editor.getChildrenCount(groupPosition) - 1; i >= 0; --i) {
+				childPositions.put(stableIds.getChildId(editor.getChild(groupPosition, i)), i);
+			}
+
+			final ArrayList<Integer> removedChildren = new ArrayList<>();
+			final ArrayList<C> addedChildren = new ArrayList<>();
+			for (Change<G, C> change : changes) {
+				final Integer childPosition = childPositions.get(change.childId);
+				if (null == change.value) {
+					if (null != childPosition)
+						removedChildren.add(childPosition);
+				} else if (null != childPosition) {
+					editor.setChild(groupPosition, childPosition, (C) change.value);
+				} else {
+					addedChildren.add((C) change.value);
+				}
+			}
+
+			Collections.sort(removedChildren, Collections.reverseOrder());
+			for (Integer childPosition : removedChildren) {
+				editor.removeChild(groupPosition, childPosition);
+			}
+
+			for (C child : addedChildren) {
+				editor.addChild(groupPosition, child);
+			}
+		}
+	}
+}
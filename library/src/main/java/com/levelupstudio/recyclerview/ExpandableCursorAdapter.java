@@ -0,0 +1,485 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder;
+
+/**
+ * An {@link ExpandableRecyclerView.ExpandableAdapter} reading its groups and children from {@link Cursor} queried on
+ * a background thread, so large tables can be browsed without copying their rows in memory.
+ * <p>The group cursor and the child cursors must have a {@code _id} column, it's used as the stable ID of the groups.
+ * The child cursors of the groups recently expanded are kept in a cache of {@code maxChildCursors} cursors,
+ * the least recently used ones are closed. The cursors of the expanded groups are never closed while they are expanded.</p>
+ * <p>A group has no children until its child cursor has been queried, the children are inserted when the query
+ * is done.</p>
+ * <p>The group filter and the comparators run on a background thread, they must not read the cursors. The number of
+ * children they see is captured on the main thread when the filtering starts.</p>
+ *
+ * @param <VH> the {@link ExpandableViewHolder} used by the adapter
+ */
+public abstract class ExpandableCursorAdapter<VH extends ExpandableViewHolder> extends ExpandableRecyclerView.ExpandableAdapter<VH, Cursor> {
+	private static final String LOG_TAG = "ExpandableCursorAdapter";
+
+	/** name of the column holding the row ID in the group cursor */
+	public static final String ROW_ID_COLUMN = "_id";
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private Executor executor;
+
+	private Cursor groupCursor;
+	/** row ID of the group at each position of {@link #groupCursor} */
+	private long[] rowIds = new long[0];
+	private final RowIdIndex rowIdPositions = new RowIdIndex();
+	/** incremented for each group query and when the adapter is closed, older results are dropped */
+	private int groupGeneration;
+	/** incremented when the adapter is closed, the child cursors queried before are closed */
+	private int childGeneration;
+
+	private final LruCache<Long, Cursor> childCursors;
+	/** latest child query running for a group row ID, only used on the main thread */
+	private final HashMap<Long, Integer> pendingChildren = new HashMap<>();
+	private int childRequests;
+	/** child cursors of the expanded groups by row ID, kept out of {@link #childCursors}, {@code null} until queried */
+	private final HashMap<Long, Cursor> expandedChildren = new HashMap<>();
+	/** number of children of each group position when the last display query started, read by the background thread */
+	private volatile int[] queryChildCounts = new int[0];
+
+	/**
+	 * @param maxChildCursors the number of child cursors kept open for the groups recently expanded, not counting the
+	 *                        expanded ones but at least one
+	 */
+	protected ExpandableCursorAdapter(int maxChildCursors) {
+		this.childCursors = new LruCache<Long, Cursor>(Math.max(1, maxChildCursors)) {
+			@Override
+			protected void entryRemoved(boolean evicted, Long key, Cursor oldValue, Cursor newValue) {
+				// a cursor removed to be pinned as the expanded one stays open
+				if (evicted || null != newValue) {
+					if (DEBUG) Log.d(LOG_TAG, "close the children of " + key);
+					oldValue.close();
+				}
+			}
+		};
+		setStableIdsMode(STABLE_IDS_PARCELABLE);
+	}
+
+	/**
+	 * Query the groups, called on a background thread. The cursor must have a {@link #ROW_ID_COLUMN} column.
+	 */
+	@WorkerThread
+	@Nullable
+	protected abstract Cursor queryGroups();
+
+	/**
+	 * Query the children of the group with the row ID {@code groupRowId}, called on a background thread.
+	 */
+	@WorkerThread
+	@Nullable
+	protected abstract Cursor queryChildren(long groupRowId);
+
+	/**
+	 * Bind the group at the current position of the {@code cursor}.
+	 */
+	protected abstract void onBindGroupCursor(VH holder, Cursor cursor);
+
+	/**
+	 * Bind the child at the current position of the {@code cursor}.
+	 */
+	protected abstract void onBindChildCursor(VH holder, Cursor cursor);
+
+	/**
+	 * Set the {@link Executor} running the queries. A shared background thread is used by default.
+	 */
+	public void setQueryExecutor(@Nullable Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Query the groups again in the background, the adapter is notified when the query is done.
+	 * <p>The child cursors already queried are kept, use {@link #refreshChildren(long)} to query them again.</p>
+	 */
+	public void refresh() {
+		final int generation = ++groupGeneration;
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				final Cursor cursor = queryGroups();
+				final long[] ids;
+				final RowIdIndex index = new RowIdIndex();
+				if (null == cursor) {
+					ids = new long[0];
+				} else {
+					// read the row IDs here so the cursor window is filled outside of the main thread
+					ids = new long[cursor.getCount()];
+					final int column = cursor.getColumnIndexOrThrow(ROW_ID_COLUMN);
+					for (int position = 0; position < ids.length && cursor.moveToPosition(position); ++position) {
+						ids[position] = cursor.getLong(column);
+					}
+					index.build(ids);
+				}
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (generation != groupGeneration) {
+							if (null != cursor)
+								cursor.close();
+							return;
+						}
+						swapGroupCursor(cursor, ids, index);
+					}
+				});
+			}
+		});
+	}
+
+	private void swapGroupCursor(Cursor cursor, long[] ids, RowIdIndex index) {
+		if (DEBUG) Log.d(LOG_TAG, this + " swap the group cursor count=" + ids.length);
+		final Cursor oldCursor = groupCursor;
+		groupCursor = cursor;
+		rowIds = ids;
+		rowIdPositions.set(index);
+		notifyDataChanged();
+		if (null != oldCursor && oldCursor != cursor)
+			oldCursor.close();
+	}
+
+	/**
+	 * Query the children of the group with the row ID {@code groupRowId} again in the background.
+	 */
+	public void refreshChildren(long groupRowId) {
+		pendingChildren.remove(groupRowId);
+		queryChildrenAsync(groupRowId);
+	}
+
+	private void queryChildrenAsync(final long groupRowId) {
+		if (pendingChildren.containsKey(groupRowId))
+			return;
+
+		final int generation = childGeneration;
+		final int request = ++childRequests;
+		pendingChildren.put(groupRowId, request);
+		getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				final Cursor cursor = queryChildren(groupRowId);
+				if (null != cursor) {
+					// fill the cursor window outside of the main thread
+					cursor.getCount();
+				}
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						final Integer latestRequest = pendingChildren.get(groupRowId);
+						if (generation != childGeneration || null == latestRequest || latestRequest != request) {
+							if (null != cursor)
+								cursor.close();
+							return;
+						}
+						pendingChildren.remove(groupRowId);
+						onChildrenQueried(groupRowId, cursor);
+					}
+				});
+			}
+		});
+	}
+
+	private void onChildrenQueried(long groupRowId, Cursor cursor) {
+		if (!expandedChildren.containsKey(groupRowId)) {
+			if (null != cursor) {
+				childCursors.put(groupRowId, cursor);
+			} else {
+				final Cursor oldCursor = childCursors.remove(groupRowId);
+				if (null != oldCursor)
+					oldCursor.close();
+			}
+			return;
+		}
+
+		final Cursor oldCursor = expandedChildren.put(groupRowId, cursor);
+		final int oldCount = null == oldCursor ? 0 : oldCursor.getCount();
+		final int newCount = null == cursor ? 0 : cursor.getCount();
+		final int groupPosition = rowIdPositions.get(groupRowId);
+		if (DEBUG) Log.d(LOG_TAG, this + " children of " + groupRowId + " at " + groupPosition + " count=" + newCount + " was " + oldCount);
+		if (groupPosition != RecyclerView.NO_POSITION) {
+			if (newCount > oldCount) {
+				notifyChildRangeInserted(groupPosition, oldCount, newCount - oldCount);
+			} else if (newCount < oldCount) {
+				notifyChildRangeRemoved(groupPosition, newCount, oldCount - newCount);
+			}
+			if (oldCount != 0 && newCount != 0) {
+				notifyGroupChanged(groupPosition);
+			}
+		}
+		if (null != oldCursor && oldCursor != cursor)
+			oldCursor.close();
+	}
+
+	/**
+	 * Close all the cursors, the adapter has no more groups until {@link #refresh()} is called again.
+	 */
+	public void close() {
+		++groupGeneration;
+		++childGeneration;
+		pendingChildren.clear();
+		childCursors.evictAll();
+		for (Cursor cursor : expandedChildren.values()) {
+			if (null != cursor)
+				cursor.close();
+		}
+		expandedChildren.clear();
+		final Cursor oldCursor = groupCursor;
+		groupCursor = null;
+		rowIds = new long[0];
+		rowIdPositions.set(new RowIdIndex());
+		notifyDataChanged();
+		if (null != oldCursor)
+			oldCursor.close();
+	}
+
+	@Override
+	protected boolean setGroupExpanded(int groupPosition, boolean expanded) {
+		if (expanded && groupPosition >= 0 && groupPosition < getDisplayedGroupCount()) {
+			// pin the children of the group expanded before its children are counted
+			pinChildren(rowIds[getSourceGroup(groupPosition)]);
+		}
+		final boolean changed = super.setGroupExpanded(groupPosition, expanded);
+		if (!expanded && changed) {
+			unpinCollapsedChildren();
+		}
+		return changed;
+	}
+
+	@Override
+	protected boolean setAllGroupsExpanded(boolean expanded) {
+		if (expanded) {
+			for (int i = 0, count = getDisplayedGroupCount(); i < count; ++i) {
+				pinChildren(rowIds[getSourceGroup(i)]);
+			}
+		}
+		final boolean changed = super.setAllGroupsExpanded(expanded);
+		if (!expanded && changed) {
+			unpinCollapsedChildren();
+		}
+		return changed;
+	}
+
+	/**
+	 * Keep the child cursor of the group with the row ID {@code groupRowId} out of {@link #childCursors}, it's queried
+	 * if it's not there.
+	 */
+	private void pinChildren(long groupRowId) {
+		if (expandedChildren.containsKey(groupRowId))
+			return;
+		final Cursor cursor = childCursors.remove(groupRowId);
+		expandedChildren.put(groupRowId, cursor);
+		if (null == cursor)
+			queryChildrenAsync(groupRowId);
+	}
+
+	/**
+	 * Move the child cursors of the groups not expanded anymore back to {@link #childCursors}.
+	 */
+	private void unpinCollapsedChildren() {
+		for (Iterator<Map.Entry<Long, Cursor>> it = expandedChildren.entrySet().iterator(); it.hasNext(); ) {
+			final Map.Entry<Long, Cursor> entry = it.next();
+			final int displayedGroup = getDisplayedGroup(rowIdPositions.get(entry.getKey()));
+			if (displayedGroup == RecyclerView.NO_POSITION || !isGroupExpanded(displayedGroup)) {
+				it.remove();
+				if (null != entry.getValue())
+					childCursors.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	protected int getGroupCount() {
+		return rowIds.length;
+	}
+
+	/**
+	 * Get the number of children of the group, {@code 0} until its child cursor has been queried.
+	 * <p>On a background thread it's the number of children when the filtering started.</p>
+	 */
+	@Override
+	protected int getChildrenCount(int groupPosition) {
+		if (Looper.myLooper() != Looper.getMainLooper()) {
+			// the cursors and the maps holding them are only used on the main thread
+			final int[] counts = queryChildCounts;
+			return groupPosition < counts.length ? counts[groupPosition] : 0;
+		}
+		final Cursor cursor = getChildCursor(rowIds[groupPosition]);
+		return null == cursor ? 0 : cursor.getCount();
+	}
+
+	@Override
+	void onStartDisplayQuery() {
+		final int[] counts = new int[rowIds.length];
+		for (Map.Entry<Long, Cursor> entry : childCursors.snapshot().entrySet()) {
+			putChildCount(counts, entry.getKey(), entry.getValue());
+		}
+		for (Map.Entry<Long, Cursor> entry : expandedChildren.entrySet()) {
+			putChildCount(counts, entry.getKey(), entry.getValue());
+		}
+		queryChildCounts = counts;
+	}
+
+	private void putChildCount(int[] counts, long groupRowId, @Nullable Cursor cursor) {
+		final int groupPosition = rowIdPositions.get(groupRowId);
+		if (groupPosition != RecyclerView.NO_POSITION && null != cursor)
+			counts[groupPosition] = cursor.getCount();
+	}
+
+	@Nullable
+	private Cursor getChildCursor(long groupRowId) {
+		final Cursor cursor = expandedChildren.get(groupRowId);
+		return null != cursor ? cursor : childCursors.get(groupRowId);
+	}
+
+	/**
+	 * Returns {@code 0} by default.
+	 */
+	@Override
+	protected int getGroupViewType(int groupPosition) {
+		return 0;
+	}
+
+	/**
+	 * Returns {@code 0} by default.
+	 */
+	@Override
+	protected int getChildViewType(int groupPosition, int childPosition) {
+		return 0;
+	}
+
+	/**
+	 * Get the group cursor moved to {@code groupPosition}.
+	 */
+	@Override
+	public Cursor getGroup(int groupPosition) {
+		if (!groupCursor.moveToPosition(groupPosition))
+			throw new IllegalStateException("couldn't move the group cursor to " + groupPosition);
+		return groupCursor;
+	}
+
+	/**
+	 * Get the child cursor of the group at {@code groupPosition} moved to {@code childPosition}.
+	 */
+	public Cursor getChild(int groupPosition, int childPosition) {
+		final Cursor cursor = getChildCursor(rowIds[groupPosition]);
+		if (null == cursor || !cursor.moveToPosition(childPosition))
+			throw new IllegalStateException("couldn't move the child cursor of " + groupPosition + " to " + childPosition);
+		return cursor;
+	}
+
+	/**
+	 * Get the row ID of the group at {@code groupPosition}.
+	 */
+	public long getGroupRowId(int groupPosition) {
+		return rowIds[groupPosition];
+	}
+
+	/**
+	 * Get the position of the group with the row ID {@code groupRowId}, or {@link RecyclerView#NO_POSITION}.
+	 */
+	public int getGroupRowIdPosition(long groupRowId) {
+		return rowIdPositions.get(groupRowId);
+	}
+
+	@Override
+	protected final void onBindGroupView(VH holder, int groupPosition) {
+		onBindGroupCursor(holder, getGroup(groupPosition));
+	}
+
+	@Override
+	protected final void onBindChildView(VH holder, int groupPosition, int childPosition) {
+		onBindChildCursor(holder, getChild(groupPosition, childPosition));
+	}
+
+	@Override
+	protected Parcelable getGroupStableId(int groupPosition) {
+		return new LongParcelable(rowIds[groupPosition]);
+	}
+
+	@Override
+	protected int getGroupStableIdPosition(Parcelable stableId) {
+		if (!(stableId instanceof LongParcelable))
+			return RecyclerView.NO_POSITION;
+		return rowIdPositions.get(((LongParcelable) stableId).getValue());
+	}
+
+	@Override
+	long getGroupItemId(int groupPosition) {
+		// same as the stable ID without creating a Parcelable for each bind
+		return rowIds[groupPosition];
+	}
+
+	private Executor getExecutor() {
+		return null != executor ? executor : BackgroundExecutor.get();
+	}
+
+	/**
+	 * Open addressing table from a row ID to its position in the cursor.
+	 */
+	static final class RowIdIndex {
+		private long[] keys = new long[0];
+		private int[] positions = new int[0];
+		private int mask;
+
+		void build(@NonNull long[] rowIds) {
+			int capacity = 2;
+			while (capacity < rowIds.length * 2)
+				capacity <<= 1;
+			keys = new long[capacity];
+			positions = new int[capacity];
+			Arrays.fill(positions, RecyclerView.NO_POSITION);
+			mask = capacity - 1;
+			for (int position = 0; position < rowIds.length; ++position) {
+				int slot = hash(rowIds[position]) & mask;
+				while (positions[slot] != RecyclerView.NO_POSITION && keys[slot] != rowIds[position])
+					slot = (slot + 1) & mask;
+				if (positions[slot] == RecyclerView.NO_POSITION) {
+					// the first row wins when the IDs are not unique
+					keys[slot] = rowIds[position];
+					positions[slot] = position;
+				}
+			}
+		}
+
+		void set(RowIdIndex other) {
+			keys = other.keys;
+			positions = other.positions;
+			mask = other.mask;
+		}
+
+		int get(long rowId) {
+			if (positions.length == 0)
+				return RecyclerView.NO_POSITION;
+			int slot = hash(rowId) & mask;
+			while (positions[slot] != RecyclerView.NO_POSITION) {
+				if (keys[slot] == rowId)
+					return positions[slot];
+				slot = (slot + 1) & mask;
+			}
+			return RecyclerView.NO_POSITION;
+		}
+
+		private static int hash(long rowId) {
+			final int h = (int) (rowId ^ (rowId >>> 32));
+			return h ^ (h >>> 16);
+		}
+	}
+}
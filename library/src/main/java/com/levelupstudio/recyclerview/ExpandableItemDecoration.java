@@ -0,0 +1,220 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * An {@link RecyclerView.ItemDecoration} drawing each group of an {@link ExpandableRecyclerView} and its expanded
+ * children as a card, with an inset background behind the children and dividers between the rows of a card.
+ * <p>Everything is drawn in a single pass under the rows, so the rows don't need a background of their own. The cards
+ * are found from the expanded groups of the adapter without binding any row, and follow the rows while they are
+ * animated. The rows being removed keep the card of the group they were last bound to.</p>
+ */
+public class ExpandableItemDecoration extends RecyclerView.ItemDecoration {
+	private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final RectF cardRect = new RectF();
+	private final Rect rect = new Rect();
+
+	private int cardColor = Color.WHITE;
+	private float cardCornerRadius;
+	private int cardSpacing;
+	private int childColor = Color.TRANSPARENT;
+	private int childInsetLeft;
+	private int childInsetRight;
+	private int dividerColor = Color.TRANSPARENT;
+	private int dividerHeight;
+
+	/** bounds of the cards visible during the current draw, by displayed group or {@link #getRemovedCardKey(int)} */
+	private int cardCount;
+	private int[] cardGroups = new int[8];
+	private float[] cardBounds = new float[8 * 4];
+	private float[] childBounds = new float[8 * 2];
+
+	public void setCardColor(int cardColor) {
+		this.cardColor = cardColor;
+	}
+
+	public void setCardCornerRadius(float cardCornerRadius) {
+		this.cardCornerRadius = cardCornerRadius;
+	}
+
+	/**
+	 * Set the space between two cards, in pixels.
+	 */
+	public void setCardSpacing(int cardSpacing) {
+		this.cardSpacing = cardSpacing;
+	}
+
+	/**
+	 * Set the background drawn behind the children of a card, inset from the sides of the card.
+	 */
+	public void setChildBackground(int childColor, int insetLeft, int insetRight) {
+		this.childColor = childColor;
+		this.childInsetLeft = insetLeft;
+		this.childInsetRight = insetRight;
+	}
+
+	/**
+	 * Set the divider drawn between the rows of a card, over the children background.
+	 *
+	 * @param dividerHeight the height of the divider in pixels, 0 for no divider
+	 */
+	public void setDivider(int dividerColor, int dividerHeight) {
+		this.dividerColor = dividerColor;
+		this.dividerHeight = dividerHeight;
+	}
+
+	@Override
+	public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state) {
+		outRect.setEmpty();
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter(parent);
+		if (null == adapter)
+			return;
+		final int flatPosition = getFlatPosition(parent, adapter, view);
+		if (flatPosition == RecyclerView.NO_POSITION)
+			return;
+		if (flatPosition != 0 && adapter.getFlatChild(flatPosition) == RecyclerView.NO_POSITION) {
+			outRect.top = cardSpacing;
+		}
+		if (!isLastRowOfCard(adapter, flatPosition)) {
+			outRect.bottom = dividerHeight;
+		}
+	}
+
+	@Override
+	public void onDraw(Canvas canvas, RecyclerView parent, RecyclerView.State state) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter(parent);
+		if (null == adapter)
+			return;
+
+		// bounds of each visible card and of its children, following the animated rows
+		cardCount = 0;
+		for (int i = parent.getChildCount() - 1; i >= 0; --i) {
+			final View child = parent.getChildAt(i);
+			final int flatPosition = getFlatPosition(parent, adapter, child);
+			final int card;
+			final boolean isChild;
+			final float dividerBottom;
+			if (flatPosition != RecyclerView.NO_POSITION) {
+				card = getCard(adapter.getFlatGroup(flatPosition));
+				isChild = adapter.getFlatChild(flatPosition) != RecyclerView.NO_POSITION;
+				dividerBottom = isLastRowOfCard(adapter, flatPosition) ? 0 : dividerHeight;
+			} else {
+				// a disappearing row is drawn with the group it was last bound to, apart from the displayed cards
+				final RecyclerView.ViewHolder holder = parent.getChildViewHolder(child);
+				if (!(holder instanceof ExpandableRecyclerView.ExpandableViewHolder))
+					continue;
+				final ExpandableRecyclerView.ExpandableViewHolder expandableHolder = (ExpandableRecyclerView.ExpandableViewHolder) holder;
+				if (expandableHolder.boundGroup == RecyclerView.NO_POSITION)
+					continue;
+				card = getCard(getRemovedCardKey(expandableHolder.boundGroup));
+				isChild = expandableHolder.boundChild;
+				dividerBottom = 0;
+			}
+			final float left = child.getLeft() + child.getTranslationX();
+			final float top = child.getTop() + child.getTranslationY();
+			final float right = child.getRight() + child.getTranslationX();
+			final float bottom = child.getBottom() + child.getTranslationY() + dividerBottom;
+			cardBounds[card * 4] = Math.min(cardBounds[card * 4], left);
+			cardBounds[card * 4 + 1] = Math.min(cardBounds[card * 4 + 1], top);
+			cardBounds[card * 4 + 2] = Math.max(cardBounds[card * 4 + 2], right);
+			cardBounds[card * 4 + 3] = Math.max(cardBounds[card * 4 + 3], bottom);
+			if (isChild) {
+				childBounds[card * 2] = Math.min(childBounds[card * 2], top);
+				childBounds[card * 2 + 1] = Math.max(childBounds[card * 2 + 1], bottom);
+			}
+		}
+
+		for (int card = 0; card < cardCount; ++card) {
+			paint.setColor(cardColor);
+			cardRect.set(cardBounds[card * 4], cardBounds[card * 4 + 1], cardBounds[card * 4 + 2], cardBounds[card * 4 + 3]);
+			canvas.drawRoundRect(cardRect, cardCornerRadius, cardCornerRadius, paint);
+			if (childColor != Color.TRANSPARENT && childBounds[card * 2] < childBounds[card * 2 + 1]) {
+				paint.setColor(childColor);
+				rect.set((int) cardBounds[card * 4] + childInsetLeft, (int) childBounds[card * 2], (int) cardBounds[card * 4 + 2] - childInsetRight, (int) childBounds[card * 2 + 1]);
+				canvas.drawRect(rect, paint);
+			}
+		}
+
+		if (dividerHeight <= 0 || dividerColor == Color.TRANSPARENT)
+			return;
+		paint.setColor(dividerColor);
+		for (int i = parent.getChildCount() - 1; i >= 0; --i) {
+			final View child = parent.getChildAt(i);
+			final int flatPosition = getFlatPosition(parent, adapter, child);
+			if (flatPosition == RecyclerView.NO_POSITION || isLastRowOfCard(adapter, flatPosition))
+				continue;
+			final int bottom = (int) (child.getBottom() + child.getTranslationY());
+			final int inset = adapter.getFlatChild(flatPosition) == RecyclerView.NO_POSITION ? 0 : childInsetLeft;
+			rect.set((int) (child.getLeft() + child.getTranslationX()) + inset, bottom,
+					(int) (child.getRight() + child.getTranslationX()) - (inset == 0 ? 0 : childInsetRight), bottom + dividerHeight);
+			canvas.drawRect(rect, paint);
+		}
+	}
+
+	/**
+	 * Get the index of the card of the displayed group {@code groupPosition}, added empty if it's not visible yet.
+	 */
+	private int getCard(int groupPosition) {
+		for (int card = 0; card < cardCount; ++card) {
+			if (cardGroups[card] == groupPosition)
+				return card;
+		}
+		if (cardCount == cardGroups.length) {
+			cardGroups = Arrays.copyOf(cardGroups, cardCount * 2);
+			cardBounds = Arrays.copyOf(cardBounds, cardCount * 2 * 4);
+			childBounds = Arrays.copyOf(childBounds, cardCount * 2 * 2);
+		}
+		final int card = cardCount++;
+		cardGroups[card] = groupPosition;
+		cardBounds[card * 4] = Float.MAX_VALUE;
+		cardBounds[card * 4 + 1] = Float.MAX_VALUE;
+		cardBounds[card * 4 + 2] = -Float.MAX_VALUE;
+		cardBounds[card * 4 + 3] = -Float.MAX_VALUE;
+		childBounds[card * 2] = Float.MAX_VALUE;
+		childBounds[card * 2 + 1] = -Float.MAX_VALUE;
+		return card;
+	}
+
+	/**
+	 * Get the card key of the rows removed from the displayed group {@code groupPosition}, it never matches a displayed group.
+	 */
+	private static int getRemovedCardKey(int groupPosition) {
+		return -2 - groupPosition;
+	}
+
+	/**
+	 * @return whether the next row belongs to another card.
+	 */
+	private static boolean isLastRowOfCard(@NonNull ExpandableRecyclerView.ExpandableAdapter adapter, int flatPosition) {
+		return flatPosition + 1 >= adapter.getItemCount() || adapter.getFlatChild(flatPosition + 1) == RecyclerView.NO_POSITION;
+	}
+
+	/**
+	 * Get the position of the row in the adapter without the header views, {@link RecyclerView#NO_POSITION} for a
+	 * header, a footer or a row being removed.
+	 */
+	private static int getFlatPosition(RecyclerView parent, ExpandableRecyclerView.ExpandableAdapter adapter, View view) {
+		final int position = parent.getChildPosition(view);
+		if (position == RecyclerView.NO_POSITION)
+			return RecyclerView.NO_POSITION;
+		final int flatPosition = position - ((ExpandableRecyclerView) parent).getHeaderViewsCount();
+		if (flatPosition < 0 || flatPosition >= adapter.getItemCount())
+			return RecyclerView.NO_POSITION;
+		return flatPosition;
+	}
+
+	private static ExpandableRecyclerView.ExpandableAdapter getAdapter(RecyclerView parent) {
+		if (!(parent instanceof ExpandableRecyclerView))
+			return null;
+		return ((ExpandableRecyclerView) parent).getExpandableAdapter();
+	}
+}
@@ -0,0 +1,197 @@
+package com.levelupstudio.recyclerview;
+
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.helper.ItemTouchHelper;
+import android.util.Log;
+import android.view.ViewParent;
+
+/**
+ * {@link ItemTouchHelper.Callback} to reorder the groups and children of an {@link ExpandableRecyclerView} by drag and drop
+ * and to dismiss them by swiping.
+ * <p>A dragged group carries its children when it's expanded, a dragged child stays in its group. Each step of the drag
+ * moves the data with {@link ExpandableRecyclerView.ExpandableAdapter#onMoveGroup(int, int) onMoveGroup()} or
+ * {@link ExpandableRecyclerView.ExpandableAdapter#onMoveChild(int, int, int) onMoveChild()} and only notifies the
+ * moved rows, nothing is bound again.</p>
+ * <p>A swiped group or child is removed with {@link ExpandableRecyclerView.ExpandableAdapter#onDismissGroup(int) onDismissGroup()}
+ * or {@link ExpandableRecyclerView.ExpandableAdapter#onDismissChild(int, int) onDismissChild()} and the removal is
+ * notified right away. They can be restored with {@link ExpandableRecyclerView.ExpandableAdapter#undoDismiss() undoDismiss()}.</p>
+ * <pre>
+ * new ItemTouchHelper(new ExpandableItemTouchCallback(true, true)).attachToRecyclerView(expandableRecyclerView);
+ * </pre>
+ */
+public class ExpandableItemTouchCallback extends ItemTouchHelper.Callback {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ExpandableTouch";
+
+	private final boolean dragGroups;
+	private final boolean dragChildren;
+	private final boolean swipeGroups;
+	private final boolean swipeChildren;
+
+	/**
+	 * @param dragGroups   whether the groups can be reordered
+	 * @param dragChildren whether the children can be reordered inside their group
+	 */
+	public ExpandableItemTouchCallback(boolean dragGroups, boolean dragChildren) {
+		this(dragGroups, dragChildren, false, false);
+	}
+
+	/**
+	 * @param dragGroups    whether the groups can be reordered
+	 * @param dragChildren  whether the children can be reordered inside their group
+	 * @param swipeGroups   whether the groups can be dismissed
+	 * @param swipeChildren whether the children can be dismissed
+	 */
+	public ExpandableItemTouchCallback(boolean dragGroups, boolean dragChildren, boolean swipeGroups, boolean swipeChildren) {
+		this.dragGroups = dragGroups;
+		this.dragChildren = dragChildren;
+		this.swipeGroups = swipeGroups;
+		this.swipeChildren = swipeChildren;
+	}
+
+	/**
+	 * Whether the group at the data position {@code groupPosition} can be dragged. {@code true} by default.
+	 */
+	protected boolean canDragGroup(int groupPosition) {
+		return true;
+	}
+
+	/**
+	 * Whether the child at the data position {@code childPosition} in the group {@code groupPosition} can be dragged. {@code true} by default.
+	 */
+	protected boolean canDragChild(int groupPosition, int childPosition) {
+		return true;
+	}
+
+	/**
+	 * Whether the group at the data position {@code groupPosition} can be dismissed. {@code true} by default.
+	 */
+	protected boolean canSwipeGroup(int groupPosition) {
+		return true;
+	}
+
+	/**
+	 * Whether the child at the data position {@code childPosition} in the group {@code groupPosition} can be dismissed. {@code true} by default.
+	 */
+	protected boolean canSwipeChild(int groupPosition, int childPosition) {
+		return true;
+	}
+
+	@Override
+	public int getMovementFlags(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter(recyclerView);
+		final int flatPosition = getFlatPosition(recyclerView, viewHolder);
+		if (null == adapter || flatPosition == RecyclerView.NO_POSITION)
+			return 0;
+
+		final int group = adapter.getFlatGroup(flatPosition);
+		final int child = adapter.getFlatChild(flatPosition);
+		final boolean canDrag;
+		final boolean canSwipe;
+		if (child == RecyclerView.NO_POSITION) {
+			canDrag = dragGroups && !adapter.isGroupSorted() && canDragGroup(adapter.getSourceGroup(group));
+			canSwipe = swipeGroups && canSwipeGroup(adapter.getSourceGroup(group));
+		} else {
+			canDrag = dragChildren && !adapter.isChildSorted() && canDragChild(adapter.getSourceGroup(group), adapter.getSourceChild(group, child));
+			canSwipe = swipeChildren && canSwipeChild(adapter.getSourceGroup(group), adapter.getSourceChild(group, child));
+		}
+		return makeMovementFlags(canDrag ? ItemTouchHelper.UP | ItemTouchHelper.DOWN : 0, canSwipe ? ItemTouchHelper.START | ItemTouchHelper.END : 0);
+	}
+
+	@Override
+	public boolean canDropOver(RecyclerView recyclerView, RecyclerView.ViewHolder current, RecyclerView.ViewHolder target) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter(recyclerView);
+		final int fromPosition = getFlatPosition(recyclerView, current);
+		final int toPosition = getFlatPosition(recyclerView, target);
+		if (null == adapter || fromPosition == RecyclerView.NO_POSITION || toPosition == RecyclerView.NO_POSITION)
+			return false;
+
+		final int fromGroup = adapter.getFlatGroup(fromPosition);
+		final int toGroup = adapter.getFlatGroup(toPosition);
+		if (adapter.getFlatChild(fromPosition) == RecyclerView.NO_POSITION) {
+			// a group can be dropped over any other group or the children of another group
+			return fromGroup != toGroup;
+		}
+		// a child can only be dropped over the children of its group
+		return fromGroup == toGroup && adapter.getFlatChild(toPosition) != RecyclerView.NO_POSITION;
+	}
+
+	@Override
+	public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, RecyclerView.ViewHolder target) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter(recyclerView);
+		final int fromPosition = getFlatPosition(recyclerView, viewHolder);
+		final int toPosition = getFlatPosition(recyclerView, target);
+		if (null == adapter || fromPosition == RecyclerView.NO_POSITION || toPosition == RecyclerView.NO_POSITION || !canDropOver(recyclerView, viewHolder, target))
+			return false;
+
+		final int group = adapter.getSourceGroup(adapter.getFlatGroup(fromPosition));
+		final int fromChild = adapter.getFlatChild(fromPosition);
+		if (fromChild == RecyclerView.NO_POSITION) {
+			final int toGroup = adapter.getSourceGroup(adapter.getFlatGroup(toPosition));
+			if (DEBUG) Log.d(LOG_TAG, "move group " + group + " to " + toGroup);
+			if (!adapter.onMoveGroup(group, toGroup))
+				return false;
+			adapter.notifyGroupMoved(group, toGroup);
+		} else {
+			final int displayedGroup = adapter.getFlatGroup(fromPosition);
+			final int sourceFrom = adapter.getSourceChild(displayedGroup, fromChild);
+			final int sourceTo = adapter.getSourceChild(displayedGroup, adapter.getFlatChild(toPosition));
+			if (DEBUG) Log.d(LOG_TAG, "move child " + sourceFrom + " to " + sourceTo + " in group " + group);
+			if (!adapter.onMoveChild(group, sourceFrom, sourceTo))
+				return false;
+			adapter.notifyChildMoved(group, sourceFrom, sourceTo);
+		}
+		return true;
+	}
+
+	@Override
+	public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
+		final RecyclerView recyclerView = getRecyclerView(viewHolder);
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter(recyclerView);
+		final int flatPosition = null == recyclerView ? RecyclerView.NO_POSITION : getFlatPosition(recyclerView, viewHolder);
+		if (null == adapter || flatPosition == RecyclerView.NO_POSITION)
+			return;
+
+		final int displayedGroup = adapter.getFlatGroup(flatPosition);
+		final int child = adapter.getFlatChild(flatPosition);
+		final boolean dismissed;
+		if (child == RecyclerView.NO_POSITION) {
+			if (DEBUG) Log.d(LOG_TAG, "dismiss group " + adapter.getSourceGroup(displayedGroup));
+			dismissed = adapter.dismissGroup(adapter.getSourceGroup(displayedGroup));
+		} else {
+			if (DEBUG) Log.d(LOG_TAG, "dismiss child " + adapter.getSourceChild(displayedGroup, child) + " in group " + adapter.getSourceGroup(displayedGroup));
+			dismissed = adapter.dismissChild(adapter.getSourceGroup(displayedGroup), adapter.getSourceChild(displayedGroup, child));
+		}
+		if (!dismissed) {
+			// put the swiped view back
+			adapter.notifyFlatItemChanged(flatPosition);
+		}
+	}
+
+	private static RecyclerView getRecyclerView(RecyclerView.ViewHolder viewHolder) {
+		final ViewParent parent = viewHolder.itemView.getParent();
+		return parent instanceof RecyclerView ? (RecyclerView) parent : null;
+	}
+
+	private static ExpandableRecyclerView.ExpandableAdapter getAdapter(RecyclerView recyclerView) {
+		if (recyclerView instanceof ExpandableRecyclerView)
+			return ((ExpandableRecyclerView) recyclerView).getExpandableAdapter();
+		return null;
+	}
+
+	/**
+	 * Get the position of the {@code viewHolder} in the {@code ExpandableAdapter} or {@link RecyclerView#NO_POSITION} for headers and footers.
+	 */
+	private static int getFlatPosition(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+		if (!(recyclerView instanceof ExpandableRecyclerView) || null == ((ExpandableRecyclerView) recyclerView).getExpandableAdapter())
+			return RecyclerView.NO_POSITION;
+		final ExpandableRecyclerView expandableRecyclerView = (ExpandableRecyclerView) recyclerView;
+		final int adapterPosition = viewHolder.getAdapterPosition();
+		if (adapterPosition == RecyclerView.NO_POSITION)
+			return RecyclerView.NO_POSITION;
+		final int flatPosition = adapterPosition - expandableRecyclerView.getHeaderViewsCount();
+		if (flatPosition < 0 || flatPosition >= expandableRecyclerView.getExpandableAdapter().getItemCount())
+			return RecyclerView.NO_POSITION;
+		return flatPosition;
+	}
+}
@@ -0,0 +1,75 @@
+package com.levelupstudio.recyclerview;
+
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+/**
+ * A {@link RecyclerView.RecycledViewPool} shared by several {@link ExpandableRecyclerView}, for example the pages of
+ * a {@code ViewPager} displaying the same group and child layouts.
+ * <p>The {@code ExpandableRecyclerView} attached to the pool with {@link ExpandableRecyclerView#setRecycledViewPool(RecyclerView.RecycledViewPool)}
+ * use the {@link ViewTypeRegistry} of the pool, so the same group or child view type of their adapters is recycled
+ * in the same partition of the pool. The adapters must use the same view types for the same layouts.</p>
+ * <p>A ViewHolder entering the pool is detached from its adapter, header and footer ViewHolders are never pooled.</p>
+ */
+public class ExpandableRecycledViewPool extends RecyclerView.RecycledViewPool {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ExpandableViewPool";
+
+	private final ViewTypeRegistry viewTypes = new ViewTypeRegistry();
+	private final int defaultMaxRecycledViews;
+	/** whether the maximum of recycled views has been set for each view type */
+	private boolean[] maxSet = new boolean[8];
+
+	/**
+	 * @param defaultMaxRecycledViews the number of ViewHolders kept for each view type, unless changed with {@link #setMaxRecycledViews(int, int)}.
+	 *                                It should cover the ViewHolders of all the {@code ExpandableRecyclerView} sharing the pool.
+	 */
+	public ExpandableRecycledViewPool(int defaultMaxRecycledViews) {
+		this.defaultMaxRecycledViews = defaultMaxRecycledViews;
+	}
+
+	/**
+	 * Get the registry of the view types used by all the {@code ExpandableRecyclerView} sharing this pool.
+	 */
+	public ViewTypeRegistry getViewTypeRegistry() {
+		return viewTypes;
+	}
+
+	@Override
+	public void setMaxRecycledViews(int viewType, int max) {
+		ensureMaxSetCapacity(viewType);
+		maxSet[viewType] = true;
+		super.setMaxRecycledViews(viewType, max);
+	}
+
+	@Override
+	public void putRecycledView(RecyclerView.ViewHolder scrap) {
+		if (RecyclerViewWithHeader.isHeaderOrFooter(scrap)) {
+			if (DEBUG) Log.d(LOG_TAG, "drop header/footer " + scrap);
+			return;
+		}
+
+		if (scrap instanceof ExpandableRecyclerView.ExpandableViewHolder) {
+			// the next adapter using it may be a different one
+			ExpandableRecyclerView.ExpandableViewHolder holder = (ExpandableRecyclerView.ExpandableViewHolder) scrap;
+			holder.setExpandHandler(null);
+			holder.expanded = false;
+			holder.isSelected = false;
+		}
+
+		final int viewType = scrap.getItemViewType();
+		ensureMaxSetCapacity(viewType);
+		if (!maxSet[viewType]) {
+			setMaxRecycledViews(viewType, defaultMaxRecycledViews);
+		}
+		super.putRecycledView(scrap);
+	}
+
+	private void ensureMaxSetCapacity(int viewType) {
+		if (viewType >= maxSet.length) {
+			boolean[] grown = new boolean[Math.max(viewType + 1, maxSet.length * 2)];
+			System.arraycopy(maxSet, 0, grown, 0, maxSet.length);
+			maxSet = grown;
+		}
+	}
+}
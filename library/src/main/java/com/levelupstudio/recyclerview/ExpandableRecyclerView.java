@@ -1,19 +1,31 @@
 package com.levelupstudio.recyclerview;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.support.v4.util.DebugUtils;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.DefaultItemAnimator;
+import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.AbsSavedState;
+import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ExpandableListView;
@@ -22,7 +34,7 @@ import android.widget.ExpandableListView;
  * A class equivalent to {@link android.widget.ExpandableListView ExpandableListView} with the {@code RecyclerView} features.
  * <p>You must use an {@link com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableAdapter} instead of a {@link android.support.v7.widget.RecyclerView.Adapter}
  * and an {@link com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder} instead of a {@link android.support.v7.widget.RecyclerView.ViewHolder}.</p>
- * <p>Only one element can be expanded at a time.</p>
+ * <p>Only one element can be expanded at a time by default, see {@link #setMaxExpandedGroups(int)}.</p>
  *
  * @author Created by robUx4 on 02/10/2014.
  */
@@ -30,17 +42,35 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 
 	private static final String ANIM_TAG = "Animator";
 	private static final boolean DEBUG_ANIMATOR = false;
+	/** position of {@link #expandAndCollapse(int, int)} to expand or collapse all the groups */
+	private static final int ALL_GROUPS = -2;
+	/** number of groups expanded or collapsed at once past which the rows are changed without animation */
+	private static final int MAX_ANIMATED_BULK_GROUPS = 20;
 
 	private ExpandableListView.OnGroupExpandListener onGroupExpandListener;
 	private ExpandableListView.OnGroupCollapseListener onGroupCollapseListener;
 	private OnGroupClickListener onGroupClickListener;
+	private OnChildClickListener onChildClickListener;
+	private OnItemLongClickListener onItemLongClickListener;
+	private ItemTouchDispatcher touchDispatcher;
 	/** {@link android.support.v7.widget.RecyclerView.ItemAnimator} used for normal operations */
 	private ItemAnimator mUserItemAnimator;
 
 	private int selectedGroup = RecyclerView.NO_POSITION;
 	private Parcelable selectedStableId;
+	/** maximum number of expanded groups, 0 for no limit */
+	private int maxExpandedGroups = 1;
+	/** {@link #expandAll()} expanded more groups than the maximum, it applies again once they are back within it */
+	private boolean expandLimitLifted;
+	/** state restored before the adapter had its groups */
+	private SavedState pendingState;
 
 	private boolean firstLayoutPassed;
+	private AdaptivePoolSizer poolSizer;
+	private ScrollPrefetcher prefetcher;
+	private ScrollMetrics scrollMetrics;
+	ChildMeasureCache childMeasureCache;
+	private Executor prefetchExecutor;
 
 	/**
 	 * Interface definition for a callback to be invoked when a group in this expandable list has been clicked.
@@ -60,6 +90,38 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		boolean onGroupClick(ExpandableRecyclerView parent, View v, int groupPosition, long id);
 	}
 
+	/**
+	 * Interface definition for a callback to be invoked when a child in this expandable list has been clicked.
+	 * Similar to {@link android.widget.ExpandableListView.OnChildClickListener}.
+	 */
+	public interface OnChildClickListener {
+		/**
+		 * Callback method to be invoked when a child in this expandable list has been clicked.
+		 *
+		 * @param parent        The ExpandableRecyclerView where the click happened
+		 * @param v             The view within the expandable list that was clicked
+		 * @param groupPosition The group position that contains the child that was clicked
+		 * @param childPosition The child position within the group
+		 * @param id            The row id of the child that was clicked
+		 * @return True if the click was handled
+		 */
+		boolean onChildClick(ExpandableRecyclerView parent, View v, int groupPosition, int childPosition, long id);
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when a group or a child has been long pressed.
+	 */
+	public interface OnItemLongClickListener {
+		/**
+		 * @param parent        The ExpandableRecyclerView where the long press happened
+		 * @param v             The view within the expandable list that was long pressed
+		 * @param groupPosition The group position of the item
+		 * @param childPosition The child position within the group, {@link #NO_POSITION} for a group
+		 * @return True if the long press was handled
+		 */
+		boolean onItemLongClick(ExpandableRecyclerView parent, View v, int groupPosition, int childPosition);
+	}
+
 	/**
 	 * A ViewHolder describes an item view and metadata about its place within the ExpandableRecyclerView.
 	 *
@@ -75,20 +137,35 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	 */
 	public static class ExpandableViewHolder extends ViewHolder implements OnClickListener {
 		private ExpandHandler expandHandler;
-		private boolean expanded;
+		boolean expanded;
 		boolean isSelected;
+		/** stable ID of the child displayed and measured by this holder, see {@link ChildMeasureCache} */
+		long measuredChildId = NO_ID;
+		/** the child being bound is the one measured by this holder, see {@link #isMeasureCached()} */
+		boolean measureCached;
+		/** displayed group of the row when it was last bound, kept while the row disappears, see {@link ExpandableItemDecoration} */
+		int boundGroup = RecyclerView.NO_POSITION;
+		/** the row was last bound as a child of {@link #boundGroup} */
+		boolean boundChild;
 
 		public ExpandableViewHolder(@NonNull View itemView) {
 			super(itemView);
-			itemView.setOnClickListener(this);
 		}
 
+		/**
+		 * Set the handler of the clicks on the {@link #itemView}, used outside of an {@code ExpandableRecyclerView}
+		 * that dispatches the clicks of all its rows itself.
+		 */
 		void setExpandHandler(ExpandHandler expandHandler) {
+			if (null != expandHandler && null == this.expandHandler) {
+				itemView.setOnClickListener(this);
+			}
 			this.expandHandler = expandHandler;
 		}
 
 		/**
 		 * Handle the click on the View. By default doesn't do anything.
+		 * <p>In an {@code ExpandableRecyclerView} it's called for the clicks on the {@link #itemView} of groups and children.</p>
 		 *
 		 * @return {@code true} if the click has been handled.
 		 */
@@ -104,6 +181,17 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		protected void onExpandedChanged() {
 		}
 
+		/**
+		 * Indicates, while a child is bound, whether the View already displayed and measured this child at the current
+		 * width and the child didn't change since. The Views can then update their content without requesting a new
+		 * layout, as their size stays the same.
+		 *
+		 * @see ExpandableRecyclerView#setChildMeasureCacheSize(int)
+		 */
+		public final boolean isMeasureCached() {
+			return measureCached;
+		}
+
 		/**
 		 * Indicates whether the ViewHolder is expanded or not.
 		 *
@@ -142,7 +230,7 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		}
 	}
 
-	private static interface ExpandHandler {
+	static interface ExpandHandler {
 		void onViewExpand(ExpandableViewHolder holder);
 	}
 
@@ -172,6 +260,20 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 
 			public LongParcelable(long value) {this.value = value;}
 
+			public long getValue() {
+				return value;
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				return o instanceof LongParcelable && ((LongParcelable) o).value == value;
+			}
+
+			@Override
+			public int hashCode() {
+				return (int) (value ^ (value >>> 32));
+			}
+
 			private LongParcelable(Parcel in) {
 				this.value = in.readLong();
 			}
@@ -275,6 +377,7 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		 * of view recycling.
 		 * <p/>
 		 * <p>Unlike ListView adapters, types need not be contiguous. Consider using id resources to uniquely identify item view types.
+		 * The group types never collide with the child types, they may be negative.
 		 *
 		 * @param groupPosition position to query
 		 * @return integer value identifying the type of the view needed to represent the item at
@@ -289,6 +392,7 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		 * of view recycling.
 		 * <p/>
 		 * <p>Unlike ListView adapters, types need not be contiguous. Consider using id resources to uniquely identify item view types.
+		 * The child types never collide with the group types, they may be negative.
 		 *
 		 * @param groupPosition position to query
 		 * @return integer value identifying the type of the view needed to represent the item at
@@ -296,6 +400,16 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		 */
 		protected abstract int getChildViewType(int groupPosition, int childPosition);
 
+		/**
+		 * Get the number of spans used by a child with a {@link android.support.v7.widget.GridLayoutManager GridLayoutManager},
+		 * the groups always use the {@code spanCount} spans. Returns {@code 1} by default.
+		 *
+		 * @see ExpandableSpanSizeLookup
+		 */
+		protected int getChildSpanSize(int groupPosition, int childPosition, int spanCount) {
+			return 1;
+		}
+
 		/**
 		 * Similar to {@link android.widget.ExpandableListAdapter#getGroup(int)}.
 		 * @param groupPosition
@@ -303,14 +417,53 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		 */
 		public abstract T getGroup(int groupPosition);
 
-		private int expandedPosition = RecyclerView.NO_POSITION;
-		private int expandedChildCount;
+		/** the expanded groups by displayed position, with their number of displayed children */
+		private final ExpandedGroupIndex expandedGroups = new ExpandedGroupIndex();
+		/** incremented when displayed groups are inserted, removed or moved */
+		private int displayedGroupsVersion;
+		private ViewTypeRegistry viewTypes = new ViewTypeRegistry();
+		private PreInflater preInflater;
+		private TwoPhaseBinder twoPhaseBinder;
+		private NestedChildLists nestedChildLists;
 
 		private boolean useLegacyStableIds;
-		private Parcelable expandedStableId;
+		/** positions of the dismissed groups and children that can be restored, {@link #NO_POSITION} as child for a group */
+		private int[] dismissedGroups = new int[4];
+		private int[] dismissedChildren = new int[4];
+		private int dismissedCount;
 
 		@Override
-		public final long getItemId(int groupPosition) {
+		public final long getItemId(int position) {
+			final int groupPosition = getSourceGroup(getFlatGroup(position));
+			final long groupId = getGroupItemId(groupPosition);
+			if (groupId == NO_ID)
+				return NO_ID;
+			final int childPosition = getFlatChild(position);
+			if (childPosition == RecyclerView.NO_POSITION)
+				return groupId;
+			final long childId = getChildId(groupPosition, getSourceChild(getFlatGroup(position), childPosition));
+			return childId == NO_ID ? NO_ID : getChildItemId(groupId, childId);
+		}
+
+		/**
+		 * Mix the stable ID of a group and the ID of one of its children into the stable ID of the child row.
+		 * All the bits of both IDs are used, unlike {@link ExpandableListView#getCombinedChildId(long, long)}.
+		 */
+		static long getChildItemId(long groupId, long childId) {
+			long id = (groupId ^ (groupId >>> 29)) * 0x9E3779B97F4A7C15L + childId;
+			id = (id ^ (id >>> 31)) * 0xBF58476D1CE4E5B9L;
+			id ^= id >>> 29;
+			return id == NO_ID ? 0 : id;
+		}
+
+		/**
+		 * Get the stable ID of the group at the data position {@code groupPosition} depending on the {@link #setStableIdsMode(int) stable IDs mode}.
+		 */
+		long getGroupItemId(int groupPosition) {
+			if (!hasStableIds())
+				return NO_ID;
+			if (useLegacyStableIds)
+				return getGroupId(groupPosition);
 			Parcelable stableId = getGroupStableId(groupPosition);
 			if (null==stableId)
 				return NO_ID;
@@ -320,36 +473,274 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		@Override
 		public final VH onCreateViewHolder(ViewGroup parent, int viewType) {
 			if (DEBUG) Log.d(LOG_TAG,  this+" onCreateViewHolder(type="+viewType+')');
-			VH result = onCreateExpandableViewHolder(parent, viewType);
+			final int userType = viewTypes.getUserType(viewType);
+			final int kind = viewTypes.getKind(viewType);
+			VH result = null;
+			if (null != preInflater) {
+				View itemView = preInflater.take(kind, userType);
+				if (null != itemView) {
+					result = onCreatePreInflatedViewHolder(itemView, kind == ViewTypeRegistry.KIND_CHILD, userType);
+					preInflater.onViewTaken(null != result);
+				}
+			}
+			if (null == result) {
+				if (kind == ViewTypeRegistry.KIND_CHILD)
+					result = onCreateChildViewHolder(parent, userType);
+				else
+					result = onCreateGroupViewHolder(parent, userType);
+			}
 			return result;
 		}
 
+		/**
+		 * Create a ViewHolder for a View inflated in advance by the {@link PreInflater} set with {@link #setPreInflater(PreInflater)}.
+		 * Returns {@code null} by default, the ViewHolder is then created as if no View was ready.
+		 *
+		 * @param itemView the View inflated from the layout declared for the view type
+		 * @param isChild  whether the View is for a child or a group
+		 * @param viewType the view type returned by {@link #getGroupViewType(int)} or {@link #getChildViewType(int, int)}
+		 */
+		@Nullable
+		protected VH onCreatePreInflatedViewHolder(@NonNull View itemView, boolean isChild, int viewType) {
+			return null;
+		}
+
+		/**
+		 * Use Views inflated in the background by {@code preInflater} to create the ViewHolders when they are ready.
+		 */
+		public void setPreInflater(@Nullable PreInflater preInflater) {
+			this.preInflater = preInflater;
+		}
+
+		@Nullable
+		public PreInflater getPreInflater() {
+			return preInflater;
+		}
+
+		/**
+		 * Handle the nested lists of the children bound to a {@link NestedListViewHolder}: they share a pool of items,
+		 * keep their scroll position by stable ID of the child and their items are created when the group is expanded.
+		 * <p>The scroll positions need stable IDs for the groups and the children.</p>
+		 */
+		public void setNestedChildLists(@Nullable NestedChildLists nestedChildLists) {
+			this.nestedChildLists = nestedChildLists;
+		}
+
+		@Nullable
+		public NestedChildLists getNestedChildLists() {
+			return nestedChildLists;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>Subclasses overriding this method must call the super implementation.</p>
+		 */
 		@Override
-		public final void onBindViewHolder(VH holder, int groupPosition) {
-			if (DEBUG) Log.d(LOG_TAG,  this+" onBindViewHolder(pos="+groupPosition+") expanded="+expandedPosition+" count="+expandedChildCount);
+		public void onViewRecycled(VH holder) {
+			if (null != nestedChildLists && holder instanceof NestedListViewHolder) {
+				nestedChildLists.onRecycled((NestedListViewHolder) holder);
+			}
+			super.onViewRecycled(holder);
+		}
+
+		/**
+		 * Create a ViewHolder for a group View of the type returned by {@link #getGroupViewType(int)}.
+		 * Calls {@link #onCreateExpandableViewHolder(android.view.ViewGroup, int)} by default.
+		 */
+		protected VH onCreateGroupViewHolder(ViewGroup parent, int viewType) {
+			return onCreateExpandableViewHolder(parent, viewType);
+		}
 
-			holder.setExpandHandler(this);
+		/**
+		 * Create a ViewHolder for a child View of the type returned by {@link #getChildViewType(int, int)}.
+		 * Calls {@link #onCreateExpandableViewHolder(android.view.ViewGroup, int)} by default.
+		 */
+		protected VH onCreateChildViewHolder(ViewGroup parent, int viewType) {
+			return onCreateExpandableViewHolder(parent, viewType);
+		}
 
-			if (expandedPosition == RecyclerView.NO_POSITION || groupPosition <= expandedPosition) {
-				holder.isSelected = groupPosition == recyclerView.selectedGroup;
-				onBindGroupView(holder, groupPosition);
-				setExpandedViewHolder(holder, groupPosition == expandedPosition, true);
-			} else if (groupPosition <= expandedPosition + expandedChildCount) {
-				holder.isSelected = expandedPosition == recyclerView.selectedGroup;
+		/**
+		 * Get the registry mapping the group and child view types to the view types used by the {@code RecyclerView},
+		 * for example to size its {@link android.support.v7.widget.RecyclerView.RecycledViewPool RecycledViewPool}.
+		 */
+		public ViewTypeRegistry getViewTypeRegistry() {
+			return viewTypes;
+		}
+
+		/**
+		 * Use the view types of a shared pool, the adapter must not be attached to a {@code RecyclerView}.
+		 *
+		 * @return {@code true} if the registry changed.
+		 */
+		boolean setViewTypeRegistry(@NonNull ViewTypeRegistry viewTypes) {
+			if (this.viewTypes == viewTypes)
+				return false;
+			this.viewTypes = viewTypes;
+			return true;
+		}
+
+		@Override
+		public final void onBindViewHolder(VH holder, int groupPosition) {
+			if (DEBUG) Log.d(LOG_TAG,  this+" onBindViewHolder(pos="+groupPosition+") expanded="+expandedGroups);
+
+			RecyclerViewWithHeader.setFullSpan(recyclerView, holder, getFlatChild(groupPosition) == RecyclerView.NO_POSITION);
+
+			final boolean wasSelected = holder.isSelected;
+			final long measuredChildId = holder.measuredChildId;
+			holder.measuredChildId = NO_ID;
+			final int displayedGroup = getFlatGroup(groupPosition);
+			final int childPosition = getFlatChild(groupPosition);
+			holder.isSelected = displayedGroup == recyclerView.selectedGroup;
+			holder.boundGroup = displayedGroup;
+			holder.boundChild = childPosition != RecyclerView.NO_POSITION;
+			if (childPosition == RecyclerView.NO_POSITION) {
+				bindGroup(holder, getSourceGroup(displayedGroup));
+				setExpandedViewHolder(holder, expandedGroups.isExpanded(displayedGroup), true);
+			} else {
+				final ChildMeasureCache measureCache = recyclerView.childMeasureCache;
+				if (null != measureCache && wasSelected == holder.isSelected) {
+					holder.measuredChildId = measuredChildId;
+					// the View already displays this child, its bind doesn't need a new measure
+					holder.measureCached = measureCache.isMeasured(holder, getItemId(groupPosition));
+					if (!holder.measureCached)
+						holder.measuredChildId = NO_ID;
+				}
 				if (!BuildConfig.DEBUG) {
 					try {
-						onBindChildView(holder, expandedPosition, groupPosition - expandedPosition - 1);
+						bindChild(holder, getSourceGroup(displayedGroup), getSourceChild(displayedGroup, childPosition));
 					} catch (ClassCastException e) {
-						Log.e(LOG_TAG, this + " failed onBindViewHolder(pos=" + groupPosition + ") expanded=" + expandedPosition + " count=" + expandedChildCount, e);
+						Log.e(LOG_TAG, this + " failed onBindViewHolder(pos=" + groupPosition + ") expanded=" + expandedGroups, e);
 					}
 				} else {
-					onBindChildView(holder, expandedPosition, groupPosition - expandedPosition - 1);
+					bindChild(holder, getSourceGroup(displayedGroup), getSourceChild(displayedGroup, childPosition));
 				}
-			} else {
-				holder.isSelected = groupPosition == recyclerView.selectedGroup;
-				onBindGroupView(holder, groupPosition - expandedChildCount);
-				setExpandedViewHolder(holder, false, true);
+				if (null != nestedChildLists && holder instanceof NestedListViewHolder) {
+					nestedChildLists.onBind((NestedListViewHolder) holder, getItemId(groupPosition));
+				}
+				holder.measureCached = false;
+			}
+
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onBound(groupPosition);
+			}
+		}
+
+		private void bindGroup(VH holder, int groupPosition) {
+			final Object model = null == twoPhaseBinder ? null : twoPhaseBinder.getGroupModel(groupPosition);
+			if (null == model)
+				onBindGroupView(holder, groupPosition);
+			else
+				onBindGroupModel(holder, groupPosition, model);
+		}
+
+		private void bindChild(VH holder, int groupPosition, int childPosition) {
+			final Object model = null == twoPhaseBinder ? null : twoPhaseBinder.getChildModel(groupPosition, childPosition);
+			if (null == model)
+				onBindChildView(holder, groupPosition, childPosition);
+			else
+				onBindChildModel(holder, groupPosition, childPosition, model);
+		}
+
+		/**
+		 * Cancellation of the prefetch requested with {@link #onPrefetchGroups(int, int, PrefetchSignal)} and
+		 * {@link #onPrefetchChildren(int, int, int, PrefetchSignal)}.
+		 */
+		public static final class PrefetchSignal {
+			private volatile boolean cancelled;
+
+			PrefetchSignal() {
+			}
+
+			/**
+			 * @return whether the rows are not needed soon anymore, because the scroll changed direction or the data changed.
+			 */
+			public boolean isCancelled() {
+				return cancelled;
+			}
+
+			void cancel() {
+				cancelled = true;
+			}
+		}
+
+		/**
+		 * Called on a background thread with the groups in [{@code fromGroupPosition}, {@code toGroupPosition}) that are about to be
+		 * displayed in the direction of the scroll, to load their data in advance. Does nothing by default.
+		 *
+		 * @param signal tells when the prefetch should stop because the rows are not needed soon anymore
+		 * @see ExpandableRecyclerView#setPrefetchDistance(int)
+		 */
+		@WorkerThread
+		protected void onPrefetchGroups(int fromGroupPosition, int toGroupPosition, @NonNull PrefetchSignal signal) {
+		}
+
+		/**
+		 * Called on a background thread with the children in [{@code fromChildPosition}, {@code toChildPosition}) of the expanded
+		 * group at {@code groupPosition} that are about to be displayed in the direction of the scroll. Does nothing by default.
+		 *
+		 * @param signal tells when the prefetch should stop because the rows are not needed soon anymore
+		 * @see ExpandableRecyclerView#setPrefetchDistance(int)
+		 */
+		@WorkerThread
+		protected void onPrefetchChildren(int groupPosition, int fromChildPosition, int toChildPosition, @NonNull PrefetchSignal signal) {
+		}
+
+		/**
+		 * Bind in two phases: the models of the rows about to be displayed are prepared on a background thread with
+		 * {@link #prepareGroup(int)} and {@link #prepareChild(int, int)}, then applied on the main thread with
+		 * {@link #onBindGroupModel(ExpandableViewHolder, int, Object)} and {@link #onBindChildModel(ExpandableViewHolder, int, int, Object)}.
+		 * <p>The models are cached by stable ID, rows without a stable ID are prepared on the main thread when bound.
+		 * The cached models are dropped by {@link #notifyGroupChanged(int)} and {@link #notifyDataChanged()}.</p>
+		 *
+		 * @param maxModels the number of models kept in the cache, 0 to bind in one phase with {@link #onBindGroupView(ExpandableViewHolder, int)}
+		 *                  and {@link #onBindChildView(ExpandableViewHolder, int, int)}
+		 * @param executor  the {@link Executor} preparing the models, a shared background thread if {@code null}
+		 */
+		public void setTwoPhaseBind(int maxModels, @Nullable Executor executor) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.invalidateAll();
 			}
+			twoPhaseBinder = maxModels <= 0 ? null : new TwoPhaseBinder(this, maxModels, null != executor ? executor : BackgroundExecutor.get());
+		}
+
+		/**
+		 * Build the immutable model applied by {@link #onBindGroupModel(ExpandableViewHolder, int, Object)} for the group at {@code groupPosition}.
+		 * <p>Called on a background thread when two-phase bind is enabled with {@link #setTwoPhaseBind(int, Executor)}, the data
+		 * it reads must be safe to read from any thread.</p>
+		 *
+		 * @return the model or {@code null} to bind with {@link #onBindGroupView(ExpandableViewHolder, int)}.
+		 */
+		@WorkerThread
+		@Nullable
+		protected Object prepareGroup(int groupPosition) {
+			return null;
+		}
+
+		/**
+		 * Build the immutable model applied by {@link #onBindChildModel(ExpandableViewHolder, int, int, Object)} for a child.
+		 * <p>Called on a background thread when two-phase bind is enabled with {@link #setTwoPhaseBind(int, Executor)}, the data
+		 * it reads must be safe to read from any thread.</p>
+		 *
+		 * @return the model or {@code null} to bind with {@link #onBindChildView(ExpandableViewHolder, int, int)}.
+		 */
+		@WorkerThread
+		@Nullable
+		protected Object prepareChild(int groupPosition, int childPosition) {
+			return null;
+		}
+
+		/**
+		 * Apply the {@code model} built by {@link #prepareGroup(int)} to a group View. Calls {@link #onBindGroupView(ExpandableViewHolder, int)} by default.
+		 */
+		protected void onBindGroupModel(VH holder, int groupPosition, @NonNull Object model) {
+			onBindGroupView(holder, groupPosition);
+		}
+
+		/**
+		 * Apply the {@code model} built by {@link #prepareChild(int, int)} to a child View. Calls {@link #onBindChildView(ExpandableViewHolder, int, int)} by default.
+		 */
+		protected void onBindChildModel(VH holder, int groupPosition, int childPosition, @NonNull Object model) {
+			onBindChildView(holder, groupPosition, childPosition);
 		}
 
 		private void setExpandedViewHolder(@NonNull ExpandableViewHolder expandedViewHolder, boolean isExpanded, boolean forceUpdate) {
@@ -411,6 +802,15 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 			return NO_ID;
 		}
 
+		/**
+		 * Similar to {@link android.widget.ExpandableListAdapter#getChildId(int, int) ExpandableListAdapter.getChildId()}, the ID
+		 * of the child unique in its group. Used for the stable IDs of the children and the models of {@link #setTwoPhaseBind(int, Executor)}.
+		 * Returns {@link #NO_ID} by default.
+		 */
+		protected long getChildId(int groupPosition, int childPosition) {
+			return NO_ID;
+		}
+
 		/**
 		 * Get the stable ID at group position so the position can be recovered properly. Returns {@code null} by default.
 		 * <p>Used when {@link #STABLE_IDS_PARCELABLE} is set on {@link #setStableIdsMode(int)}.</p>
@@ -427,62 +827,163 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 			return NO_POSITION;
 		}
 
+		/**
+		 * Get the stable ID of the group at the data position {@code groupPosition} in the current stable IDs mode,
+		 * a {@link LongParcelable} for {@link #STABLE_IDS_LONG}, {@code null} if there's none.
+		 */
+		Parcelable getStableId(int groupPosition) {
+			if (!hasStableIds())
+				return null;
+			if (!useLegacyStableIds)
+				return getGroupStableId(groupPosition);
+			final long groupId = getGroupId(groupPosition);
+			return groupId == NO_ID ? null : new LongParcelable(groupId);
+		}
+
+		/**
+		 * Get the data position of the group with the stable ID {@code stableId} returned by {@link #getStableId(int)}.
+		 * <p>With {@link #STABLE_IDS_LONG} the groups are searched, it should only be used to restore a saved state.</p>
+		 */
+		int getStableIdPosition(Parcelable stableId) {
+			if (null == stableId || !hasStableIds())
+				return NO_POSITION;
+			if (!useLegacyStableIds)
+				return getGroupStableIdPosition(stableId);
+			if (!(stableId instanceof LongParcelable))
+				return NO_POSITION;
+			final long groupId = ((LongParcelable) stableId).getValue();
+			for (int i = 0, count = getGroupCount(); i < count; ++i) {
+				if (getGroupId(i) == groupId)
+					return i;
+			}
+			return NO_POSITION;
+		}
+
 		@Override
 		public final int getItemCount() {
-			return getGroupCount() + (expandedPosition != RecyclerView.NO_POSITION ? expandedChildCount : 0);
+			return getDisplayedGroupCount() + expandedGroups.getTotalChildCount();
 		}
 
 		@Override
 		public final int getItemViewType(int groupPosition) {
 			final int viewType;
-			if (expandedPosition == RecyclerView.NO_POSITION || groupPosition <= expandedPosition) {
-				viewType = getGroupViewType(groupPosition);
-				if (viewType < 0) {
-					throw new IllegalStateException("invalid viewType "+viewType+" for position "+groupPosition+" expandedPosition="+expandedPosition+" expandedChildCount="+expandedChildCount);
-				}
-			} else if (groupPosition - expandedPosition <= expandedChildCount) {
-				viewType = getChildViewType(expandedPosition, groupPosition - expandedPosition - 1);
-				if (viewType < 0) {
-					throw new IllegalStateException("invalid viewType "+viewType+" for position "+groupPosition+" expandedPosition="+expandedPosition+" expandedChildCount="+expandedChildCount);
-				}
+			final int displayedGroup = getFlatGroup(groupPosition);
+			final int childPosition = getFlatChild(groupPosition);
+			if (childPosition == RecyclerView.NO_POSITION) {
+				viewType = viewTypes.getViewType(ViewTypeRegistry.KIND_GROUP, getGroupViewType(getSourceGroup(displayedGroup)));
 			} else {
-				viewType = getGroupViewType(groupPosition - expandedChildCount);
-				if (viewType < 0) {
-					throw new IllegalStateException("invalid viewType "+viewType+" for position "+groupPosition+" expandedPosition="+expandedPosition+" expandedChildCount="+expandedChildCount);
-				}
+				viewType = viewTypes.getViewType(ViewTypeRegistry.KIND_CHILD, getChildViewType(getSourceGroup(displayedGroup), getSourceChild(displayedGroup, childPosition)));
 			}
 			if (DEBUG) Log.v(LOG_TAG,  this+" getItemViewType("+groupPosition+") ="+viewType);
 
 			return viewType;
 		}
 
-		protected boolean setExpandedPosition(int expandedGroupPosition) {
-			if (expandedGroupPosition >= getGroupCount()) {
-				if (DEBUG) Log.d(LOG_TAG,  ExpandableAdapter.this + " the expanded position is not valid anymore expandedPosition=" + expandedGroupPosition + " groupCount=" + getGroupCount());
-				expandedGroupPosition = RecyclerView.NO_POSITION;
-			}
-
-			if (this.expandedPosition != expandedGroupPosition) {
-				if (DEBUG) Log.d(LOG_TAG,  this+" setExpandedPosition "+expandedGroupPosition+" from "+expandedGroupPosition+" recyclerView="+recyclerView);
-				this.expandedPosition = expandedGroupPosition;
-				this.expandedStableId = null;
-				if (expandedGroupPosition != RecyclerView.NO_POSITION) {
-					this.expandedChildCount = getChildrenCount(expandedGroupPosition);
-					if (hasStableIds()) {
-						if (useLegacyStableIds) {
-							long expandedId = getGroupId(expandedGroupPosition);
-							if (expandedId != NO_ID)
-								this.expandedStableId = new LongParcelable(expandedId);
-						} else
-							this.expandedStableId = getGroupStableId(expandedGroupPosition);
-					}
-				} else {
-					this.expandedChildCount = 0;
-				}
+		/**
+		 * Mark the displayed group at {@code groupPosition} as expanded or collapsed, the change is not notified.
+		 * <p>Subclasses can override it to prepare the children of a group before they are counted, they must call
+		 * the super implementation.</p>
+		 *
+		 * @return {@code true} if the group was not already in that state.
+		 */
+		protected boolean setGroupExpanded(int groupPosition, boolean expanded) {
+			final int index = expandedGroups.indexOf(groupPosition);
+			if (expanded == index >= 0)
+				return false;
+			if (!expanded) {
+				if (DEBUG) Log.d(LOG_TAG,  this+" collapse "+groupPosition+" expanded="+expandedGroups);
+				expandedGroups.remove(index);
+				return true;
+			}
+			if (groupPosition < 0 || groupPosition >= getDisplayedGroupCount()) {
+				if (DEBUG) Log.d(LOG_TAG,  ExpandableAdapter.this + " the expanded group is not valid anymore groupPosition=" + groupPosition + " groupCount=" + getDisplayedGroupCount());
+				return false;
+			}
+			if (DEBUG) Log.d(LOG_TAG,  this+" expand "+groupPosition+" expanded="+expandedGroups+" recyclerView="+recyclerView);
+			final int sourceGroup = getSourceGroup(groupPosition);
+			expandedGroups.add(groupPosition, getDisplayedChildrenCount(groupPosition), getStableId(sourceGroup));
+			return true;
+		}
 
+		/**
+		 * Mark all the displayed groups as expanded or collapsed in O(n), the change is not notified.
+		 * <p>Subclasses overriding {@link #setGroupExpanded(int, boolean)} must override it too, they must call the
+		 * super implementation.</p>
+		 *
+		 * @return {@code true} if a group was not already in that state.
+		 */
+		protected boolean setAllGroupsExpanded(boolean expanded) {
+			if (!expanded) {
+				if (expandedGroups.size() == 0)
+					return false;
+				if (DEBUG) Log.d(LOG_TAG,  this+" collapse all expanded="+expandedGroups);
+				expandedGroups.clear();
 				return true;
 			}
-			return false;
+			final int groupCount = getDisplayedGroupCount();
+			if (expandedGroups.size() == groupCount)
+				return false;
+			if (DEBUG) Log.d(LOG_TAG,  this+" expand all groupCount="+groupCount+" expanded="+expandedGroups.size());
+			final int[] childCounts = new int[groupCount];
+			final Parcelable[] stableIds = new Parcelable[groupCount];
+			for (int i = 0; i < groupCount; ++i) {
+				childCounts[i] = getDisplayedChildrenCount(i);
+				stableIds[i] = getStableId(getSourceGroup(i));
+			}
+			expandedGroups.expandAll(groupCount, childCounts, stableIds);
+			return true;
+		}
+
+		/**
+		 * Whether the displayed group at {@code groupPosition} is expanded.
+		 */
+		boolean isGroupExpanded(int groupPosition) {
+			return expandedGroups.isExpanded(groupPosition);
+		}
+
+		/**
+		 * Get the expanded groups by displayed position, with their number of displayed children.
+		 */
+		ExpandedGroupIndex getExpandedGroups() {
+			return expandedGroups;
+		}
+
+		/**
+		 * Find the expanded groups again after the data changed, by stable ID when possible, and count their children again.
+		 */
+		private void refreshExpandedGroups() {
+			final int groupCount = getDisplayedGroupCount();
+			final int[] positions = new int[expandedGroups.size()];
+			for (int i = positions.length - 1; i >= 0; --i) {
+				positions[i] = expandedGroups.getGroup(i);
+				final Parcelable stableId = expandedGroups.getStableId(i);
+				if (null != stableId && !useLegacyStableIds) {
+					// recover the position of the old expanded element (depends on stable IDs)
+					if (DEBUG) Log.i(LOG_TAG,  this+" notifyDataChanged recovering expanded position for "+stableId);
+					positions[i] = getDisplayedGroup(getGroupStableIdPosition(stableId));
+				}
+				if (positions[i] == RecyclerView.NO_POSITION || positions[i] >= groupCount) {
+					// collapsed while the groups are still sorted
+					setGroupExpanded(expandedGroups.getGroup(i), false);
+					positions[i] = RecyclerView.NO_POSITION;
+				}
+			}
+			boolean moved = false;
+			for (int i = 0, index = 0; i < positions.length; ++i) {
+				if (positions[i] == RecyclerView.NO_POSITION)
+					continue;
+				if (positions[i] != expandedGroups.getGroup(index)) {
+					expandedGroups.setGroup(index, positions[i]);
+					moved = true;
+				}
+				++index;
+			}
+			if (moved) {
+				expandedGroups.sort();
+			}
+			for (int i = 0; i < expandedGroups.size(); ++i) {
+				expandedGroups.setChildCount(i, getDisplayedChildrenCount(expandedGroups.getGroup(i)));
+			}
 		}
 
 		private int getHolderGroupPosition(ExpandableViewHolder holder, boolean strict) {
@@ -490,33 +991,36 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 			if (holderGroupPosition != RecyclerView.NO_POSITION) {
 				holderGroupPosition -= getHeaderViewsCount();
 
-				if (expandedPosition != RecyclerView.NO_POSITION) {
-					if (holderGroupPosition <= expandedPosition) {
-						// do nothing
-					} else if (holderGroupPosition < expandedPosition + expandedChildCount) {
-						// this is a child view
-						if (strict) {
-							throw new IndexOutOfBoundsException("expand an invalid ViewHolder holderPosition=" + holderGroupPosition + " expanded=" + expandedPosition + " count=" + expandedChildCount+" holder="+holder);
-						}
-					} else {
-						holderGroupPosition -= expandedChildCount;
-					}
+				if (strict && getFlatChild(holderGroupPosition) != RecyclerView.NO_POSITION) {
+					// this is a child view
+					throw new IndexOutOfBoundsException("expand an invalid ViewHolder holderPosition=" + holderGroupPosition + " expanded=" + expandedGroups + " holder="+holder);
 				}
+				holderGroupPosition = getFlatGroup(holderGroupPosition);
 			}
 			return holderGroupPosition;
 		}
 
 		@Override
 		public final void onViewExpand(ExpandableViewHolder holder) {
+			if (null == recyclerView)
+				return;
 			int holderGroupPosition = getHolderGroupPosition(holder, true);
 			if (DEBUG) Log.w(LOG_TAG,  this+" onViewExpand groupPos="+holderGroupPosition+" holder="+holder+" recyclerView="+recyclerView);
 			if (null!=recyclerView.onGroupClickListener && recyclerView.onGroupClickListener.onGroupClick(recyclerView, holder.itemView, holderGroupPosition, 0))
 				return; // tap already handled
 
-			if (holderGroupPosition == expandedPosition) {
-				recyclerView.expandAndCollapse(RecyclerView.NO_POSITION, expandedPosition);
+			toggleGroup(holderGroupPosition);
+		}
+
+		/**
+		 * Expand the displayed group at {@code groupPosition} or collapse it if it's expanded.
+		 */
+		void toggleGroup(int groupPosition) {
+			if (DEBUG) Log.w(LOG_TAG,  this+" toggleGroup groupPos="+groupPosition+" recyclerView="+recyclerView);
+			if (expandedGroups.isExpanded(groupPosition)) {
+				recyclerView.expandAndCollapse(RecyclerView.NO_POSITION, groupPosition);
 			} else {
-				recyclerView.expandAndCollapse(holderGroupPosition, expandedPosition);
+				recyclerView.expandAndCollapse(groupPosition, RecyclerView.NO_POSITION);
 			}
 		}
 
@@ -525,39 +1029,48 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 			this.recyclerView = recyclerView;
 		}
 
-		@Override
-		public void onViewRecycled(VH holder) {
-			super.onViewRecycled(holder);
-			holder.setExpandHandler(null);
-		}
-
 		/**
 		 * Same as {@link #notifyDataSetChanged()} but overridable.
+		 * <p>The filter and comparators set on the adapter are evaluated again.</p>
 		 */
 		public void notifyDataChanged() {
 			if (DEBUG) Log.i(LOG_TAG,  this+" notifyDataChanged recyclerView="+recyclerView);
 			if (null != recyclerView) {
 				recyclerView.stopScroll();
+				recyclerView.flushPendingRemovals();
+			}
+			dismissedCount = 0;
+			if (null != recyclerView) {
+				recyclerView.cancelPrefetch();
+			}
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.invalidateAll();
+			}
+
+			if (null != filteredGroups) {
+				// keep the filtered groups that still exist until the filter is evaluated again
+				dropInvalidFilteredGroups();
 			}
 
 			notifyDataSetChanged();
 
-			if (expandedStableId != null) {
-				// recover the position of the old expanded element (depends on stable IDs)
-				if (!useLegacyStableIds) {
-					if (DEBUG) Log.i(LOG_TAG,  this+" notifyDataChanged recovering expanded position for "+expandedStableId);
-					setExpandedPosition(getGroupStableIdPosition(expandedStableId));
-				}
-			} else {
-				setExpandedPosition(expandedPosition);
-			}
+			refreshExpandedGroups();
 
 			if (null != recyclerView && recyclerView.selectedStableId != null) {
 				if (!useLegacyStableIds) {
-					if (DEBUG) Log.i(LOG_TAG,  this+" notifyDataChanged recovering selected position for "+expandedStableId);
-					recyclerView.selectedGroup = getGroupStableIdPosition(recyclerView.selectedStableId);
+					if (DEBUG) Log.i(LOG_TAG,  this+" notifyDataChanged recovering selected position for "+recyclerView.selectedStableId);
+					recyclerView.selectedGroup = getDisplayedGroup(getGroupStableIdPosition(recyclerView.selectedStableId));
 				}
 			}
+
+			if (null != filteredGroups) {
+				refreshDisplayedGroups();
+			}
+
+			if (null != recyclerView) {
+				// the data of a restored state may only be available now
+				recyclerView.restorePendingState();
+			}
 		}
 
 		private int getHeaderViewsCount() {
@@ -566,98 +1079,1419 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 
 		/**
 		 * Notifies the item at group position changed and the display should be updated.
+		 * <p>When a filter is set the filter is not evaluated again for this group, call {@link #setGroupFilter(GroupFilter)} if needed.</p>
 		 */
 		public void notifyGroupChanged(int groupPosition) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.invalidateGroup(groupPosition);
+			}
+			if (null != recyclerView && null != recyclerView.childMeasureCache) {
+				recyclerView.childMeasureCache.removeGroup(getGroupItemId(groupPosition));
+			}
 			if (null==recyclerView)
 				return;
 
-			final int modifiedStart;
-			final int itemChangedCount;
-			if (expandedPosition == RecyclerView.NO_POSITION || groupPosition < expandedPosition) {
-				// the modified item is before the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition;
-			} else if (groupPosition == expandedPosition) {
-				// the modified item is the expanded item
-				itemChangedCount = expandedChildCount + 1;
-				modifiedStart = groupPosition;
-			} else {
-				// the modified item is after the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition + expandedChildCount;
+			int displayedPosition = getDisplayedGroup(groupPosition);
+			if (displayedPosition != RecyclerView.NO_POSITION) {
+				notifyDisplayedGroupChanged(displayedPosition);
 			}
-			if (DEBUG) Log.d(LOG_TAG,  this+" notifyGroupChanged("+groupPosition+") start="+modifiedStart+" count="+itemChangedCount+" expanded="+expandedPosition+" headerCount="+getHeaderViewsCount());
+		}
+
+		void notifyDisplayedGroupChanged(int groupPosition) {
+			if (null==recyclerView)
+				return;
+
+			// an expanded group changes with its children
+			final int modifiedStart = getGroupFlatPosition(groupPosition);
+			final int itemChangedCount = expandedGroups.getGroupChildCount(groupPosition) + 1;
+			if (DEBUG) Log.d(LOG_TAG,  this+" notifyGroupChanged("+groupPosition+") start="+modifiedStart+" count="+itemChangedCount+" expanded="+expandedGroups+" headerCount="+getHeaderViewsCount());
 			recyclerView.changeRange(modifiedStart, itemChangedCount);
 		}
 
 		/**
 		 * Notifies an item has been inserted at group position. The item insertion will be animated.
+		 * <p>When a filter is set the inserted group is displayed once the filter has been evaluated again.</p>
 		 */
 		public void notifyGroupInserted(int groupPosition) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onPositionsChanged();
+			}
+			if (null != filteredGroups) {
+				shiftFilteredGroups(groupPosition, 1);
+				startDisplayQuery();
+				return;
+			}
+
 			if (null==recyclerView)
 				return;
 
-			final int modifiedStart;
-			final int itemChangedCount;
-			if (expandedPosition == RecyclerView.NO_POSITION) {
-				// the inserted item is before the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition;
-			} else if (groupPosition < expandedPosition) {
-				// the inserted item is before the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition;
-				setExpandedPosition(expandedPosition + 1);
-			} else if (groupPosition == expandedPosition) {
-				// the inserted item is over the expanded item
-				itemChangedCount = expandedChildCount + 1;
-				modifiedStart = groupPosition;
-				setExpandedPosition(expandedPosition + 1);
-			} else {
-				// the inserted item is after the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition + expandedChildCount;
-			}
-			if (DEBUG) Log.d(LOG_TAG,  this+" notifyGroupInserted("+groupPosition+") start="+modifiedStart+" count="+itemChangedCount+" expanded="+expandedPosition+" headerCount="+getHeaderViewsCount());
-			recyclerView.insertRange(modifiedStart, itemChangedCount);
+			// the inserted item is after the children of the expanded items before it
+			final int modifiedStart = getGroupFlatPosition(groupPosition);
+			shiftDisplayedState(groupPosition, 1);
+			if (DEBUG) Log.d(LOG_TAG,  this+" notifyGroupInserted("+groupPosition+") start="+modifiedStart+" expanded="+expandedGroups+" headerCount="+getHeaderViewsCount());
+			recyclerView.insertRange(modifiedStart, 1);
 		}
 
 		/**
 		 * Notifies the item at group position has been removed. The item removal will be animated.
+		 * <p>The removal is notified right away, even while an expand or collapse animation is running.</p>
 		 */
 		public void notifyGroupRemoved(int groupPosition) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onPositionsChanged();
+			}
+			if (null != filteredGroups) {
+				int displayedPosition = getDisplayedGroup(groupPosition);
+				if (displayedPosition != RecyclerView.NO_POSITION) {
+					System.arraycopy(filteredGroups, displayedPosition + 1, filteredGroups, displayedPosition, filteredGroupCount - displayedPosition - 1);
+					System.arraycopy(filteredChildren, displayedPosition + 1, filteredChildren, displayedPosition, filteredGroupCount - displayedPosition - 1);
+					--filteredGroupCount;
+					displayedIndex = null;
+				}
+				shiftFilteredGroups(groupPosition + 1, -1);
+				if (filterQueryRunning) {
+					// the positions evaluated by the running query are not valid anymore
+					startDisplayQuery();
+				}
+				if (displayedPosition == RecyclerView.NO_POSITION)
+					return;
+				groupPosition = displayedPosition;
+			}
+
 			if (null==recyclerView)
 				return;
 
-			final int modifiedStart;
-			final int itemChangedCount;
-			if (expandedPosition == RecyclerView.NO_POSITION || groupPosition < expandedPosition) {
-				// the removed item is before the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition;
-			} else if (groupPosition == expandedPosition) {
-				// the removed item is the expanded item
-				itemChangedCount = expandedChildCount + 1;
-				modifiedStart = groupPosition;
-				setExpandedPosition(RecyclerView.NO_POSITION);
-			} else {
-				// the removed item is after the expanded item
-				itemChangedCount = 1;
-				modifiedStart = groupPosition + expandedChildCount;
-				setExpandedPosition(expandedPosition - 1);
-			}
-			if (DEBUG) Log.d(LOG_TAG,  this+" notifyGroupRemoved("+groupPosition+") start="+modifiedStart+" count="+itemChangedCount+" expanded="+expandedPosition+" headerCount="+getHeaderViewsCount());
-			recyclerView.removeRange(modifiedStart, itemChangedCount);
+			// an expanded item is removed with its children
+			final int modifiedStart = getGroupFlatPosition(groupPosition);
+			final int itemChangedCount = expandedGroups.getGroupChildCount(groupPosition) + 1;
+			setGroupExpanded(groupPosition, false);
+			shiftDisplayedState(groupPosition, -1);
+			if (DEBUG) Log.d(LOG_TAG,  this+" notifyGroupRemoved("+groupPosition+") start="+modifiedStart+" count="+itemChangedCount+" expanded="+expandedGroups+" headerCount="+getHeaderViewsCount());
+			recyclerView.notifyRemovedRange(modifiedStart, itemChangedCount);
 		}
 
 		/**
-		 * Get the currently expanded element or {@code null} if no item is expanded.
+		 * Notifies the child at {@code childPosition} in the group at {@code groupPosition} changed and the display should be updated.
 		 */
-		public @Nullable T getExpandedGroup() {
-			if (expandedPosition == RecyclerView.NO_POSITION)
-				return null;
+		public void notifyChildChanged(int groupPosition, int childPosition) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.invalidateChild(groupPosition, childPosition);
+			}
+			if (null != recyclerView && null != recyclerView.childMeasureCache) {
+				// even collapsed or filtered out, the child must not keep its old measure
+				final long groupId = getGroupItemId(groupPosition);
+				final long childId = groupId == NO_ID ? NO_ID : getChildId(groupPosition, childPosition);
+				if (childId != NO_ID)
+					recyclerView.childMeasureCache.removeItem(getChildItemId(groupId, childId));
+			}
+			final int displayedGroup = getDisplayedGroup(groupPosition);
+			if (null == recyclerView || displayedGroup == RecyclerView.NO_POSITION || !expandedGroups.isExpanded(displayedGroup))
+				return;
+
+			int displayedChild = childPosition;
+			final int[] children = null == filteredGroups ? null : filteredChildren[displayedGroup];
+			if (null != children) {
+				displayedChild = RecyclerView.NO_POSITION;
+				for (int i = 0; i < children.length; ++i) {
+					if (children[i] == childPosition) {
+						displayedChild = i;
+						break;
+					}
+				}
+			}
+			if (displayedChild != RecyclerView.NO_POSITION && displayedChild < expandedGroups.getGroupChildCount(displayedGroup)) {
+				recyclerView.changeRange(getGroupFlatPosition(displayedGroup) + 1 + displayedChild, 1);
+			}
+		}
+
+		/**
+		 * Notifies a child has been inserted at {@code childPosition} in the group at {@code groupPosition}.
+		 * The insertion will be animated if the group is expanded.
+		 * <p>When a filter or a child comparator is set the inserted child is displayed once they have been evaluated again.</p>
+		 */
+		public void notifyChildInserted(int groupPosition, int childPosition) {
+			notifyChildRangeInserted(groupPosition, childPosition, 1);
+		}
+
+		/**
+		 * Notifies {@code itemCount} children have been inserted at {@code childPositionStart} in the group at {@code groupPosition}.
+		 * The insertion will be animated if the group is expanded.
+		 * <p>When a filter or a child comparator is set the inserted children are displayed once they have been evaluated again.</p>
+		 */
+		public void notifyChildRangeInserted(int groupPosition, int childPositionStart, int itemCount) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onPositionsChanged();
+			}
+			final int displayedGroup = getDisplayedGroup(groupPosition);
+			if (displayedGroup == RecyclerView.NO_POSITION || itemCount <= 0)
+				return;
+
+			final int[] children = null == filteredGroups ? null : filteredChildren[displayedGroup];
+			if (null != children) {
+				for (int i = 0; i < children.length; ++i) {
+					if (children[i] >= childPositionStart)
+						children[i] += itemCount;
+				}
+				startDisplayQuery();
+				return;
+			}
+
+			if (DEBUG) Log.d(LOG_TAG, this + " notifyChildRangeInserted(" + groupPosition + ',' + childPositionStart + ',' + itemCount + ") expanded=" + expandedGroups);
+			final int index = expandedGroups.indexOf(displayedGroup);
+			if (index >= 0 && null != recyclerView) {
+				expandedGroups.setChildCount(index, expandedGroups.getChildCount(index) + itemCount);
+				recyclerView.insertRange(getGroupFlatPosition(displayedGroup) + 1 + childPositionStart, itemCount);
+			}
+		}
+
+		/**
+		 * Notifies the child at {@code childPosition} in the group at {@code groupPosition} has been removed.
+		 * The removal will be animated if the group is expanded.
+		 * <p>The removal is notified right away, even while an expand or collapse animation is running.</p>
+		 */
+		public void notifyChildRemoved(int groupPosition, int childPosition) {
+			notifyChildRangeRemoved(groupPosition, childPosition, 1);
+		}
+
+		/**
+		 * Notifies the {@code itemCount} children at {@code childPositionStart} in the group at {@code groupPosition} have been removed.
+		 * The removal will be animated if the group is expanded.
+		 * <p>The removal is notified right away, even while an expand or collapse animation is running.</p>
+		 */
+		public void notifyChildRangeRemoved(int groupPosition, int childPositionStart, int itemCount) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onPositionsChanged();
+			}
+			final int displayedGroup = getDisplayedGroup(groupPosition);
+			if (displayedGroup == RecyclerView.NO_POSITION || itemCount <= 0)
+				return;
+
+			if (DEBUG) Log.d(LOG_TAG, this + " notifyChildRangeRemoved(" + groupPosition + ',' + childPositionStart + ',' + itemCount + ") expanded=" + expandedGroups);
+			final int index = null == recyclerView ? -1 : expandedGroups.indexOf(displayedGroup);
+			final boolean expanded = index >= 0;
+			final int childPositionEnd = childPositionStart + itemCount;
+			final int[] children = null == filteredGroups ? null : filteredChildren[displayedGroup];
+			if (null == children) {
+				if (expanded) {
+					expandedGroups.setChildCount(index, expandedGroups.getChildCount(index) - itemCount);
+					recyclerView.notifyRemovedRange(getGroupFlatPosition(displayedGroup) + 1 + childPositionStart, itemCount);
+				}
+				return;
+			}
+
+			// notify the displayed children in the range from the end, so the positions of the others don't change
+			if (expanded) {
+				final int firstChild = getGroupFlatPosition(displayedGroup) + 1;
+				recyclerView.beginBatchedNotifications();
+				for (int i = children.length - 1; i >= 0; --i) {
+					if (children[i] >= childPositionStart && children[i] < childPositionEnd) {
+						expandedGroups.setChildCount(index, expandedGroups.getChildCount(index) - 1);
+						recyclerView.notifyRemovedRange(firstChild + i, 1);
+					}
+				}
+				recyclerView.endBatchedNotifications();
+			}
+
+			int count = 0;
+			for (int i = 0; i < children.length; ++i) {
+				if (children[i] < childPositionStart)
+					children[count++] = children[i];
+				else if (children[i] >= childPositionEnd)
+					children[count++] = children[i] - itemCount;
+			}
+			filteredChildren[displayedGroup] = Arrays.copyOf(children, count);
+		}
+
+		/**
+		 * Notifies the group at {@code fromGroupPosition} has been moved to {@code toGroupPosition}, as with {@link java.util.List#add(int, Object) add(toGroupPosition, remove(fromGroupPosition))}.
+		 * The move will be animated, an expanded group moves with its children and no view is bound again.
+		 * <p>When the groups are sorted with {@link #setGroupComparator(Comparator)} the displayed order doesn't change.</p>
+		 */
+		public void notifyGroupMoved(int fromGroupPosition, int toGroupPosition) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onPositionsChanged();
+			}
+			if (fromGroupPosition == toGroupPosition)
+				return;
+
+			int displayedFrom = fromGroupPosition;
+			int displayedTo = toGroupPosition;
+			if (null != filteredGroups) {
+				displayedFrom = getDisplayedGroup(fromGroupPosition);
+				displayedTo = moveFilteredGroup(fromGroupPosition, toGroupPosition, displayedFrom);
+				++displayedGroupsVersion;
+				if (filterQueryRunning) {
+					// the positions evaluated by the running query are not valid anymore
+					startDisplayQuery();
+				}
+				if (displayedFrom == RecyclerView.NO_POSITION || !displayedInDataOrder)
+					return;
+				moveInList(filteredGroups, displayedFrom, displayedTo);
+				moveInList(filteredChildren, displayedFrom, displayedTo);
+			}
+
+			if (DEBUG) Log.d(LOG_TAG, this + " notifyGroupMoved(" + fromGroupPosition + ',' + toGroupPosition + ") displayed " + displayedFrom + "->" + displayedTo + " expanded=" + expandedGroups);
+			if (displayedFrom != displayedTo) {
+				moveDisplayedGroup(displayedFrom, displayedTo);
+			}
+		}
+
+		/**
+		 * Notifies the child at {@code fromChildPosition} of the group at {@code groupPosition} has been moved to {@code toChildPosition}.
+		 * The move will be animated if the group is expanded and no view is bound again.
+		 * <p>When the children are sorted with {@link #setChildComparator(ChildComparator)} the displayed order doesn't change.</p>
+		 */
+		public void notifyChildMoved(int groupPosition, int fromChildPosition, int toChildPosition) {
+			if (null != twoPhaseBinder) {
+				twoPhaseBinder.onPositionsChanged();
+			}
+			if (fromChildPosition == toChildPosition)
+				return;
+
+			final int displayedGroup = getDisplayedGroup(groupPosition);
+			if (displayedGroup == RecyclerView.NO_POSITION)
+				return;
+
+			int displayedFrom = fromChildPosition;
+			int displayedTo = toChildPosition;
+			final int[] children = null == filteredGroups ? null : filteredChildren[displayedGroup];
+			if (null != children) {
+				displayedFrom = indexOf(children, children.length, fromChildPosition);
+				int before = 0;
+				for (int i = 0; i < children.length; ++i) {
+					children[i] = getMovedPosition(children[i], fromChildPosition, toChildPosition);
+					if (i != displayedFrom && children[i] < toChildPosition)
+						++before;
+				}
+				if (displayedFrom == RecyclerView.NO_POSITION || null != childComparator)
+					return;
+				displayedTo = before;
+				moveInList(children, displayedFrom, displayedTo);
+			}
+
+			if (DEBUG) Log.d(LOG_TAG, this + " notifyChildMoved(" + groupPosition + ',' + fromChildPosition + ',' + toChildPosition + ") displayed " + displayedFrom + "->" + displayedTo + " expanded=" + expandedGroups);
+			if (expandedGroups.isExpanded(displayedGroup) && displayedFrom != displayedTo) {
+				final int firstChild = getGroupFlatPosition(displayedGroup) + 1;
+				moveRows(firstChild + displayedFrom, firstChild + displayedTo, 1);
+			}
+		}
+
+		/**
+		 * Move the data of the group at {@code fromGroupPosition} to {@code toGroupPosition} when it's dragged with an {@link ExpandableItemTouchCallback}.
+		 * The move is then notified with {@link #notifyGroupMoved(int, int)}.
+		 *
+		 * @return {@code true} if the group has been moved. The default implementation doesn't support moving groups.
+		 */
+		protected boolean onMoveGroup(int fromGroupPosition, int toGroupPosition) {
+			return false;
+		}
+
+		/**
+		 * Move the data of the child at {@code fromChildPosition} of the group at {@code groupPosition} to {@code toChildPosition}
+		 * when it's dragged with an {@link ExpandableItemTouchCallback}. The move is then notified with {@link #notifyChildMoved(int, int, int)}.
+		 *
+		 * @return {@code true} if the child has been moved. The default implementation doesn't support moving children.
+		 */
+		protected boolean onMoveChild(int groupPosition, int fromChildPosition, int toChildPosition) {
+			return false;
+		}
+
+		/**
+		 * Remove the data of the group at {@code groupPosition} when it's swiped with an {@link ExpandableItemTouchCallback}.
+		 * The removal is then notified with {@link #notifyGroupRemoved(int)}.
+		 * <p>The removed group should be kept until {@link #onRestoreGroup(int)} or {@link #notifyDataChanged()} is called.</p>
+		 *
+		 * @return {@code true} if the group has been removed. The default implementation doesn't support dismissing groups.
+		 */
+		protected boolean onDismissGroup(int groupPosition) {
+			return false;
+		}
+
+		/**
+		 * Remove the data of the child at {@code childPosition} in the group at {@code groupPosition} when it's swiped with
+		 * an {@link ExpandableItemTouchCallback}. The removal is then notified with {@link #notifyChildRemoved(int, int)}.
+		 * <p>The removed child should be kept until {@link #onRestoreChild(int, int)} or {@link #notifyDataChanged()} is called.</p>
+		 *
+		 * @return {@code true} if the child has been removed. The default implementation doesn't support dismissing children.
+		 */
+		protected boolean onDismissChild(int groupPosition, int childPosition) {
+			return false;
+		}
+
+		/**
+		 * Put back the last group removed by {@link #onDismissGroup(int)} at {@code groupPosition}, called by {@link #undoDismiss()}.
+		 * The insertion is then notified with {@link #notifyGroupInserted(int)}.
+		 *
+		 * @return {@code true} if the group has been restored.
+		 */
+		protected boolean onRestoreGroup(int groupPosition) {
+			return false;
+		}
+
+		/**
+		 * Put back the last child removed by {@link #onDismissChild(int, int)} at {@code childPosition} in the group at {@code groupPosition},
+		 * called by {@link #undoDismiss()}. The insertion is then notified with {@link #notifyChildInserted(int, int)}.
+		 *
+		 * @return {@code true} if the child has been restored.
+		 */
+		protected boolean onRestoreChild(int groupPosition, int childPosition) {
+			return false;
+		}
+
+		/**
+		 * Restore the last group or child dismissed with an {@link ExpandableItemTouchCallback}, in the reverse order of the dismissals.
+		 * The dismissals can't be undone after {@link #notifyDataChanged()}.
+		 *
+		 * @return {@code true} if a group or a child has been restored.
+		 */
+		public boolean undoDismiss() {
+			if (dismissedCount == 0)
+				return false;
+
+			--dismissedCount;
+			final int groupPosition = dismissedGroups[dismissedCount];
+			final int childPosition = dismissedChildren[dismissedCount];
+			if (DEBUG) Log.d(LOG_TAG, this + " undoDismiss group=" + groupPosition + " child=" + childPosition);
+			if (childPosition == RecyclerView.NO_POSITION) {
+				if (!onRestoreGroup(groupPosition))
+					return false;
+				notifyGroupInserted(groupPosition);
+			} else {
+				if (!onRestoreChild(groupPosition, childPosition))
+					return false;
+				notifyChildInserted(groupPosition, childPosition);
+			}
+			return true;
+		}
+
+		boolean dismissGroup(int groupPosition) {
+			if (!onDismissGroup(groupPosition))
+				return false;
+			pushDismissed(groupPosition, RecyclerView.NO_POSITION);
+			notifyGroupRemoved(groupPosition);
+			return true;
+		}
+
+		boolean dismissChild(int groupPosition, int childPosition) {
+			if (!onDismissChild(groupPosition, childPosition))
+				return false;
+			pushDismissed(groupPosition, childPosition);
+			notifyChildRemoved(groupPosition, childPosition);
+			return true;
+		}
+
+		private void pushDismissed(int groupPosition, int childPosition) {
+			if (dismissedCount == dismissedGroups.length) {
+				int[] grownGroups = new int[dismissedCount * 2];
+				int[] grownChildren = new int[dismissedCount * 2];
+				System.arraycopy(dismissedGroups, 0, grownGroups, 0, dismissedCount);
+				System.arraycopy(dismissedChildren, 0, grownChildren, 0, dismissedCount);
+				dismissedGroups = grownGroups;
+				dismissedChildren = grownChildren;
+			}
+			dismissedGroups[dismissedCount] = groupPosition;
+			dismissedChildren[dismissedCount] = childPosition;
+			++dismissedCount;
+		}
+
+		/**
+		 * Rebind the row at the position {@code flatPosition} in the adapter, used to put back a row that was not dismissed.
+		 */
+		void notifyFlatItemChanged(int flatPosition) {
+			if (null != recyclerView) {
+				recyclerView.changeRange(flatPosition, 1);
+			}
+		}
+
+		/**
+		 * Get the {@code ExpandableRecyclerView} the adapter is attached to, if any.
+		 */
+		ExpandableRecyclerView getRecyclerView() {
+			return recyclerView;
+		}
+
+		boolean isGroupSorted() {
+			return null != groupComparator;
+		}
+
+		boolean isChildSorted() {
+			return null != childComparator;
+		}
+
+		/**
+		 * Get the displayed group at the position {@code flatPosition} in the adapter, the expanded group of a child.
+		 */
+		int getFlatGroup(int flatPosition) {
+			final int index = expandedGroups.findByFlatPosition(flatPosition);
+			if (index < 0)
+				return flatPosition;
+			if (flatPosition <= expandedGroups.getFlatPosition(index) + expandedGroups.getChildCount(index))
+				return expandedGroups.getGroup(index);
+			return flatPosition - expandedGroups.getChildrenBefore(index + 1);
+		}
+
+		/**
+		 * Get the displayed child at the position {@code flatPosition} in the adapter or {@link #NO_POSITION} for a group.
+		 */
+		int getFlatChild(int flatPosition) {
+			final int index = expandedGroups.findByFlatPosition(flatPosition);
+			if (index < 0)
+				return RecyclerView.NO_POSITION;
+			final int childPosition = flatPosition - expandedGroups.getFlatPosition(index) - 1;
+			if (childPosition < 0 || childPosition >= expandedGroups.getChildCount(index))
+				return RecyclerView.NO_POSITION;
+			return childPosition;
+		}
+
+		/**
+		 * Get the element expanded the most recently or {@code null} if no item is expanded.
+		 */
+		public @Nullable T getExpandedGroup() {
+			final int index = expandedGroups.getMostRecentlyExpanded();
+			if (index < 0)
+				return null;
+
+			return getGroup(getSourceGroup(expandedGroups.getGroup(index)));
+		}
+
+		/**
+		 * Predicate used to filter the groups and children displayed by an {@link ExpandableAdapter}.
+		 * <p>It is evaluated on a background thread, the data of the adapter must not be modified during the evaluation.</p>
+		 *
+		 * @see #setGroupFilter(GroupFilter)
+		 */
+		public interface GroupFilter {
+			/**
+			 * @return {@code true} if the group should be displayed with all its children.
+			 */
+			boolean matchGroup(int groupPosition);
+
+			/**
+			 * Called for the children of a group that didn't match. The group is displayed with only its matching children.
+			 *
+			 * @return {@code true} if the child should be displayed.
+			 */
+			boolean matchChild(int groupPosition, int childPosition);
+		}
+
+		/**
+		 * Comparator used to sort the children of each group displayed by an {@link ExpandableAdapter}.
+		 * <p>It is evaluated on a background thread, the data of the adapter must not be modified during the evaluation.</p>
+		 *
+		 * @see #setChildComparator(ChildComparator)
+		 */
+		public interface ChildComparator {
+			/**
+			 * Compares two children of the group at {@code groupPosition}, with the same contract as {@link Comparator#compare(Object, Object)}.
+			 */
+			int compare(int groupPosition, int childPosition1, int childPosition2);
+		}
+
+		private static final int FILTER_CHUNK_SIZE = 512;
+		/** over this number of moved groups/children the new order is displayed with a change notification */
+		private static final int MAX_ANIMATED_MOVES = 100;
+
+		private GroupFilter groupFilter;
+		private Comparator<? super T> groupComparator;
+		private ChildComparator childComparator;
+		private Executor filterExecutor;
+		private Handler filterHandler;
+		private final AtomicInteger filterGeneration = new AtomicInteger();
+		/** data positions of the displayed groups when filtered or sorted, {@code null} when all the groups are displayed in the data order */
+		private int[] filteredGroups;
+		/** data positions of the children displayed for each displayed group, {@code null} when all the children are displayed in the data order */
+		private int[][] filteredChildren;
+		private int filteredGroupCount;
+		/** whether {@link #filteredGroups} is in increasing order */
+		private boolean displayedInDataOrder = true;
+		/** displayed position of each data position when the groups are sorted, lazily built */
+		private int[] displayedIndex;
+		private boolean filterQueryRunning;
+
+		/**
+		 * Set the {@link Executor} used to filter and sort the groups. A shared background thread is used by default.
+		 */
+		public void setFilterExecutor(@Nullable Executor filterExecutor) {
+			this.filterExecutor = filterExecutor;
+		}
+
+		/**
+		 * Get the filter set with {@link #setGroupFilter(GroupFilter)} or {@code null}.
+		 */
+		@Nullable
+		public GroupFilter getGroupFilter() {
+			return groupFilter;
+		}
+
+		/**
+		 * Only display the groups and children matching the {@code filter}.
+		 * <p>The filter is evaluated on a background thread, any evaluation still running is cancelled. The matches are
+		 * displayed in chunks as they are found, and only the differences with what is currently displayed are notified.
+		 * The groups displayed because of their children are expanded, up to the maximum of expanded groups, without
+		 * collapsing the groups already expanded.</p>
+		 * <p>When filtered, the group positions used by the {@link ExpandableRecyclerView} are positions in the displayed groups,
+		 * the positions used by the adapter methods and the {@code notifyGroupXXX()} calls remain positions in the data.</p>
+		 *
+		 * @param filter the filter to use, {@code null} to display all the groups again.
+		 * @see #setGroupComparator(Comparator)
+		 */
+		public void setGroupFilter(@Nullable GroupFilter filter) {
+			if (DEBUG) Log.d(LOG_TAG, this + " setGroupFilter " + filter);
+			this.groupFilter = filter;
+			refreshDisplayedGroups();
+		}
+
+		/**
+		 * Display the groups in the order of the {@code comparator}, using the values of {@link #getGroup(int)}.
+		 * <p>The order is computed on a background thread and the displayed groups are moved to their new position,
+		 * an expanded group moves with its children. Groups that compare equally keep their data order.</p>
+		 * <p>As with {@link #setGroupFilter(GroupFilter)} the {@code ExpandableRecyclerView} then uses displayed positions.</p>
+		 *
+		 * @param comparator the comparator to use, {@code null} to display the groups in the data order.
+		 */
+		public void setGroupComparator(@Nullable Comparator<? super T> comparator) {
+			if (DEBUG) Log.d(LOG_TAG, this + " setGroupComparator " + comparator);
+			this.groupComparator = comparator;
+			refreshDisplayedGroups();
+		}
+
+		/**
+		 * Display the children of each group in the order of the {@code comparator}. The order is computed on a background thread.
+		 *
+		 * @param comparator the comparator to use, {@code null} to display the children in the data order.
+		 * @see #setGroupComparator(Comparator)
+		 */
+		public void setChildComparator(@Nullable ChildComparator comparator) {
+			if (DEBUG) Log.d(LOG_TAG, this + " setChildComparator " + comparator);
+			this.childComparator = comparator;
+			refreshDisplayedGroups();
+		}
+
+		private void refreshDisplayedGroups() {
+			if (null != groupFilter || null != groupComparator || null != childComparator) {
+				startDisplayQuery();
+			} else {
+				filterGeneration.incrementAndGet();
+				filterQueryRunning = false;
+				if (null != filteredGroups) {
+					// display all the groups in the data order
+					final int groupCount = getGroupCount();
+					int[] allGroups = new int[groupCount];
+					for (int i = 0; i < groupCount; ++i) {
+						allGroups[i] = i;
+					}
+					applyDisplayedGroups(allGroups, new int[groupCount][], groupCount, true);
+					filteredGroups = null;
+					filteredChildren = null;
+					filteredGroupCount = 0;
+				}
+			}
+		}
+
+		private void startDisplayQuery() {
+			final int generation = filterGeneration.incrementAndGet();
+			if (null == filteredGroups) {
+				// start from all the groups displayed
+				filteredGroupCount = getGroupCount();
+				filteredGroups = new int[filteredGroupCount];
+				filteredChildren = new int[filteredGroupCount][];
+				for (int i = 0; i < filteredGroupCount; ++i) {
+					filteredGroups[i] = i;
+				}
+				displayedInDataOrder = true;
+				displayedIndex = null;
+			}
+			if (null == filterHandler) {
+				filterHandler = new Handler(Looper.getMainLooper());
+			}
+			filterQueryRunning = true;
+			onStartDisplayQuery();
+			// the matches can only be merged in chunks with groups displayed in the data order
+			final boolean chunked = null != groupFilter && null == groupComparator && displayedInDataOrder;
+			final Executor executor = null != filterExecutor ? filterExecutor : BackgroundExecutor.get();
+			executor.execute(new DisplayQuery(generation, groupFilter, groupComparator, childComparator, getGroupCount(), chunked));
+		}
 
-			return getGroup(expandedPosition);
+		/**
+		 * Called on the main thread before the groups are filtered and sorted on a background thread, to capture the data
+		 * read by {@link #getChildrenCount(int)} during the query if it's not safe to read from any thread.
+		 */
+		void onStartDisplayQuery() {
+		}
+
+		/**
+		 * Evaluation of the groups to display and their order.
+		 * <p>In chunked mode the matches are published every {@link #FILTER_CHUNK_SIZE} groups, otherwise all at once.</p>
+		 */
+		private final class DisplayQuery implements Runnable {
+			private final int generation;
+			private final GroupFilter filter;
+			private final Comparator<? super T> groupComparator;
+			private final ChildComparator childComparator;
+			private final int groupCount;
+			private final boolean chunked;
+			/** data positions of the groups displayed only because of their children, in the data order */
+			private int[] expandCandidates = new int[4];
+			private int expandCandidateCount;
+
+			DisplayQuery(int generation, GroupFilter filter, Comparator<? super T> groupComparator, ChildComparator childComparator, int groupCount, boolean chunked) {
+				this.generation = generation;
+				this.filter = filter;
+				this.groupComparator = groupComparator;
+				this.childComparator = childComparator;
+				this.groupCount = groupCount;
+				this.chunked = chunked;
+			}
+
+			private boolean isCancelled() {
+				return filterGeneration.get() != generation;
+			}
+
+			@Override
+			public void run() {
+				final int capacity = chunked ? FILTER_CHUNK_SIZE : groupCount;
+				int chunkStart = 0;
+				int[] groups = new int[capacity];
+				int[][] children = new int[capacity][];
+				int count = 0;
+				int[] childMatches = new int[16];
+
+				for (int groupPosition = 0; groupPosition < groupCount; ++groupPosition) {
+					if (isCancelled())
+						return;
+
+					boolean match = null == filter || filter.matchGroup(groupPosition);
+					int[] matchedChildren = null;
+					if (!match) {
+						final int childCount = getChildrenCount(groupPosition);
+						int matchCount = 0;
+						for (int childPosition = 0; childPosition < childCount; ++childPosition) {
+							if (filter.matchChild(groupPosition, childPosition)) {
+								if (matchCount == childMatches.length) {
+									int[] grown = new int[matchCount * 2];
+									System.arraycopy(childMatches, 0, grown, 0, matchCount);
+									childMatches = grown;
+								}
+								childMatches[matchCount++] = childPosition;
+							}
+						}
+						if (matchCount != 0) {
+							match = true;
+							matchedChildren = new int[matchCount];
+							System.arraycopy(childMatches, 0, matchedChildren, 0, matchCount);
+							if (expandCandidateCount == expandCandidates.length) {
+								expandCandidates = Arrays.copyOf(expandCandidates, expandCandidateCount * 2);
+							}
+							expandCandidates[expandCandidateCount++] = groupPosition;
+						}
+					}
+
+					if (match) {
+						groups[count] = groupPosition;
+						children[count] = null == childComparator ? matchedChildren : sortChildren(groupPosition, matchedChildren);
+						++count;
+					}
+
+					if (chunked && groupPosition + 1 - chunkStart == FILTER_CHUNK_SIZE && groupPosition + 1 < groupCount) {
+						publishChunk(chunkStart, groupPosition + 1, groups, children, count);
+						chunkStart = groupPosition + 1;
+						groups = new int[FILTER_CHUNK_SIZE];
+						children = new int[FILTER_CHUNK_SIZE][];
+						count = 0;
+					}
+				}
+
+				if (chunked) {
+					// the last chunk also removes the groups displayed past the end of the data
+					publishChunk(chunkStart, Integer.MAX_VALUE, groups, children, count);
+					return;
+				}
+
+				if (null != groupComparator) {
+					final Object[] values = new Object[count];
+					final Integer[] order = new Integer[count];
+					for (int i = 0; i < count; ++i) {
+						values[i] = getGroup(groups[i]);
+						order[i] = i;
+					}
+					if (isCancelled())
+						return;
+					Arrays.sort(order, new Comparator<Integer>() {
+						@SuppressWarnings("unchecked")
+						@Override
+						public int compare(Integer lhs, Integer rhs) {
+							return groupComparator.compare((T) values[lhs], (T) values[rhs]);
+						}
+					});
+					int[] sortedGroups = new int[count];
+					int[][] sortedChildren = new int[count][];
+					for (int i = 0; i < count; ++i) {
+						sortedGroups[i] = groups[order[i]];
+						sortedChildren[i] = children[order[i]];
+					}
+					groups = sortedGroups;
+					children = sortedChildren;
+				}
+				publishAll(groups, children, count, null == groupComparator);
+			}
+
+			private int[] sortChildren(final int groupPosition, @Nullable int[] children) {
+				final int childCount = null == children ? getChildrenCount(groupPosition) : children.length;
+				Integer[] order = new Integer[childCount];
+				for (int i = 0; i < childCount; ++i) {
+					order[i] = null == children ? i : children[i];
+				}
+				Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer lhs, Integer rhs) {
+						return childComparator.compare(groupPosition, lhs, rhs);
+					}
+				});
+				int[] sortedChildren = new int[childCount];
+				for (int i = 0; i < childCount; ++i) {
+					sortedChildren[i] = order[i];
+				}
+				return sortedChildren;
+			}
+
+			private void publishChunk(final int sourceStart, final int sourceEnd, final int[] groups, final int[][] children, final int count) {
+				filterHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (!isCancelled() && null != filteredGroups) {
+							applyFilteredChunk(sourceStart, sourceEnd, groups, children, count);
+							if (sourceEnd == Integer.MAX_VALUE) {
+								onDisplayQueryFinished(expandCandidates, expandCandidateCount);
+							}
+						}
+					}
+				});
+			}
+
+			private void publishAll(final int[] groups, final int[][] children, final int count, final boolean dataOrder) {
+				filterHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (!isCancelled() && null != filteredGroups) {
+							applyDisplayedGroups(groups, children, count, dataOrder);
+							onDisplayQueryFinished(expandCandidates, expandCandidateCount);
+						}
+					}
+				});
+			}
+		}
+
+		/**
+		 * Expand the groups matched through their children, up to the {@link #setMaxExpandedGroups(int) maximum} of
+		 * expanded groups. The groups already expanded stay expanded, the matched groups only use the remaining room.
+		 */
+		private void onDisplayQueryFinished(int[] expandCandidates, int expandCandidateCount) {
+			filterQueryRunning = false;
+			if (expandCandidateCount == 0 || null == recyclerView)
+				return;
+			final int maxExpandedGroups = recyclerView.getMaxExpandedGroups();
+			final int room = maxExpandedGroups <= 0 ? expandCandidateCount : Math.min(expandCandidateCount, maxExpandedGroups - expandedGroups.size());
+			if (room <= 0)
+				return;
+			final int[] expandPositions = new int[room];
+			int expandCount = 0;
+			for (int i = 0; i < expandCandidateCount && expandCount < room; ++i) {
+				final int displayedCandidate = getDisplayedGroup(expandCandidates[i]);
+				if (displayedCandidate != RecyclerView.NO_POSITION && !expandedGroups.isExpanded(displayedCandidate))
+					expandPositions[expandCount++] = displayedCandidate;
+			}
+			if (expandCount == 0)
+				return;
+			final int[] sortedPositions = Arrays.copyOf(expandPositions, expandCount);
+			Arrays.sort(sortedPositions);
+			recyclerView.expandGroups(sortedPositions);
+		}
+
+		/**
+		 * Replace the displayed groups with a data position in [{@code sourceStart}, {@code sourceEnd}) by the {@code groups}
+		 * in increasing order and notify the differences. The displayed groups must be in the data order.
+		 */
+		private void applyFilteredChunk(int sourceStart, int sourceEnd, int[] groups, int[][] children, int count) {
+			final int from = lowerBound(filteredGroups, filteredGroupCount, sourceStart);
+			final int to = lowerBound(filteredGroups, filteredGroupCount, sourceEnd);
+			if (DEBUG) Log.d(LOG_TAG, this + " applyFilteredChunk [" + sourceStart + ',' + sourceEnd + ") displayed [" + from + ',' + to + ") matches=" + count);
+
+			final int[] mergedGroups = new int[to - from + count];
+			final int[][] mergedChildren = new int[to - from + count][];
+			final RangeBatch batch = new RangeBatch();
+			int merged = 0;
+			int i = from;
+			int j = 0;
+			while (i < to || j < count) {
+				final int oldGroup = i < to ? filteredGroups[i] : Integer.MAX_VALUE;
+				final int newGroup = j < count ? groups[j] : Integer.MAX_VALUE;
+				final int displayed = from + merged;
+				if (newGroup <= oldGroup) {
+					if (newGroup < oldGroup) {
+						// the group was not displayed
+						batch.inserted(getGroupFlatPosition(displayed), 1);
+						shiftDisplayedState(displayed, 1);
+					} else {
+						final int index = expandedGroups.indexOf(displayed);
+						if (index >= 0 && !Arrays.equals(filteredChildren[i], children[j])) {
+							// the displayed children of the expanded group changed
+							batch.removed(getGroupFlatPosition(displayed) + 1, expandedGroups.getChildCount(index));
+							expandedGroups.setChildCount(index, null == children[j] ? getChildrenCount(newGroup) : children[j].length);
+							batch.inserted(getGroupFlatPosition(displayed) + 1, expandedGroups.getChildCount(index));
+						}
+						++i;
+					}
+					mergedGroups[merged] = newGroup;
+					mergedChildren[merged] = children[j];
+					++merged;
+					++j;
+				} else {
+					// the group is not displayed anymore
+					removeDisplayedGroupRows(displayed, batch);
+					shiftDisplayedState(displayed, -1);
+					++i;
+				}
+			}
+			batch.flush();
+
+			// replace the displayed groups of the chunk with the merged groups
+			final int newCount = filteredGroupCount - (to - from) + merged;
+			if (newCount > filteredGroups.length) {
+				int[] grownGroups = new int[Math.max(newCount, filteredGroups.length * 2)];
+				int[][] grownChildren = new int[grownGroups.length][];
+				System.arraycopy(filteredGroups, 0, grownGroups, 0, from);
+				System.arraycopy(filteredChildren, 0, grownChildren, 0, from);
+				System.arraycopy(filteredGroups, to, grownGroups, from + merged, filteredGroupCount - to);
+				System.arraycopy(filteredChildren, to, grownChildren, from + merged, filteredGroupCount - to);
+				filteredGroups = grownGroups;
+				filteredChildren = grownChildren;
+			} else {
+				System.arraycopy(filteredGroups, to, filteredGroups, from + merged, filteredGroupCount - to);
+				System.arraycopy(filteredChildren, to, filteredChildren, from + merged, filteredGroupCount - to);
+			}
+			System.arraycopy(mergedGroups, 0, filteredGroups, from, merged);
+			System.arraycopy(mergedChildren, 0, filteredChildren, from, merged);
+			filteredGroupCount = newCount;
+		}
+
+		/**
+		 * Replace all the displayed groups by the {@code groups}, in any order, and notify the differences:
+		 * removed groups first, then the moves of the groups still displayed and finally the inserted groups.
+		 */
+		private void applyDisplayedGroups(int[] groups, int[][] children, int count, boolean dataOrder) {
+			if (DEBUG) Log.d(LOG_TAG, this + " applyDisplayedGroups count=" + count + " was " + filteredGroupCount + " dataOrder=" + dataOrder);
+			final int groupCount = getGroupCount();
+			final int[] newIndex = new int[groupCount];
+			Arrays.fill(newIndex, RecyclerView.NO_POSITION);
+			for (int i = 0; i < count; ++i) {
+				newIndex[groups[i]] = i;
+			}
+			// displayed children of the expanded groups, by data position
+			final int[][] expandedChildren = new int[groupCount][];
+			for (int i = 0; i < expandedGroups.size(); ++i) {
+				final int group = getSourceGroup(expandedGroups.getGroup(i));
+				if (group < groupCount)
+					expandedChildren[group] = filteredChildren[expandedGroups.getGroup(i)];
+			}
+
+			// remove the groups not displayed anymore, from the end
+			final RangeBatch batch = new RangeBatch();
+			final boolean[] kept = new boolean[groupCount];
+			for (int displayed = filteredGroupCount - 1; displayed >= 0; --displayed) {
+				final int group = filteredGroups[displayed];
+				if (group < groupCount && newIndex[group] != RecyclerView.NO_POSITION) {
+					kept[group] = true;
+				} else {
+					removeDisplayedGroupRows(displayed, batch);
+					shiftDisplayedState(displayed, -1);
+				}
+			}
+			batch.flush();
+
+			// move the groups still displayed in their new order
+			int keptCount = 0;
+			final int[] current = new int[count];
+			for (int displayed = 0; displayed < filteredGroupCount; ++displayed) {
+				final int group = filteredGroups[displayed];
+				if (group < groupCount && kept[group]) {
+					current[keptCount++] = group;
+				}
+			}
+			final int[] target = new int[keptCount];
+			for (int i = 0, t = 0; i < count; ++i) {
+				if (kept[groups[i]]) {
+					target[t++] = groups[i];
+				}
+			}
+			moveDisplayedGroups(current, target, keptCount, newIndex);
+
+			// insert the new groups
+			for (int i = 0; i < count; ++i) {
+				if (!kept[groups[i]]) {
+					batch.inserted(getGroupFlatPosition(i), 1);
+					shiftDisplayedState(i, 1);
+				}
+			}
+			batch.flush();
+
+			filteredGroups = groups;
+			filteredChildren = children;
+			filteredGroupCount = count;
+			displayedInDataOrder = dataOrder;
+			displayedIndex = null;
+
+			for (int i = 0; i < expandedGroups.size(); ++i) {
+				final int displayed = expandedGroups.getGroup(i);
+				if (!Arrays.equals(expandedChildren[groups[displayed]], children[displayed])) {
+					// the displayed children of the expanded group changed
+					moveExpandedChildren(displayed, expandedChildren[groups[displayed]], children[displayed]);
+				}
+			}
+		}
+
+		/**
+		 * Move the displayed groups from the {@code current} order to the {@code target} order, the groups that don't need to
+		 * move are the longest subsequence of {@code current} already in the {@code target} order.
+		 */
+		private void moveDisplayedGroups(int[] current, int[] target, int count, int[] newIndex) {
+			final int[] ranks = new int[count];
+			for (int i = 0; i < count; ++i) {
+				ranks[i] = newIndex[current[i]];
+			}
+			final int[] moves = getMoves(ranks, count, MAX_ANIMATED_MOVES);
+			if (null != moves && moves.length == 0)
+				return;
+
+			if (DEBUG) Log.d(LOG_TAG, this + " moveDisplayedGroups moves=" + (null == moves ? "many" : moves.length / 2) + " count=" + count);
+			if (null == moves) {
+				// too many moves to animate, rebind all the displayed rows in their new position
+				final int[] targetIndex = new int[newIndex.length];
+				for (int i = 0; i < count; ++i) {
+					targetIndex[target[i]] = i;
+				}
+				for (int i = 0; i < expandedGroups.size(); ++i) {
+					expandedGroups.setGroup(i, targetIndex[current[expandedGroups.getGroup(i)]]);
+				}
+				expandedGroups.sort();
+				++displayedGroupsVersion;
+				if (null != recyclerView) {
+					if (recyclerView.selectedGroup != RecyclerView.NO_POSITION)
+						recyclerView.selectedGroup = targetIndex[current[recyclerView.selectedGroup]];
+					recyclerView.changeRange(0, count + expandedGroups.getTotalChildCount());
+				}
+				return;
+			}
+
+			for (int i = 0; i < moves.length; i += 2) {
+				moveDisplayedGroup(moves[i], moves[i + 1]);
+			}
+		}
+
+		/**
+		 * Notify the move of the displayed group from {@code from} to {@code to}, with its children if it's expanded.
+		 */
+		private void moveDisplayedGroup(int from, int to) {
+			final int fromFlat = getGroupFlatPosition(from);
+			final int fromChildCount = expandedGroups.getGroupChildCount(from);
+			// the rows are inserted after the children of the expanded groups before the group at {@code to} once they are removed
+			final int toFlat = from < to ? to + expandedGroups.getChildrenBeforeGroup(to + 1) - fromChildCount : to + expandedGroups.getChildrenBeforeGroup(to);
+			moveRows(fromFlat, toFlat, fromChildCount + 1);
+
+			expandedGroups.move(from, to);
+			++displayedGroupsVersion;
+			if (null != recyclerView) {
+				recyclerView.selectedGroup = getMovedPosition(recyclerView.selectedGroup, from, to);
+			}
+		}
+
+		/**
+		 * Notify the changes between the displayed children of the expanded group displayed at {@code groupPosition}.
+		 */
+		private void moveExpandedChildren(int groupPosition, @Nullable int[] oldChildren, @Nullable int[] newChildren) {
+			final int childCount = getChildrenCount(getSourceGroup(groupPosition));
+			final int oldCount = null == oldChildren ? childCount : oldChildren.length;
+			final int newCount = null == newChildren ? childCount : newChildren.length;
+			final int firstChild = getGroupFlatPosition(groupPosition) + 1;
+			if (oldCount == newCount) {
+				final int[] newIndex = new int[childCount];
+				Arrays.fill(newIndex, RecyclerView.NO_POSITION);
+				for (int i = 0; i < newCount; ++i) {
+					newIndex[null == newChildren ? i : newChildren[i]] = i;
+				}
+				final int[] list = new int[oldCount];
+				final int[] ranks = new int[oldCount];
+				boolean sameChildren = true;
+				for (int i = 0; i < oldCount && sameChildren; ++i) {
+					list[i] = null == oldChildren ? i : oldChildren[i];
+					ranks[i] = newIndex[list[i]];
+					sameChildren = ranks[i] != RecyclerView.NO_POSITION;
+				}
+				if (sameChildren) {
+					// only the order of the children changed
+					final int[] moves = getMoves(ranks, oldCount, MAX_ANIMATED_MOVES);
+					if (null == moves) {
+						if (null != recyclerView) recyclerView.changeRange(firstChild, newCount);
+						return;
+					}
+					for (int i = 0; i < moves.length; i += 2) {
+						moveRows(firstChild + moves[i], firstChild + moves[i + 1], 1);
+					}
+					return;
+				}
+			}
+
+			final RangeBatch batch = new RangeBatch();
+			batch.removed(firstChild, oldCount);
+			batch.inserted(firstChild, newCount);
+			batch.flush();
+			expandedGroups.setChildCount(expandedGroups.indexOf(groupPosition), newCount);
+		}
+
+		/**
+		 * Notify the move of {@code rowCount} rows starting at {@code fromFlat} so they start at {@code toFlat} after the move.
+		 */
+		private void moveRows(int fromFlat, int toFlat, int rowCount) {
+			if (null == recyclerView || fromFlat == toFlat)
+				return;
+			for (int row = 0; row < rowCount; ++row) {
+				if (fromFlat > toFlat) {
+					recyclerView.moveItem(fromFlat + row, toFlat + row);
+				} else {
+					recyclerView.moveItem(fromFlat, toFlat + rowCount - 1);
+				}
+			}
+		}
+
+		private void removeDisplayedGroupRows(int groupPosition, RangeBatch batch) {
+			batch.removed(getGroupFlatPosition(groupPosition), expandedGroups.getGroupChildCount(groupPosition) + 1);
+			setGroupExpanded(groupPosition, false);
+		}
+
+		/**
+		 * Get the new value of {@code position} after an item moved from {@code from} to {@code to}.
+		 */
+		private static int getMovedPosition(int position, int from, int to) {
+			if (position == RecyclerView.NO_POSITION)
+				return position;
+			if (position == from)
+				return to;
+			if (from < position && position <= to)
+				return position - 1;
+			if (to <= position && position < from)
+				return position + 1;
+			return position;
+		}
+
+		static void moveInList(int[] list, int from, int to) {
+			final int value = list[from];
+			if (from < to)
+				System.arraycopy(list, from + 1, list, from, to - from);
+			else
+				System.arraycopy(list, to, list, to + 1, from - to);
+			list[to] = value;
+		}
+
+		private static <E> void moveInList(E[] list, int from, int to) {
+			final E value = list[from];
+			if (from < to)
+				System.arraycopy(list, from + 1, list, from, to - from);
+			else
+				System.arraycopy(list, to, list, to + 1, from - to);
+			list[to] = value;
+		}
+
+		private static int indexOf(int[] list, int count, int value) {
+			for (int i = 0; i < count; ++i) {
+				if (list[i] == value)
+					return i;
+			}
+			return RecyclerView.NO_POSITION;
+		}
+
+		/**
+		 * Get the moves turning a list into its target order, the items of the longest subsequence already in the target
+		 * order don't move.
+		 *
+		 * @param ranks    the index in the target order of each item of the list
+		 * @param maxMoves the maximum number of moves to compute
+		 * @return the {@code from, to} pairs of the moves to apply in order with {@link #moveInList(int[], int, int)},
+		 * {@code null} if more than {@code maxMoves} moves are needed.
+		 */
+		@Nullable
+		static int[] getMoves(int[] ranks, int count, int maxMoves) {
+			final boolean[] fixed = longestIncreasingSubsequence(ranks, count);
+			final boolean[] fixedRank = new boolean[count];
+			int moveCount = 0;
+			for (int i = 0; i < count; ++i) {
+				if (fixed[i])
+					fixedRank[ranks[i]] = true;
+				else
+					++moveCount;
+			}
+			if (moveCount > maxMoves)
+				return null;
+
+			final int[] moves = new int[moveCount * 2];
+			final int[] list = Arrays.copyOf(ranks, count);
+			int move = 0;
+			for (int t = 0; t < count; ++t) {
+				if (fixedRank[t])
+					continue;
+				final int from = indexOf(list, count, t);
+				int to = t == 0 ? 0 : indexOf(list, count, t - 1) + 1;
+				if (from < to)
+					--to;
+				moveInList(list, from, to);
+				moves[move++] = from;
+				moves[move++] = to;
+			}
+			return moves;
+		}
+
+		/**
+		 * @return the items of {@code values} belonging to one of its longest increasing subsequences.
+		 */
+		static boolean[] longestIncreasingSubsequence(int[] values, int count) {
+			final int[] tails = new int[count];
+			final int[] previous = new int[count];
+			int length = 0;
+			for (int i = 0; i < count; ++i) {
+				int low = 0;
+				int high = length;
+				while (low < high) {
+					int mid = (low + high) >>> 1;
+					if (values[tails[mid]] < values[i])
+						low = mid + 1;
+					else
+						high = mid;
+				}
+				previous[i] = low > 0 ? tails[low - 1] : -1;
+				tails[low] = i;
+				if (low == length)
+					++length;
+			}
+			final boolean[] result = new boolean[count];
+			for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+				result[i] = true;
+			}
+			return result;
+		}
+
+		/**
+		 * Update the expanded and selected positions when a displayed group is inserted or removed at {@code groupPosition}.
+		 */
+		private void shiftDisplayedState(int groupPosition, int delta) {
+			expandedGroups.shift(groupPosition, delta);
+			++displayedGroupsVersion;
+			if (null != recyclerView && recyclerView.selectedGroup != RecyclerView.NO_POSITION) {
+				if (delta < 0 && groupPosition == recyclerView.selectedGroup) {
+					recyclerView.selectedGroup = RecyclerView.NO_POSITION;
+				} else if (groupPosition < recyclerView.selectedGroup || (delta > 0 && groupPosition == recyclerView.selectedGroup)) {
+					recyclerView.selectedGroup += delta;
+				}
+			}
+		}
+
+		private void shiftFilteredGroups(int fromSourcePosition, int delta) {
+			final int start = displayedInDataOrder ? lowerBound(filteredGroups, filteredGroupCount, fromSourcePosition) : 0;
+			for (int i = start; i < filteredGroupCount; ++i) {
+				if (filteredGroups[i] >= fromSourcePosition) {
+					filteredGroups[i] += delta;
+				}
+			}
+			displayedIndex = null;
+			++displayedGroupsVersion;
+		}
+
+		/**
+		 * Update the data positions of the displayed groups after the group at the data position {@code from} moved to
+		 * {@code to}. Only the groups between the two positions are updated.
+		 *
+		 * @param displayedFrom the displayed position of the moved group, {@link #NO_POSITION} if it's not displayed
+		 * @return the displayed position of the moved group when the groups are displayed in the data order
+		 */
+		private int moveFilteredGroup(int from, int to, int displayedFrom) {
+			final int low = Math.min(from, to);
+			final int high = Math.max(from, to);
+			if (displayedInDataOrder) {
+				// the groups between the two positions are contiguous in the sorted positions and keep their order
+				final int start = lowerBound(filteredGroups, filteredGroupCount, low);
+				final int end = lowerBound(filteredGroups, filteredGroupCount, high + 1);
+				for (int i = start; i < end; ++i) {
+					filteredGroups[i] = getMovedPosition(filteredGroups[i], from, to);
+				}
+				if (displayedFrom == RecyclerView.NO_POSITION)
+					return RecyclerView.NO_POSITION;
+				return from < to ? end - 1 : start;
+			}
+
+			// displayedIndex was built by getDisplayedGroup(), move its entry as the data moved
+			if (high >= displayedIndex.length) {
+				final int oldLength = displayedIndex.length;
+				displayedIndex = Arrays.copyOf(displayedIndex, high + 1);
+				Arrays.fill(displayedIndex, oldLength, high + 1, RecyclerView.NO_POSITION);
+			}
+			for (int position = low; position <= high; ++position) {
+				final int displayed = displayedIndex[position];
+				if (displayed != RecyclerView.NO_POSITION)
+					filteredGroups[displayed] = getMovedPosition(position, from, to);
+			}
+			moveInList(displayedIndex, from, to);
+			return displayedFrom;
+		}
+
+		private void dropInvalidFilteredGroups() {
+			final int groupCount = getGroupCount();
+			int count = 0;
+			for (int i = 0; i < filteredGroupCount; ++i) {
+				if (filteredGroups[i] < groupCount) {
+					filteredGroups[count] = filteredGroups[i];
+					filteredChildren[count] = null;
+					++count;
+				}
+			}
+			filteredGroupCount = count;
+			displayedIndex = null;
+			++displayedGroupsVersion;
+		}
+
+		private static int lowerBound(int[] sortedValues, int count, int value) {
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (sortedValues[mid] < value)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		/**
+		 * Get a number that changes each time displayed groups are inserted, removed or moved, or their data positions change.
+		 */
+		int getDisplayedGroupsVersion() {
+			return displayedGroupsVersion;
+		}
+
+		/**
+		 * Get the number of displayed groups, it differs from {@link #getGroupCount()} when a filter is set.
+		 */
+		int getDisplayedGroupCount() {
+			return null == filteredGroups ? getGroupCount() : filteredGroupCount;
+		}
+
+		/**
+		 * Get the number of displayed children of the displayed group at {@code groupPosition}.
+		 */
+		int getDisplayedChildrenCount(int groupPosition) {
+			if (null == filteredGroups)
+				return getChildrenCount(groupPosition);
+			int[] children = filteredChildren[groupPosition];
+			return null == children ? getChildrenCount(filteredGroups[groupPosition]) : children.length;
+		}
+
+		/**
+		 * Get the data position of the displayed group at {@code groupPosition}.
+		 */
+		int getSourceGroup(int groupPosition) {
+			if (null == filteredGroups || groupPosition < 0)
+				return groupPosition;
+			return filteredGroups[groupPosition];
+		}
+
+		/**
+		 * Get the data position of the displayed child at {@code childPosition} in the displayed group at {@code groupPosition}.
+		 */
+		int getSourceChild(int groupPosition, int childPosition) {
+			if (null == filteredGroups || null == filteredChildren[groupPosition])
+				return childPosition;
+			return filteredChildren[groupPosition][childPosition];
+		}
+
+		/**
+		 * Get the displayed position of the group at the data position {@code sourcePosition} or {@link #NO_POSITION} if it's not displayed.
+		 */
+		int getDisplayedGroup(int sourcePosition) {
+			if (null == filteredGroups || sourcePosition < 0)
+				return sourcePosition;
+			if (displayedInDataOrder) {
+				int index = lowerBound(filteredGroups, filteredGroupCount, sourcePosition);
+				if (index < filteredGroupCount && filteredGroups[index] == sourcePosition)
+					return index;
+				return RecyclerView.NO_POSITION;
+			}
+			if (null == displayedIndex) {
+				int maxGroup = 0;
+				for (int i = 0; i < filteredGroupCount; ++i) {
+					maxGroup = Math.max(maxGroup, filteredGroups[i]);
+				}
+				displayedIndex = new int[maxGroup + 1];
+				Arrays.fill(displayedIndex, RecyclerView.NO_POSITION);
+				for (int i = 0; i < filteredGroupCount; ++i) {
+					displayedIndex[filteredGroups[i]] = i;
+				}
+			}
+			return sourcePosition < displayedIndex.length ? displayedIndex[sourcePosition] : RecyclerView.NO_POSITION;
+		}
+
+		/**
+		 * Get the position in the adapter of the displayed group at {@code groupPosition}, without the header views.
+		 */
+		int getGroupFlatPosition(int groupPosition) {
+			return groupPosition + expandedGroups.getChildrenBeforeGroup(groupPosition);
+		}
+
+		/**
+		 * Merge contiguous insertions or removals of items in the adapter into range notifications.
+		 */
+		private final class RangeBatch {
+			private static final int NONE = 0;
+			private static final int INSERTED = 1;
+			private static final int REMOVED = 2;
+
+			private int type = NONE;
+			private int start;
+			private int count;
+
+			void inserted(int position, int itemCount) {
+				if (itemCount == 0)
+					return;
+				if (type == INSERTED && position >= start && position <= start + count) {
+					count += itemCount;
+					return;
+				}
+				flush();
+				type = INSERTED;
+				start = position;
+				count = itemCount;
+			}
+
+			void removed(int position, int itemCount) {
+				if (itemCount == 0)
+					return;
+				if (type == REMOVED && (position == start || position + itemCount == start)) {
+					start = position;
+					count += itemCount;
+					return;
+				}
+				flush();
+				type = REMOVED;
+				start = position;
+				count = itemCount;
+			}
+
+			void flush() {
+				if (null != recyclerView) {
+					if (type == INSERTED) {
+						recyclerView.insertRange(start, count);
+					} else if (type == REMOVED) {
+						recyclerView.removeRange(start, count);
+					}
+				}
+				type = NONE;
+			}
 		}
 	}
 
@@ -677,6 +2511,9 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	}
 
 	private void init() {
+		touchDispatcher = new ItemTouchDispatcher(this);
+		addOnItemTouchListener(touchDispatcher);
+		setAccessibilityDelegateCompat(new RowAccessibilityDelegate(this, touchDispatcher));
 		mUserItemAnimator = super.getItemAnimator();
 		if (DEBUG_ANIMATOR) Log.d(ANIM_TAG, "init user animator to "+ mUserItemAnimator);
 	}
@@ -688,6 +2525,15 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 			firstLayoutPassed = true;
 		}
 		super.onLayout(changed, l, t, r, b);
+		if (null != poolSizer) {
+			poolSizer.onLayout();
+		}
+		if (null != scrollMetrics) {
+			scrollMetrics.measureRows();
+		}
+		if (null != childMeasureCache) {
+			childMeasureCache.onLayout();
+		}
 	}
 
 	public boolean isFirstLayoutPassed() {
@@ -697,12 +2543,19 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	@Override
 	protected void onAttachedToWindow() {
 		super.onAttachedToWindow();
+		if (null != poolSizer) {
+			poolSizer.register(getContext());
+		}
 
 		firstLayoutPassed = false;
 	}
 
 	@Override
 	protected void onDetachedFromWindow() {
+		flushPendingRemovals();
+		if (null != poolSizer) {
+			poolSizer.unregister(getContext());
+		}
 		super.onDetachedFromWindow();
 
 		firstLayoutPassed = false;
@@ -719,15 +2572,206 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		setExpandableAdapter((ExpandableAdapter) adapter);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>An {@link ExpandableSpanSizeLookup} is set on a {@link GridLayoutManager} that doesn't have a custom
+	 * {@link GridLayoutManager.SpanSizeLookup SpanSizeLookup}, so the groups use the full width.</p>
+	 */
+	@Override
+	public void setLayoutManager(LayoutManager layout) {
+		if (layout instanceof GridLayoutManager) {
+			GridLayoutManager gridLayoutManager = (GridLayoutManager) layout;
+			if (gridLayoutManager.getSpanSizeLookup() instanceof GridLayoutManager.DefaultSpanSizeLookup) {
+				gridLayoutManager.setSpanSizeLookup(new ExpandableSpanSizeLookup(this));
+			}
+		}
+		super.setLayoutManager(layout);
+	}
+
 	public void setExpandableAdapter(ExpandableAdapter adapter) {
 		if (getAdapter() instanceof ExpandableAdapter) {
 			ExpandableAdapter expandableAdapter = (ExpandableAdapter) getAdapter();
 			expandableAdapter.attachRecyclerView(null);
 		}
-
-		super.setAdapter(adapter);
-		if (null!=adapter)
-			adapter.attachRecyclerView(this);
+
+		cancelPrefetch();
+		if (null != adapter && getRecycledViewPool() instanceof ExpandableRecycledViewPool) {
+			adapter.setViewTypeRegistry(((ExpandableRecycledViewPool) getRecycledViewPool()).getViewTypeRegistry());
+		}
+		super.setAdapter(adapter);
+		if (null!=adapter) {
+			adapter.attachRecyclerView(this);
+			restorePendingState();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Several {@code ExpandableRecyclerView} can share an {@link ExpandableRecycledViewPool}, their adapter then uses
+	 * the view types of the pool. When the pool changes the rows currently displayed are created again.</p>
+	 */
+	@Override
+	public void setRecycledViewPool(RecycledViewPool pool) {
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null != adapter && pool instanceof ExpandableRecycledViewPool && adapter.getViewTypeRegistry() != ((ExpandableRecycledViewPool) pool).getViewTypeRegistry()) {
+			// recycle the current rows in the old pool before they get the view types of the new pool
+			setExpandableAdapter(null);
+			super.setRecycledViewPool(pool);
+			setExpandableAdapter(adapter);
+		} else {
+			super.setRecycledViewPool(pool);
+		}
+	}
+
+	/**
+	 * Report to the adapter the groups and children about to be displayed in the direction of the scroll with
+	 * {@link ExpandableAdapter#onPrefetchGroups(int, int, ExpandableAdapter.PrefetchSignal) onPrefetchGroups()} and
+	 * {@link ExpandableAdapter#onPrefetchChildren(int, int, int, ExpandableAdapter.PrefetchSignal) onPrefetchChildren()},
+	 * including the children of the expanded groups. The faster the scroll, the more rows are reported ahead.
+	 * <p>The prefetch runs on a background thread and is cancelled when the scroll changes direction.</p>
+	 *
+	 * @param maxRows the maximum number of rows reported ahead of the last row displayed, 0 to disable the prefetch.
+	 * @see #setPrefetchExecutor(Executor)
+	 */
+	public void setPrefetchDistance(int maxRows) {
+		if (null != prefetcher) {
+			prefetcher.cancel();
+			removeOnScrollListener(prefetcher);
+			prefetcher = null;
+		}
+		if (maxRows > 0) {
+			prefetcher = new ScrollPrefetcher(this, maxRows);
+			prefetcher.setExecutor(prefetchExecutor);
+			addOnScrollListener(prefetcher);
+		}
+	}
+
+	/**
+	 * Remember the child ViewHolders that still display the same unchanged child, measured at the current width, so
+	 * they don't need to be measured again when a group is expanded again or when the list goes back to a width it
+	 * had. The children are always bound, {@link ExpandableViewHolder#isMeasureCached()} tells the bind it can skip
+	 * the layout requests. It needs stable IDs for the groups and the children, see {@link ExpandableAdapter#getChildId(int, int)}.
+	 * <p>A child is measured again after {@link ExpandableAdapter#notifyGroupChanged(int) notifyGroupChanged()} on its
+	 * group or a change notified on the child itself.</p>
+	 *
+	 * @param maxEntries the number of children and widths remembered, 0 to disable the cache.
+	 */
+	public void setChildMeasureCacheSize(int maxEntries) {
+		if (null != childMeasureCache) {
+			childMeasureCache.release();
+			childMeasureCache = null;
+		}
+		if (maxEntries > 0) {
+			childMeasureCache = new ChildMeasureCache(this, maxEntries);
+		}
+	}
+
+	/**
+	 * Compute the scroll offset and range from the measured size of the rows rather than the estimate of the
+	 * {@link LayoutManager}, so the scrollbars don't jump and {@link #canScrollVertically(int)} is exact with groups
+	 * and children of different sizes.
+	 * <p>The size of each row is kept by view type and stable ID once it's displayed, the rows never displayed count
+	 * for the average size. It needs stable IDs and a {@link LinearLayoutManager}, other layouts use their estimate.</p>
+	 */
+	public void setExactScrollMetrics(boolean exactScrollMetrics) {
+		if (null != scrollMetrics) {
+			removeOnScrollListener(scrollMetrics);
+			scrollMetrics.release();
+			scrollMetrics = null;
+		}
+		if (exactScrollMetrics) {
+			scrollMetrics = new ScrollMetrics(this);
+			addOnScrollListener(scrollMetrics);
+			scrollMetrics.measureRows();
+		}
+	}
+
+	public boolean isExactScrollMetrics() {
+		return null != scrollMetrics;
+	}
+
+	private boolean useScrollMetrics(boolean vertical) {
+		return null != scrollMetrics && scrollMetrics.isSupported() && scrollMetrics.isVertical() == vertical;
+	}
+
+	@Override
+	public int computeVerticalScrollOffset() {
+		if (useScrollMetrics(true))
+			return scrollMetrics.computeScrollOffset();
+		return super.computeVerticalScrollOffset();
+	}
+
+	@Override
+	public int computeVerticalScrollRange() {
+		if (useScrollMetrics(true))
+			return scrollMetrics.computeScrollRange();
+		return super.computeVerticalScrollRange();
+	}
+
+	@Override
+	public int computeVerticalScrollExtent() {
+		if (useScrollMetrics(true))
+			return scrollMetrics.computeScrollExtent();
+		return super.computeVerticalScrollExtent();
+	}
+
+	@Override
+	public int computeHorizontalScrollOffset() {
+		if (useScrollMetrics(false))
+			return scrollMetrics.computeScrollOffset();
+		return super.computeHorizontalScrollOffset();
+	}
+
+	@Override
+	public int computeHorizontalScrollRange() {
+		if (useScrollMetrics(false))
+			return scrollMetrics.computeScrollRange();
+		return super.computeHorizontalScrollRange();
+	}
+
+	@Override
+	public int computeHorizontalScrollExtent() {
+		if (useScrollMetrics(false))
+			return scrollMetrics.computeScrollExtent();
+		return super.computeHorizontalScrollExtent();
+	}
+
+	/**
+	 * Set the {@link Executor} running the prefetch of {@link #setPrefetchDistance(int)}. A shared background thread is used by default.
+	 */
+	public void setPrefetchExecutor(@Nullable Executor executor) {
+		this.prefetchExecutor = executor;
+		if (null != prefetcher) {
+			prefetcher.setExecutor(executor);
+		}
+	}
+
+	void cancelPrefetch() {
+		if (null != prefetcher) {
+			prefetcher.cancel();
+		}
+	}
+
+	/**
+	 * Size the {@link RecycledViewPool} for each view type from the peak number of rows of that type on screen and the
+	 * number of children of the groups recently expanded, so expanding a large group again doesn't inflate all its children.
+	 * <p>The limits are scaled down to keep at most {@code maxPooledViews} ViewHolders in the pool, halved when the
+	 * system is low on memory until the demand grows again. The pool is emptied when the application goes in the background.</p>
+	 * <p>When the pool is shared with other views sizing it, each view type gets the largest limit wanted by these views.</p>
+	 *
+	 * @param maxPooledViews the budget of pooled ViewHolders for all the view types, 0 to use the default pool limits.
+	 */
+	public void setAdaptivePoolSizing(int maxPooledViews) {
+		if (null != poolSizer) {
+			poolSizer.unregister(getContext());
+			poolSizer = null;
+		}
+		if (maxPooledViews > 0) {
+			poolSizer = new AdaptivePoolSizer(this, maxPooledViews);
+			if (null != getWindowToken()) {
+				poolSizer.register(getContext());
+			}
+		}
 	}
 
 	public ExpandableAdapter getExpandableAdapter() {
@@ -757,6 +2801,21 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	}
 
 	private void expandAndCollapse(final int expandPosition, final int collapsePosition) {
+		expandAndCollapse(expandPosition, collapsePosition, null);
+	}
+
+	/**
+	 * Expand the displayed {@code groupPositions}, in increasing order, in the same layout pass without collapsing any group.
+	 */
+	void expandGroups(int[] groupPositions) {
+		if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "expandGroups "+Arrays.toString(groupPositions));
+		expandAndCollapse(RecyclerView.NO_POSITION, RecyclerView.NO_POSITION, groupPositions);
+	}
+
+	/**
+	 * @param expandGroups the groups to expand instead of {@code expandPosition}, with no group collapsed, or {@code null}
+	 */
+	private void expandAndCollapse(final int expandPosition, final int collapsePosition, @Nullable final int[] expandGroups) {
 		if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "expandAndCollapse "+expandPosition+'/'+collapsePosition+" currentAnimator="+super.getItemAnimator());
 
 		final ItemAnimator currentItemAnimator = super.getItemAnimator();
@@ -767,47 +2826,118 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 			currentItemAnimator.isRunning(new ItemAnimator.ItemAnimatorFinishedListener() {
 				@Override
 				public void onAnimationsFinished() {
-					ExpandAndCollapseItemAnimator expandAnimator = new ExpandAndCollapseItemAnimator(expandPosition, collapsePosition);
+					if (null == getExpandableAdapter())
+						return;
+					final int[] expandPositions = null != expandGroups ? expandGroups : getExpandPositions(expandPosition);
+					final int[] collapsePositions = null != expandGroups ? new int[0] : getCollapsePositions(expandPosition, collapsePosition);
+					ExpandAndCollapseItemAnimator expandAnimator = new ExpandAndCollapseItemAnimator(expandPositions, collapsePositions);
 					if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "animation before expandAndCollapse with current animator="+currentItemAnimator+" finished (running="+currentItemAnimator.isRunning()+"), use expand ItemAnimator="+expandAnimator);
 					ExpandableRecyclerView.super.setItemAnimator(expandAnimator);
-					doExpandAndCollapse(expandPosition, collapsePosition);
+					doExpandAndCollapse(expandPositions, collapsePositions);
 				}
 			});
 			return;
 		}
 
-		doExpandAndCollapse(expandPosition, collapsePosition);
+		if (null != expandGroups)
+			doExpandAndCollapse(expandGroups, new int[0]);
+		else
+			doExpandAndCollapse(getExpandPositions(expandPosition), getCollapsePositions(expandPosition, collapsePosition));
+	}
+
+	/**
+	 * Get the groups to expand, in increasing order: {@code expandPosition} or all the collapsed groups for {@link #ALL_GROUPS}.
+	 */
+	private int[] getExpandPositions(int expandPosition) {
+		if (expandPosition == RecyclerView.NO_POSITION)
+			return new int[0];
+		if (expandPosition != ALL_GROUPS)
+			return new int[] { expandPosition };
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		final ExpandedGroupIndex expandedGroups = adapter.getExpandedGroups();
+		final int[] result = new int[adapter.getDisplayedGroupCount() - expandedGroups.size()];
+		for (int groupPosition = 0, count = 0, index = 0; count < result.length; ++groupPosition) {
+			if (index < expandedGroups.size() && expandedGroups.getGroup(index) == groupPosition)
+				++index;
+			else
+				result[count++] = groupPosition;
+		}
+		return result;
+	}
+
+	/**
+	 * Get the expanded groups to collapse, in increasing order: {@code collapsePosition} and, when expanding
+	 * {@code expandPosition} goes past the {@link #setMaxExpandedGroups(int) maximum}, the groups expanded the longest
+	 * time ago.
+	 */
+	private int[] getCollapsePositions(int expandPosition, int collapsePosition) {
+		final ExpandedGroupIndex expandedGroups = getExpandableAdapter().getExpandedGroups();
+		if (collapsePosition == ALL_GROUPS)
+			return expandedGroups.getGroups();
+		if (expandPosition == ALL_GROUPS)
+			return new int[0]; // only expanded within the maximum
+		final boolean collapse = collapsePosition != RecyclerView.NO_POSITION && expandedGroups.isExpanded(collapsePosition);
+		int remaining = expandedGroups.size() - (collapse ? 1 : 0);
+		if (expandPosition != RecyclerView.NO_POSITION && !expandedGroups.isExpanded(expandPosition))
+			++remaining;
+		if (expandLimitLifted && (maxExpandedGroups <= 0 || expandedGroups.size() <= maxExpandedGroups))
+			expandLimitLifted = false;
+		final int[] evicted = maxExpandedGroups <= 0 || expandLimitLifted ? new int[0] : expandedGroups.getLeastRecentlyExpanded(remaining - maxExpandedGroups, expandPosition, collapsePosition);
+		if (!collapse)
+			return evicted;
+		final int[] result = Arrays.copyOf(evicted, evicted.length + 1);
+		result[evicted.length] = collapsePosition;
+		Arrays.sort(result);
+		return result;
 	}
 
-	private void doExpandAndCollapse(final int expandPosition, final int collapsePosition) {
+	/**
+	 * Collapse the {@code collapsePositions} groups and expand the {@code expandPositions} groups in the same layout pass.
+	 */
+	private void doExpandAndCollapse(final int[] expandPositions, final int[] collapsePositions) {
+		flushPendingRemovals();
 		ExpandableAdapter expandableAdapter = getExpandableAdapter();
-		boolean collapseChanged = expandableAdapter.expandedPosition != RecyclerView.NO_POSITION && collapsePosition == expandableAdapter.expandedPosition;
-		// collapse
-		if (collapseChanged) {
-			if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "collapse group " + collapsePosition + " in "+getExpandableAdapter());
-			getAdapter().notifyItemRangeRemoved(collapsePosition + getHeaderViewsCount() + 1, expandableAdapter.getChildrenCount(collapsePosition));
-			expandableAdapter.setExpandedPosition(RecyclerView.NO_POSITION);
-		}
-
-		// expand
-		boolean expandedChanged = expandableAdapter.setExpandedPosition(expandPosition);
-		if (expandedChanged) {
-			int childViewCount = expandableAdapter.getChildrenCount(expandPosition);
-			getAdapter().notifyItemRangeInserted(expandPosition + getHeaderViewsCount() + 1, childViewCount);
+		final ExpandedGroupIndex expandedGroups = expandableAdapter.getExpandedGroups();
+		// collapse from the end so the positions of the groups before don't change
+		boolean collapseChanged = false;
+		for (int i = collapsePositions.length - 1; i >= 0; --i) {
+			final int collapsePosition = collapsePositions[i];
+			final int flatPosition = expandableAdapter.getGroupFlatPosition(collapsePosition);
+			final int childViewCount = expandedGroups.getGroupChildCount(collapsePosition);
+			if (expandableAdapter.setGroupExpanded(collapsePosition, false)) {
+				if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "collapse group " + collapsePosition + " in "+getExpandableAdapter());
+				getAdapter().notifyItemRangeRemoved(flatPosition + getHeaderViewsCount() + 1, childViewCount);
+				collapseChanged = true;
+			}
+		}
+
+		// expand from the start, each range is notified after the ones before it
+		boolean expandedChanged = false;
+		for (int expandPosition : expandPositions) {
+			if (!expandableAdapter.setGroupExpanded(expandPosition, true))
+				continue;
+			if (null != poolSizer) {
+				// make room in the pool for the children before they are recycled
+				poolSizer.onGroupExpanded(expandableAdapter, expandPosition);
+			}
+			int childViewCount = expandedGroups.getGroupChildCount(expandPosition);
+			getAdapter().notifyItemRangeInserted(expandableAdapter.getGroupFlatPosition(expandPosition) + getHeaderViewsCount() + 1, childViewCount);
 			if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "expand group " + expandPosition + " in "+getExpandableAdapter());
+			expandedChanged = true;
+		}
+		if (expandedChanged && null != expandableAdapter.nestedChildLists) {
+			expandableAdapter.nestedChildLists.prefill(this);
 		}
 
 		if (collapseChanged || expandedChanged) {
 			boolean expandedIsShown = false;
+			final int expandPosition = expandPositions.length == 1 ? expandPositions[0] : RecyclerView.NO_POSITION;
 			if (expandPosition != RecyclerView.NO_POSITION) {
-				if (getLayoutManager() instanceof LinearLayoutManager) {
-					LinearLayoutManager linearLayoutManager = (LinearLayoutManager) getLayoutManager();
-					//Log.e(LOG_TAG,  "lastFull = "+linearLayoutManager.findLastCompletelyVisibleItemPosition()+" group+Child"+(groupPosition + childViewCount));
-					if (linearLayoutManager.findFirstVisibleItemPosition() < expandPosition + getHeaderViewsCount() &&
-							linearLayoutManager.findLastCompletelyVisibleItemPosition() < expandPosition + getHeaderViewsCount()) {
-						expandedIsShown = true;
-						if (ExpandableAdapter.DEBUG) Log.e(ExpandableAdapter.LOG_TAG, "doExpandAndCollapse() the expandedIsShown");
-					}
+				final int expandedFlatPosition = expandableAdapter.getGroupFlatPosition(expandPosition) + getHeaderViewsCount();
+				if (findVisiblePosition(true, false) < expandedFlatPosition &&
+						findVisiblePosition(false, true) < expandedFlatPosition) {
+					expandedIsShown = true;
+					if (ExpandableAdapter.DEBUG) Log.e(ExpandableAdapter.LOG_TAG, "doExpandAndCollapse() the expandedIsShown");
 				}
 			}
 
@@ -822,29 +2952,30 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 							if (getExpandableAdapter()==null)
 								return;
 
-							if (collapsePosition != RecyclerView.NO_POSITION) {
-								ExpandableViewHolder viewHolder = (ExpandableViewHolder) findViewHolderForPosition(collapsePosition + getHeaderViewsCount());
+							for (int collapsePosition : collapsePositions) {
+								ExpandableViewHolder viewHolder = (ExpandableViewHolder) findViewHolderForPosition(getExpandableAdapter().getGroupFlatPosition(collapsePosition) + getHeaderViewsCount());
 								if (null != viewHolder) {
 									getExpandableAdapter().setExpandedViewHolder(viewHolder, false, false);
 								}
 							}
 
-							if (expandPosition != RecyclerView.NO_POSITION) {
-								ExpandableViewHolder viewHolder = (ExpandableViewHolder) findViewHolderForPosition(expandPosition + getHeaderViewsCount());
+							for (int expandPosition : expandPositions) {
+								ExpandableViewHolder viewHolder = (ExpandableViewHolder) findViewHolderForPosition(getExpandableAdapter().getGroupFlatPosition(expandPosition) + getHeaderViewsCount());
 								if (null != viewHolder) {
 									getExpandableAdapter().setExpandedViewHolder(viewHolder, true, false);
 								}
+							}
 
-								if (getLayoutManager() instanceof LinearLayoutManager) {
-									LinearLayoutManager linearLayoutManager = (LinearLayoutManager) getLayoutManager();
-									int childViewCount = getExpandableAdapter().getChildrenCount(expandPosition);
-									//Log.e(LOG_TAG,  "lastFull = "+linearLayoutManager.findLastCompletelyVisibleItemPosition()+" group+Child"+(groupPosition + childViewCount));
-									if (linearLayoutManager.findFirstVisibleItemPosition() < expandPosition + getHeaderViewsCount() &&
-											linearLayoutManager.findLastCompletelyVisibleItemPosition() < expandPosition + getHeaderViewsCount() + childViewCount) {
-										if (ExpandableAdapter.DEBUG) Log.i(ExpandableAdapter.LOG_TAG, "scroll to show more expanded items");
-
-										smoothScrollToPosition(expandPosition + getHeaderViewsCount() + childViewCount);
-									}
+							if (expandPosition != RecyclerView.NO_POSITION) {
+								// a single group was expanded, show its children
+								final int expandedFlatPosition = getExpandableAdapter().getGroupFlatPosition(expandPosition) + getHeaderViewsCount();
+								int childViewCount = getExpandableAdapter().getExpandedGroups().getGroupChildCount(expandPosition);
+								// in a grid the last child may share its row with completely visible children
+								if (findVisiblePosition(true, false) < expandedFlatPosition &&
+										findVisiblePosition(false, true) < expandedFlatPosition + childViewCount) {
+									if (ExpandableAdapter.DEBUG) Log.i(ExpandableAdapter.LOG_TAG, "scroll to show more expanded items");
+
+									smoothScrollToPosition(expandedFlatPosition + childViewCount);
 								}
 							}
 
@@ -873,6 +3004,37 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		expandAndCollapse(RecyclerView.NO_POSITION, groupPosition);
 	}
 
+	/**
+	 * Whether the displayed group at {@code groupPosition} is expanded.
+	 */
+	public boolean isGroupExpanded(int groupPosition) {
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		return null != adapter && adapter.isGroupExpanded(groupPosition);
+	}
+
+	/**
+	 * Set the maximum number of groups expanded at the same time, 1 by default. When a group is expanded past that limit,
+	 * the groups expanded the longest time ago are collapsed in the same layout pass.
+	 * <p>{@link #expandAll()} is not limited, the limit applies again once the groups are collapsed back within it.</p>
+	 *
+	 * @param maxExpandedGroups the maximum number of expanded groups, 0 for no limit.
+	 */
+	public void setMaxExpandedGroups(int maxExpandedGroups) {
+		if (maxExpandedGroups < 0)
+			throw new IllegalArgumentException("invalid maximum number of expanded groups " + maxExpandedGroups);
+		this.maxExpandedGroups = maxExpandedGroups;
+		this.expandLimitLifted = false;
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (maxExpandedGroups != 0 && null != adapter && adapter.getExpandedGroups().size() > maxExpandedGroups) {
+			// collapse the extra groups expanded the longest time ago
+			expandAndCollapse(RecyclerView.NO_POSITION, RecyclerView.NO_POSITION);
+		}
+	}
+
+	public int getMaxExpandedGroups() {
+		return maxExpandedGroups;
+	}
+
 	private void doSetSelectedGroup(int groupPosition) {
 		if (groupPosition < 0)
 			groupPosition = RecyclerView.NO_POSITION;
@@ -883,16 +3045,16 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 				ExpandableViewHolder selectedViewHolder = (ExpandableViewHolder) findViewHolderForPosition(selectedGroup);
 				if (null != selectedViewHolder) {
 					selectedViewHolder.isSelected = false;
-					getExpandableAdapter().notifyGroupChanged(selectedGroup);
+					getExpandableAdapter().notifyDisplayedGroupChanged(selectedGroup);
 				}
 			}
 
 			selectedGroup = groupPosition;
 			if (getExpandableAdapter().hasStableIds()) {
 				if (getExpandableAdapter().useLegacyStableIds)
-					selectedStableId = new ExpandableAdapter.LongParcelable(getExpandableAdapter().getGroupId(groupPosition));
+					selectedStableId = new ExpandableAdapter.LongParcelable(getExpandableAdapter().getGroupId(getExpandableAdapter().getSourceGroup(groupPosition)));
 				else
-					selectedStableId = getExpandableAdapter().getGroupStableId(groupPosition);
+					selectedStableId = getExpandableAdapter().getGroupStableId(getExpandableAdapter().getSourceGroup(groupPosition));
 			} else {
 				selectedStableId = null;
 			}
@@ -901,7 +3063,7 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 				ExpandableViewHolder selectedViewHolder = (ExpandableViewHolder) findViewHolderForPosition(selectedGroup);
 				if (null != selectedViewHolder) {
 					selectedViewHolder.isSelected = true;
-					getExpandableAdapter().notifyGroupChanged(selectedGroup);
+					getExpandableAdapter().notifyDisplayedGroupChanged(selectedGroup);
 				}
 			}
 		}
@@ -937,9 +3099,180 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		return ExpandableListView.getPackedPositionForGroup(selectedGroup);
 	}
 
+	/**
+	 * Equivalent of {@link android.widget.ExpandableListView#getFlatListPosition(long)} for an {@code ExpandableRecyclerView}.
+	 * <p>The group and child positions are the displayed positions, like {@link #getSelectedPosition()}.</p>
+	 *
+	 * @return the adapter position, including the header views, or {@link #NO_POSITION} if the packed position is not
+	 * displayed or is the child of a collapsed group.
+	 */
+	public int getFlatListPosition(long packedPosition) {
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null == adapter)
+			return RecyclerView.NO_POSITION;
+		final int type = ExpandableListView.getPackedPositionType(packedPosition);
+		if (type == ExpandableListView.PACKED_POSITION_TYPE_NULL)
+			return RecyclerView.NO_POSITION;
+
+		final int groupPosition = ExpandableListView.getPackedPositionGroup(packedPosition);
+		if (groupPosition < 0 || groupPosition >= adapter.getDisplayedGroupCount())
+			return RecyclerView.NO_POSITION;
+		final int groupFlatPosition = getHeaderViewsCount() + adapter.getGroupFlatPosition(groupPosition);
+		if (type == ExpandableListView.PACKED_POSITION_TYPE_GROUP)
+			return groupFlatPosition;
+
+		final int childPosition = ExpandableListView.getPackedPositionChild(packedPosition);
+		if (childPosition < 0 || childPosition >= adapter.getExpandedGroups().getGroupChildCount(groupPosition))
+			return RecyclerView.NO_POSITION;
+		return groupFlatPosition + 1 + childPosition;
+	}
+
+	/**
+	 * Equivalent of {@link android.widget.ExpandableListView#getExpandableListPosition(int)} for an {@code ExpandableRecyclerView}.
+	 * <p>The group and child positions are the displayed positions, like {@link #getSelectedPosition()}.</p>
+	 *
+	 * @param flatListPosition the adapter position, including the header views
+	 * @return {@link ExpandableListView#PACKED_POSITION_VALUE_NULL} for a header, a footer or an invalid position.
+	 */
+	public long getExpandableListPosition(int flatListPosition) {
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null == adapter)
+			return ExpandableListView.PACKED_POSITION_VALUE_NULL;
+		final int flatPosition = flatListPosition - getHeaderViewsCount();
+		if (flatPosition < 0 || flatPosition >= adapter.getItemCount())
+			return ExpandableListView.PACKED_POSITION_VALUE_NULL;
+
+		final int groupPosition = adapter.getFlatGroup(flatPosition);
+		final int childPosition = adapter.getFlatChild(flatPosition);
+		if (childPosition == RecyclerView.NO_POSITION)
+			return ExpandableListView.getPackedPositionForGroup(groupPosition);
+		return ExpandableListView.getPackedPositionForChild(groupPosition, childPosition);
+	}
+
+	/**
+	 * Get the packed position of the first visible group or child.
+	 *
+	 * @return {@link ExpandableListView#PACKED_POSITION_VALUE_NULL} if no group or child is visible.
+	 * @see #getExpandableListPosition(int)
+	 */
+	public long getFirstVisiblePackedPosition() {
+		return getVisiblePackedPosition(true);
+	}
+
+	/**
+	 * Get the packed position of the last visible group or child.
+	 *
+	 * @return {@link ExpandableListView#PACKED_POSITION_VALUE_NULL} if no group or child is visible.
+	 * @see #getExpandableListPosition(int)
+	 */
+	public long getLastVisiblePackedPosition() {
+		return getVisiblePackedPosition(false);
+	}
+
+	private long getVisiblePackedPosition(boolean first) {
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null == adapter)
+			return ExpandableListView.PACKED_POSITION_VALUE_NULL;
+		final int position = findVisiblePosition(first, false);
+		if (position == RecyclerView.NO_POSITION)
+			return ExpandableListView.PACKED_POSITION_VALUE_NULL;
+		final int flatPosition = position - getHeaderViewsCount();
+		if (flatPosition >= 0 && flatPosition < adapter.getItemCount())
+			return getExpandableListPosition(position);
+
+		// a header or a footer is visible at that end, the groups may be visible after it
+		final int otherPosition = findVisiblePosition(!first, false) - getHeaderViewsCount();
+		if (first ? flatPosition < 0 && otherPosition >= 0 : flatPosition >= adapter.getItemCount() && otherPosition < adapter.getItemCount())
+			return getExpandableListPosition(getHeaderViewsCount() + (first ? 0 : adapter.getItemCount() - 1));
+		return ExpandableListView.PACKED_POSITION_VALUE_NULL;
+	}
+
+	/**
+	 * Expand all the displayed groups.
+	 * <p>Up to {@value #MAX_ANIMATED_BULK_GROUPS} groups are expanded with the same animation as {@link #expandGroup(int)},
+	 * past that all the rows are changed in a single layout pass without animation and the first visible row stays in
+	 * place.</p>
+	 * <p>All the groups are expanded even past the {@link #setMaxExpandedGroups(int) maximum number of expanded groups},
+	 * 1 by default. Collapsing groups doesn't collapse the others, the maximum applies again to the groups expanded
+	 * once the expanded groups are back within it.</p>
+	 */
+	public void expandAll() {
+		if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "expandAll");
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null == adapter)
+			return;
+		final int groupCount = adapter.getDisplayedGroupCount();
+		if (maxExpandedGroups != 0 && groupCount > maxExpandedGroups)
+			expandLimitLifted = true;
+		final int expandCount = groupCount - adapter.getExpandedGroups().size();
+		if (expandCount > MAX_ANIMATED_BULK_GROUPS)
+			setAllGroupsExpanded(adapter, true);
+		else if (expandCount != 0)
+			expandAndCollapse(ALL_GROUPS, RecyclerView.NO_POSITION);
+	}
+
+	/**
+	 * Collapse all the expanded groups.
+	 * <p>Up to {@value #MAX_ANIMATED_BULK_GROUPS} groups are collapsed with the same animation as {@link #collapseGroup(int)},
+	 * past that all the rows are changed in a single layout pass without animation and the first visible row stays in
+	 * place.</p>
+	 */
 	public void collapseAll() {
 		if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "collapseAll");
-		expandAndCollapse(RecyclerView.NO_POSITION, getExpandableAdapter().expandedPosition);
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null == adapter)
+			return;
+		expandLimitLifted = false;
+		final int collapseCount = adapter.getExpandedGroups().size();
+		if (collapseCount > MAX_ANIMATED_BULK_GROUPS)
+			setAllGroupsExpanded(adapter, false);
+		else if (collapseCount != 0)
+			expandAndCollapse(RecyclerView.NO_POSITION, ALL_GROUPS);
+	}
+
+	/**
+	 * Expand or collapse all the displayed groups with a single {@code notifyDataSetChanged()}, the first visible row is
+	 * scrolled back to its place, or its group if it was a child collapsed.
+	 */
+	private void setAllGroupsExpanded(ExpandableAdapter adapter, boolean expanded) {
+		flushPendingRemovals();
+		final int anchorPosition = findVisiblePosition(true, false);
+		final int anchorFlatPosition = anchorPosition - getHeaderViewsCount();
+		final View anchorView = anchorPosition == RecyclerView.NO_POSITION ? null : getLayoutManager().findViewByPosition(anchorPosition);
+		int anchorGroup = RecyclerView.NO_POSITION;
+		int anchorChild = RecyclerView.NO_POSITION;
+		int anchorOffset = 0;
+		if (null != anchorView && anchorFlatPosition >= 0 && anchorFlatPosition < adapter.getItemCount()) {
+			// a header or a footer doesn't move
+			anchorGroup = adapter.getFlatGroup(anchorFlatPosition);
+			anchorChild = adapter.getFlatChild(anchorFlatPosition);
+			anchorOffset = getRowOffset(anchorView);
+		}
+
+		final int[] changedGroups = expanded ? getExpandPositions(ALL_GROUPS) : adapter.getExpandedGroups().getGroups();
+		if (!adapter.setAllGroupsExpanded(expanded))
+			return;
+		if (expanded && null != adapter.nestedChildLists) {
+			adapter.nestedChildLists.prefill(this);
+		}
+		getAdapter().notifyDataSetChanged();
+
+		if (anchorGroup != RecyclerView.NO_POSITION) {
+			int flatPosition = adapter.getGroupFlatPosition(anchorGroup);
+			if (anchorChild != RecyclerView.NO_POSITION && anchorChild < adapter.getExpandedGroups().getGroupChildCount(anchorGroup))
+				flatPosition += 1 + anchorChild;
+			if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "keep the first visible row at " + flatPosition + " offset=" + anchorOffset);
+			scrollToPositionWithOffset(getHeaderViewsCount() + flatPosition, anchorOffset);
+		}
+
+		for (int groupPosition : changedGroups) {
+			if (expanded) {
+				if (null != onGroupExpandListener)
+					onGroupExpandListener.onGroupExpand(groupPosition);
+			} else if (null != onGroupCollapseListener) {
+				onGroupCollapseListener.onGroupCollapse(groupPosition);
+			}
+		}
 	}
 
 	/**
@@ -963,7 +3296,89 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		this.onGroupClickListener = onGroupClickListener;
 	}
 
+	/**
+	 * Equivalent of {@link android.widget.ExpandableListView#setOnChildClickListener(android.widget.ExpandableListView.OnChildClickListener)} for an {@code ExpandableRecyclerView}.
+	 */
+	public void setOnChildClickListener(OnChildClickListener onChildClickListener) {
+		this.onChildClickListener = onChildClickListener;
+	}
+
+	/**
+	 * Register a callback to be invoked when a group or a child is long pressed.
+	 */
+	public void setOnItemLongClickListener(OnItemLongClickListener onItemLongClickListener) {
+		this.onItemLongClickListener = onItemLongClickListener;
+	}
+
+	/**
+	 * Expand and collapse the groups with a double tap instead of a single tap. The single taps are then only reported
+	 * to {@link ExpandableViewHolder#onViewClicked(View)} and the {@link OnGroupClickListener}. Clicks from a key or an
+	 * accessibility action still expand and collapse the groups. Disabled by default.
+	 */
+	public void setDoubleTapToExpand(boolean doubleTapToExpand) {
+		touchDispatcher.setDoubleTapToExpand(doubleTapToExpand);
+	}
+
+	public boolean isDoubleTapToExpand() {
+		return touchDispatcher.isDoubleTapToExpand();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The D-pad center and Enter keys not handled by the focused row click it, like a tap.</p>
+	 */
+	@Override
+	public boolean dispatchKeyEvent(KeyEvent event) {
+		if (super.dispatchKeyEvent(event))
+			return true;
+		final int keyCode = event.getKeyCode();
+		if (keyCode != KeyEvent.KEYCODE_DPAD_CENTER && keyCode != KeyEvent.KEYCODE_ENTER && keyCode != KeyEvent.KEYCODE_NUMPAD_ENTER)
+			return false;
+		final View itemView = getFocusedChild();
+		if (null == itemView || !(getChildViewHolder(itemView) instanceof ExpandableViewHolder))
+			return false;
+		if (event.getAction() == KeyEvent.ACTION_UP)
+			touchDispatcher.dispatchRowClick(itemView);
+		return true;
+	}
+
+	/**
+	 * Handle a click on the group at the displayed {@code groupPosition}.
+	 *
+	 * @param reportClick whether the click is reported to the holder and the {@link OnGroupClickListener}, not for a double tap
+	 * @param toggle whether the group is expanded or collapsed if the click is not handled, not for a single tap that could
+	 *               have been a double tap
+	 */
+	void dispatchGroupClick(ExpandableViewHolder holder, int groupPosition, boolean reportClick, boolean toggle) {
+		if (reportClick && holder.onViewClicked(holder.itemView))
+			return;
+		if (!holder.canExpand())
+			return;
+		if (reportClick && null != onGroupClickListener && onGroupClickListener.onGroupClick(this, holder.itemView, groupPosition, 0))
+			return; // tap already handled
+		if (toggle)
+			getExpandableAdapter().toggleGroup(groupPosition);
+	}
+
+	/**
+	 * Handle a tap on the displayed child at {@code childPosition} in the displayed group at {@code groupPosition}.
+	 */
+	void dispatchChildClick(ExpandableViewHolder holder, int groupPosition, int childPosition) {
+		if (holder.onViewClicked(holder.itemView))
+			return;
+		if (null != onChildClickListener)
+			onChildClickListener.onChildClick(this, holder.itemView, groupPosition, childPosition, holder.getItemId());
+	}
+
+	/**
+	 * @return whether the long press on the row was handled.
+	 */
+	boolean dispatchItemLongClick(View itemView, int groupPosition, int childPosition) {
+		return null != onItemLongClickListener && onItemLongClickListener.onItemLongClick(this, itemView, groupPosition, childPosition);
+	}
+
 	private void changeRange(final int groupPosition, final int childCount) {
+		flushPendingRemovals();
 		if (super.getItemAnimator() == mUserItemAnimator) {
 			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "changeRange with current animator mUserItemAnimator=" + mUserItemAnimator);
 			getAdapter().notifyItemRangeChanged(groupPosition + getHeaderViewsCount(), childCount);
@@ -987,6 +3402,7 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	}
 
 	private void insertRange(final int groupPosition, final int childCount) {
+		flushPendingRemovals();
 		if (super.getItemAnimator() == mUserItemAnimator) {
 			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "insertRange with current animator mUserItemAnimator=" + mUserItemAnimator);
 			getAdapter().notifyItemRangeInserted(groupPosition + getHeaderViewsCount(), childCount);
@@ -1009,7 +3425,112 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		}
 	}
 
+	private void moveItem(final int fromPosition, final int toPosition) {
+		flushPendingRemovals();
+		if (super.getItemAnimator() == mUserItemAnimator) {
+			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "moveItem with current animator mUserItemAnimator=" + mUserItemAnimator);
+			getAdapter().notifyItemMoved(fromPosition + getHeaderViewsCount(), toPosition + getHeaderViewsCount());
+		} else if (super.getItemAnimator() == null) {
+			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "moveItem with no current animator mUserItemAnimator=" + mUserItemAnimator);
+			super.setItemAnimator(mUserItemAnimator);
+			getAdapter().notifyItemMoved(fromPosition + getHeaderViewsCount(), toPosition + getHeaderViewsCount());
+		} else {
+			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "moveItem with current custom animator " + super.getItemAnimator()+" isRunning="+super.getItemAnimator().isRunning());
+			super.getItemAnimator().isRunning(new ItemAnimator.ItemAnimatorFinishedListener() {
+				@Override
+				public void onAnimationsFinished() {
+					if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "animation before moveItem finished set mUserItemAnimator");
+					if (ExpandableRecyclerView.super.getItemAnimator() != mUserItemAnimator) {
+						ExpandableRecyclerView.super.setItemAnimator(mUserItemAnimator);
+					}
+					moveItem(fromPosition, toPosition);
+				}
+			});
+		}
+	}
+
+	/** flat range of the removals not notified yet, merged until the end of the current batch */
+	private int pendingRemoveStart = RecyclerView.NO_POSITION;
+	private int pendingRemoveCount;
+	/** number of {@link #beginBatchedNotifications()} not ended yet */
+	private int notificationBatchDepth;
+
+	/**
+	 * Start merging the adjacent removals notified with {@link #notifyRemovedRange(int, int)}, until the matching
+	 * {@link #endBatchedNotifications()}. The running custom animations are ended so the notifications of the batch
+	 * are not deferred.
+	 */
+	void beginBatchedNotifications() {
+		if (notificationBatchDepth++ == 0 && super.getItemAnimator() != mUserItemAnimator) {
+			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "beginBatchedNotifications with current custom animator " + super.getItemAnimator() + " set mUserItemAnimator");
+			super.setItemAnimator(mUserItemAnimator);
+		}
+	}
+
+	/**
+	 * Notify the removals merged since the matching {@link #beginBatchedNotifications()}.
+	 */
+	void endBatchedNotifications() {
+		if (--notificationBatchDepth == 0) {
+			flushPendingRemovals();
+		}
+	}
+
+	/**
+	 * Notify a range of items already removed from the adapter. Unlike {@link #removeRange(int, int)} it doesn't wait
+	 * for the running animations, the removal is notified right away or merged with the adjacent removals of the
+	 * current batch.
+	 */
+	void notifyRemovedRange(int groupPosition, int childCount) {
+		if (notificationBatchDepth == 0) {
+			notifyRemovedRangeNow(groupPosition, childCount);
+			return;
+		}
+
+		if (pendingRemoveStart != RecyclerView.NO_POSITION) {
+			if (groupPosition == pendingRemoveStart) {
+				// removed at the same position after the pending range
+				pendingRemoveCount += childCount;
+				return;
+			}
+			if (groupPosition + childCount == pendingRemoveStart) {
+				// removed just before the pending range
+				pendingRemoveStart = groupPosition;
+				pendingRemoveCount += childCount;
+				return;
+			}
+			flushPendingRemovals();
+		}
+		pendingRemoveStart = groupPosition;
+		pendingRemoveCount = childCount;
+	}
+
+	/**
+	 * Notify the removals merged in the current batch, this must be done before any other notification.
+	 */
+	void flushPendingRemovals() {
+		if (pendingRemoveStart == RecyclerView.NO_POSITION)
+			return;
+
+		final int start = pendingRemoveStart;
+		final int count = pendingRemoveCount;
+		pendingRemoveStart = RecyclerView.NO_POSITION;
+		pendingRemoveCount = 0;
+		notifyRemovedRangeNow(start, count);
+	}
+
+	private void notifyRemovedRangeNow(int groupPosition, int childCount) {
+		if (super.getItemAnimator() != mUserItemAnimator) {
+			// the adapter is already modified, the running custom animations are ended rather than waited for
+			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "notifyRemovedRange with current custom animator " + super.getItemAnimator() + " set mUserItemAnimator");
+			super.setItemAnimator(mUserItemAnimator);
+		}
+		if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "notifyRemovedRange start=" + groupPosition + " count=" + childCount);
+		getAdapter().notifyItemRangeRemoved(groupPosition + getHeaderViewsCount(), childCount);
+	}
+
 	private void removeRange(final int groupPosition, final int childCount) {
+		flushPendingRemovals();
 		if (super.getItemAnimator() == mUserItemAnimator) {
 			if (DEBUG_ANIMATOR) Log.i(ANIM_TAG, "removeRange with current animator mUserItemAnimator=" + mUserItemAnimator);
 			getAdapter().notifyItemRangeRemoved(groupPosition + getHeaderViewsCount(), childCount);
@@ -1035,15 +3556,76 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	private final Runnable refreshDisplay = new Runnable() {
 		@Override
 		public void run() {
-			if (getLayoutManager() instanceof LinearLayoutManager && isFirstLayoutPassed() && getExpandableAdapter()!=null) {
-				LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
-				int first = layoutManager.findFirstVisibleItemPosition();
-				int last = layoutManager.findLastVisibleItemPosition();
-				getAdapter().notifyItemRangeChanged(first, last);
+			if (null != getLayoutManager() && isFirstLayoutPassed() && getExpandableAdapter()!=null) {
+				int first = findVisiblePosition(true, false);
+				int last = findVisiblePosition(false, false);
+				if (first != RecyclerView.NO_POSITION && last >= first)
+					getAdapter().notifyItemRangeChanged(first, last - first + 1);
 			}
 		}
 	};
 
+	/** positions of each span of a {@code StaggeredGridLayoutManager} */
+	private int[] spanPositions;
+
+	/**
+	 * Find the first or last visible adapter position, with any {@link LayoutManager}.
+	 *
+	 * @param first      whether the first or the last position is looked for
+	 * @param completely whether the item must be completely visible
+	 * @return {@link #NO_POSITION} if there are no visible items.
+	 */
+	int findVisiblePosition(boolean first, boolean completely) {
+		final LayoutManager layoutManager = getLayoutManager();
+		if (layoutManager instanceof LinearLayoutManager) {
+			// including GridLayoutManager
+			LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+			if (first)
+				return completely ? linearLayoutManager.findFirstCompletelyVisibleItemPosition() : linearLayoutManager.findFirstVisibleItemPosition();
+			return completely ? linearLayoutManager.findLastCompletelyVisibleItemPosition() : linearLayoutManager.findLastVisibleItemPosition();
+		}
+
+		if (layoutManager instanceof StaggeredGridLayoutManager) {
+			StaggeredGridLayoutManager staggeredLayoutManager = (StaggeredGridLayoutManager) layoutManager;
+			if (null == spanPositions || spanPositions.length != staggeredLayoutManager.getSpanCount())
+				spanPositions = new int[staggeredLayoutManager.getSpanCount()];
+			if (first) {
+				if (completely)
+					staggeredLayoutManager.findFirstCompletelyVisibleItemPositions(spanPositions);
+				else
+					staggeredLayoutManager.findFirstVisibleItemPositions(spanPositions);
+			} else {
+				if (completely)
+					staggeredLayoutManager.findLastCompletelyVisibleItemPositions(spanPositions);
+				else
+					staggeredLayoutManager.findLastVisibleItemPositions(spanPositions);
+			}
+			// each span has its own first and last items, empty spans have none
+			int result = RecyclerView.NO_POSITION;
+			for (int position : spanPositions) {
+				if (position != RecyclerView.NO_POSITION && (result == RecyclerView.NO_POSITION || (first ? position < result : position > result)))
+					result = position;
+			}
+			return result;
+		}
+
+		int result = RecyclerView.NO_POSITION;
+		if (null != layoutManager) {
+			for (int i = layoutManager.getChildCount() - 1; i >= 0; --i) {
+				View child = layoutManager.getChildAt(i);
+				if (completely && (layoutManager.getDecoratedTop(child) < layoutManager.getPaddingTop()
+						|| layoutManager.getDecoratedBottom(child) > layoutManager.getHeight() - layoutManager.getPaddingBottom()
+						|| layoutManager.getDecoratedLeft(child) < layoutManager.getPaddingLeft()
+						|| layoutManager.getDecoratedRight(child) > layoutManager.getWidth() - layoutManager.getPaddingRight()))
+					continue;
+				final int position = layoutManager.getPosition(child);
+				if (result == RecyclerView.NO_POSITION || (first ? position < result : position > result))
+					result = position;
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Refresh all the displayed items (rebind the data to update the content)
 	 */
@@ -1066,17 +3648,21 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 	}
 
 	private class ExpandAndCollapseItemAnimator extends DefaultItemAnimator {
-		private final int expandPosition;
-		private final int collapsePosition;
-		private boolean expandListenerCalled;
-		private boolean collapseListenerCalled;
-
-		public ExpandAndCollapseItemAnimator(int expandPosition, int collapsePosition) {
-			this.expandPosition = expandPosition;
-			this.collapsePosition = collapsePosition;
-
-			collapseListenerCalled = collapsePosition == RecyclerView.NO_POSITION;
-			expandListenerCalled = expandPosition == RecyclerView.NO_POSITION;
+		private final int[] expandPositions;
+		private final int[] collapsePositions;
+		private final boolean[] expandListenerCalled;
+		private final boolean[] collapseListenerCalled;
+		private int pendingExpandListeners;
+		private int pendingCollapseListeners;
+
+		public ExpandAndCollapseItemAnimator(int[] expandPositions, int[] collapsePositions) {
+			this.expandPositions = expandPositions;
+			this.collapsePositions = collapsePositions;
+
+			collapseListenerCalled = new boolean[collapsePositions.length];
+			pendingCollapseListeners = collapsePositions.length;
+			expandListenerCalled = new boolean[expandPositions.length];
+			pendingExpandListeners = expandPositions.length;
 
 			setAddDuration(0);
 			setRemoveDuration(0);
@@ -1090,13 +3676,15 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 
 			// TODO even when the element was not shown
 
-			if (!collapseListenerCalled && item instanceof ExpandableViewHolder) {
+			if (pendingCollapseListeners != 0 && item instanceof ExpandableViewHolder) {
 				int holderPosition = getExpandableAdapter().getHolderGroupPosition((ExpandableViewHolder) item, false);
-				if (holderPosition == collapsePosition) {
+				int collapseIndex = Arrays.binarySearch(collapsePositions, holderPosition);
+				if (collapseIndex >= 0 && !collapseListenerCalled[collapseIndex]) {
 					if (ExpandableAdapter.DEBUG) Log.v(ExpandableAdapter.LOG_TAG, "removed the collapsed item");
 					if (null != onGroupCollapseListener)
-						onGroupCollapseListener.onGroupCollapse(collapsePosition);
-					collapseListenerCalled = true;
+						onGroupCollapseListener.onGroupCollapse(holderPosition);
+					collapseListenerCalled[collapseIndex] = true;
+					--pendingCollapseListeners;
 				}
 			}
 			if (DEBUG_ANIMATOR) Log.v(ANIM_TAG, this + " onRemoveFinished finished item=" + item+ " isRunning="+isRunning());
@@ -1109,13 +3697,15 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 
 			// TODO even when the element was not shown
 
-			if (!expandListenerCalled && item instanceof ExpandableViewHolder) {
+			if (pendingExpandListeners != 0 && item instanceof ExpandableViewHolder) {
 				int holderPosition = getExpandableAdapter().getHolderGroupPosition((ExpandableViewHolder) item, false);
-				if (holderPosition == expandPosition) {
+				int expandIndex = Arrays.binarySearch(expandPositions, holderPosition);
+				if (expandIndex >= 0 && !expandListenerCalled[expandIndex]) {
 					if (ExpandableAdapter.DEBUG) Log.v(ExpandableAdapter.LOG_TAG, "added the expanded item");
 					if (null != onGroupExpandListener)
-						onGroupExpandListener.onGroupExpand(expandPosition);
-					expandListenerCalled = true;
+						onGroupExpandListener.onGroupExpand(holderPosition);
+					expandListenerCalled[expandIndex] = true;
+					--pendingExpandListeners;
 				}
 			}
 			if (DEBUG_ANIMATOR) Log.v(ANIM_TAG, this + " onAddFinished finished item=" + item+ " isRunning="+isRunning());
@@ -1123,31 +3713,62 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 
 		@Override
 		public boolean isRunning() {
-			return (!collapseListenerCalled || !expandListenerCalled) && super.isRunning();
+			return (pendingCollapseListeners != 0 || pendingExpandListeners != 0) && super.isRunning();
 		}
 
 		@Override
 		public String toString() {
 			StringBuilder sb = new StringBuilder();
 			DebugUtils.buildShortClassTag(this, sb);
-			sb.append(" expandPosition=");
-			sb.append(expandPosition);
-			sb.append(" collapsePosition=");
-			sb.append(collapsePosition);
+			sb.append(" expandPositions=");
+			sb.append(Arrays.toString(expandPositions));
+			sb.append(" collapsePositions=");
+			sb.append(Arrays.toString(collapsePositions));
 			sb.append('}');
 			return sb.toString();
 		}
 	}
 
 	static class SavedState extends AbsSavedState {
+		private static final int ID_NONE = 0;
+		private static final int ID_LONG = 1;
+		private static final int ID_PARCELABLE = 2;
 
 		public Parcelable selectedStableId;
-		public Parcelable expandedStableId;
+		/** all the groups are expanded but the {@link #expandedStableIds}, which are the collapsed ones */
+		public boolean allExpanded;
+		/** stable IDs of the expanded groups, of the collapsed ones if {@link #allExpanded}, {@code null} if they are not known */
+		public Parcelable[] expandedStableIds;
+		/** order in which each of the {@link #expandedStableIds} was expanded, the most recent one has the highest, not used if {@link #allExpanded} */
+		public long[] expandOrder;
+		/** the groups were expanded with {@link #expandAll()} past the maximum */
+		public boolean expandLimitLifted;
+		/** stable ID of the group of the first visible row, {@code null} if it's not known */
+		public Parcelable anchorStableId;
+		/** child ID of the first visible row, {@link #NO_ID} if it's a group */
+		public long anchorChildId = NO_ID;
+		/** pixels between the start of the first visible row and the start of the list */
+		public int anchorOffset;
 
 		public SavedState(Parcel in) {
 			super(in.readParcelable(RecyclerView.class.getClassLoader()));
-			selectedStableId = in.readParcelable(getClass().getClassLoader());
-			expandedStableId = in.readParcelable(getClass().getClassLoader());
+			selectedStableId = readStableId(in);
+			allExpanded = in.readInt() != 0;
+			final int expandedCount = in.readInt();
+			if (expandedCount >= 0) {
+				expandedStableIds = new Parcelable[expandedCount];
+				expandOrder = new long[expandedCount];
+				for (int i = 0; i < expandedCount; ++i) {
+					expandedStableIds[i] = readStableId(in);
+					expandOrder[i] = in.readLong();
+				}
+			}
+			expandLimitLifted = in.readInt() != 0;
+			anchorStableId = readStableId(in);
+			if (null != anchorStableId) {
+				anchorChildId = in.readLong();
+				anchorOffset = in.readInt();
+			}
 		}
 
 		public SavedState(Parcelable superState) {
@@ -1157,8 +3778,49 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		@Override
 		public void writeToParcel(@NonNull Parcel dest, int flags) {
 			super.writeToParcel(dest, flags);
-			dest.writeParcelable(selectedStableId, 0);
-			dest.writeParcelable(expandedStableId, 0);
+			writeStableId(dest, selectedStableId);
+			dest.writeInt(allExpanded ? 1 : 0);
+			if (null == expandedStableIds) {
+				dest.writeInt(-1);
+			} else {
+				dest.writeInt(expandedStableIds.length);
+				for (int i = 0; i < expandedStableIds.length; ++i) {
+					writeStableId(dest, expandedStableIds[i]);
+					dest.writeLong(expandOrder[i]);
+				}
+			}
+			dest.writeInt(expandLimitLifted ? 1 : 0);
+			writeStableId(dest, anchorStableId);
+			if (null != anchorStableId) {
+				dest.writeLong(anchorChildId);
+				dest.writeInt(anchorOffset);
+			}
+		}
+
+		/**
+		 * The {@code long} stable IDs are written as a {@code long}, without the class name of a {@code Parcelable}.
+		 */
+		private static void writeStableId(Parcel dest, Parcelable stableId) {
+			if (null == stableId) {
+				dest.writeInt(ID_NONE);
+			} else if (stableId instanceof ExpandableAdapter.LongParcelable) {
+				dest.writeInt(ID_LONG);
+				dest.writeLong(((ExpandableAdapter.LongParcelable) stableId).getValue());
+			} else {
+				dest.writeInt(ID_PARCELABLE);
+				dest.writeParcelable(stableId, 0);
+			}
+		}
+
+		private Parcelable readStableId(Parcel in) {
+			switch (in.readInt()) {
+			case ID_LONG:
+				return new ExpandableAdapter.LongParcelable(in.readLong());
+			case ID_PARCELABLE:
+				return in.readParcelable(getClass().getClassLoader());
+			default:
+				return null;
+			}
 		}
 
 		public static final Parcelable.Creator<SavedState> CREATOR
@@ -1180,7 +3842,60 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		SavedState state = new SavedState(super.onSaveInstanceState());
 		state.selectedStableId = this.selectedStableId;
 		ExpandableAdapter adapter = getExpandableAdapter();
-		state.expandedStableId = adapter.expandedStableId;
+		if (null == adapter)
+			return state;
+		final ExpandedGroupIndex expandedGroups = adapter.getExpandedGroups();
+		final int groupCount = adapter.getDisplayedGroupCount();
+		state.allExpanded = expandLimitLifted || (groupCount != 0 && expandedGroups.size() == groupCount);
+		if (state.allExpanded) {
+			// a flag rather than the IDs of all the groups, with the few ones collapsed since expandAll()
+			final ArrayList<Parcelable> collapsedStableIds = new ArrayList<Parcelable>(groupCount - expandedGroups.size());
+			for (int i = 0; i < groupCount; ++i) {
+				if (!expandedGroups.isExpanded(i)) {
+					final Parcelable stableId = adapter.getStableId(adapter.getSourceGroup(i));
+					if (null != stableId)
+						collapsedStableIds.add(stableId);
+				}
+			}
+			state.expandedStableIds = collapsedStableIds.toArray(new Parcelable[collapsedStableIds.size()]);
+			state.expandOrder = new long[state.expandedStableIds.length];
+		} else {
+			final ArrayList<Parcelable> expandedStableIds = new ArrayList<Parcelable>(expandedGroups.size());
+			final long[] expandOrder = new long[expandedGroups.size()];
+			for (int i = 0; i < expandedGroups.size(); ++i) {
+				if (null != expandedGroups.getStableId(i)) {
+					expandOrder[expandedStableIds.size()] = expandedGroups.getExpandOrder(i);
+					expandedStableIds.add(expandedGroups.getStableId(i));
+				}
+			}
+			state.expandedStableIds = expandedStableIds.toArray(new Parcelable[expandedStableIds.size()]);
+			state.expandOrder = Arrays.copyOf(expandOrder, expandedStableIds.size());
+		}
+		state.expandLimitLifted = expandLimitLifted;
+		if (null != pendingState) {
+			// not restored yet, keep the anchor that was restored
+			state.anchorStableId = pendingState.anchorStableId;
+			state.anchorChildId = pendingState.anchorChildId;
+			state.anchorOffset = pendingState.anchorOffset;
+			return state;
+		}
+
+		final int position = findVisiblePosition(true, false);
+		final int flatPosition = position - getHeaderViewsCount();
+		if (position == RecyclerView.NO_POSITION || flatPosition < 0 || flatPosition >= adapter.getItemCount())
+			return state;
+		final View anchorView = getLayoutManager().findViewByPosition(position);
+		if (null == anchorView)
+			return state;
+
+		final int groupPosition = adapter.getSourceGroup(adapter.getFlatGroup(flatPosition));
+		final int childPosition = adapter.getFlatChild(flatPosition);
+		final long childId = childPosition == RecyclerView.NO_POSITION ? NO_ID : adapter.getChildId(groupPosition, adapter.getSourceChild(adapter.getFlatGroup(flatPosition), childPosition));
+		if (childPosition != RecyclerView.NO_POSITION && childId == NO_ID)
+			return state; // the child can't be found again
+		state.anchorStableId = adapter.getStableId(groupPosition);
+		state.anchorChildId = childId;
+		state.anchorOffset = getRowOffset(anchorView);
 		return state;
 	}
 
@@ -1189,9 +3904,127 @@ public class ExpandableRecyclerView extends RecyclerViewWithHeader {
 		SavedState savedState = (SavedState) state;
 		super.onRestoreInstanceState(savedState.getSuperState());
 		this.selectedStableId = savedState.selectedStableId;
-		ExpandableAdapter adapter = getExpandableAdapter();
-		if (null != adapter && adapter.hasStableIds()) {
-			adapter.expandedStableId = savedState.expandedStableId;
+		this.pendingState = savedState;
+		restorePendingState();
+	}
+
+	/**
+	 * Restore the expanded groups, the selected group and the first visible row of the state restored with
+	 * {@link #onRestoreInstanceState(Parcelable)} once the adapter has groups, so the next layout displays them directly.
+	 */
+	void restorePendingState() {
+		final ExpandableAdapter adapter = getExpandableAdapter();
+		if (null == pendingState || null == adapter || !adapter.hasStableIds() || adapter.getDisplayedGroupCount() == 0)
+			return;
+		final SavedState state = pendingState;
+		pendingState = null;
+
+		final int oldItemCount = adapter.getItemCount();
+		final ExpandedGroupIndex expandedGroups = adapter.getExpandedGroups();
+		final int oldExpandedVersion = expandedGroups.getVersion();
+		if (state.allExpanded) {
+			// a single O(n) expand, then the groups collapsed since
+			final int groupCount = adapter.getDisplayedGroupCount();
+			expandLimitLifted = maxExpandedGroups > 0 && groupCount > maxExpandedGroups;
+			adapter.setAllGroupsExpanded(true);
+			if (null != state.expandedStableIds) {
+				for (Parcelable collapsedStableId : state.expandedStableIds) {
+					final int groupPosition = adapter.getDisplayedGroup(adapter.getStableIdPosition(collapsedStableId));
+					if (groupPosition != RecyclerView.NO_POSITION)
+						adapter.setGroupExpanded(groupPosition, false);
+				}
+			}
+		} else if (null != state.expandedStableIds) {
+			// the displayed groups by expand order, only the most recent ones within the maximum are expanded
+			final long[] orderedGroups = new long[state.expandedStableIds.length];
+			int restoredCount = 0;
+			for (int i = 0; i < state.expandedStableIds.length; ++i) {
+				final int groupPosition = adapter.getDisplayedGroup(adapter.getStableIdPosition(state.expandedStableIds[i]));
+				if (groupPosition != RecyclerView.NO_POSITION)
+					orderedGroups[restoredCount++] = (state.expandOrder[i] << 32) | groupPosition;
+			}
+			Arrays.sort(orderedGroups, 0, restoredCount);
+			final int firstRestored = maxExpandedGroups <= 0 || state.expandLimitLifted ? 0 : Math.max(0, restoredCount - maxExpandedGroups);
+			expandLimitLifted = state.expandLimitLifted && maxExpandedGroups > 0 && restoredCount > maxExpandedGroups;
+			final int[] restoredGroups = new int[restoredCount - firstRestored];
+			for (int i = firstRestored; i < restoredCount; ++i) {
+				restoredGroups[i - firstRestored] = (int) orderedGroups[i];
+			}
+			Arrays.sort(restoredGroups);
+			final int[] expandedPositions = expandedGroups.getGroups();
+			for (int i = expandedPositions.length - 1; i >= 0; --i) {
+				if (Arrays.binarySearch(restoredGroups, expandedPositions[i]) < 0)
+					adapter.setGroupExpanded(expandedPositions[i], false);
+			}
+			// expanded again in the same order
+			for (int i = firstRestored; i < restoredCount; ++i) {
+				adapter.setGroupExpanded((int) orderedGroups[i], true);
+			}
+		}
+		if (null != state.selectedStableId) {
+			selectedGroup = adapter.getDisplayedGroup(adapter.getStableIdPosition(state.selectedStableId));
+		}
+		if (getChildCount() != 0 && (oldExpandedVersion != expandedGroups.getVersion() || oldItemCount != adapter.getItemCount())) {
+			// the rows were already laid out with the old expanded groups
+			adapter.notifyDataSetChanged();
+		}
+
+		if (null == state.anchorStableId)
+			return;
+		final int groupPosition = adapter.getDisplayedGroup(adapter.getStableIdPosition(state.anchorStableId));
+		if (groupPosition == RecyclerView.NO_POSITION)
+			return;
+		int flatPosition = adapter.getGroupFlatPosition(groupPosition);
+		if (state.anchorChildId != NO_ID) {
+			if (!adapter.isGroupExpanded(groupPosition))
+				return;
+			final int sourceGroup = adapter.getSourceGroup(groupPosition);
+			int childPosition = RecyclerView.NO_POSITION;
+			for (int i = 0, childCount = expandedGroups.getGroupChildCount(groupPosition); i < childCount; ++i) {
+				if (adapter.getChildId(sourceGroup, adapter.getSourceChild(groupPosition, i)) == state.anchorChildId) {
+					childPosition = i;
+					break;
+				}
+			}
+			if (childPosition == RecyclerView.NO_POSITION)
+				return;
+			flatPosition += 1 + childPosition;
+		}
+
+		if (ExpandableAdapter.DEBUG) Log.d(ExpandableAdapter.LOG_TAG, "restore the first visible row at " + flatPosition + " offset=" + state.anchorOffset);
+		scrollToPositionWithOffset(getHeaderViewsCount() + flatPosition, state.anchorOffset);
+	}
+
+	/**
+	 * Get the number of pixels between the start of the row {@code view} and the start of the list.
+	 */
+	private int getRowOffset(View view) {
+		if (isVerticalLayout())
+			return getLayoutManager().getDecoratedTop(view) - getPaddingTop();
+		return getLayoutManager().getDecoratedLeft(view) - getPaddingLeft();
+	}
+
+	/**
+	 * Scroll to put the row at the adapter {@code position} at {@code offset} pixels from the start of the list, when
+	 * the {@code LayoutManager} supports it.
+	 */
+	private void scrollToPositionWithOffset(int position, int offset) {
+		final LayoutManager layoutManager = getLayoutManager();
+		if (layoutManager instanceof LinearLayoutManager) {
+			((LinearLayoutManager) layoutManager).scrollToPositionWithOffset(position, offset);
+		} else if (layoutManager instanceof StaggeredGridLayoutManager) {
+			((StaggeredGridLayoutManager) layoutManager).scrollToPositionWithOffset(position, offset);
+		} else if (null != layoutManager) {
+			layoutManager.scrollToPosition(position);
 		}
 	}
+
+	private boolean isVerticalLayout() {
+		final LayoutManager layoutManager = getLayoutManager();
+		if (layoutManager instanceof LinearLayoutManager)
+			return ((LinearLayoutManager) layoutManager).getOrientation() == LinearLayoutManager.VERTICAL;
+		if (layoutManager instanceof StaggeredGridLayoutManager)
+			return ((StaggeredGridLayoutManager) layoutManager).getOrientation() == StaggeredGridLayoutManager.VERTICAL;
+		return null == layoutManager || layoutManager.canScrollVertically();
+	}
 }
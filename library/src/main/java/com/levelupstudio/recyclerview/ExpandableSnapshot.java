@@ -0,0 +1,235 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * An immutable list of groups and their children displayed by an {@link ExpandableSnapshotAdapter}.
+ * <p>A new snapshot is created from an existing one with an {@link Editor}, on any thread. The new snapshot shares the
+ * children of the groups that were not edited with the snapshot it was created from, and records the changes made
+ * so the adapter can notify them when it displays the new snapshot.</p>
+ *
+ * @param <G> the type of the groups
+ * @param <C> the type of the children
+ */
+public final class ExpandableSnapshot<G, C> {
+	private static final Object[] NO_ITEMS = new Object[0];
+	private static final int[] NO_OPS = new int[0];
+	private static final ExpandableSnapshot<?, ?> EMPTY = new ExpandableSnapshot<>(NO_ITEMS, new Object[0][], null, NO_OPS, 0);
+
+	static final int OP_GROUP_INSERTED = 0;
+	static final int OP_GROUP_REMOVED = 1;
+	static final int OP_GROUP_CHANGED = 2;
+	static final int OP_CHILD_INSERTED = 3;
+	static final int OP_CHILD_REMOVED = 4;
+	static final int OP_CHILD_CHANGED = 5;
+	/** each change is recorded as (op, group position, child position) */
+	static final int OP_SIZE = 3;
+
+	/** above this number of changes since the displayed snapshot, the adapter is refreshed without animations */
+	static final int MAX_RECORDED_OPS = 64;
+
+	private final Object[] groups;
+	private final Object[][] children;
+
+	/**
+	 * The snapshot this one was edited from, until the adapter displays this one.
+	 * {@code null} if the changes since the displayed snapshot are not known.
+	 */
+	volatile ExpandableSnapshot<G, C> previous;
+	/** changes made to {@link #previous} to create this snapshot */
+	final int[] ops;
+	/** number of changes recorded since the snapshot at the end of the {@link #previous} chain */
+	final int chainOpCount;
+
+	private ExpandableSnapshot(Object[] groups, Object[][] children, ExpandableSnapshot<G, C> previous, int[] ops, int chainOpCount) {
+		this.groups = groups;
+		this.children = children;
+		this.previous = previous;
+		this.ops = ops;
+		this.chainOpCount = chainOpCount;
+	}
+
+	/**
+	 * Get an empty snapshot.
+	 */
+	@SuppressWarnings("unchecked")
+	@NonNull
+	public static <G, C> ExpandableSnapshot<G, C> empty() {
+		return (ExpandableSnapshot<G, C>) EMPTY;
+	}
+
+	public int getGroupCount() {
+		return groups.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public G getGroup(int groupPosition) {
+		return (G) groups[groupPosition];
+	}
+
+	public int getChildrenCount(int groupPosition) {
+		return children[groupPosition].length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public C getChild(int groupPosition, int childPosition) {
+		return (C) children[groupPosition][childPosition];
+	}
+
+	/**
+	 * Start editing a copy of this snapshot.
+	 */
+	@NonNull
+	public Editor<G, C> edit() {
+		return new Editor<>(this);
+	}
+
+	/**
+	 * Creates a new {@link ExpandableSnapshot} from an existing one. An {@code Editor} must only be used by one thread.
+	 * <p>The groups are copied on the first structural change of the groups, the children of a group are copied on
+	 * the first change of that group's children.</p>
+	 */
+	public static final class Editor<G, C> {
+		private final ExpandableSnapshot<G, C> base;
+		private ArrayList<Object> groups;
+		/** the shared {@code Object[]} children of each group, or an {@code ArrayList} once they are edited */
+		private ArrayList<Object> children;
+		private int[] ops = new int[OP_SIZE * 4];
+		private int opCount;
+
+		private Editor(ExpandableSnapshot<G, C> base) {
+			this.base = base;
+		}
+
+		public int getGroupCount() {
+			return null == groups ? base.groups.length : groups.size();
+		}
+
+		public int getChildrenCount(int groupPosition) {
+			if (null == children)
+				return base.children[groupPosition].length;
+			Object groupChildren = children.get(groupPosition);
+			return groupChildren instanceof Object[] ? ((Object[]) groupChildren).length : ((List<?>) groupChildren).size();
+		}
+
+		@SuppressWarnings("unchecked")
+		public G getGroup(int groupPosition) {
+			return (G) (null == groups ? base.groups[groupPosition] : groups.get(groupPosition));
+		}
+
+		@SuppressWarnings("unchecked")
+		public C getChild(int groupPosition, int childPosition) {
+			if (null == children)
+				return (C) base.children[groupPosition][childPosition];
+			Object groupChildren = children.get(groupPosition);
+			return (C) (groupChildren instanceof Object[] ? ((Object[]) groupChildren)[childPosition] : ((List<?>) groupChildren).get(childPosition));
+		}
+
+		public Editor<G, C> addGroup(G group, @Nullable List<? extends C> groupChildren) {
+			return insertGroup(getGroupCount(), group, groupChildren);
+		}
+
+		public Editor<G, C> insertGroup(int groupPosition, G group, @Nullable List<? extends C> groupChildren) {
+			copyGroups();
+			groups.add(groupPosition, group);
+			children.add(groupPosition, null == groupChildren ? NO_ITEMS : groupChildren.toArray());
+			record(OP_GROUP_INSERTED, groupPosition, 0);
+			return this;
+		}
+
+		public Editor<G, C> removeGroup(int groupPosition) {
+			copyGroups();
+			groups.remove(groupPosition);
+			children.remove(groupPosition);
+			record(OP_GROUP_REMOVED, groupPosition, 0);
+			return this;
+		}
+
+		public Editor<G, C> setGroup(int groupPosition, G group) {
+			copyGroups();
+			groups.set(groupPosition, group);
+			record(OP_GROUP_CHANGED, groupPosition, 0);
+			return this;
+		}
+
+		public Editor<G, C> addChild(int groupPosition, C child) {
+			return insertChild(groupPosition, getChildrenCount(groupPosition), child);
+		}
+
+		public Editor<G, C> insertChild(int groupPosition, int childPosition, C child) {
+			editChildren(groupPosition).add(childPosition, child);
+			record(OP_CHILD_INSERTED, groupPosition, childPosition);
+			return this;
+		}
+
+		public Editor<G, C> removeChild(int groupPosition, int childPosition) {
+			editChildren(groupPosition).remove(childPosition);
+			record(OP_CHILD_REMOVED, groupPosition, childPosition);
+			return this;
+		}
+
+		public Editor<G, C> setChild(int groupPosition, int childPosition, C child) {
+			editChildren(groupPosition).set(childPosition, child);
+			record(OP_CHILD_CHANGED, groupPosition, childPosition);
+			return this;
+		}
+
+		/**
+		 * Create the new snapshot, the {@code Editor} must not be used anymore.
+		 */
+		@NonNull
+		public ExpandableSnapshot<G, C> build() {
+			if (null == groups)
+				return base;
+
+			final Object[] newGroups = groups.toArray();
+			final Object[][] newChildren = new Object[newGroups.length][];
+			for (int i = 0; i < newChildren.length; ++i) {
+				Object groupChildren = children.get(i);
+				newChildren[i] = groupChildren instanceof Object[] ? (Object[]) groupChildren : ((List<?>) groupChildren).toArray();
+			}
+
+			// the chain of a displayed snapshot is cut, its changes are not counted
+			final int chainOpCount = opCount + (null == base.previous ? 0 : base.chainOpCount);
+			if (chainOpCount > MAX_RECORDED_OPS) {
+				// too many changes to animate them, the snapshots in between don't need to be kept
+				return new ExpandableSnapshot<>(newGroups, newChildren, null, NO_OPS, MAX_RECORDED_OPS + 1);
+			}
+			return new ExpandableSnapshot<>(newGroups, newChildren, base, Arrays.copyOf(ops, opCount * OP_SIZE), chainOpCount);
+		}
+
+		private void copyGroups() {
+			if (null == groups) {
+				groups = new ArrayList<>(Arrays.asList(base.groups));
+				children = new ArrayList<Object>(Arrays.asList((Object[]) base.children));
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<Object> editChildren(int groupPosition) {
+			copyGroups();
+			Object groupChildren = children.get(groupPosition);
+			if (groupChildren instanceof Object[]) {
+				// copy the children of this group only
+				groupChildren = new ArrayList<>(Arrays.asList((Object[]) groupChildren));
+				children.set(groupPosition, groupChildren);
+			}
+			return (List<Object>) groupChildren;
+		}
+
+		private void record(int op, int groupPosition, int childPosition) {
+			if ((opCount + 1) * OP_SIZE > ops.length) {
+				ops = Arrays.copyOf(ops, ops.length * 2);
+			}
+			ops[opCount * OP_SIZE] = op;
+			ops[opCount * OP_SIZE + 1] = groupPosition;
+			ops[opCount * OP_SIZE + 2] = childPosition;
+			++opCount;
+		}
+	}
+}
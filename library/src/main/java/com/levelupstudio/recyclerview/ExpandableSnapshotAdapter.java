@@ -0,0 +1,323 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder;
+
+/**
+ * An {@link ExpandableRecyclerView.ExpandableAdapter} displaying an {@link ExpandableSnapshot} that can be updated from
+ * any thread without locking.
+ * <p>The updates are made on new snapshots and the adapter switches to the latest one at the next frame, on the main
+ * thread, notifying the changes recorded in the snapshots created since the displayed one. When the changes are not
+ * known or there are too many of them the adapter is refreshed with {@link #notifyDataChanged()}.</p>
+ *
+ * @param <VH> the {@link ExpandableViewHolder} used by the adapter
+ * @param <G>  the type of the groups
+ * @param <C>  the type of the children
+ */
+public abstract class ExpandableSnapshotAdapter<VH extends ExpandableViewHolder, G, C> extends ExpandableRecyclerView.ExpandableAdapter<VH, G> {
+	private static final String LOG_TAG = "ExpandableSnapshotAdapter";
+
+	/**
+	 * A change made to the latest snapshot of the adapter with {@link #update(Mutation)}.
+	 */
+	public interface Mutation<G, C> {
+		/**
+		 * Make the changes on the {@code editor}. It may be called more than once if another thread updated the
+		 * adapter at the same time, it must not have side effects.
+		 */
+		void apply(@NonNull ExpandableSnapshot.Editor<G, C> editor);
+	}
+
+	private final AtomicReference<ExpandableSnapshot<G, C>> latest;
+	/** the snapshot read by the adapter, only used on the main thread */
+	private ExpandableSnapshot<G, C> displayed;
+	private final AtomicBoolean swapScheduled = new AtomicBoolean();
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	/** snapshots between the latest and the displayed one, only used on the main thread */
+	private final ArrayList<ExpandableSnapshot<G, C>> chain = new ArrayList<>();
+	/** called on the main thread at the next swap, once the snapshot they wait for is displayed or dropped */
+	private final ArrayList<Runnable> displayListeners = new ArrayList<>();
+
+	private final Runnable scheduleSwap = new Runnable() {
+		@Override
+		public void run() {
+			final ExpandableRecyclerView recyclerView = getRecyclerView();
+			if (null != recyclerView && null != recyclerView.getWindowToken()) {
+				// swap with the next frame
+				ViewCompat.postOnAnimation(recyclerView, swapSnapshot);
+			} else {
+				swapSnapshot.run();
+			}
+		}
+	};
+
+	private final Runnable swapSnapshot = new Runnable() {
+		@Override
+		public void run() {
+			swapSnapshot();
+		}
+	};
+
+	protected ExpandableSnapshotAdapter() {
+		this(ExpandableSnapshot.<G, C>empty());
+	}
+
+	protected ExpandableSnapshotAdapter(@NonNull ExpandableSnapshot<G, C> snapshot) {
+		this.displayed = snapshot;
+		this.latest = new AtomicReference<>(snapshot);
+	}
+
+	/**
+	 * Get the snapshot currently displayed.
+	 */
+	@MainThread
+	@NonNull
+	public ExpandableSnapshot<G, C> getSnapshot() {
+		return displayed;
+	}
+
+	/**
+	 * Get the latest snapshot submitted to the adapter, it may not be displayed yet. Can be called from any thread.
+	 */
+	@NonNull
+	public ExpandableSnapshot<G, C> getLatestSnapshot() {
+		return latest.get();
+	}
+
+	/**
+	 * Display {@code snapshot} at the next frame. Can be called from any thread.
+	 * <p>The changes are animated if {@code snapshot} was edited from the displayed snapshot or a snapshot submitted after it.</p>
+	 */
+	public void submit(@NonNull ExpandableSnapshot<G, C> snapshot) {
+		latest.set(snapshot);
+		scheduleSwap();
+	}
+
+	/**
+	 * Apply {@code mutation} to the latest snapshot and display the result at the next frame. Can be called from any thread.
+	 */
+	public void update(@NonNull Mutation<G, C> mutation) {
+		updateSnapshot(mutation);
+	}
+
+	/**
+	 * Same as {@link #update(Mutation)}, returning the snapshot submitted.
+	 */
+	ExpandableSnapshot<G, C> updateSnapshot(@NonNull Mutation<G, C> mutation) {
+		ExpandableSnapshot<G, C> result;
+		while (true) {
+			final ExpandableSnapshot<G, C> base = latest.get();
+			final ExpandableSnapshot.Editor<G, C> editor = base.edit();
+			mutation.apply(editor);
+			result = editor.build();
+			if (latest.compareAndSet(base, result))
+				break;
+			if (DEBUG) Log.d(LOG_TAG, this + " concurrent update, apply the mutation again");
+		}
+		scheduleSwap();
+		return result;
+	}
+
+	/**
+	 * Run {@code listener} on the main thread once {@code snapshot}, submitted to this adapter, is displayed or replaced
+	 * by a snapshot that doesn't derive from it. Can be called from any thread.
+	 */
+	void runWhenDisplayed(final ExpandableSnapshot<G, C> snapshot, final Runnable listener) {
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (isWaitingForDisplay(snapshot)) {
+					// the next swap displays it or a snapshot replacing it
+					displayListeners.add(listener);
+				} else {
+					listener.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return whether {@code snapshot} is the latest snapshot or one it derives from, not displayed yet.
+	 */
+	private boolean isWaitingForDisplay(ExpandableSnapshot<G, C> snapshot) {
+		for (ExpandableSnapshot<G, C> s = latest.get(); null != s && s != displayed; s = s.previous) {
+			if (s == snapshot)
+				return true;
+		}
+		return false;
+	}
+
+	private void scheduleSwap() {
+		if (swapScheduled.compareAndSet(false, true)) {
+			mainHandler.post(scheduleSwap);
+		}
+	}
+
+	private void swapSnapshot() {
+		swapScheduled.set(false);
+		final ExpandableSnapshot<G, C> next = latest.get();
+		if (next != displayed) {
+			displaySnapshot(next);
+		}
+		if (!displayListeners.isEmpty()) {
+			final Runnable[] listeners = displayListeners.toArray(new Runnable[displayListeners.size()]);
+			displayListeners.clear();
+			for (Runnable listener : listeners) {
+				listener.run();
+			}
+		}
+	}
+
+	private void displaySnapshot(ExpandableSnapshot<G, C> next) {
+		// find the changes since the displayed snapshot
+		int opCount = 0;
+		ExpandableSnapshot<G, C> snapshot = next;
+		while (null != snapshot && snapshot != displayed && opCount <= ExpandableSnapshot.MAX_RECORDED_OPS) {
+			chain.add(snapshot);
+			opCount += snapshot.ops.length / ExpandableSnapshot.OP_SIZE;
+			snapshot = snapshot.previous;
+		}
+		final boolean animated = snapshot == displayed && opCount <= ExpandableSnapshot.MAX_RECORDED_OPS;
+		if (DEBUG) Log.d(LOG_TAG, this + " swap " + chain.size() + " snapshots ops=" + opCount + " animated=" + animated);
+
+		displayed = next;
+		// the older snapshots can be released
+		next.previous = null;
+
+		if (!animated) {
+			notifyDataChanged();
+		} else {
+			// the ops hold the positions of the snapshot they were recorded on, the changes read the data of the
+			// displayed snapshot so they are notified last, at their final positions
+			final int[] ops = new int[opCount * ExpandableSnapshot.OP_SIZE];
+			int length = 0;
+			for (int i = chain.size() - 1; i >= 0; --i) {
+				final int[] snapshotOps = chain.get(i).ops;
+				System.arraycopy(snapshotOps, 0, ops, length, snapshotOps.length);
+				length += snapshotOps.length;
+			}
+			moveChangesToFinalPositions(ops, length);
+
+			// the adjacent removals are merged
+			final ExpandableRecyclerView recyclerView = getRecyclerView();
+			if (null != recyclerView)
+				recyclerView.beginBatchedNotifications();
+			notifyOps(ops, length, false);
+			notifyOps(ops, length, true);
+			if (null != recyclerView)
+				recyclerView.endBatchedNotifications();
+		}
+		chain.clear();
+	}
+
+	/**
+	 * Move the changes in {@code ops} to their positions once all the {@code ops} are applied. The changes of items
+	 * removed by a later op get a {@link RecyclerView#NO_POSITION} group.
+	 */
+	static void moveChangesToFinalPositions(int[] ops, int length) {
+		for (int i = 0; i < length; i += ExpandableSnapshot.OP_SIZE) {
+			final int op = ops[i];
+			if (op != ExpandableSnapshot.OP_GROUP_CHANGED && op != ExpandableSnapshot.OP_CHILD_CHANGED)
+				continue;
+			final boolean childChanged = op == ExpandableSnapshot.OP_CHILD_CHANGED;
+			int groupPosition = ops[i + 1];
+			int childPosition = ops[i + 2];
+			for (int j = i + ExpandableSnapshot.OP_SIZE; j < length && groupPosition != RecyclerView.NO_POSITION; j += ExpandableSnapshot.OP_SIZE) {
+				final int laterGroup = ops[j + 1];
+				final int laterChild = ops[j + 2];
+				switch (ops[j]) {
+				case ExpandableSnapshot.OP_GROUP_INSERTED:
+					if (laterGroup <= groupPosition)
+						++groupPosition;
+					break;
+				case ExpandableSnapshot.OP_GROUP_REMOVED:
+					if (laterGroup == groupPosition)
+						groupPosition = RecyclerView.NO_POSITION;
+					else if (laterGroup < groupPosition)
+						--groupPosition;
+					break;
+				case ExpandableSnapshot.OP_CHILD_INSERTED:
+					if (childChanged && laterGroup == groupPosition && laterChild <= childPosition)
+						++childPosition;
+					break;
+				case ExpandableSnapshot.OP_CHILD_REMOVED:
+					if (childChanged && laterGroup == groupPosition) {
+						if (laterChild == childPosition)
+							groupPosition = RecyclerView.NO_POSITION;
+						else if (laterChild < childPosition)
+							--childPosition;
+					}
+					break;
+				}
+			}
+			ops[i + 1] = groupPosition;
+			ops[i + 2] = childPosition;
+		}
+	}
+
+	/**
+	 * @param changes {@code true} to notify only the changes, {@code false} to notify only the insertions and removals
+	 */
+	private void notifyOps(int[] ops, int length, boolean changes) {
+		for (int i = 0; i < length; i += ExpandableSnapshot.OP_SIZE) {
+			final int groupPosition = ops[i + 1];
+			final int childPosition = ops[i + 2];
+			switch (ops[i]) {
+			case ExpandableSnapshot.OP_GROUP_INSERTED:
+				if (!changes)
+					notifyGroupInserted(groupPosition);
+				break;
+			case ExpandableSnapshot.OP_GROUP_REMOVED:
+				if (!changes)
+					notifyGroupRemoved(groupPosition);
+				break;
+			case ExpandableSnapshot.OP_GROUP_CHANGED:
+				if (changes && groupPosition != RecyclerView.NO_POSITION)
+					notifyGroupChanged(groupPosition);
+				break;
+			case ExpandableSnapshot.OP_CHILD_INSERTED:
+				if (!changes)
+					notifyChildInserted(groupPosition, childPosition);
+				break;
+			case ExpandableSnapshot.OP_CHILD_REMOVED:
+				if (!changes)
+					notifyChildRemoved(groupPosition, childPosition);
+				break;
+			case ExpandableSnapshot.OP_CHILD_CHANGED:
+				if (changes && groupPosition != RecyclerView.NO_POSITION)
+					notifyChildChanged(groupPosition, childPosition);
+				break;
+			}
+		}
+	}
+
+	@Override
+	protected int getGroupCount() {
+		return displayed.getGroupCount();
+	}
+
+	@Override
+	protected int getChildrenCount(int groupPosition) {
+		return displayed.getChildrenCount(groupPosition);
+	}
+
+	@Override
+	public G getGroup(int groupPosition) {
+		return displayed.getGroup(groupPosition);
+	}
+
+	public C getChild(int groupPosition, int childPosition) {
+		return displayed.getChild(groupPosition, childPosition);
+	}
+}
@@ -0,0 +1,242 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+
+/**
+ * A {@link GridLayoutManager.SpanSizeLookup} for an {@link ExpandableRecyclerView}: the groups, headers and footers
+ * use the full width and the children use the span size returned by
+ * {@link ExpandableRecyclerView.ExpandableAdapter#getChildSpanSize(int, int, int) getChildSpanSize()}.
+ * <p>It's set automatically when a {@code GridLayoutManager} without a {@code SpanSizeLookup} is used.</p>
+ * <p>The span index and row of the children of each expanded group are cached and only computed up to the child
+ * requested. Changes to the rows outside of the children of a group don't invalidate its cache, changes to the
+ * children only invalidate it from the first child changed.</p>
+ */
+public class ExpandableSpanSizeLookup extends GridLayoutManager.SpanSizeLookup {
+	private final ExpandableRecyclerView recyclerView;
+
+	private ExpandableRecyclerView.ExpandableAdapter observedAdapter;
+	private final RecyclerView.AdapterDataObserver observer = new RecyclerView.AdapterDataObserver() {
+		@Override
+		public void onChanged() {
+			cachedGroups.clear();
+		}
+
+		@Override
+		public void onItemRangeChanged(int positionStart, int itemCount) {
+			invalidateRange(positionStart, itemCount, false);
+		}
+
+		@Override
+		public void onItemRangeInserted(int positionStart, int itemCount) {
+			invalidateRange(positionStart, itemCount, true);
+		}
+
+		@Override
+		public void onItemRangeRemoved(int positionStart, int itemCount) {
+			invalidateRange(positionStart, itemCount, true);
+		}
+
+		@Override
+		public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+			invalidateRange(Math.min(fromPosition, toPosition), itemCount, true);
+		}
+	};
+
+	/**
+	 * Span index and row of the children of an expanded group, computed up to the last child requested.
+	 */
+	private static final class ChildSpans {
+		/** number of children with their span index and row computed */
+		int computedCount;
+		int[] spanIndices = new int[16];
+		int[] rows = new int[16];
+		/** span index following each computed child */
+		int[] spanEnds = new int[16];
+		/** span index following the last computed child */
+		int nextSpanIndex;
+		/** row of the last computed child */
+		int lastRow = -1;
+
+		/**
+		 * Forget the span index and row of the children from {@code child}.
+		 */
+		void invalidate(int child) {
+			if (child >= computedCount)
+				return;
+			computedCount = child;
+			if (child == 0) {
+				lastRow = -1;
+				nextSpanIndex = 0;
+			} else {
+				lastRow = rows[child - 1];
+				nextSpanIndex = spanEnds[child - 1];
+			}
+		}
+	}
+
+	/** children of the expanded groups by data position */
+	private final SparseArray<ChildSpans> cachedGroups = new SparseArray<>();
+	private int cachedSpanCount;
+	/** {@link ExpandableRecyclerView.ExpandableAdapter#getDisplayedGroupsVersion()} of the data positions in {@link #cachedGroups} */
+	private int cachedGroupsVersion;
+
+	public ExpandableSpanSizeLookup(@NonNull ExpandableRecyclerView recyclerView) {
+		this.recyclerView = recyclerView;
+	}
+
+	@Override
+	public int getSpanSize(int position) {
+		final int spanCount = getSpanCount();
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		final int flatPosition = getChildFlatPosition(adapter, position);
+		if (flatPosition == RecyclerView.NO_POSITION)
+			return spanCount;
+		return getChildSpanSize(adapter, adapter.getFlatGroup(flatPosition), adapter.getFlatChild(flatPosition), spanCount);
+	}
+
+	@Override
+	public int getSpanIndex(int position, int spanCount) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		final int flatPosition = getChildFlatPosition(adapter, position);
+		if (flatPosition == RecyclerView.NO_POSITION)
+			return 0;
+		final int child = adapter.getFlatChild(flatPosition);
+		return computeChildren(adapter, adapter.getFlatGroup(flatPosition), child, spanCount).spanIndices[child];
+	}
+
+	@Override
+	public int getSpanGroupIndex(int position, int spanCount) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		if (null == adapter)
+			return position;
+
+		// every row outside of the children has a single item, the children of each expanded group use fewer rows
+		final ExpandedGroupIndex expandedGroups = adapter.getExpandedGroups();
+		int savedRows = 0;
+		for (int i = 0; i < expandedGroups.size(); ++i) {
+			final int firstChild = recyclerView.getHeaderViewsCount() + expandedGroups.getFlatPosition(i) + 1;
+			if (position < firstChild)
+				break;
+			final int childCount = expandedGroups.getChildCount(i);
+			if (childCount == 0)
+				continue;
+			final int child = Math.min(position - firstChild, childCount - 1);
+			final ChildSpans spans = computeChildren(adapter, expandedGroups.getGroup(i), child, spanCount);
+			if (position - firstChild < childCount)
+				return firstChild - savedRows + spans.rows[child];
+			savedRows += childCount - spans.rows[child] - 1;
+		}
+		return position - savedRows;
+	}
+
+	/**
+	 * Get the position without the header views of the expanded child displayed at the adapter {@code position}, or
+	 * {@link RecyclerView#NO_POSITION} for a group, a header or a footer.
+	 */
+	private int getChildFlatPosition(ExpandableRecyclerView.ExpandableAdapter adapter, int position) {
+		if (null == adapter || adapter.getExpandedGroups().size() == 0)
+			return RecyclerView.NO_POSITION;
+		final int flatPosition = position - recyclerView.getHeaderViewsCount();
+		if (flatPosition < 0 || flatPosition >= adapter.getItemCount() || adapter.getFlatChild(flatPosition) == RecyclerView.NO_POSITION)
+			return RecyclerView.NO_POSITION;
+		return flatPosition;
+	}
+
+	private int getChildSpanSize(ExpandableRecyclerView.ExpandableAdapter adapter, int groupPosition, int child, int spanCount) {
+		final int spanSize = adapter.getChildSpanSize(adapter.getSourceGroup(groupPosition), adapter.getSourceChild(groupPosition, child), spanCount);
+		return Math.max(1, Math.min(spanCount, spanSize));
+	}
+
+	/**
+	 * Compute the span index and row of the children of the displayed group {@code groupPosition} up to {@code child},
+	 * continuing from the last one computed.
+	 */
+	private ChildSpans computeChildren(ExpandableRecyclerView.ExpandableAdapter adapter, int groupPosition, int child, int spanCount) {
+		if (spanCount != cachedSpanCount || adapter.getDisplayedGroupsVersion() != cachedGroupsVersion) {
+			// the data positions of the groups or the number of spans changed
+			cachedGroups.clear();
+			cachedSpanCount = spanCount;
+			cachedGroupsVersion = adapter.getDisplayedGroupsVersion();
+		}
+		final int group = adapter.getSourceGroup(groupPosition);
+		ChildSpans spans = cachedGroups.get(group);
+		if (null == spans) {
+			spans = new ChildSpans();
+			cachedGroups.put(group, spans);
+		}
+		if (child < spans.computedCount)
+			return spans;
+
+		if (child >= spans.spanIndices.length) {
+			final int capacity = Math.max(child + 1, spans.spanIndices.length * 2);
+			spans.spanIndices = Arrays.copyOf(spans.spanIndices, capacity);
+			spans.rows = Arrays.copyOf(spans.rows, capacity);
+			spans.spanEnds = Arrays.copyOf(spans.spanEnds, capacity);
+		}
+		for (int i = spans.computedCount; i <= child; ++i) {
+			final int spanSize = getChildSpanSize(adapter, groupPosition, i, spanCount);
+			if (spans.lastRow < 0 || spans.nextSpanIndex + spanSize > spanCount) {
+				++spans.lastRow;
+				spans.nextSpanIndex = 0;
+			}
+			spans.spanIndices[i] = spans.nextSpanIndex;
+			spans.rows[i] = spans.lastRow;
+			spans.nextSpanIndex += spanSize;
+			spans.spanEnds[i] = spans.nextSpanIndex;
+		}
+		spans.computedCount = child + 1;
+		return spans;
+	}
+
+	/**
+	 * The adapter positions from {@code positionStart} changed, only the children of the groups expanded from there
+	 * need to be computed again.
+	 */
+	private void invalidateRange(int positionStart, int itemCount, boolean structural) {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		if (null == adapter || adapter.getDisplayedGroupsVersion() != cachedGroupsVersion) {
+			// the data positions of the groups changed, they are checked on the next lookup
+			cachedGroups.clear();
+			return;
+		}
+		final ExpandedGroupIndex expandedGroups = adapter.getExpandedGroups();
+		for (int i = cachedGroups.size() - 1; i >= 0; --i) {
+			final int groupPosition = adapter.getDisplayedGroup(cachedGroups.keyAt(i));
+			final int index = groupPosition == RecyclerView.NO_POSITION ? -1 : expandedGroups.indexOf(groupPosition);
+			if (index < 0) {
+				// collapsed, the children may change before it's expanded again
+				cachedGroups.removeAt(i);
+				continue;
+			}
+			final int firstChild = recyclerView.getHeaderViewsCount() + expandedGroups.getFlatPosition(index) + 1;
+			if (positionStart > firstChild + expandedGroups.getChildCount(index))
+				continue; // only rows after the children changed
+			if (positionStart < firstChild && (structural || positionStart + itemCount <= firstChild))
+				continue; // only rows before the children changed, or the children of another group were inserted or removed
+			cachedGroups.valueAt(i).invalidate(Math.max(0, positionStart - firstChild));
+		}
+	}
+
+	private ExpandableRecyclerView.ExpandableAdapter getAdapter() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		if (adapter != observedAdapter) {
+			if (null != observedAdapter)
+				observedAdapter.unregisterAdapterDataObserver(observer);
+			observedAdapter = adapter;
+			if (null != adapter)
+				adapter.registerAdapterDataObserver(observer);
+			cachedGroups.clear();
+		}
+		return adapter;
+	}
+
+	private int getSpanCount() {
+		final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+		return layoutManager instanceof GridLayoutManager ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+	}
+}
@@ -0,0 +1,467 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder;
+
+/**
+ * An adapter displaying a tree of arbitrary depth where any {@link Node} can be expanded, similar to a file browser.
+ * <p>Use it with a {@link RecyclerViewWithHeader}. Unlike {@link ExpandableRecyclerView.ExpandableAdapter} any number of nodes
+ * can be expanded at the same time, and a node keeps the expanded state of its descendants when it's collapsed.</p>
+ * <p>Each node keeps the number of visible rows below it and a Fenwick tree over the visible rows of its children.
+ * Expanding or collapsing a node, whatever the size of its subtree, and mapping a flat position to its node only cost
+ * {@code O(depth * log(children))}, the tree is never walked.</p>
+ *
+ * @param <VH> the {@link ExpandableViewHolder} used by the adapter
+ * @param <T>  the type of the values held by the nodes
+ */
+public abstract class ExpandableTreeAdapter<VH extends ExpandableViewHolder, T> extends RecyclerView.Adapter<VH> implements ExpandableRecyclerView.ExpandHandler {
+	private static final boolean DEBUG = ExpandableRecyclerView.ExpandableAdapter.DEBUG;
+	private static final String LOG_TAG = "ExpandableTreeAdapter";
+
+	/**
+	 * A node in the tree of an {@link ExpandableTreeAdapter}.
+	 * <p>The structure of the tree must only be modified through the adapter so the flattened index stays valid.</p>
+	 *
+	 * @param <T> the type of the value held by the node
+	 */
+	public static final class Node<T> {
+		private final T value;
+		private Node<T> parent;
+		private int indexInParent;
+		private final int depth;
+		private boolean expanded;
+		/** number of visible rows below this node when it's expanded */
+		private int descendantSpan;
+		private ArrayList<Node<T>> children;
+		/** Fenwick tree (1-based) of the rows displayed by each child, see {@link #getVisibleSpan()} */
+		private int[] spanTree;
+
+		private Node(@Nullable Node<T> parent, T value) {
+			this.parent = parent;
+			this.value = value;
+			this.depth = parent == null ? -1 : parent.depth + 1;
+		}
+
+		/**
+		 * Get the value held by this node.
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		/**
+		 * Get the parent of this node, {@code null} for the (invisible) root node.
+		 */
+		@Nullable
+		public Node<T> getParent() {
+			return parent;
+		}
+
+		/**
+		 * Get the depth of this node, {@code 0} for the top level nodes.
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * Get the position of this node in its parent.
+		 */
+		public int getIndexInParent() {
+			return indexInParent;
+		}
+
+		public boolean isExpanded() {
+			return expanded;
+		}
+
+		public int getChildCount() {
+			return children == null ? 0 : children.size();
+		}
+
+		public Node<T> getChildAt(int index) {
+			return children.get(index);
+		}
+
+		/**
+		 * Get the number of rows displayed for this node and its descendants.
+		 */
+		int getVisibleSpan() {
+			return expanded ? 1 + descendantSpan : 1;
+		}
+
+		private void rebuildSpanTree(int fromIndex) {
+			final int count = getChildCount();
+			for (int i = fromIndex; i < count; ++i) {
+				children.get(i).indexInParent = i;
+			}
+			if (spanTree == null || spanTree.length < count + 1) {
+				spanTree = new int[Math.max(count + 1, (count * 3) / 2)];
+			} else {
+				Arrays.fill(spanTree, 0);
+			}
+			for (int i = 1; i <= count; ++i) {
+				spanTree[i] += children.get(i - 1).getVisibleSpan();
+				int j = i + (i & -i);
+				if (j <= count) {
+					spanTree[j] += spanTree[i];
+				}
+			}
+		}
+
+		private void addChildSpan(int index, int delta) {
+			final int count = getChildCount();
+			for (int i = index + 1; i <= count; i += i & -i) {
+				spanTree[i] += delta;
+			}
+		}
+
+		/**
+		 * @return the number of rows displayed by the children before {@code index}
+		 */
+		private int getChildrenSpanBefore(int index) {
+			int result = 0;
+			for (int i = index; i > 0; i -= i & -i) {
+				result += spanTree[i];
+			}
+			return result;
+		}
+
+		/**
+		 * @return the index of the child displaying the row at {@code offset} within the rows of the children
+		 */
+		private int findChildAtSpan(int offset) {
+			final int count = getChildCount();
+			int index = 0;
+			for (int step = Integer.highestOneBit(count); step != 0; step >>= 1) {
+				int next = index + step;
+				if (next <= count && spanTree[next] <= offset) {
+					index = next;
+					offset -= spanTree[next];
+				}
+			}
+			return index;
+		}
+
+		@Override
+		public String toString() {
+			return "Node{" + value + " depth=" + depth + " expanded=" + expanded + " span=" + descendantSpan + '}';
+		}
+	}
+
+	private final Node<T> root = new Node<>(null, null);
+	private RecyclerViewWithHeader recyclerView;
+
+	public ExpandableTreeAdapter() {
+		root.expanded = true;
+	}
+
+	/**
+	 * Equivalent of {@link android.support.v7.widget.RecyclerView.Adapter#onCreateViewHolder(android.view.ViewGroup, int)} for an {@code ExpandableTreeAdapter}.
+	 *
+	 * @param parent   The ViewGroup into which the new View will be added after it is bound to an adapter position.
+	 * @param viewType The view type of the new View.
+	 * @return A new ViewHolder that holds a View of the given view type.
+	 * @see #getNodeViewType(Node)
+	 * @see #onBindNodeView(ExpandableViewHolder, Node)
+	 */
+	@NonNull
+	protected abstract VH onCreateExpandableViewHolder(ViewGroup parent, int viewType);
+
+	/**
+	 * Called to display the data of the {@code node} in the {@code holder}. Use {@link Node#getDepth()} to indent it.
+	 */
+	protected abstract void onBindNodeView(VH holder, Node<T> node);
+
+	/**
+	 * Return the view type of the {@code node} for the purposes of view recycling. Returns {@code 0} by default.
+	 */
+	protected int getNodeViewType(Node<T> node) {
+		return 0;
+	}
+
+	/**
+	 * Get the invisible root of the tree, its children are the top level rows.
+	 */
+	@NonNull
+	public Node<T> getRoot() {
+		return root;
+	}
+
+	/**
+	 * Replace all the children of {@code parent} with nodes holding the {@code values}. The new nodes are collapsed.
+	 * <p>Prefer this method to successive calls to {@link #insertNode(Node, int, Object)} to build large levels.</p>
+	 *
+	 * @return the new children of {@code parent}
+	 */
+	public List<Node<T>> setChildren(@NonNull Node<T> parent, @NonNull List<? extends T> values) {
+		final int oldSpan = parent.descendantSpan;
+		if (parent.children != null) {
+			for (Node<T> child : parent.children) {
+				child.parent = null;
+			}
+		}
+		parent.children = new ArrayList<>(values.size());
+		for (T value : values) {
+			parent.children.add(new Node<>(parent, value));
+		}
+		parent.rebuildSpanTree(0);
+		parent.descendantSpan = values.size();
+
+		final boolean visible = parent.expanded && propagateSpan(parent, parent.descendantSpan - oldSpan);
+		if (DEBUG) Log.d(LOG_TAG, this + " setChildren " + parent + " visible=" + visible);
+		if (visible) {
+			int firstChild = getChildrenFlatPosition(parent);
+			if (oldSpan != 0) notifyRangeRemoved(firstChild, oldSpan);
+			if (parent.descendantSpan != 0) notifyRangeInserted(firstChild, parent.descendantSpan);
+		}
+		return Collections.unmodifiableList(parent.children);
+	}
+
+	/**
+	 * Insert a new collapsed node holding {@code value} at {@code index} in the children of {@code parent}.
+	 * The insertion is animated if the new node is visible.
+	 */
+	public Node<T> insertNode(@NonNull Node<T> parent, int index, T value) {
+		Node<T> node = new Node<>(parent, value);
+		if (parent.children == null) {
+			parent.children = new ArrayList<>(4);
+		}
+		parent.children.add(index, node);
+		parent.rebuildSpanTree(index);
+		parent.descendantSpan += 1;
+
+		boolean visible = parent.expanded && propagateSpan(parent, 1);
+		if (DEBUG) Log.d(LOG_TAG, this + " insertNode " + node + " visible=" + visible);
+		if (visible) {
+			notifyRangeInserted(getFlatPosition(node), 1);
+		}
+		return node;
+	}
+
+	/**
+	 * Remove the {@code node} and all its descendants from the tree. The removal is animated if the node is visible.
+	 */
+	public void removeNode(@NonNull Node<T> node) {
+		Node<T> parent = node.parent;
+		if (null == parent || parent.children == null || parent.children.get(node.indexInParent) != node)
+			throw new IllegalArgumentException("node " + node + " is not in the tree");
+
+		final int span = node.getVisibleSpan();
+		final int flatPosition = isVisible(node) ? getFlatPosition(node) : RecyclerView.NO_POSITION;
+		parent.children.remove(node.indexInParent);
+		parent.rebuildSpanTree(node.indexInParent);
+		parent.descendantSpan -= span;
+		if (parent.expanded) {
+			propagateSpan(parent, -span);
+		}
+		node.parent = null;
+		if (DEBUG) Log.d(LOG_TAG, this + " removeNode " + node + " at " + flatPosition);
+		if (flatPosition != RecyclerView.NO_POSITION) {
+			notifyRangeRemoved(flatPosition, span);
+		}
+	}
+
+	/**
+	 * Notifies the data of the {@code node} changed and the display should be updated.
+	 */
+	public void notifyNodeChanged(@NonNull Node<T> node) {
+		if (isVisible(node)) {
+			notifyItemChanged(getFlatPosition(node) + getHeaderViewsCount());
+		}
+	}
+
+	/**
+	 * Expand the {@code node}, the expanded state of its descendants is kept from the last time it was expanded.
+	 *
+	 * @return {@code false} if the node was already expanded.
+	 */
+	public boolean expandNode(@NonNull Node<T> node) {
+		if (node.expanded || node == root)
+			return false;
+		node.expanded = true;
+		final boolean visible = propagateSpan(node, node.descendantSpan);
+		if (DEBUG) Log.d(LOG_TAG, this + " expandNode " + node + " visible=" + visible);
+		if (visible) {
+			int position = getFlatPosition(node);
+			notifyNodeExpandChanged(node, position);
+			if (node.descendantSpan != 0) notifyRangeInserted(position + 1, node.descendantSpan);
+		}
+		return true;
+	}
+
+	/**
+	 * Collapse the {@code node}, the expanded state of its descendants is kept for the next time it's expanded.
+	 *
+	 * @return {@code false} if the node was already collapsed.
+	 */
+	public boolean collapseNode(@NonNull Node<T> node) {
+		if (!node.expanded || node == root)
+			return false;
+		node.expanded = false;
+		final boolean visible = propagateSpan(node, -node.descendantSpan);
+		if (DEBUG) Log.d(LOG_TAG, this + " collapseNode " + node + " visible=" + visible);
+		if (visible) {
+			int position = getFlatPosition(node);
+			notifyNodeExpandChanged(node, position);
+			if (node.descendantSpan != 0) notifyRangeRemoved(position + 1, node.descendantSpan);
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates whether the {@code node} is currently displayed, ie all its ancestors are expanded.
+	 */
+	public boolean isVisible(@NonNull Node<T> node) {
+		for (Node<T> parent = node.parent; parent != root; parent = parent.parent) {
+			if (null == parent || !parent.expanded)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the node displayed at the flat {@code position} in this adapter.
+	 */
+	@NonNull
+	public Node<T> getNodeAt(int position) {
+		if (position < 0 || position >= root.descendantSpan)
+			throw new IndexOutOfBoundsException("invalid position " + position + " count=" + root.descendantSpan);
+		Node<T> node = root;
+		int remaining = position;
+		while (true) {
+			int index = node.findChildAtSpan(remaining);
+			remaining -= node.getChildrenSpanBefore(index);
+			node = node.children.get(index);
+			if (remaining == 0)
+				return node;
+			--remaining;
+		}
+	}
+
+	/**
+	 * Get the flat position of a visible {@code node} in this adapter, not counting the header views.
+	 *
+	 * @see #isVisible(Node)
+	 */
+	public int getFlatPosition(@NonNull Node<T> node) {
+		int position = -1;
+		for (Node<T> n = node; n != root; n = n.parent) {
+			position += n.parent.getChildrenSpanBefore(n.indexInParent) + 1;
+		}
+		return position;
+	}
+
+	@Override
+	public final int getItemCount() {
+		return root.descendantSpan;
+	}
+
+	@Override
+	public final int getItemViewType(int position) {
+		return getNodeViewType(getNodeAt(position));
+	}
+
+	@Override
+	public final VH onCreateViewHolder(ViewGroup parent, int viewType) {
+		return onCreateExpandableViewHolder(parent, viewType);
+	}
+
+	@Override
+	public final void onBindViewHolder(VH holder, int position) {
+		Node<T> node = getNodeAt(position);
+		holder.setExpandHandler(this);
+		holder.isSelected = false;
+		onBindNodeView(holder, node);
+		holder.expanded = node.expanded;
+		holder.onExpandedChanged();
+	}
+
+	@Override
+	public void onViewRecycled(VH holder) {
+		super.onViewRecycled(holder);
+		holder.setExpandHandler(null);
+	}
+
+	@Override
+	public void onViewExpand(ExpandableViewHolder holder) {
+		int position = holder.getPosition();
+		if (position == RecyclerView.NO_POSITION)
+			return;
+		Node<T> node = getNodeAt(position - getHeaderViewsCount());
+		if (node.expanded)
+			collapseNode(node);
+		else
+			expandNode(node);
+	}
+
+	@Override
+	public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+		super.onAttachedToRecyclerView(recyclerView);
+		if (DEBUG) Log.d(LOG_TAG, this + " onAttachedToRecyclerView recyclerView=" + recyclerView + " was " + this.recyclerView);
+		// forwarded by the header adapter of a RecyclerViewWithHeader, the rows are shifted by its headers
+		this.recyclerView = recyclerView instanceof RecyclerViewWithHeader ? (RecyclerViewWithHeader) recyclerView : null;
+	}
+
+	@Override
+	public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+		super.onDetachedFromRecyclerView(recyclerView);
+		if (DEBUG) Log.d(LOG_TAG, this + " onDetachedFromRecyclerView recyclerView=" + recyclerView);
+		if (this.recyclerView == recyclerView)
+			this.recyclerView = null;
+	}
+
+	private int getHeaderViewsCount() {
+		return recyclerView == null ? 0 : recyclerView.getHeaderViewsCount();
+	}
+
+	/**
+	 * Propagate a change of {@code delta} visible rows of {@code node} to its ancestors.
+	 *
+	 * @return {@code true} if the change is visible in the flattened list.
+	 */
+	private boolean propagateSpan(Node<T> node, int delta) {
+		while (node != root) {
+			Node<T> parent = node.parent;
+			parent.addChildSpan(node.indexInParent, delta);
+			parent.descendantSpan += delta;
+			if (!parent.expanded)
+				return false;
+			node = parent;
+		}
+		return true;
+	}
+
+	private int getChildrenFlatPosition(Node<T> parent) {
+		return parent == root ? 0 : getFlatPosition(parent) + 1;
+	}
+
+	private void notifyNodeExpandChanged(Node<T> node, int position) {
+		if (null != recyclerView) {
+			RecyclerView.ViewHolder holder = recyclerView.findViewHolderForPosition(position + getHeaderViewsCount());
+			if (holder instanceof ExpandableViewHolder) {
+				ExpandableViewHolder expandableViewHolder = (ExpandableViewHolder) holder;
+				expandableViewHolder.expanded = node.expanded;
+				expandableViewHolder.onExpandedChanged();
+			}
+		}
+	}
+
+	void notifyRangeInserted(int position, int count) {
+		notifyItemRangeInserted(position + getHeaderViewsCount(), count);
+	}
+
+	void notifyRangeRemoved(int position, int count) {
+		notifyItemRangeRemoved(position + getHeaderViewsCount(), count);
+	}
+}
@@ -0,0 +1,362 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+
+import android.os.Parcelable;
+
+/**
+ * The expanded groups of an {@link ExpandableRecyclerView.ExpandableAdapter} by displayed position, with the number of
+ * displayed children of each one.
+ * <p>The groups are kept sorted with the prefix sums of their children: the flat position of a group and the group
+ * displayed at a flat position are found in O(log k) for k expanded groups. Expanding or collapsing a group and
+ * changing its number of children update the sums in O(k).</p>
+ * <p>The order in which the groups were expanded is kept to find the ones expanded the longest time ago.</p>
+ */
+final class ExpandedGroupIndex {
+	private int size;
+	private int[] groups = new int[4];
+	private int[] childCounts = new int[4];
+	/** number of children of the expanded groups before each one */
+	private int[] childrenBefore = new int[4];
+	/** tick of {@link #expandCounter} when each group was expanded */
+	private long[] expandOrder = new long[4];
+	/** stable ID of each group when it was expanded, {@code null} without stable IDs */
+	private Parcelable[] stableIds = new Parcelable[4];
+	private long expandCounter;
+	/** incremented on each change */
+	private int version;
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Get a number that changes each time the expanded groups or their number of children change.
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the displayed position of the expanded group at {@code index}, in increasing order.
+	 */
+	int getGroup(int index) {
+		return groups[index];
+	}
+
+	/**
+	 * Get the displayed positions of all the expanded groups, in increasing order.
+	 */
+	int[] getGroups() {
+		return Arrays.copyOf(groups, size);
+	}
+
+	int getChildCount(int index) {
+		return childCounts[index];
+	}
+
+	/**
+	 * Get the number of children of the expanded groups before the one at {@code index}.
+	 */
+	int getChildrenBefore(int index) {
+		return index == size ? getTotalChildCount() : childrenBefore[index];
+	}
+
+	/**
+	 * Get the position in the adapter of the expanded group at {@code index}, without the header views.
+	 */
+	int getFlatPosition(int index) {
+		return groups[index] + childrenBefore[index];
+	}
+
+	/**
+	 * Get a number that orders the expanded groups by the time they were expanded, the most recent one has the highest.
+	 */
+	long getExpandOrder(int index) {
+		return expandOrder[index];
+	}
+
+	Parcelable getStableId(int index) {
+		return stableIds[index];
+	}
+
+	int getTotalChildCount() {
+		return size == 0 ? 0 : childrenBefore[size - 1] + childCounts[size - 1];
+	}
+
+	/**
+	 * @return the index of the expanded group at {@code groupPosition}, or {@code -(insertion point) - 1} if it's not expanded.
+	 */
+	int indexOf(int groupPosition) {
+		return Arrays.binarySearch(groups, 0, size, groupPosition);
+	}
+
+	boolean isExpanded(int groupPosition) {
+		return indexOf(groupPosition) >= 0;
+	}
+
+	/**
+	 * Get the number of displayed children of the group at {@code groupPosition}, {@code 0} if it's not expanded.
+	 */
+	int getGroupChildCount(int groupPosition) {
+		final int index = indexOf(groupPosition);
+		return index < 0 ? 0 : childCounts[index];
+	}
+
+	/**
+	 * Get the number of children displayed before the group at {@code groupPosition}.
+	 */
+	int getChildrenBeforeGroup(int groupPosition) {
+		final int index = indexOf(groupPosition);
+		return getChildrenBefore(index < 0 ? -index - 1 : index);
+	}
+
+	/**
+	 * @return the index of the last expanded group displayed at or before the adapter position {@code flatPosition}, {@code -1} if there is none.
+	 */
+	int findByFlatPosition(int flatPosition) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (groups[mid] + childrenBefore[mid] <= flatPosition)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low - 1;
+	}
+
+	/**
+	 * Get the index of the group expanded the most recently, {@code -1} if no group is expanded.
+	 */
+	int getMostRecentlyExpanded() {
+		int result = -1;
+		for (int i = 0; i < size; ++i) {
+			if (result < 0 || expandOrder[i] > expandOrder[result])
+				result = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Get the displayed positions of the {@code count} groups expanded the longest time ago, other than the two excluded
+	 * groups, in increasing order.
+	 */
+	int[] getLeastRecentlyExpanded(int count, int excludedGroup, int otherExcludedGroup) {
+		final long[] orders = new long[size];
+		int candidates = 0;
+		for (int i = 0; i < size; ++i) {
+			if (groups[i] != excludedGroup && groups[i] != otherExcludedGroup)
+				orders[candidates++] = expandOrder[i];
+		}
+		count = Math.min(count, candidates);
+		if (count <= 0)
+			return new int[0];
+		Arrays.sort(orders, 0, candidates);
+		final long lastOrder = orders[count - 1];
+		final int[] result = new int[count];
+		int found = 0;
+		for (int i = 0; i < size; ++i) {
+			if (groups[i] != excludedGroup && groups[i] != otherExcludedGroup && expandOrder[i] <= lastOrder)
+				result[found++] = groups[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Add the group at {@code groupPosition}, it must not be expanded.
+	 */
+	void add(int groupPosition, int childCount, Parcelable stableId) {
+		final int index = -indexOf(groupPosition) - 1;
+		ensureCapacity(size + 1);
+		System.arraycopy(groups, index, groups, index + 1, size - index);
+		System.arraycopy(childCounts, index, childCounts, index + 1, size - index);
+		System.arraycopy(childrenBefore, index, childrenBefore, index + 1, size - index);
+		System.arraycopy(expandOrder, index, expandOrder, index + 1, size - index);
+		System.arraycopy(stableIds, index, stableIds, index + 1, size - index);
+		groups[index] = groupPosition;
+		childCounts[index] = childCount;
+		childrenBefore[index] = index == 0 ? 0 : childrenBefore[index - 1] + childCounts[index - 1];
+		expandOrder[index] = ++expandCounter;
+		stableIds[index] = stableId;
+		++size;
+		for (int i = index + 1; i < size; ++i) {
+			childrenBefore[i] += childCount;
+		}
+		++version;
+	}
+
+	void remove(int index) {
+		final int childCount = childCounts[index];
+		--size;
+		System.arraycopy(groups, index + 1, groups, index, size - index);
+		System.arraycopy(childCounts, index + 1, childCounts, index, size - index);
+		System.arraycopy(childrenBefore, index + 1, childrenBefore, index, size - index);
+		System.arraycopy(expandOrder, index + 1, expandOrder, index, size - index);
+		System.arraycopy(stableIds, index + 1, stableIds, index, size - index);
+		stableIds[size] = null;
+		for (int i = index; i < size; ++i) {
+			childrenBefore[i] -= childCount;
+		}
+		++version;
+	}
+
+	/**
+	 * Expand all the groups from {@code 0} to {@code groupCount} in O(n), the groups already expanded keep their expand
+	 * order and the others are expanded after them in their displayed order.
+	 */
+	void expandAll(int groupCount, int[] groupChildCounts, Parcelable[] groupStableIds) {
+		final int[] oldGroups = Arrays.copyOf(groups, size);
+		final long[] oldExpandOrder = Arrays.copyOf(expandOrder, size);
+		ensureCapacity(groupCount);
+		int children = 0;
+		for (int group = 0, old = 0; group < groupCount; ++group) {
+			if (old < oldGroups.length && oldGroups[old] == group)
+				expandOrder[group] = oldExpandOrder[old++];
+			else
+				expandOrder[group] = ++expandCounter;
+			groups[group] = group;
+			childCounts[group] = groupChildCounts[group];
+			childrenBefore[group] = children;
+			stableIds[group] = groupStableIds[group];
+			children += groupChildCounts[group];
+		}
+		size = groupCount;
+		++version;
+	}
+
+	void clear() {
+		Arrays.fill(stableIds, 0, size, null);
+		size = 0;
+		++version;
+	}
+
+	void setChildCount(int index, int childCount) {
+		final int delta = childCount - childCounts[index];
+		if (delta == 0)
+			return;
+		childCounts[index] = childCount;
+		for (int i = index + 1; i < size; ++i) {
+			childrenBefore[i] += delta;
+		}
+		++version;
+	}
+
+	/**
+	 * Update the positions when a displayed group is inserted ({@code delta > 0}) or removed ({@code delta < 0}) at
+	 * {@code groupPosition}. A removed group must be collapsed first.
+	 */
+	void shift(int groupPosition, int delta) {
+		int start = indexOf(groupPosition);
+		if (start < 0)
+			start = -start - 1;
+		if (start == size)
+			return;
+		for (int i = start; i < size; ++i) {
+			groups[i] += delta;
+		}
+		++version;
+	}
+
+	/**
+	 * Update the positions when the displayed group at {@code from} moves to {@code to}. Only the groups between
+	 * {@code from} and {@code to} are shifted, in place.
+	 */
+	void move(int from, int to) {
+		if (from == to)
+			return;
+		int start = indexOf(Math.min(from, to));
+		if (start < 0)
+			start = -start - 1;
+		int end = indexOf(Math.max(from, to));
+		end = end < 0 ? -end - 1 : end + 1;
+		if (start == end)
+			return;
+		final int index = indexOf(from);
+		final int delta = from < to ? -1 : 1;
+		for (int i = start; i < end; ++i) {
+			if (i != index)
+				groups[i] += delta;
+		}
+		if (index >= 0) {
+			// the moved group goes to the other end of the range, the groups between take its place
+			final int target = from < to ? end - 1 : start;
+			final int childCount = childCounts[index];
+			final long order = expandOrder[index];
+			final Parcelable stableId = stableIds[index];
+			final int srcPos = from < to ? index + 1 : start;
+			final int destPos = from < to ? index : start + 1;
+			final int length = from < to ? end - 1 - index : index - start;
+			System.arraycopy(groups, srcPos, groups, destPos, length);
+			System.arraycopy(childCounts, srcPos, childCounts, destPos, length);
+			System.arraycopy(expandOrder, srcPos, expandOrder, destPos, length);
+			System.arraycopy(stableIds, srcPos, stableIds, destPos, length);
+			groups[target] = to;
+			childCounts[target] = childCount;
+			expandOrder[target] = order;
+			stableIds[target] = stableId;
+			int children = childrenBefore[start];
+			for (int i = start; i < end; ++i) {
+				childrenBefore[i] = children;
+				children += childCounts[i];
+			}
+		}
+		++version;
+	}
+
+	/**
+	 * Set the position of the group at {@code index}, {@link #sort()} must be called once all the positions are set.
+	 */
+	void setGroup(int index, int groupPosition) {
+		groups[index] = groupPosition;
+	}
+
+	/**
+	 * Sort the groups by position after they were set with {@link #setGroup(int, int)}, in O(k log k).
+	 */
+	void sort() {
+		final long[] keys = new long[size];
+		for (int i = 0; i < size; ++i) {
+			keys[i] = ((long) groups[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		final int[] oldGroups = Arrays.copyOf(groups, size);
+		final int[] oldChildCounts = Arrays.copyOf(childCounts, size);
+		final long[] oldExpandOrder = Arrays.copyOf(expandOrder, size);
+		final Parcelable[] oldStableIds = Arrays.copyOf(stableIds, size);
+		int children = 0;
+		for (int i = 0; i < size; ++i) {
+			final int from = (int) keys[i];
+			groups[i] = oldGroups[from];
+			childCounts[i] = oldChildCounts[from];
+			expandOrder[i] = oldExpandOrder[from];
+			stableIds[i] = oldStableIds[from];
+			childrenBefore[i] = children;
+			children += childCounts[i];
+		}
+		++version;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= groups.length)
+			return;
+		final int newCapacity = Math.max(capacity, groups.length * 2);
+		groups = Arrays.copyOf(groups, newCapacity);
+		childCounts = Arrays.copyOf(childCounts, newCapacity);
+		childrenBefore = Arrays.copyOf(childrenBefore, newCapacity);
+		expandOrder = Arrays.copyOf(expandOrder, newCapacity);
+		stableIds = Arrays.copyOf(stableIds, newCapacity);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < size; ++i) {
+			if (i != 0)
+				sb.append(", ");
+			sb.append(groups[i]).append('+').append(childCounts[i]);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,224 @@
+package com.levelupstudio.recyclerview;
+
+import android.os.Build;
+import android.support.v4.view.GestureDetectorCompat;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+
+/**
+ * Dispatches the taps, double taps and long presses on the rows of an {@link ExpandableRecyclerView} from a single
+ * {@link RecyclerView.OnItemTouchListener}, the rows don't need a listener of their own.
+ * <p>The row under the touch is resolved to its group and child positions with the adapter and shows its pressed
+ * state. A touch on a clickable View inside the row is left to that View. The clicks from keys and accessibility
+ * actions come from the {@code ExpandableRecyclerView} through {@link #dispatchRowClick(View)}.</p>
+ */
+final class ItemTouchDispatcher extends GestureDetector.SimpleOnGestureListener implements RecyclerView.OnItemTouchListener {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ItemTouchDispatcher";
+
+	private final ExpandableRecyclerView recyclerView;
+	private final GestureDetectorCompat gestureDetector;
+	private boolean doubleTapToExpand;
+	/** the touch stopped a scroll, it's not a tap on a row */
+	private boolean stoppedScroll;
+	/** row displayed as pressed by the current touch */
+	private View pressedRow;
+	private final Runnable unpressRow = new Runnable() {
+		@Override
+		public void run() {
+			setPressedRow(null, null);
+		}
+	};
+
+	ItemTouchDispatcher(ExpandableRecyclerView recyclerView) {
+		this.recyclerView = recyclerView;
+		this.gestureDetector = new GestureDetectorCompat(recyclerView.getContext(), this);
+		this.gestureDetector.setOnDoubleTapListener(null);
+	}
+
+	/**
+	 * When enabled a double tap expands or collapses a group, a single tap is only reported to the listeners.
+	 */
+	void setDoubleTapToExpand(boolean doubleTapToExpand) {
+		this.doubleTapToExpand = doubleTapToExpand;
+		gestureDetector.setOnDoubleTapListener(doubleTapToExpand ? this : null);
+	}
+
+	boolean isDoubleTapToExpand() {
+		return doubleTapToExpand;
+	}
+
+	@Override
+	public boolean onInterceptTouchEvent(RecyclerView view, MotionEvent event) {
+		gestureDetector.onTouchEvent(event);
+		final int action = event.getActionMasked();
+		if (action == MotionEvent.ACTION_UP && null != pressedRow) {
+			// show the pressed state of a quick tap for a moment
+			pressedRow.removeCallbacks(unpressRow);
+			pressedRow.postDelayed(unpressRow, ViewConfiguration.getPressedStateDuration());
+		} else if (action == MotionEvent.ACTION_CANCEL || (action == MotionEvent.ACTION_MOVE && null != pressedRow && recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE)) {
+			setPressedRow(null, null);
+		}
+		// never steal the touch from the rows or the scroll
+		return false;
+	}
+
+	@Override
+	public void onTouchEvent(RecyclerView view, MotionEvent event) {
+	}
+
+	@Override
+	public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept) {
+		if (disallowIntercept)
+			setPressedRow(null, null);
+	}
+
+	@Override
+	public boolean onDown(MotionEvent event) {
+		stoppedScroll = recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE;
+		setPressedRow(null, null);
+		return true;
+	}
+
+	@Override
+	public void onShowPress(MotionEvent event) {
+		setPressedRow(findRowUnder(event), event);
+	}
+
+	@Override
+	public boolean onSingleTapUp(MotionEvent event) {
+		final View itemView = findRowUnder(event);
+		if (null == itemView) {
+			setPressedRow(null, null);
+			return false;
+		}
+		setPressedRow(itemView, event);
+		// with a double tap to expand, the group is only expanded by the double tap
+		dispatchClick(itemView, true, !doubleTapToExpand);
+		return false;
+	}
+
+	@Override
+	public boolean onDoubleTap(MotionEvent event) {
+		dispatchClick(findRowUnder(event), false, true);
+		return true;
+	}
+
+	@Override
+	public void onLongPress(MotionEvent event) {
+		final View itemView = findRowUnder(event);
+		setPressedRow(null, null);
+		if (null != itemView && dispatchRowLongClick(itemView)) {
+			itemView.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+		}
+	}
+
+	/**
+	 * Handle the click of a row from a key or an accessibility action, it expands or collapses a group in any mode.
+	 */
+	void dispatchRowClick(View itemView) {
+		dispatchClick(itemView, true, true);
+	}
+
+	/**
+	 * Handle the long press of a row from a touch or an accessibility action.
+	 *
+	 * @return whether the long press was handled.
+	 */
+	boolean dispatchRowLongClick(View itemView) {
+		final int flatPosition = getFlatPosition(itemView);
+		if (flatPosition == RecyclerView.NO_POSITION)
+			return false;
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		return recyclerView.dispatchItemLongClick(itemView, adapter.getFlatGroup(flatPosition), adapter.getFlatChild(flatPosition));
+	}
+
+	private void dispatchClick(View itemView, boolean reportClick, boolean toggle) {
+		if (null == itemView)
+			return;
+		final int flatPosition = getFlatPosition(itemView);
+		if (flatPosition == RecyclerView.NO_POSITION)
+			return;
+
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		final ExpandableRecyclerView.ExpandableViewHolder holder = (ExpandableRecyclerView.ExpandableViewHolder) recyclerView.getChildViewHolder(itemView);
+		final int groupPosition = adapter.getFlatGroup(flatPosition);
+		final int childPosition = adapter.getFlatChild(flatPosition);
+		if (DEBUG) Log.d(LOG_TAG, "click group=" + groupPosition + " child=" + childPosition + " report=" + reportClick + " toggle=" + toggle);
+		itemView.playSoundEffect(SoundEffectConstants.CLICK);
+		if (childPosition == RecyclerView.NO_POSITION) {
+			recyclerView.dispatchGroupClick(holder, groupPosition, reportClick, toggle);
+		} else if (reportClick) {
+			recyclerView.dispatchChildClick(holder, groupPosition, childPosition);
+		}
+	}
+
+	/**
+	 * Show the pressed state on {@code itemView} only, with its hotspot under the touch.
+	 */
+	private void setPressedRow(View itemView, MotionEvent event) {
+		if (null != pressedRow && pressedRow != itemView) {
+			pressedRow.removeCallbacks(unpressRow);
+			pressedRow.setPressed(false);
+		}
+		pressedRow = itemView;
+		if (null == itemView)
+			return;
+		itemView.removeCallbacks(unpressRow);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			itemView.drawableHotspotChanged(event.getX() - itemView.getLeft() - itemView.getTranslationX(), event.getY() - itemView.getTop() - itemView.getTranslationY());
+		}
+		itemView.setPressed(true);
+	}
+
+	/**
+	 * Get the row of the adapter under the touch, {@code null} if there's none or if a clickable View of the row is touched.
+	 */
+	private View findRowUnder(MotionEvent event) {
+		if (stoppedScroll || null == recyclerView.getExpandableAdapter())
+			return null;
+		final View itemView = recyclerView.findChildViewUnder(event.getX(), event.getY());
+		if (null == itemView || !(recyclerView.getChildViewHolder(itemView) instanceof ExpandableRecyclerView.ExpandableViewHolder))
+			return null;
+		if (itemView instanceof ViewGroup && hasClickableViewUnder((ViewGroup) itemView, event.getX() - itemView.getLeft() - itemView.getTranslationX(), event.getY() - itemView.getTop() - itemView.getTranslationY()))
+			return null;
+		return itemView;
+	}
+
+	private static boolean hasClickableViewUnder(ViewGroup parent, float x, float y) {
+		for (int i = parent.getChildCount() - 1; i >= 0; --i) {
+			final View child = parent.getChildAt(i);
+			if (child.getVisibility() != View.VISIBLE)
+				continue;
+			final float childX = x + parent.getScrollX() - child.getLeft() - child.getTranslationX();
+			final float childY = y + parent.getScrollY() - child.getTop() - child.getTranslationY();
+			if (childX < 0 || childY < 0 || childX >= child.getWidth() || childY >= child.getHeight())
+				continue;
+			if (child.isClickable() || child.isLongClickable())
+				return true;
+			if (child instanceof ViewGroup && hasClickableViewUnder((ViewGroup) child, childX, childY))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the position of the row in the adapter, without the header views.
+	 */
+	private int getFlatPosition(View itemView) {
+		final int position = recyclerView.getChildPosition(itemView);
+		if (position == RecyclerView.NO_POSITION)
+			return RecyclerView.NO_POSITION;
+		final int flatPosition = position - recyclerView.getHeaderViewsCount();
+		if (flatPosition < 0 || flatPosition >= recyclerView.getExpandableAdapter().getItemCount())
+			return RecyclerView.NO_POSITION;
+		return flatPosition;
+	}
+}
@@ -0,0 +1,170 @@
+package com.levelupstudio.recyclerview;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Handles the horizontal lists displayed by the children of an {@link ExpandableRecyclerView.ExpandableAdapter} in
+ * {@link NestedListViewHolder NestedListViewHolders}.
+ * <ul>
+ * <li>All the nested lists share the same {@link RecyclerView.RecycledViewPool}, so expanding a group reuses the
+ * items of the lists of the group collapsed before.</li>
+ * <li>The scroll position of each list is kept by the stable ID of its row when the row is recycled and restored
+ * when it's bound again, for the {@code maxScrollStates} rows used most recently.</li>
+ * <li>When a group is expanded the pool is filled with the items set with {@link #setPrefill(RecyclerView.Adapter, int, int)},
+ * before the nested lists are laid out.</li>
+ * </ul>
+ *
+ * @see ExpandableRecyclerView.ExpandableAdapter#setNestedChildLists(NestedChildLists)
+ */
+public class NestedChildLists {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "NestedChildLists";
+
+	private final RecyclerView.RecycledViewPool recycledViewPool = new RecyclerView.RecycledViewPool();
+	/** first visible position in the high bits and its offset in the low bits, by stable ID of the row */
+	private final LruCache<Long, Long> scrollStates;
+
+	private RecyclerView.Adapter prefillAdapter;
+	private int prefillViewType;
+	private int prefillCount;
+	/** a group was expanded before any nested list was displayed, the pool is filled with the first one bound */
+	private boolean prefillPending;
+
+	/**
+	 * @param maxScrollStates the number of scroll positions kept for the rows not displayed
+	 */
+	public NestedChildLists(int maxScrollStates) {
+		this.scrollStates = new LruCache<>(Math.max(1, maxScrollStates));
+	}
+
+	/**
+	 * Get the {@link RecyclerView.RecycledViewPool} shared by the nested lists.
+	 */
+	@NonNull
+	public RecyclerView.RecycledViewPool getRecycledViewPool() {
+		return recycledViewPool;
+	}
+
+	/**
+	 * Create {@code count} items of {@code viewType} with {@code adapter} in the shared pool when a group is expanded,
+	 * so the nested lists don't inflate them while they are laid out. The adapter is only used to create the items.
+	 *
+	 * @param count the number of items a nested list displays, 0 to disable the prefill
+	 */
+	public void setPrefill(@Nullable RecyclerView.Adapter adapter, int viewType, int count) {
+		this.prefillAdapter = adapter;
+		this.prefillViewType = viewType;
+		this.prefillCount = null == adapter ? 0 : count;
+		this.prefillPending = false;
+		if (prefillCount > 0) {
+			recycledViewPool.setMaxRecycledViews(viewType, Math.max(5, prefillCount * 2));
+		}
+	}
+
+	/**
+	 * Forget the scroll position of all the nested lists.
+	 */
+	public void clearScrollStates() {
+		scrollStates.evictAll();
+	}
+
+	/**
+	 * Set up the nested list of the {@code holder} bound to the row with the stable ID {@code itemId} and restore its scroll position.
+	 */
+	void onBind(NestedListViewHolder holder, long itemId) {
+		final RecyclerView list = holder.nestedList;
+		if (holder.nestedItemId != RecyclerView.NO_ID && holder.nestedItemId != itemId) {
+			// the holder was not recycled before displaying another row
+			saveScrollState(holder);
+		}
+		if (list.getRecycledViewPool() != recycledViewPool) {
+			list.setRecycledViewPool(recycledViewPool);
+		}
+		if (null == list.getLayoutManager()) {
+			list.setLayoutManager(new LinearLayoutManager(list.getContext(), LinearLayoutManager.HORIZONTAL, false));
+		}
+		if (prefillPending) {
+			prefillPending = false;
+			fillPool(list);
+		}
+		if (holder.isMeasureCached() && holder.nestedItemId == itemId) {
+			// it still displays this row with its scroll, a scroll would only request a layout
+			return;
+		}
+		holder.nestedItemId = itemId;
+
+		if (!(list.getLayoutManager() instanceof LinearLayoutManager))
+			return;
+		final LinearLayoutManager layoutManager = (LinearLayoutManager) list.getLayoutManager();
+		final Long state = itemId == RecyclerView.NO_ID ? null : scrollStates.get(itemId);
+		if (null == state) {
+			layoutManager.scrollToPosition(0);
+		} else {
+			if (DEBUG) Log.d(LOG_TAG, "restore the scroll of " + itemId + " position=" + (int) (state >> 32) + " offset=" + (int) (long) state);
+			layoutManager.scrollToPositionWithOffset((int) (state >> 32), (int) (long) state);
+		}
+	}
+
+	void onRecycled(NestedListViewHolder holder) {
+		saveScrollState(holder);
+		holder.nestedItemId = RecyclerView.NO_ID;
+	}
+
+	private void saveScrollState(NestedListViewHolder holder) {
+		if (holder.nestedItemId == RecyclerView.NO_ID || !(holder.nestedList.getLayoutManager() instanceof LinearLayoutManager))
+			return;
+		final LinearLayoutManager layoutManager = (LinearLayoutManager) holder.nestedList.getLayoutManager();
+		final int position = layoutManager.findFirstVisibleItemPosition();
+		final View view = position == RecyclerView.NO_POSITION ? null : layoutManager.findViewByPosition(position);
+		if (null == view) {
+			scrollStates.remove(holder.nestedItemId);
+			return;
+		}
+		final int offset = layoutManager.getDecoratedLeft(view) - holder.nestedList.getPaddingLeft();
+		scrollStates.put(holder.nestedItemId, ((long) position << 32) | (offset & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * A group is expanded in {@code parent}, fill the shared pool with the items of the nested lists.
+	 * <p>The items are created with a nested list as their parent, so they get its layout params.</p>
+	 */
+	void prefill(RecyclerView parent) {
+		if (prefillCount <= 0)
+			return;
+		for (int i = parent.getChildCount() - 1; i >= 0; --i) {
+			final RecyclerView.ViewHolder holder = parent.getChildViewHolder(parent.getChildAt(i));
+			if (holder instanceof NestedListViewHolder && ((NestedListViewHolder) holder).nestedList.getRecycledViewPool() == recycledViewPool) {
+				fillPool(((NestedListViewHolder) holder).nestedList);
+				return;
+			}
+		}
+		prefillPending = true;
+	}
+
+	private void fillPool(RecyclerView nestedList) {
+		if (prefillCount <= 0)
+			return;
+		// the pool doesn't give its size, count the items it has
+		final RecyclerView.ViewHolder[] pooled = new RecyclerView.ViewHolder[prefillCount];
+		int available = 0;
+		while (available < prefillCount) {
+			final RecyclerView.ViewHolder holder = recycledViewPool.getRecycledView(prefillViewType);
+			if (null == holder)
+				break;
+			pooled[available++] = holder;
+		}
+		for (int i = 0; i < available; ++i) {
+			recycledViewPool.putRecycledView(pooled[i]);
+		}
+		if (DEBUG) Log.d(LOG_TAG, "prefill " + (prefillCount - available) + " items of type " + prefillViewType);
+		for (int i = available; i < prefillCount; ++i) {
+			recycledViewPool.putRecycledView(prefillAdapter.createViewHolder(nestedList, prefillViewType));
+		}
+	}
+}
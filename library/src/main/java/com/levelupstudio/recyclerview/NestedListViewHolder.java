@@ -0,0 +1,26 @@
+package com.levelupstudio.recyclerview;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * An {@link ExpandableRecyclerView.ExpandableViewHolder} for a child row displaying a horizontal list of its own.
+ * <p>With {@link NestedChildLists} set on the {@link ExpandableRecyclerView.ExpandableAdapter} the nested lists share
+ * a {@link RecyclerView.RecycledViewPool} and keep their scroll position when the group is collapsed.</p>
+ *
+ * @see ExpandableRecyclerView.ExpandableAdapter#setNestedChildLists(NestedChildLists)
+ */
+public class NestedListViewHolder extends ExpandableRecyclerView.ExpandableViewHolder {
+	/**
+	 * The nested list, its adapter is set when the child is bound.
+	 */
+	public final RecyclerView nestedList;
+	/** stable ID of the row the scroll position of {@link #nestedList} belongs to */
+	long nestedItemId = RecyclerView.NO_ID;
+
+	public NestedListViewHolder(@NonNull View itemView, @NonNull RecyclerView nestedList) {
+		super(itemView);
+		this.nestedList = nestedList;
+	}
+}
@@ -0,0 +1,215 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.support.annotation.LayoutRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Inflates the group and child layouts of an {@link ExpandableRecyclerView.ExpandableAdapter} in advance on a
+ * background thread, so creating a ViewHolder during an expand or a fast scroll doesn't inflate on the main thread.
+ * <p>Each view type declares its layout and how many Views to keep ready. The adapter gets a ready View in
+ * {@link ExpandableRecyclerView.ExpandableAdapter#onCreatePreInflatedViewHolder(View, boolean, int) onCreatePreInflatedViewHolder()}
+ * and falls back to its usual creation when none is ready. Each View taken is replaced in the background.</p>
+ * <p>The layouts are inflated with a {@link LayoutInflater} used only by the background thread, they must not
+ * contain Views that need to be created on the main thread. A layout that fails to inflate is logged once and not
+ * pre-inflated anymore.</p>
+ *
+ * @see ExpandableRecyclerView.ExpandableAdapter#setPreInflater(PreInflater)
+ */
+public class PreInflater {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "PreInflater";
+
+	private final ViewGroup parent;
+	private final LayoutInflater inflater;
+	private Executor executor;
+	private final AtomicInteger generation = new AtomicInteger();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private boolean started;
+
+	/** declared (kind, view type) pairs, indexing the arrays below */
+	private final ViewTypeRegistry declared = new ViewTypeRegistry();
+	private int[] layouts = new int[4];
+	private int[] targets = new int[4];
+	private TypeQueue[] queues = new TypeQueue[4];
+
+	/**
+	 * Views ready for a view type, the number of Views being inflated and whether its layout failed to inflate.
+	 */
+	private static final class TypeQueue {
+		final ConcurrentLinkedQueue<View> ready = new ConcurrentLinkedQueue<>();
+		final AtomicInteger pending = new AtomicInteger();
+		/** the layout can't be inflated in the background, it's not tried again */
+		final AtomicBoolean failed;
+
+		TypeQueue(AtomicBoolean failed) {
+			this.failed = failed;
+		}
+	}
+
+	/**
+	 * @param parent the {@code RecyclerView} the Views will be added to, used to create their layout parameters.
+	 */
+	public PreInflater(@NonNull ViewGroup parent) {
+		this.parent = parent;
+		this.inflater = LayoutInflater.from(parent.getContext()).cloneInContext(parent.getContext());
+	}
+
+	/**
+	 * Set the {@link Executor} used to inflate the Views. A shared background thread is used by default.
+	 * <p>The Views are inflated with a single {@link LayoutInflater}, the {@code Executor} must not run tasks concurrently.</p>
+	 */
+	public void setExecutor(@Nullable Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Keep {@code targetCount} Views of the {@code layoutId} layout ready for the group view type {@code viewType}
+	 * returned by {@link ExpandableRecyclerView.ExpandableAdapter#getGroupViewType(int) getGroupViewType()}.
+	 */
+	public void declareGroupLayout(int viewType, @LayoutRes int layoutId, int targetCount) {
+		declare(ViewTypeRegistry.KIND_GROUP, viewType, layoutId, targetCount);
+	}
+
+	/**
+	 * Keep {@code targetCount} Views of the {@code layoutId} layout ready for the child view type {@code viewType}
+	 * returned by {@link ExpandableRecyclerView.ExpandableAdapter#getChildViewType(int, int) getChildViewType()}.
+	 */
+	public void declareChildLayout(int viewType, @LayoutRes int layoutId, int targetCount) {
+		declare(ViewTypeRegistry.KIND_CHILD, viewType, layoutId, targetCount);
+	}
+
+	private void declare(int kind, int viewType, int layoutId, int targetCount) {
+		final int index = declared.getViewType(kind, viewType);
+		if (index >= layouts.length) {
+			layouts = Arrays.copyOf(layouts, index * 2);
+			targets = Arrays.copyOf(targets, index * 2);
+			queues = Arrays.copyOf(queues, index * 2);
+		}
+		if (null == queues[index] || layouts[index] != layoutId) {
+			queues[index] = new TypeQueue(new AtomicBoolean());
+		}
+		layouts[index] = layoutId;
+		targets[index] = targetCount;
+		if (started) {
+			fill(index);
+		}
+	}
+
+	/**
+	 * Start inflating the declared layouts in the background.
+	 */
+	public void start() {
+		started = true;
+		for (int index = 0; index < declared.size(); ++index) {
+			fill(index);
+		}
+	}
+
+	/**
+	 * Stop inflating and drop the Views that are ready.
+	 */
+	public void clear() {
+		started = false;
+		generation.incrementAndGet();
+		for (int index = 0; index < declared.size(); ++index) {
+			// a layout that failed is not tried again
+			queues[index] = new TypeQueue(queues[index].failed);
+		}
+	}
+
+	/**
+	 * Get the number of Views that were ready when a ViewHolder was created.
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of ViewHolders created without a View ready, or without using the View ready, for a declared layout.
+	 */
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Take a View ready for the {@code viewType} of the {@code kind} of row. When a View is returned the caller reports
+	 * whether a ViewHolder was created with it with {@link #onViewTaken(boolean)}.
+	 *
+	 * @return {@code null} if the layout is not declared or no View is ready.
+	 */
+	@Nullable
+	View take(int kind, int viewType) {
+		final int index = declared.findViewType(kind, viewType);
+		if (index == ViewTypeRegistry.INVALID_TYPE) {
+			// not declared
+			return null;
+		}
+		final View view = queues[index].ready.poll();
+		if (null == view) {
+			misses.incrementAndGet();
+		}
+		if (started) {
+			fill(index);
+		}
+		return view;
+	}
+
+	/**
+	 * Count a View returned by {@link #take(int, int)} as a hit if a ViewHolder was created with it, as a miss otherwise.
+	 */
+	void onViewTaken(boolean used) {
+		if (used) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Inflate the Views missing to reach the target count of the declared layout at {@code index}.
+	 */
+	private void fill(int index) {
+		final TypeQueue queue = queues[index];
+		final int layoutId = layouts[index];
+		final int missing = targets[index] - queue.ready.size() - queue.pending.get();
+		if (missing <= 0 || queue.failed.get())
+			return;
+
+		final int currentGeneration = generation.get();
+		final Executor inflateExecutor = null != executor ? executor : BackgroundExecutor.get();
+		for (int i = 0; i < missing; ++i) {
+			queue.pending.incrementAndGet();
+			inflateExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (generation.get() == currentGeneration && !queue.failed.get()) {
+							View view = inflater.inflate(layoutId, parent, false);
+							queue.ready.offer(view);
+						}
+					} catch (RuntimeException e) {
+						// not only InflateException, a View may not be created out of the main thread; the shared
+						// thread must survive it and the layout is created on the main thread from now on
+						if (queue.failed.compareAndSet(false, true))
+							Log.w(LOG_TAG, "failed to inflate layout " + layoutId + " in the background, it's not pre-inflated anymore", e);
+					} finally {
+						queue.pending.decrementAndGet();
+					}
+				}
+			});
+		}
+		if (DEBUG) Log.d(LOG_TAG, "inflate " + missing + " views of layout " + layoutId);
+	}
+}
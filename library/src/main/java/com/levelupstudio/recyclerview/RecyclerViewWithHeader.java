@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
@@ -171,6 +172,36 @@ public class RecyclerViewWithHeader extends RecyclerView {
 		return super.computeVerticalScrollOffset();
 	}
 
+	/**
+	 * Make the {@code holder} use all the spans of a {@link StaggeredGridLayoutManager} or a single one.
+	 */
+	static void setFullSpan(RecyclerView recyclerView, ViewHolder holder, boolean fullSpan) {
+		if (null == recyclerView || !(recyclerView.getLayoutManager() instanceof StaggeredGridLayoutManager))
+			return;
+		final ViewGroup.LayoutParams layoutParams = holder.itemView.getLayoutParams();
+		if (layoutParams instanceof StaggeredGridLayoutManager.LayoutParams) {
+			StaggeredGridLayoutManager.LayoutParams staggeredParams = (StaggeredGridLayoutManager.LayoutParams) layoutParams;
+			if (staggeredParams.isFullSpan() != fullSpan) {
+				staggeredParams.setFullSpan(fullSpan);
+				holder.itemView.setLayoutParams(staggeredParams);
+			}
+		} else if (fullSpan) {
+			// not laid out yet, the RecyclerView keeps valid layout parameters
+			StaggeredGridLayoutManager.LayoutParams staggeredParams = null == layoutParams
+					? (StaggeredGridLayoutManager.LayoutParams) recyclerView.getLayoutManager().generateDefaultLayoutParams()
+					: new StaggeredGridLayoutManager.LayoutParams(layoutParams);
+			staggeredParams.setFullSpan(true);
+			holder.itemView.setLayoutParams(staggeredParams);
+		}
+	}
+
+	/**
+	 * @return whether the {@code holder} displays a header or a footer added to a {@code RecyclerViewWithHeader}.
+	 */
+	static boolean isHeaderOrFooter(ViewHolder holder) {
+		return holder instanceof AdapterWithHeader.HeaderViewHolder;
+	}
+
 	@Override
 	public int computeVerticalScrollRange() {
 		return super.computeVerticalScrollRange();
@@ -180,31 +211,47 @@ public class RecyclerViewWithHeader extends RecyclerView {
 		final Adapter<VH> delegate;
 		private final ArrayList<HeaderViewHolder> headerViews = new ArrayList<>(1);
 		private final ArrayList<HeaderViewHolder> footerViews = new ArrayList<>(1);
-		private static final int VIEW_TYPE_OFFSET = 7000;
+		/** IDs of the headers and footers, far from the IDs of the delegate */
+		private static final long HEADER_ID_OFFSET = Long.MIN_VALUE;
+		/** view types of the headers, footers and delegate rows, shared with an {@code ExpandableAdapter} delegate */
+		private final ViewTypeRegistry viewTypes;
+		/** whether the delegate view types are already registered in {@link #viewTypes} */
+		private final boolean sharedViewTypes;
+		private RecyclerView recyclerView;
 
 		private static class HeaderViewHolder extends ViewHolder {
 			public HeaderViewHolder(View itemView) {
 				super(itemView);
+				// the same ViewHolder is always used for its header/footer, it must not be reused from a pool
+				setIsRecyclable(false);
 			}
 		}
 
 		public AdapterWithHeader(@NonNull Adapter<VH> adapter) {
 			this.delegate = adapter;
+			this.sharedViewTypes = adapter instanceof ExpandableRecyclerView.ExpandableAdapter;
+			this.viewTypes = sharedViewTypes ? ((ExpandableRecyclerView.ExpandableAdapter) adapter).getViewTypeRegistry() : new ViewTypeRegistry();
 		}
 
 		@Override
 		public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-			if (viewType < VIEW_TYPE_OFFSET || viewType >= (VIEW_TYPE_OFFSET + headerViews.size() + footerViews.size()))
-				return delegate.onCreateViewHolder(parent, viewType);
-			viewType -= VIEW_TYPE_OFFSET;
-			if (viewType < headerViews.size())
-				return headerViews.get(viewType);
-			viewType -= headerViews.size();
-			return footerViews.get(viewType);
+			switch (viewTypes.getKind(viewType)) {
+				case ViewTypeRegistry.KIND_HEADER:
+					return headerViews.get(viewTypes.getUserType(viewType));
+				case ViewTypeRegistry.KIND_FOOTER:
+					return footerViews.get(viewTypes.getUserType(viewType));
+				case ViewTypeRegistry.KIND_ITEM:
+					return delegate.onCreateViewHolder(parent, viewTypes.getUserType(viewType));
+				default:
+					return delegate.onCreateViewHolder(parent, viewType);
+			}
 		}
 
 		@Override
 		public void onBindViewHolder(ViewHolder holder, int position) {
+			if (holder instanceof HeaderViewHolder) {
+				setFullSpan(recyclerView, holder, true);
+			}
 			if (position >= headerViews.size()) {
 				position -= headerViews.size();
 				if (position < delegate.getItemCount()) {
@@ -213,6 +260,18 @@ public class RecyclerViewWithHeader extends RecyclerView {
 			}
 		}
 
+		@Override
+		public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+			this.recyclerView = recyclerView;
+			delegate.onAttachedToRecyclerView(recyclerView);
+		}
+
+		@Override
+		public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+			this.recyclerView = null;
+			delegate.onDetachedFromRecyclerView(recyclerView);
+		}
+
 		@Override
 		public final int getItemCount() {
 			return headerViews.size() + footerViews.size() + delegate.getItemCount();
@@ -221,24 +280,26 @@ public class RecyclerViewWithHeader extends RecyclerView {
 		@Override
 		public int getItemViewType(int position) {
 			if (position < headerViews.size())
-				return position + VIEW_TYPE_OFFSET;
+				return viewTypes.getViewType(ViewTypeRegistry.KIND_HEADER, position);
 			position -= headerViews.size();
 			if (position < delegate.getItemCount()) {
-				return delegate.getItemViewType(position);
+				if (sharedViewTypes)
+					return delegate.getItemViewType(position);
+				return viewTypes.getViewType(ViewTypeRegistry.KIND_ITEM, delegate.getItemViewType(position));
 			}
 			position -= delegate.getItemCount();
-			return position + VIEW_TYPE_OFFSET + headerViews.size();
+			return viewTypes.getViewType(ViewTypeRegistry.KIND_FOOTER, position);
 		}
 
 		@Override
 		public long getItemId(int position) {
 			if (position < headerViews.size())
-				return position + VIEW_TYPE_OFFSET;
+				return HEADER_ID_OFFSET + position;
 			position -= headerViews.size();
 			if (position < delegate.getItemCount()) {
 				return delegate.getItemId(position);
 			}
-			return position + VIEW_TYPE_OFFSET + headerViews.size();
+			return HEADER_ID_OFFSET + position + headerViews.size();
 		}
 
 		@Override
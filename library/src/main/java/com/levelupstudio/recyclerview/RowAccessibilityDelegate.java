@@ -0,0 +1,57 @@
+package com.levelupstudio.recyclerview;
+
+import android.os.Bundle;
+import android.support.v4.view.AccessibilityDelegateCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v7.widget.RecyclerViewAccessibilityDelegate;
+import android.view.View;
+
+/**
+ * Accessibility delegate of an {@link ExpandableRecyclerView}, its rows have no click listener of their own but they
+ * are clickable and long clickable by the accessibility services, the actions go to the {@link ItemTouchDispatcher}.
+ */
+final class RowAccessibilityDelegate extends RecyclerViewAccessibilityDelegate {
+	private final ExpandableRecyclerView recyclerView;
+	private final ItemTouchDispatcher touchDispatcher;
+
+	private final AccessibilityDelegateCompat itemDelegate = new AccessibilityDelegateCompat() {
+		@Override
+		public void onInitializeAccessibilityNodeInfo(View host, AccessibilityNodeInfoCompat info) {
+			RowAccessibilityDelegate.super.getItemDelegate().onInitializeAccessibilityNodeInfo(host, info);
+			if (isRow(host)) {
+				info.setClickable(true);
+				info.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+				info.setLongClickable(true);
+				info.addAction(AccessibilityNodeInfoCompat.ACTION_LONG_CLICK);
+			}
+		}
+
+		@Override
+		public boolean performAccessibilityAction(View host, int action, Bundle args) {
+			if (isRow(host)) {
+				if (action == AccessibilityNodeInfoCompat.ACTION_CLICK) {
+					touchDispatcher.dispatchRowClick(host);
+					return true;
+				}
+				if (action == AccessibilityNodeInfoCompat.ACTION_LONG_CLICK)
+					return touchDispatcher.dispatchRowLongClick(host);
+			}
+			return RowAccessibilityDelegate.super.getItemDelegate().performAccessibilityAction(host, action, args);
+		}
+	};
+
+	RowAccessibilityDelegate(ExpandableRecyclerView recyclerView, ItemTouchDispatcher touchDispatcher) {
+		super(recyclerView);
+		this.recyclerView = recyclerView;
+		this.touchDispatcher = touchDispatcher;
+	}
+
+	@Override
+	public AccessibilityDelegateCompat getItemDelegate() {
+		return itemDelegate;
+	}
+
+	private boolean isRow(View host) {
+		return host.getParent() == recyclerView && recyclerView.getChildViewHolder(host) instanceof ExpandableRecyclerView.ExpandableViewHolder;
+	}
+}
@@ -0,0 +1,521 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Computes the exact scroll offset and range of an {@link ExpandableRecyclerView} from the measured size of its rows.
+ * <p>The sizes are kept by view type and stable ID, so a row measured once keeps its size when it's scrolled away or
+ * when the groups move. The rows never measured count for the average size of the measured groups or children.</p>
+ * <p>The sizes of the displayed groups and of the children of the expanded groups, one after the other, are kept in two
+ * Fenwick trees: the offset of a row is found in O(log n), expanding or collapsing a group only rebuilds the children
+ * tree and a row measured with a new size is updated in O(log n). The groups tree is rebuilt in O(n) when groups are
+ * inserted, removed or moved.</p>
+ *
+ * @see ExpandableRecyclerView#setExactScrollMetrics(boolean)
+ */
+final class ScrollMetrics extends RecyclerView.OnScrollListener {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ScrollMetrics";
+
+	/** the stored sizes are dropped past this number of rows */
+	private static final int MAX_STORED_SIZES = 1 << 16;
+	static final int UNKNOWN = -1;
+
+	private final ExpandableRecyclerView recyclerView;
+	private final SizeStore sizes = new SizeStore();
+
+	private ExpandableRecyclerView.ExpandableAdapter observedAdapter;
+	private final RecyclerView.AdapterDataObserver observer = new RecyclerView.AdapterDataObserver() {
+		@Override
+		public void onChanged() {
+			invalidate();
+		}
+
+		@Override
+		public void onItemRangeInserted(int positionStart, int itemCount) {
+			onChildrenChanged();
+		}
+
+		@Override
+		public void onItemRangeRemoved(int positionStart, int itemCount) {
+			onChildrenChanged();
+		}
+
+		@Override
+		public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+			invalidate();
+		}
+	};
+
+	/** width used to measure the stored sizes */
+	private int measuredWidth;
+
+	private int[] headerSizes = new int[0];
+	private int[] footerSizes = new int[0];
+
+	/** sizes of the displayed groups, {@link #UNKNOWN} for the groups never measured */
+	private boolean groupsValid;
+	/** {@link ExpandableRecyclerView.ExpandableAdapter#getDisplayedGroupsVersion()} of the groups tree */
+	private int groupsVersion;
+	private int groupCount;
+	private int[] groupSizes = new int[16];
+	private int[] groupTree = new int[17];
+	private int[] unknownGroupTree = new int[17];
+	private int groupsTotal;
+	private int unknownGroups;
+
+	/** sizes of the children of all the expanded groups, in the display order */
+	private boolean childrenValid;
+	/** {@link ExpandedGroupIndex#getVersion()} of the children tree */
+	private int childrenVersion;
+	private int childCount;
+	private int[] childSizes = new int[16];
+	private int[] childTree = new int[17];
+	private int[] unknownChildTree = new int[17];
+	private int childrenTotal;
+	private int unknownChildren;
+
+	ScrollMetrics(ExpandableRecyclerView recyclerView) {
+		this.recyclerView = recyclerView;
+	}
+
+	void release() {
+		if (null != observedAdapter) {
+			observedAdapter.unregisterAdapterDataObserver(observer);
+			observedAdapter = null;
+		}
+	}
+
+	/**
+	 * Whether the exact metrics can be computed with the current {@code LayoutManager}, a list with a row per item.
+	 */
+	boolean isSupported() {
+		final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+		return layoutManager instanceof LinearLayoutManager && !(layoutManager instanceof GridLayoutManager);
+	}
+
+	@Override
+	public void onScrolled(RecyclerView view, int dx, int dy) {
+		measureRows();
+	}
+
+	/**
+	 * Store the size of the rows currently laid out.
+	 */
+	void measureRows() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		if (null == adapter || !isSupported())
+			return;
+		final boolean vertical = isVertical();
+		final int crossSize = vertical ? recyclerView.getWidth() : recyclerView.getHeight();
+		if (crossSize != measuredWidth) {
+			// the rows will have different sizes
+			if (DEBUG) Log.d(LOG_TAG, "width changed " + measuredWidth + " -> " + crossSize);
+			measuredWidth = crossSize;
+			sizes.clear();
+			invalidate();
+		}
+		validate(adapter);
+
+		final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+		for (int i = recyclerView.getChildCount() - 1; i >= 0; --i) {
+			final View child = recyclerView.getChildAt(i);
+			final int position = recyclerView.getChildPosition(child);
+			if (position == RecyclerView.NO_POSITION)
+				continue;
+			final ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) child.getLayoutParams();
+			final int size = vertical
+					? layoutManager.getDecoratedMeasuredHeight(child) + params.topMargin + params.bottomMargin
+					: layoutManager.getDecoratedMeasuredWidth(child) + params.leftMargin + params.rightMargin;
+			setSize(adapter, position, size);
+		}
+	}
+
+	private void setSize(ExpandableRecyclerView.ExpandableAdapter adapter, int position, int size) {
+		final int headerCount = recyclerView.getHeaderViewsCount();
+		final int flatPosition = position - headerCount;
+		if (flatPosition < 0) {
+			headerSizes = ensureSize(headerSizes, headerCount);
+			headerSizes[position] = size;
+			return;
+		}
+		final int itemCount = adapter.getItemCount();
+		if (flatPosition >= itemCount) {
+			footerSizes = ensureSize(footerSizes, recyclerView.getFooterViewsCount());
+			if (flatPosition - itemCount < footerSizes.length)
+				footerSizes[flatPosition - itemCount] = size;
+			return;
+		}
+
+		final long itemId = adapter.getItemId(flatPosition);
+		if (itemId != RecyclerView.NO_ID) {
+			final int viewType = adapter.getItemViewType(flatPosition);
+			if (sizes.size() >= MAX_STORED_SIZES && sizes.get(viewType, itemId) == UNKNOWN)
+				sizes.clear();
+			sizes.put(viewType, itemId, size);
+		}
+
+		final int groupPosition = adapter.getFlatGroup(flatPosition);
+		final int childPosition = adapter.getFlatChild(flatPosition);
+		if (childPosition == RecyclerView.NO_POSITION) {
+			if (groupPosition < groupCount && groupSizes[groupPosition] != size) {
+				if (groupSizes[groupPosition] == UNKNOWN) {
+					add(unknownGroupTree, groupCount, groupPosition, -1);
+					--unknownGroups;
+					groupSizes[groupPosition] = 0;
+				}
+				add(groupTree, groupCount, groupPosition, size - groupSizes[groupPosition]);
+				groupsTotal += size - groupSizes[groupPosition];
+				groupSizes[groupPosition] = size;
+			}
+		} else {
+			final int child = adapter.getExpandedGroups().getChildrenBeforeGroup(groupPosition) + childPosition;
+			if (child < childCount && childSizes[child] != size) {
+				if (childSizes[child] == UNKNOWN) {
+					add(unknownChildTree, childCount, child, -1);
+					--unknownChildren;
+					childSizes[child] = 0;
+				}
+				add(childTree, childCount, child, size - childSizes[child]);
+				childrenTotal += size - childSizes[child];
+				childSizes[child] = size;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of pixels between the start of the content and the start of the visible area.
+	 */
+	int computeScrollOffset() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		if (null == adapter)
+			return 0;
+		final int position = recyclerView.findVisiblePosition(true, false);
+		if (position == RecyclerView.NO_POSITION)
+			return 0;
+		final View firstView = recyclerView.getLayoutManager().findViewByPosition(position);
+		if (null == firstView)
+			return 0;
+		validate(adapter);
+
+		final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+		final ViewGroup.MarginLayoutParams params = (ViewGroup.MarginLayoutParams) firstView.getLayoutParams();
+		final int viewStart = isVertical()
+				? layoutManager.getDecoratedTop(firstView) - params.topMargin - recyclerView.getPaddingTop()
+				: layoutManager.getDecoratedLeft(firstView) - params.leftMargin - recyclerView.getPaddingLeft();
+		return Math.max(0, getRowStart(adapter, position) - viewStart);
+	}
+
+	/**
+	 * Get the size of the whole content, in pixels.
+	 */
+	int computeScrollRange() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = getAdapter();
+		if (null == adapter)
+			return 0;
+		validate(adapter);
+		final int headerCount = recyclerView.getHeaderViewsCount();
+		return getRowStart(adapter, headerCount + adapter.getItemCount()) + sum(footerSizes, Math.min(footerSizes.length, recyclerView.getFooterViewsCount()));
+	}
+
+	/**
+	 * Get the size of the visible area, in pixels.
+	 */
+	int computeScrollExtent() {
+		if (isVertical())
+			return recyclerView.getHeight() - recyclerView.getPaddingTop() - recyclerView.getPaddingBottom();
+		return recyclerView.getWidth() - recyclerView.getPaddingLeft() - recyclerView.getPaddingRight();
+	}
+
+	boolean isVertical() {
+		final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+		return !(layoutManager instanceof LinearLayoutManager) || ((LinearLayoutManager) layoutManager).getOrientation() == LinearLayoutManager.VERTICAL;
+	}
+
+	/**
+	 * Get the start of the row at the adapter {@code position}, including the header views, from the start of the content.
+	 */
+	private int getRowStart(ExpandableRecyclerView.ExpandableAdapter adapter, int position) {
+		final int headerCount = recyclerView.getHeaderViewsCount();
+		if (position < headerCount)
+			return sum(headerSizes, Math.min(position, headerSizes.length));
+
+		int start = sum(headerSizes, Math.min(headerCount, headerSizes.length));
+		final int flatPosition = position - headerCount;
+		final int itemCount = adapter.getItemCount();
+		if (flatPosition >= itemCount) {
+			start += getGroupsStart(groupCount) + getChildrenStart(childCount);
+			return start + sum(footerSizes, Math.min(flatPosition - itemCount, footerSizes.length));
+		}
+
+		final int groupPosition = adapter.getFlatGroup(flatPosition);
+		final int childPosition = adapter.getFlatChild(flatPosition);
+		final int childrenBefore = adapter.getExpandedGroups().getChildrenBeforeGroup(groupPosition);
+		start += getGroupsStart(groupPosition);
+		if (childPosition != RecyclerView.NO_POSITION) {
+			start += getGroupSize(groupPosition) + getChildrenStart(childrenBefore + childPosition);
+		} else {
+			start += getChildrenStart(childrenBefore);
+		}
+		return start;
+	}
+
+	/**
+	 * Get the size of the displayed groups before {@code groupPosition}, without the children.
+	 */
+	private int getGroupsStart(int groupPosition) {
+		return estimateStart(groupTree, unknownGroupTree, Math.min(groupPosition, groupCount), getAverageGroupSize());
+	}
+
+	private int getGroupSize(int groupPosition) {
+		if (groupPosition >= groupCount)
+			return 0;
+		return groupSizes[groupPosition] == UNKNOWN ? getAverageGroupSize() : groupSizes[groupPosition];
+	}
+
+	/**
+	 * Get the size of the first {@code childPosition} children of the expanded groups.
+	 */
+	private int getChildrenStart(int childPosition) {
+		return estimateStart(childTree, unknownChildTree, Math.min(childPosition, childCount), getAverageChildSize());
+	}
+
+	private int getAverageGroupSize() {
+		final int known = groupCount - unknownGroups;
+		if (known != 0)
+			return groupsTotal / known;
+		final int knownChildren = childCount - unknownChildren;
+		return knownChildren == 0 ? 0 : childrenTotal / knownChildren;
+	}
+
+	private int getAverageChildSize() {
+		final int known = childCount - unknownChildren;
+		return known == 0 ? getAverageGroupSize() : childrenTotal / known;
+	}
+
+	private void invalidate() {
+		groupsValid = false;
+		childrenValid = false;
+	}
+
+	/**
+	 * Rows were inserted or removed, only the children changed if the displayed groups are the same.
+	 */
+	private void onChildrenChanged() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		if (null != adapter && groupsValid && adapter.getDisplayedGroupCount() == groupCount && adapter.getDisplayedGroupsVersion() == groupsVersion) {
+			// groups were expanded or collapsed or children were inserted or removed
+			childrenValid = false;
+		} else {
+			invalidate();
+		}
+	}
+
+	/**
+	 * Build the trees of the groups and the children that changed with the sizes stored for them.
+	 */
+	private void validate(ExpandableRecyclerView.ExpandableAdapter adapter) {
+		if (!groupsValid || adapter.getDisplayedGroupsVersion() != groupsVersion) {
+			groupsVersion = adapter.getDisplayedGroupsVersion();
+			groupCount = adapter.getDisplayedGroupCount();
+			if (groupSizes.length < groupCount) {
+				groupSizes = new int[Math.max(groupCount, groupSizes.length * 2)];
+			}
+			for (int i = 0; i < groupCount; ++i) {
+				final int flatPosition = adapter.getGroupFlatPosition(i);
+				groupSizes[i] = getStoredSize(adapter, flatPosition);
+			}
+			groupTree = ensureSize(groupTree, groupCount + 1);
+			unknownGroupTree = ensureSize(unknownGroupTree, groupCount + 1);
+			groupsTotal = build(groupTree, unknownGroupTree, groupSizes, groupCount);
+			unknownGroups = prefix(unknownGroupTree, groupCount);
+			groupsValid = true;
+			childrenValid = false;
+			if (DEBUG) Log.d(LOG_TAG, "groups rebuilt count=" + groupCount + " unknown=" + unknownGroups);
+		}
+
+		final ExpandedGroupIndex expandedGroups = adapter.getExpandedGroups();
+		if (!childrenValid || expandedGroups.getVersion() != childrenVersion) {
+			childrenVersion = expandedGroups.getVersion();
+			childCount = expandedGroups.getTotalChildCount();
+			if (childSizes.length < childCount) {
+				childSizes = new int[Math.max(childCount, childSizes.length * 2)];
+			}
+			for (int i = 0, child = 0; i < expandedGroups.size(); ++i) {
+				final int firstChild = expandedGroups.getFlatPosition(i) + 1;
+				for (int c = 0; c < expandedGroups.getChildCount(i); ++c) {
+					childSizes[child++] = getStoredSize(adapter, firstChild + c);
+				}
+			}
+			childTree = ensureSize(childTree, childCount + 1);
+			unknownChildTree = ensureSize(unknownChildTree, childCount + 1);
+			childrenTotal = build(childTree, unknownChildTree, childSizes, childCount);
+			unknownChildren = prefix(unknownChildTree, childCount);
+			childrenValid = true;
+		}
+	}
+
+	private int getStoredSize(ExpandableRecyclerView.ExpandableAdapter adapter, int flatPosition) {
+		final long itemId = adapter.getItemId(flatPosition);
+		if (itemId == RecyclerView.NO_ID)
+			return UNKNOWN;
+		return sizes.get(adapter.getItemViewType(flatPosition), itemId);
+	}
+
+	private ExpandableRecyclerView.ExpandableAdapter getAdapter() {
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		if (adapter != observedAdapter) {
+			if (null != observedAdapter)
+				observedAdapter.unregisterAdapterDataObserver(observer);
+			observedAdapter = adapter;
+			if (null != adapter)
+				adapter.registerAdapterDataObserver(observer);
+			// the view types and the stable IDs belong to the old adapter
+			sizes.clear();
+			invalidate();
+		}
+		return adapter;
+	}
+
+	/**
+	 * Build the Fenwick trees of the known {@code sizes} and of the number of unknown sizes in O(n).
+	 *
+	 * @return the total of the known sizes
+	 */
+	static int build(int[] tree, int[] unknownTree, int[] sizes, int count) {
+		int total = 0;
+		Arrays.fill(tree, 0, count + 1, 0);
+		Arrays.fill(unknownTree, 0, count + 1, 0);
+		for (int i = 1; i <= count; ++i) {
+			final int size = sizes[i - 1];
+			if (size == UNKNOWN) {
+				unknownTree[i] += 1;
+			} else {
+				tree[i] += size;
+				total += size;
+			}
+			final int parent = i + (i & -i);
+			if (parent <= count) {
+				tree[parent] += tree[i];
+				unknownTree[parent] += unknownTree[i];
+			}
+		}
+		return total;
+	}
+
+	static void add(int[] tree, int count, int index, int delta) {
+		for (int i = index + 1; i <= count; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Get the sum of the first {@code count} values of the Fenwick {@code tree}.
+	 */
+	static int prefix(int[] tree, int count) {
+		int sum = 0;
+		for (int i = count; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the size of the first {@code count} rows, the rows with an unknown size count for {@code averageSize}.
+	 */
+	static int estimateStart(int[] tree, int[] unknownTree, int count, int averageSize) {
+		return prefix(tree, count) + prefix(unknownTree, count) * averageSize;
+	}
+
+	private static int sum(int[] values, int count) {
+		int sum = 0;
+		for (int i = 0; i < count; ++i) {
+			sum += values[i];
+		}
+		return sum;
+	}
+
+	private static int[] ensureSize(int[] array, int size) {
+		return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+	}
+
+	/**
+	 * Sizes of the rows by view type and stable ID, in an open addressing table of primitives.
+	 */
+	static final class SizeStore {
+		private long[] ids = new long[64];
+		private int[] viewTypes = new int[64];
+		/** {@link #UNKNOWN} for an empty slot */
+		private int[] values = new int[64];
+		private int size;
+
+		SizeStore() {
+			Arrays.fill(values, UNKNOWN);
+		}
+
+		int size() {
+			return size;
+		}
+
+		int get(int viewType, long id) {
+			final int mask = values.length - 1;
+			int slot = hash(viewType, id) & mask;
+			while (values[slot] != UNKNOWN) {
+				if (ids[slot] == id && viewTypes[slot] == viewType)
+					return values[slot];
+				slot = (slot + 1) & mask;
+			}
+			return UNKNOWN;
+		}
+
+		void put(int viewType, long id, int value) {
+			if ((size + 1) * 2 > values.length)
+				grow();
+			final int mask = values.length - 1;
+			int slot = hash(viewType, id) & mask;
+			while (values[slot] != UNKNOWN) {
+				if (ids[slot] == id && viewTypes[slot] == viewType) {
+					values[slot] = value;
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			ids[slot] = id;
+			viewTypes[slot] = viewType;
+			values[slot] = value;
+			++size;
+		}
+
+		void clear() {
+			Arrays.fill(values, UNKNOWN);
+			size = 0;
+		}
+
+		private void grow() {
+			final long[] oldIds = ids;
+			final int[] oldViewTypes = viewTypes;
+			final int[] oldValues = values;
+			ids = new long[oldValues.length * 2];
+			viewTypes = new int[oldValues.length * 2];
+			values = new int[oldValues.length * 2];
+			Arrays.fill(values, UNKNOWN);
+			size = 0;
+			for (int i = 0; i < oldValues.length; ++i) {
+				if (oldValues[i] != UNKNOWN)
+					put(oldViewTypes[i], oldIds[i], oldValues[i]);
+			}
+		}
+
+		private static int hash(int viewType, long id) {
+			final int h = (int) (id ^ (id >>> 32)) * 31 + viewType;
+			return h ^ (h >>> 16);
+		}
+	}
+}
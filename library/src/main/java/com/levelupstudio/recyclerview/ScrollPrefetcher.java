@@ -0,0 +1,153 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.concurrent.Executor;
+
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Reports to the {@link ExpandableRecyclerView.ExpandableAdapter} the groups and children about to be displayed in the
+ * direction of the scroll, as far as the scroll velocity can reach in {@link #LOOKAHEAD_FRAMES} frames.
+ *
+ * @see ExpandableRecyclerView#setPrefetchDistance(int)
+ */
+final class ScrollPrefetcher extends RecyclerView.OnScrollListener {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "ScrollPrefetcher";
+
+	/** number of frames of scroll at the current velocity covered by the prefetch */
+	private static final int LOOKAHEAD_FRAMES = 30;
+	/** rows prefetched even at a low velocity */
+	private static final int MIN_DISTANCE = 2;
+
+	private final ExpandableRecyclerView recyclerView;
+	private final int maxDistance;
+	private Executor executor;
+
+	private int direction;
+	/** end of the flat range already requested in the current direction, exclusive when scrolling down */
+	private int requestedEdge = RecyclerView.NO_POSITION;
+	private ExpandableRecyclerView.ExpandableAdapter.PrefetchSignal signal;
+
+	ScrollPrefetcher(ExpandableRecyclerView recyclerView, int maxDistance) {
+		this.recyclerView = recyclerView;
+		this.maxDistance = maxDistance;
+	}
+
+	void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void onScrolled(RecyclerView view, int dx, int dy) {
+		final int delta = dy != 0 ? dy : dx;
+		if (delta == 0)
+			return;
+
+		final ExpandableRecyclerView.ExpandableAdapter adapter = recyclerView.getExpandableAdapter();
+		final int childCount = recyclerView.getChildCount();
+		if (null == adapter || childCount == 0)
+			return;
+
+		final int newDirection = delta > 0 ? 1 : -1;
+		if (newDirection != direction) {
+			// the rows requested in the other direction are not needed soon anymore
+			cancel();
+			direction = newDirection;
+		}
+
+		final View edgeView = recyclerView.getChildAt(direction > 0 ? childCount - 1 : 0);
+		final int rowSize = Math.max(1, dy != 0 ? edgeView.getHeight() : edgeView.getWidth());
+		final int distance = Math.min(maxDistance, Math.max(MIN_DISTANCE, Math.abs(delta) * LOOKAHEAD_FRAMES / rowSize));
+		final int edgePosition = recyclerView.getChildPosition(edgeView) - recyclerView.getHeaderViewsCount();
+		final int itemCount = adapter.getItemCount();
+
+		int from;
+		int to;
+		if (direction > 0) {
+			from = Math.max(edgePosition + 1, requestedEdge == RecyclerView.NO_POSITION ? 0 : requestedEdge);
+			to = Math.min(itemCount, edgePosition + 1 + distance);
+			if (from >= to)
+				return;
+			requestedEdge = to;
+		} else {
+			from = Math.max(0, edgePosition - distance);
+			to = Math.min(edgePosition, requestedEdge == RecyclerView.NO_POSITION ? itemCount : requestedEdge);
+			if (from >= to)
+				return;
+			requestedEdge = from;
+		}
+		request(adapter, from, to);
+	}
+
+	/**
+	 * Send the data ranges of the flat positions in [{@code fromFlat}, {@code toFlat}) to the adapter on the background executor.
+	 */
+	private void request(final ExpandableRecyclerView.ExpandableAdapter adapter, int fromFlat, int toFlat) {
+		if (null == signal) {
+			signal = new ExpandableRecyclerView.ExpandableAdapter.PrefetchSignal();
+		}
+
+		// split the flat range in ranges of consecutive data positions
+		final int count = toFlat - fromFlat;
+		final int[] groups = new int[count];
+		final int[] fromChildren = new int[count];
+		final int[] toChildren = new int[count];
+		int ranges = 0;
+		for (int flatPosition = fromFlat; flatPosition < toFlat; ++flatPosition) {
+			final int displayedGroup = adapter.getFlatGroup(flatPosition);
+			final int displayedChild = adapter.getFlatChild(flatPosition);
+			final int group = adapter.getSourceGroup(displayedGroup);
+			if (displayedChild == RecyclerView.NO_POSITION) {
+				if (ranges != 0 && fromChildren[ranges - 1] == RecyclerView.NO_POSITION && toChildren[ranges - 1] == group) {
+					++toChildren[ranges - 1];
+				} else {
+					groups[ranges] = group;
+					fromChildren[ranges] = RecyclerView.NO_POSITION;
+					toChildren[ranges] = group + 1;
+					++ranges;
+				}
+			} else {
+				final int child = adapter.getSourceChild(displayedGroup, displayedChild);
+				if (ranges != 0 && fromChildren[ranges - 1] != RecyclerView.NO_POSITION && groups[ranges - 1] == group && toChildren[ranges - 1] == child) {
+					++toChildren[ranges - 1];
+				} else {
+					groups[ranges] = group;
+					fromChildren[ranges] = child;
+					toChildren[ranges] = child + 1;
+					++ranges;
+				}
+			}
+		}
+
+		if (DEBUG) Log.d(LOG_TAG, "prefetch flat [" + fromFlat + ',' + toFlat + ") in " + ranges + " ranges direction=" + direction);
+		final ExpandableRecyclerView.ExpandableAdapter.PrefetchSignal requestSignal = signal;
+		final int rangeCount = ranges;
+		final int requestDirection = direction;
+		(null != executor ? executor : BackgroundExecutor.get()).execute(new Runnable() {
+			@Override
+			public void run() {
+				// the rows closest to the screen first
+				for (int i = 0; i < rangeCount && !requestSignal.isCancelled(); ++i) {
+					final int range = requestDirection > 0 ? i : rangeCount - 1 - i;
+					if (fromChildren[range] == RecyclerView.NO_POSITION)
+						adapter.onPrefetchGroups(groups[range], toChildren[range], requestSignal);
+					else
+						adapter.onPrefetchChildren(groups[range], fromChildren[range], toChildren[range], requestSignal);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cancel the prefetch requested, the next scroll requests its rows again.
+	 */
+	void cancel() {
+		if (null != signal) {
+			signal.cancel();
+			signal = null;
+		}
+		requestedEdge = RecyclerView.NO_POSITION;
+	}
+}
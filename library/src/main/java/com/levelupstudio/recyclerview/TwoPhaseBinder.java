@@ -0,0 +1,192 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.HashSet;
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+/**
+ * Bind models of an {@link ExpandableRecyclerView.ExpandableAdapter} prepared on a background thread for the rows
+ * about to be bound, cached by their stable ID.
+ *
+ * @see ExpandableRecyclerView.ExpandableAdapter#setTwoPhaseBind(int, Executor)
+ */
+final class TwoPhaseBinder {
+	private static final boolean DEBUG = false;
+	private static final String LOG_TAG = "TwoPhaseBinder";
+
+	/** number of rows prepared ahead of the bound row, in the direction of the binds */
+	static final int PREPARE_DISTANCE = 8;
+
+	private final ExpandableRecyclerView.ExpandableAdapter<?, ?> adapter;
+	private final LruCache<Long, Object> models;
+	private final Executor executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	/** keys of the models being prepared in the background, only used on the main thread */
+	private final HashSet<Long> pending = new HashSet<>();
+	/** incremented when the data positions change, the models prepared before are dropped */
+	private int generation;
+	/** incremented for a group data position when it's invalidated, the models of the group prepared before are dropped */
+	private final SparseIntArray groupGenerations = new SparseIntArray();
+	private int lastBoundPosition = RecyclerView.NO_POSITION;
+
+	TwoPhaseBinder(ExpandableRecyclerView.ExpandableAdapter<?, ?> adapter, int maxModels, Executor executor) {
+		this.adapter = adapter;
+		this.models = new LruCache<>(maxModels);
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the model of the group at the data position {@code groupPosition}, prepared on the main thread if needed.
+	 */
+	Object getGroupModel(int groupPosition) {
+		final long key = getGroupKey(groupPosition);
+		Object model = key == RecyclerView.NO_ID ? null : models.get(key);
+		if (null == model) {
+			model = adapter.prepareGroup(groupPosition);
+			if (null != model && key != RecyclerView.NO_ID)
+				models.put(key, model);
+		}
+		return model;
+	}
+
+	/**
+	 * Get the model of the child at the data positions {@code groupPosition}/{@code childPosition}, prepared on the main thread if needed.
+	 */
+	Object getChildModel(int groupPosition, int childPosition) {
+		final long key = getChildKey(groupPosition, childPosition);
+		Object model = key == RecyclerView.NO_ID ? null : models.get(key);
+		if (null == model) {
+			model = adapter.prepareChild(groupPosition, childPosition);
+			if (null != model && key != RecyclerView.NO_ID)
+				models.put(key, model);
+		}
+		return model;
+	}
+
+	/**
+	 * Prepare in the background the models of the rows following {@code flatPosition} in the direction of the binds.
+	 */
+	void onBound(int flatPosition) {
+		final int itemCount = adapter.getItemCount();
+		if (lastBoundPosition == RecyclerView.NO_POSITION || flatPosition >= lastBoundPosition) {
+			prepareRange(flatPosition + 1, Math.min(itemCount, flatPosition + 1 + PREPARE_DISTANCE));
+		} else {
+			prepareRange(Math.max(0, flatPosition - PREPARE_DISTANCE), flatPosition);
+		}
+		lastBoundPosition = flatPosition;
+	}
+
+	/**
+	 * Prepare in the background the models of the rows in [{@code fromFlat}, {@code toFlat}) that are not cached yet.
+	 */
+	void prepareRange(int fromFlat, int toFlat) {
+		for (int flatPosition = fromFlat; flatPosition < toFlat; ++flatPosition) {
+			final int displayedGroup = adapter.getFlatGroup(flatPosition);
+			final int displayedChild = adapter.getFlatChild(flatPosition);
+			final int groupPosition = adapter.getSourceGroup(displayedGroup);
+			final int childPosition = displayedChild == RecyclerView.NO_POSITION ? RecyclerView.NO_POSITION : adapter.getSourceChild(displayedGroup, displayedChild);
+			final long key = childPosition == RecyclerView.NO_POSITION ? getGroupKey(groupPosition) : getChildKey(groupPosition, childPosition);
+			if (key == RecyclerView.NO_ID || pending.contains(key) || null != models.get(key))
+				continue;
+
+			pending.add(key);
+			executor.execute(new PrepareTask(key, groupPosition, childPosition, generation, groupGenerations.get(groupPosition)));
+		}
+	}
+
+	private final class PrepareTask implements Runnable {
+		private final long key;
+		private final int groupPosition;
+		private final int childPosition;
+		private final int taskGeneration;
+		private final int taskGroupGeneration;
+
+		PrepareTask(long key, int groupPosition, int childPosition, int taskGeneration, int taskGroupGeneration) {
+			this.key = key;
+			this.groupPosition = groupPosition;
+			this.childPosition = childPosition;
+			this.taskGeneration = taskGeneration;
+			this.taskGroupGeneration = taskGroupGeneration;
+		}
+
+		@Override
+		public void run() {
+			final Object model = childPosition == RecyclerView.NO_POSITION ? adapter.prepareGroup(groupPosition) : adapter.prepareChild(groupPosition, childPosition);
+			mainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (taskGeneration != generation)
+						return;
+					pending.remove(key);
+					if (taskGroupGeneration != groupGenerations.get(groupPosition)) {
+						// the group changed while the model was prepared
+						return;
+					}
+					if (null != model) {
+						if (DEBUG) Log.v(LOG_TAG, "prepared " + groupPosition + '/' + childPosition);
+						models.put(key, model);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Drop the model of the group and the models of its children, including the ones being prepared.
+	 */
+	void invalidateGroup(int groupPosition) {
+		groupGenerations.put(groupPosition, groupGenerations.get(groupPosition) + 1);
+		final long key = getGroupKey(groupPosition);
+		if (key != RecyclerView.NO_ID)
+			models.remove(key);
+		final int childCount = adapter.getChildrenCount(groupPosition);
+		for (int childPosition = 0; childPosition < childCount; ++childPosition) {
+			final long childKey = getChildKey(groupPosition, childPosition);
+			if (childKey != RecyclerView.NO_ID)
+				models.remove(childKey);
+		}
+	}
+
+	/**
+	 * Drop the model of a child, the models of its group being prepared are dropped too.
+	 */
+	void invalidateChild(int groupPosition, int childPosition) {
+		groupGenerations.put(groupPosition, groupGenerations.get(groupPosition) + 1);
+		final long key = getChildKey(groupPosition, childPosition);
+		if (key != RecyclerView.NO_ID)
+			models.remove(key);
+	}
+
+	/**
+	 * The data positions changed, the models being prepared are not valid anymore.
+	 */
+	void onPositionsChanged() {
+		++generation;
+		groupGenerations.clear();
+		pending.clear();
+		lastBoundPosition = RecyclerView.NO_POSITION;
+	}
+
+	void invalidateAll() {
+		onPositionsChanged();
+		models.evictAll();
+	}
+
+	private long getGroupKey(int groupPosition) {
+		return adapter.getGroupItemId(groupPosition);
+	}
+
+	private long getChildKey(int groupPosition, int childPosition) {
+		final long groupId = adapter.getGroupItemId(groupPosition);
+		if (groupId == RecyclerView.NO_ID)
+			return RecyclerView.NO_ID;
+		final long childId = adapter.getChildId(groupPosition, childPosition);
+		return childId == RecyclerView.NO_ID ? RecyclerView.NO_ID : ExpandableRecyclerView.ExpandableAdapter.getChildItemId(groupId, childId);
+	}
+}
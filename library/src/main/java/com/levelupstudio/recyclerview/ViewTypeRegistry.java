@@ -0,0 +1,143 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense view types, starting from 0, to the pairs of kind of row and view type given by the adapter.
+ * <p>Groups, children, headers and footers each have their own kind, so the same user view type used by a group and
+ * a child layout gives two different view types that are never recycled into each other. The user view types can be
+ * any value, including negative ones.</p>
+ * <p>Since the view types are dense, the data indexed by view type can be stored in arrays of {@link #size()} items.</p>
+ */
+public final class ViewTypeRegistry {
+	/** kind of the rows of an adapter that is not an {@link ExpandableRecyclerView.ExpandableAdapter} */
+	public static final int KIND_ITEM = 0;
+	public static final int KIND_GROUP = 1;
+	public static final int KIND_CHILD = 2;
+	public static final int KIND_HEADER = 3;
+	public static final int KIND_FOOTER = 4;
+
+	/** returned by {@link #findViewType(int, int)} for a view type that is not registered */
+	public static final int INVALID_TYPE = -1;
+
+	private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+	/** open addressing table of the (kind, userType) keys */
+	private long[] keys;
+	private int[] values;
+	/** kind and user view type of each registered view type */
+	private int[] kinds = new int[8];
+	private int[] userTypes = new int[8];
+	private int size;
+
+	public ViewTypeRegistry() {
+		keys = new long[16];
+		values = new int[16];
+		Arrays.fill(keys, EMPTY_KEY);
+	}
+
+	/**
+	 * Get the view type of the {@code userType} view type of the kind of row {@code kind}, registering it if needed.
+	 */
+	public int getViewType(int kind, int userType) {
+		final long key = getKey(kind, userType);
+		final int slot = findSlot(key);
+		if (keys[slot] == key)
+			return values[slot];
+
+		final int viewType = size;
+		if (size == kinds.length) {
+			kinds = Arrays.copyOf(kinds, size * 2);
+			userTypes = Arrays.copyOf(userTypes, size * 2);
+		}
+		kinds[size] = kind;
+		userTypes[size] = userType;
+		++size;
+
+		keys[slot] = key;
+		values[slot] = viewType;
+		if (size * 2 > keys.length) {
+			rehash();
+		}
+		return viewType;
+	}
+
+	/**
+	 * Get the view type of the {@code userType} view type of the kind of row {@code kind} without registering it.
+	 *
+	 * @return {@link #INVALID_TYPE} if it's not registered.
+	 */
+	public int findViewType(int kind, int userType) {
+		final long key = getKey(kind, userType);
+		final int slot = findSlot(key);
+		return keys[slot] == key ? values[slot] : INVALID_TYPE;
+	}
+
+	/**
+	 * Get the kind of row of a view type returned by {@link #getViewType(int, int)}.
+	 */
+	public int getKind(int viewType) {
+		return kinds[viewType];
+	}
+
+	/**
+	 * Get the view type given by the adapter for a view type returned by {@link #getViewType(int, int)}.
+	 */
+	public int getUserType(int viewType) {
+		return userTypes[viewType];
+	}
+
+	/**
+	 * @return whether {@code viewType} has been returned by {@link #getViewType(int, int)}.
+	 */
+	public boolean isRegistered(int viewType) {
+		return viewType >= 0 && viewType < size;
+	}
+
+	/**
+	 * Get the number of view types registered, all the view types are lower than this value.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static long getKey(int kind, int userType) {
+		return ((long) kind << 32) | (userType & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the slot of {@code key} in the table, or the empty slot where it would be inserted.
+	 */
+	private int findSlot(long key) {
+		final int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		Arrays.fill(keys, EMPTY_KEY);
+		final int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] != EMPTY_KEY) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != EMPTY_KEY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
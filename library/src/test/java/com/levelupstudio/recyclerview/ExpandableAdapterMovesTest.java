@@ -0,0 +1,132 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableAdapter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpandableAdapterMovesTest {
+
+	private static int[] identity(int count) {
+		final int[] result = new int[count];
+		for (int i = 0; i < count; ++i) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	private static int[] shuffle(int count, Random random) {
+		final int[] result = identity(count);
+		for (int i = count - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int tmp = result[i];
+			result[i] = result[j];
+			result[j] = tmp;
+		}
+		return result;
+	}
+
+	/**
+	 * Length of the longest increasing subsequence, the quadratic way.
+	 */
+	private static int naiveLisLength(int[] values) {
+		final int[] lengths = new int[values.length];
+		int best = 0;
+		for (int i = 0; i < values.length; ++i) {
+			lengths[i] = 1;
+			for (int j = 0; j < i; ++j) {
+				if (values[j] < values[i])
+					lengths[i] = Math.max(lengths[i], lengths[j] + 1);
+			}
+			best = Math.max(best, lengths[i]);
+		}
+		return best;
+	}
+
+	private static void assertMovesSort(int[] ranks) {
+		final int[] moves = ExpandableAdapter.getMoves(ranks, ranks.length, ranks.length);
+		assertNotNull(moves);
+		assertEquals("minimal number of moves", ranks.length - naiveLisLength(ranks), moves.length / 2);
+		final int[] list = ranks.clone();
+		for (int i = 0; i < moves.length; i += 2) {
+			ExpandableAdapter.moveInList(list, moves[i], moves[i + 1]);
+		}
+		assertArrayEquals(identity(ranks.length), list);
+	}
+
+	@Test
+	public void longestIncreasingSubsequence() {
+		final int[] values = {3, 0, 4, 1, 5, 2, 6};
+		final boolean[] fixed = ExpandableAdapter.longestIncreasingSubsequence(values, values.length);
+		int length = 0;
+		int last = Integer.MIN_VALUE;
+		for (int i = 0; i < values.length; ++i) {
+			if (fixed[i]) {
+				assertTrue(values[i] > last);
+				last = values[i];
+				++length;
+			}
+		}
+		assertEquals(4, length);
+	}
+
+	@Test
+	public void longestIncreasingSubsequenceRandom() {
+		final Random random = new Random(28);
+		for (int run = 0; run < 200; ++run) {
+			final int[] values = shuffle(random.nextInt(30), random);
+			final boolean[] fixed = ExpandableAdapter.longestIncreasingSubsequence(values, values.length);
+			int length = 0;
+			int last = Integer.MIN_VALUE;
+			for (int i = 0; i < values.length; ++i) {
+				if (fixed[i]) {
+					assertTrue(values[i] > last);
+					last = values[i];
+					++length;
+				}
+			}
+			assertEquals(naiveLisLength(values), length);
+		}
+	}
+
+	@Test
+	public void noMoveWhenSorted() {
+		assertArrayEquals(new int[0], ExpandableAdapter.getMoves(identity(10), 10, 0));
+		assertArrayEquals(new int[0], ExpandableAdapter.getMoves(new int[0], 0, 0));
+	}
+
+	@Test
+	public void singleMove() {
+		// the last item moved to the top
+		assertArrayEquals(new int[]{4, 0}, ExpandableAdapter.getMoves(new int[]{1, 2, 3, 4, 0}, 5, 10));
+		// the first item moved to the end
+		assertArrayEquals(new int[]{0, 4}, ExpandableAdapter.getMoves(new int[]{4, 0, 1, 2, 3}, 5, 10));
+	}
+
+	@Test
+	public void reversed() {
+		assertMovesSort(new int[]{5, 4, 3, 2, 1, 0});
+	}
+
+	@Test
+	public void randomPermutations() {
+		final Random random = new Random(28);
+		for (int run = 0; run < 200; ++run) {
+			assertMovesSort(shuffle(1 + random.nextInt(40), random));
+		}
+	}
+
+	@Test
+	public void tooManyMoves() {
+		final int[] ranks = {5, 4, 3, 2, 1, 0};
+		assertNull(ExpandableAdapter.getMoves(ranks, ranks.length, 4));
+		assertNotNull(ExpandableAdapter.getMoves(ranks, ranks.length, 5));
+	}
+}
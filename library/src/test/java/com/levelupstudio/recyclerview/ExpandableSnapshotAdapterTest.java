@@ -0,0 +1,49 @@
+package com.levelupstudio.recyclerview;
+
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ExpandableSnapshotAdapterTest {
+
+	private static final int N = RecyclerView.NO_POSITION;
+
+	@Test
+	public void groupChangeMovesWithLaterRemovals() {
+		// group 9 of 10 changed, then group 3 removed
+		final int[] ops = {
+				ExpandableSnapshot.OP_GROUP_CHANGED, 9, 0,
+				ExpandableSnapshot.OP_GROUP_REMOVED, 3, 0,
+		};
+		ExpandableSnapshotAdapter.moveChangesToFinalPositions(ops, ops.length);
+		assertArrayEquals(new int[]{
+				ExpandableSnapshot.OP_GROUP_CHANGED, 8, 0,
+				ExpandableSnapshot.OP_GROUP_REMOVED, 3, 0,
+		}, ops);
+	}
+
+	@Test
+	public void changesOfRemovedItemsAreDropped() {
+		final int[] ops = {
+				ExpandableSnapshot.OP_GROUP_CHANGED, 2, 0,
+				ExpandableSnapshot.OP_CHILD_CHANGED, 4, 1,
+				ExpandableSnapshot.OP_CHILD_CHANGED, 4, 3,
+				ExpandableSnapshot.OP_GROUP_INSERTED, 0, 0,
+				ExpandableSnapshot.OP_CHILD_REMOVED, 5, 1,
+				ExpandableSnapshot.OP_CHILD_INSERTED, 5, 0,
+				ExpandableSnapshot.OP_GROUP_REMOVED, 3, 0,
+		};
+		ExpandableSnapshotAdapter.moveChangesToFinalPositions(ops, ops.length);
+		assertArrayEquals(new int[]{
+				ExpandableSnapshot.OP_GROUP_CHANGED, N, 0,
+				ExpandableSnapshot.OP_CHILD_CHANGED, N, 1,
+				ExpandableSnapshot.OP_CHILD_CHANGED, 4, 3,
+				ExpandableSnapshot.OP_GROUP_INSERTED, 0, 0,
+				ExpandableSnapshot.OP_CHILD_REMOVED, 5, 1,
+				ExpandableSnapshot.OP_CHILD_INSERTED, 5, 0,
+				ExpandableSnapshot.OP_GROUP_REMOVED, 3, 0,
+		}, ops);
+	}
+}
@@ -0,0 +1,178 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.levelupstudio.recyclerview.ExpandableRecyclerView.ExpandableViewHolder;
+import com.levelupstudio.recyclerview.ExpandableTreeAdapter.Node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExpandableTreeAdapterTest {
+
+	private static final class TreeAdapter extends ExpandableTreeAdapter<ExpandableViewHolder, String> {
+		final List<int[]> insertions = new ArrayList<>();
+		final List<int[]> removals = new ArrayList<>();
+
+		@Override
+		protected ExpandableViewHolder onCreateExpandableViewHolder(ViewGroup parent, int viewType) {
+			return null;
+		}
+
+		@Override
+		protected void onBindNodeView(ExpandableViewHolder holder, Node<String> node) {
+		}
+
+		@Override
+		void notifyRangeInserted(int position, int count) {
+			insertions.add(new int[]{position, count});
+		}
+
+		@Override
+		void notifyRangeRemoved(int position, int count) {
+			removals.add(new int[]{position, count});
+		}
+	}
+
+	private TreeAdapter adapter;
+
+	@Before
+	public void setUp() {
+		adapter = new TreeAdapter();
+	}
+
+	/**
+	 * Walk the tree to list the visible nodes, in display order.
+	 */
+	private static void collectVisible(Node<String> parent, List<Node<String>> visible) {
+		for (int i = 0; i < parent.getChildCount(); ++i) {
+			Node<String> child = parent.getChildAt(i);
+			visible.add(child);
+			if (child.isExpanded())
+				collectVisible(child, visible);
+		}
+	}
+
+	private void assertFlattened() {
+		List<Node<String>> visible = new ArrayList<>();
+		collectVisible(adapter.getRoot(), visible);
+		assertEquals(visible.size(), adapter.getItemCount());
+		for (int position = 0; position < visible.size(); ++position) {
+			Node<String> node = visible.get(position);
+			assertSame("node at " + position, node, adapter.getNodeAt(position));
+			assertEquals("position of " + node, position, adapter.getFlatPosition(node));
+		}
+	}
+
+	@Test
+	public void topLevelNodes() {
+		adapter.setChildren(adapter.getRoot(), Arrays.asList("a", "b", "c"));
+		assertEquals(3, adapter.getItemCount());
+		assertEquals("b", adapter.getNodeAt(1).getValue());
+		assertArrayEqualsList(Arrays.asList(new int[]{0, 3}), adapter.insertions);
+		assertFlattened();
+	}
+
+	@Test
+	public void expandAndCollapse() {
+		List<Node<String>> top = adapter.setChildren(adapter.getRoot(), Arrays.asList("a", "b", "c"));
+		adapter.setChildren(top.get(1), Arrays.asList("b0", "b1"));
+		assertEquals(3, adapter.getItemCount());
+
+		adapter.insertions.clear();
+		assertTrue(adapter.expandNode(top.get(1)));
+		assertEquals(5, adapter.getItemCount());
+		assertEquals("b1", adapter.getNodeAt(3).getValue());
+		assertEquals("c", adapter.getNodeAt(4).getValue());
+		assertArrayEqualsList(Arrays.asList(new int[]{2, 2}), adapter.insertions);
+		assertFlattened();
+
+		assertTrue(adapter.collapseNode(top.get(1)));
+		assertEquals(3, adapter.getItemCount());
+		assertArrayEqualsList(Arrays.asList(new int[]{2, 2}), adapter.removals);
+		assertFlattened();
+	}
+
+	@Test
+	public void collapsedAncestorKeepsDescendantsExpanded() {
+		List<Node<String>> top = adapter.setChildren(adapter.getRoot(), Arrays.asList("a", "b"));
+		List<Node<String>> level1 = adapter.setChildren(top.get(0), Arrays.asList("a0", "a1"));
+		adapter.setChildren(level1.get(1), Arrays.asList("a10", "a11", "a12"));
+
+		// expanding a hidden node doesn't change the displayed rows
+		adapter.expandNode(level1.get(1));
+		assertEquals(2, adapter.getItemCount());
+		assertEquals(1, adapter.insertions.size());
+
+		adapter.expandNode(top.get(0));
+		assertEquals(7, adapter.getItemCount());
+		assertEquals("a12", adapter.getNodeAt(5).getValue());
+		assertFlattened();
+
+		adapter.removeNode(level1.get(1));
+		assertEquals(3, adapter.getItemCount());
+		assertArrayEqualsList(Arrays.asList(new int[]{2, 4}), adapter.removals);
+		assertFlattened();
+	}
+
+	@Test
+	public void randomTreeMatchesWalk() {
+		final Random random = new Random(26);
+		final List<Node<String>> nodes = new ArrayList<>();
+		nodes.add(adapter.getRoot());
+		for (int step = 0; step < 2000; ++step) {
+			Node<String> node = nodes.get(random.nextInt(nodes.size()));
+			switch (random.nextInt(4)) {
+			case 0:
+				if (node.getChildCount() < 40) {
+					int index = random.nextInt(node.getChildCount() + 1);
+					nodes.add(adapter.insertNode(node, index, "n" + step));
+				}
+				break;
+			case 1:
+				if (node != adapter.getRoot()) {
+					adapter.expandNode(node);
+				}
+				break;
+			case 2:
+				if (node != adapter.getRoot()) {
+					adapter.collapseNode(node);
+				}
+				break;
+			case 3:
+				if (node != adapter.getRoot() && node.getParent() != null && random.nextInt(4) == 0) {
+					adapter.removeNode(node);
+					removeSubtree(nodes, node);
+				}
+				break;
+			}
+			if (step % 50 == 0) {
+				assertFlattened();
+			}
+		}
+		assertFlattened();
+	}
+
+	private static void removeSubtree(List<Node<String>> nodes, Node<String> node) {
+		nodes.remove(node);
+		for (int i = 0; i < node.getChildCount(); ++i) {
+			removeSubtree(nodes, node.getChildAt(i));
+		}
+	}
+
+	private static void assertArrayEqualsList(List<int[]> expected, List<int[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(Arrays.toString(expected.get(i)), Arrays.toString(actual.get(i)));
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.levelupstudio.recyclerview;
+
+import android.os.Parcelable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpandedGroupIndexTest {
+
+	@Test
+	public void addKeepsGroupsSorted() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(5, 2, null);
+		index.add(1, 3, null);
+		index.add(9, 4, null);
+		assertArrayEquals(new int[]{1, 5, 9}, index.getGroups());
+		assertEquals(9, index.getTotalChildCount());
+		assertEquals(0, index.getChildrenBefore(0));
+		assertEquals(3, index.getChildrenBefore(1));
+		assertEquals(5, index.getChildrenBefore(2));
+		assertEquals(9, index.getChildrenBefore(3));
+
+		// flat positions: 1 is at 1, its children at 2..4, 5 is at 8, 9 is at 14
+		assertEquals(1, index.getFlatPosition(0));
+		assertEquals(8, index.getFlatPosition(1));
+		assertEquals(14, index.getFlatPosition(2));
+		assertEquals(-1, index.findByFlatPosition(0));
+		assertEquals(0, index.findByFlatPosition(4));
+		assertEquals(1, index.findByFlatPosition(8));
+		assertEquals(2, index.findByFlatPosition(20));
+
+		assertTrue(index.isExpanded(5));
+		assertFalse(index.isExpanded(4));
+		assertEquals(2, index.getGroupChildCount(5));
+		assertEquals(0, index.getGroupChildCount(4));
+		assertEquals(3, index.getChildrenBeforeGroup(4));
+		assertEquals(5, index.getChildrenBeforeGroup(6));
+	}
+
+	@Test
+	public void remove() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(1, 3, null);
+		index.add(5, 2, null);
+		index.add(9, 4, null);
+		final int version = index.getVersion();
+		index.remove(index.indexOf(5));
+		assertTrue(version != index.getVersion());
+		assertArrayEquals(new int[]{1, 9}, index.getGroups());
+		assertEquals(7, index.getTotalChildCount());
+		assertEquals(3, index.getChildrenBefore(1));
+
+		index.remove(0);
+		index.remove(0);
+		assertEquals(0, index.size());
+		assertEquals(0, index.getTotalChildCount());
+	}
+
+	@Test
+	public void setChildCount() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(1, 3, null);
+		index.add(5, 2, null);
+		index.add(9, 4, null);
+		index.setChildCount(0, 10);
+		assertEquals(10, index.getChildrenBefore(1));
+		assertEquals(12, index.getChildrenBefore(2));
+		assertEquals(16, index.getTotalChildCount());
+
+		final int version = index.getVersion();
+		index.setChildCount(1, 2);
+		assertEquals(version, index.getVersion());
+	}
+
+	@Test
+	public void shift() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(1, 3, null);
+		index.add(5, 2, null);
+		index.add(9, 4, null);
+		// 2 groups inserted at 5
+		index.shift(5, 2);
+		assertArrayEquals(new int[]{1, 7, 11}, index.getGroups());
+		// the collapsed group 4 is removed
+		index.shift(4, -1);
+		assertArrayEquals(new int[]{1, 6, 10}, index.getGroups());
+		final int version = index.getVersion();
+		index.shift(20, 1);
+		assertEquals(version, index.getVersion());
+		assertEquals(9, index.getTotalChildCount());
+	}
+
+	@Test
+	public void move() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(1, 3, null);
+		index.add(5, 2, null);
+		index.move(5, 0);
+		assertArrayEquals(new int[]{0, 2}, index.getGroups());
+		assertEquals(2, index.getChildCount(0));
+		assertEquals(3, index.getChildCount(1));
+		assertEquals(2, index.getChildrenBefore(1));
+	}
+
+	@Test
+	public void moveShiftsOnlyTheRange() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(0, 1, null);
+		index.add(2, 2, null);
+		index.add(4, 3, null);
+		index.add(6, 4, null);
+		index.add(9, 5, null);
+
+		// 2 moves after 6
+		index.move(2, 7);
+		assertArrayEquals(new int[]{0, 3, 5, 7, 9}, index.getGroups());
+		assertEquals(3, index.getChildCount(1));
+		assertEquals(4, index.getChildCount(2));
+		assertEquals(2, index.getChildCount(3));
+		assertEquals(1, index.getChildrenBefore(1));
+		assertEquals(4, index.getChildrenBefore(2));
+		assertEquals(8, index.getChildrenBefore(3));
+		assertEquals(10, index.getChildrenBefore(4));
+		assertArrayEquals(new int[]{0, 7}, index.getLeastRecentlyExpanded(2, -1, -1));
+
+		// and back
+		index.move(7, 2);
+		assertArrayEquals(new int[]{0, 2, 4, 6, 9}, index.getGroups());
+		assertEquals(2, index.getChildCount(1));
+		assertEquals(3, index.getChildrenBefore(2));
+		assertEquals(6, index.getChildrenBefore(3));
+		assertEquals(10, index.getChildrenBefore(4));
+		assertArrayEquals(new int[]{0, 2}, index.getLeastRecentlyExpanded(2, -1, -1));
+
+		// a collapsed group moves over expanded ones
+		index.move(8, 1);
+		assertArrayEquals(new int[]{0, 3, 5, 7, 9}, index.getGroups());
+		assertEquals(3, index.getChildrenBefore(2));
+		assertEquals(15, index.getTotalChildCount());
+	}
+
+	@Test
+	public void leastRecentlyExpanded() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(7, 1, null);
+		index.add(2, 1, null);
+		index.add(9, 1, null);
+		index.add(4, 1, null);
+		assertEquals(index.indexOf(4), index.getMostRecentlyExpanded());
+		assertTrue(index.getExpandOrder(index.indexOf(7)) < index.getExpandOrder(index.indexOf(2)));
+
+		// the oldest first, returned by position
+		assertArrayEquals(new int[]{7}, index.getLeastRecentlyExpanded(1, -1, -1));
+		assertArrayEquals(new int[]{2, 7}, index.getLeastRecentlyExpanded(2, -1, -1));
+		assertArrayEquals(new int[]{2, 9}, index.getLeastRecentlyExpanded(2, 7, -1));
+		assertArrayEquals(new int[]{4, 9}, index.getLeastRecentlyExpanded(2, 7, 2));
+		assertArrayEquals(new int[]{2, 4, 7, 9}, index.getLeastRecentlyExpanded(10, -1, -1));
+		assertArrayEquals(new int[0], index.getLeastRecentlyExpanded(0, -1, -1));
+
+		// collapsed and expanded again, it's the most recent one
+		index.remove(index.indexOf(7));
+		index.add(7, 1, null);
+		assertArrayEquals(new int[]{2}, index.getLeastRecentlyExpanded(1, -1, -1));
+		assertEquals(index.indexOf(7), index.getMostRecentlyExpanded());
+
+		// the order follows the groups when they move
+		index.move(2, 8);
+		assertArrayEquals(new int[]{8}, index.getLeastRecentlyExpanded(1, -1, -1));
+	}
+
+	@Test
+	public void expandAllKeepsOrder() {
+		final ExpandedGroupIndex index = new ExpandedGroupIndex();
+		index.add(2, 1, null);
+		index.add(0, 1, null);
+		index.expandAll(4, new int[]{1, 2, 3, 4}, new Parcelable[4]);
+		assertArrayEquals(new int[]{0, 1, 2, 3}, index.getGroups());
+		assertEquals(10, index.getTotalChildCount());
+		assertArrayEquals(new int[]{0, 2}, index.getLeastRecentlyExpanded(2, -1, -1));
+		assertEquals(3, index.getMostRecentlyExpanded());
+	}
+}
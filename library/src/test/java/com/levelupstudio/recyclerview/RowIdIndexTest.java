@@ -0,0 +1,98 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Test;
+
+import com.levelupstudio.recyclerview.ExpandableCursorAdapter.RowIdIndex;
+
+import static org.junit.Assert.assertEquals;
+
+public class RowIdIndexTest {
+
+	/** row IDs with the same hash, so they're probed in the same chain */
+	private static final long[] COLLIDING = {1L, 1L << 32, (3L << 32) | 2L, (5L << 32) | 4L, (7L << 32) | 6L};
+
+	@Test
+	public void empty() {
+		final RowIdIndex index = new RowIdIndex();
+		assertEquals(RecyclerView.NO_POSITION, index.get(0));
+		index.build(new long[0]);
+		assertEquals(RecyclerView.NO_POSITION, index.get(0));
+	}
+
+	@Test
+	public void positions() {
+		final RowIdIndex index = new RowIdIndex();
+		index.build(new long[]{12, -3, 0, Long.MAX_VALUE, Long.MIN_VALUE});
+		assertEquals(0, index.get(12));
+		assertEquals(1, index.get(-3));
+		assertEquals(2, index.get(0));
+		assertEquals(3, index.get(Long.MAX_VALUE));
+		assertEquals(4, index.get(Long.MIN_VALUE));
+		assertEquals(RecyclerView.NO_POSITION, index.get(13));
+	}
+
+	@Test
+	public void firstDuplicateWins() {
+		final RowIdIndex index = new RowIdIndex();
+		index.build(new long[]{7, 8, 7, 8});
+		assertEquals(0, index.get(7));
+		assertEquals(1, index.get(8));
+	}
+
+	@Test
+	public void collidingIdsAreProbed() {
+		final RowIdIndex index = new RowIdIndex();
+		index.build(COLLIDING);
+		for (int position = 0; position < COLLIDING.length; ++position) {
+			assertEquals(position, index.get(COLLIDING[position]));
+		}
+		// same hash, not in the table: the whole chain is probed
+		assertEquals(RecyclerView.NO_POSITION, index.get((9L << 32) | 8L));
+	}
+
+	@Test
+	public void deletedIdInProbeChain() {
+		final RowIdIndex index = new RowIdIndex();
+		index.build(COLLIDING);
+
+		// the rows are deleted from the cursor and the index rebuilt, the IDs probed after them are still found
+		final long[] remaining = {COLLIDING[0], COLLIDING[2], COLLIDING[4]};
+		final RowIdIndex rebuilt = new RowIdIndex();
+		rebuilt.build(remaining);
+		index.set(rebuilt);
+		assertEquals(RecyclerView.NO_POSITION, index.get(COLLIDING[1]));
+		assertEquals(RecyclerView.NO_POSITION, index.get(COLLIDING[3]));
+		for (int position = 0; position < remaining.length; ++position) {
+			assertEquals(position, index.get(remaining[position]));
+		}
+	}
+
+	@Test
+	public void randomIds() {
+		final Random random = new Random(37);
+		final long[] ids = new long[5000];
+		final Map<Long, Integer> expected = new HashMap<>();
+		for (int position = 0; position < ids.length; ++position) {
+			// small range to get duplicates and clustered hashes
+			ids[position] = random.nextInt(20000) | ((long) random.nextInt(4) << 32);
+			if (!expected.containsKey(ids[position]))
+				expected.put(ids[position], position);
+		}
+		final RowIdIndex index = new RowIdIndex();
+		index.build(ids);
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().intValue(), index.get(entry.getKey()));
+		}
+		for (int i = 0; i < 1000; ++i) {
+			final long id = random.nextLong();
+			if (!expected.containsKey(id))
+				assertEquals(RecyclerView.NO_POSITION, index.get(id));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.levelupstudio.recyclerview.ScrollMetrics.SizeStore;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScrollMetricsTest {
+
+	private static final int U = ScrollMetrics.UNKNOWN;
+
+	@Test
+	public void storeSizes() {
+		final SizeStore sizes = new SizeStore();
+		assertEquals(U, sizes.get(0, 12));
+		sizes.put(0, 12, 40);
+		sizes.put(1, 12, 80);
+		sizes.put(0, -12, 20);
+		assertEquals(3, sizes.size());
+		assertEquals(40, sizes.get(0, 12));
+		assertEquals(80, sizes.get(1, 12));
+		assertEquals(20, sizes.get(0, -12));
+		assertEquals(U, sizes.get(2, 12));
+
+		sizes.put(0, 12, 45);
+		assertEquals(3, sizes.size());
+		assertEquals(45, sizes.get(0, 12));
+
+		sizes.clear();
+		assertEquals(0, sizes.size());
+		assertEquals(U, sizes.get(0, 12));
+	}
+
+	@Test
+	public void storeGrows() {
+		final SizeStore sizes = new SizeStore();
+		for (int i = 0; i < 1000; ++i) {
+			sizes.put(i % 3, ((long) i << 32) | i, i + 1);
+		}
+		assertEquals(1000, sizes.size());
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(i + 1, sizes.get(i % 3, ((long) i << 32) | i));
+			assertEquals(U, sizes.get((i + 1) % 3, ((long) i << 32) | i));
+		}
+	}
+
+	@Test
+	public void estimateWithUnknownSizes() {
+		final int[] rowSizes = {10, U, 30, U, U, 20};
+		final int[] tree = new int[rowSizes.length + 1];
+		final int[] unknownTree = new int[rowSizes.length + 1];
+		assertEquals(60, ScrollMetrics.build(tree, unknownTree, rowSizes, rowSizes.length));
+		assertEquals(3, ScrollMetrics.prefix(unknownTree, rowSizes.length));
+
+		// the unknown rows count for the average of the known ones
+		assertEquals(0, ScrollMetrics.estimateStart(tree, unknownTree, 0, 20));
+		assertEquals(10, ScrollMetrics.estimateStart(tree, unknownTree, 1, 20));
+		assertEquals(30, ScrollMetrics.estimateStart(tree, unknownTree, 2, 20));
+		assertEquals(60, ScrollMetrics.estimateStart(tree, unknownTree, 3, 20));
+		assertEquals(100, ScrollMetrics.estimateStart(tree, unknownTree, 5, 20));
+		assertEquals(120, ScrollMetrics.estimateStart(tree, unknownTree, 6, 20));
+
+		// the second row is measured
+		ScrollMetrics.add(unknownTree, rowSizes.length, 1, -1);
+		ScrollMetrics.add(tree, rowSizes.length, 1, 50);
+		assertEquals(60, ScrollMetrics.estimateStart(tree, unknownTree, 2, 20));
+		assertEquals(150, ScrollMetrics.estimateStart(tree, unknownTree, 6, 20));
+	}
+
+	@Test
+	public void estimateMatchesSums() {
+		final Random random = new Random(3);
+		final int count = 200;
+		final int[] rowSizes = new int[count];
+		for (int i = 0; i < count; ++i) {
+			rowSizes[i] = random.nextInt(4) == 0 ? U : random.nextInt(100);
+		}
+		final int[] tree = new int[count + 1];
+		final int[] unknownTree = new int[count + 1];
+		ScrollMetrics.build(tree, unknownTree, rowSizes, count);
+		for (int update = 0; update < 100; ++update) {
+			final int index = random.nextInt(count);
+			final int size = random.nextInt(100);
+			if (rowSizes[index] == U) {
+				ScrollMetrics.add(unknownTree, count, index, -1);
+				rowSizes[index] = 0;
+			}
+			ScrollMetrics.add(tree, count, index, size - rowSizes[index]);
+			rowSizes[index] = size;
+
+			final int average = 1 + random.nextInt(50);
+			int expected = 0;
+			for (int i = 0; i <= count; ++i) {
+				assertEquals(expected, ScrollMetrics.estimateStart(tree, unknownTree, i, average));
+				if (i < count)
+					expected += rowSizes[i] == U ? average : rowSizes[i];
+			}
+		}
+	}
+}
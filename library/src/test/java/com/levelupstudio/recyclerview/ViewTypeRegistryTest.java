@@ -0,0 +1,91 @@
+package com.levelupstudio.recyclerview;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ViewTypeRegistryTest {
+
+	@Test
+	public void denseViewTypes() {
+		final ViewTypeRegistry registry = new ViewTypeRegistry();
+		assertEquals(0, registry.size());
+		assertEquals(0, registry.getViewType(ViewTypeRegistry.KIND_GROUP, 7));
+		assertEquals(1, registry.getViewType(ViewTypeRegistry.KIND_CHILD, 7));
+		assertEquals(2, registry.getViewType(ViewTypeRegistry.KIND_HEADER, -1));
+		assertEquals(3, registry.size());
+
+		// already registered
+		assertEquals(0, registry.getViewType(ViewTypeRegistry.KIND_GROUP, 7));
+		assertEquals(1, registry.getViewType(ViewTypeRegistry.KIND_CHILD, 7));
+		assertEquals(3, registry.size());
+	}
+
+	@Test
+	public void kindAndUserType() {
+		final ViewTypeRegistry registry = new ViewTypeRegistry();
+		final int child = registry.getViewType(ViewTypeRegistry.KIND_CHILD, Integer.MIN_VALUE);
+		final int footer = registry.getViewType(ViewTypeRegistry.KIND_FOOTER, Integer.MAX_VALUE);
+		assertNotEquals(child, footer);
+		assertEquals(ViewTypeRegistry.KIND_CHILD, registry.getKind(child));
+		assertEquals(Integer.MIN_VALUE, registry.getUserType(child));
+		assertEquals(ViewTypeRegistry.KIND_FOOTER, registry.getKind(footer));
+		assertEquals(Integer.MAX_VALUE, registry.getUserType(footer));
+	}
+
+	@Test
+	public void isRegistered() {
+		final ViewTypeRegistry registry = new ViewTypeRegistry();
+		assertFalse(registry.isRegistered(0));
+		registry.getViewType(ViewTypeRegistry.KIND_ITEM, 0);
+		assertTrue(registry.isRegistered(0));
+		assertFalse(registry.isRegistered(1));
+		assertFalse(registry.isRegistered(-1));
+	}
+
+	@Test
+	public void findDoesNotRegister() {
+		final ViewTypeRegistry registry = new ViewTypeRegistry();
+		assertEquals(ViewTypeRegistry.INVALID_TYPE, registry.findViewType(ViewTypeRegistry.KIND_GROUP, 3));
+		assertEquals(0, registry.size());
+
+		final int viewType = registry.getViewType(ViewTypeRegistry.KIND_GROUP, 3);
+		assertEquals(viewType, registry.findViewType(ViewTypeRegistry.KIND_GROUP, 3));
+		assertEquals(ViewTypeRegistry.INVALID_TYPE, registry.findViewType(ViewTypeRegistry.KIND_CHILD, 3));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void manyTypesAcrossRehash() {
+		final ViewTypeRegistry registry = new ViewTypeRegistry();
+		final Map<Long, Integer> expected = new HashMap<>();
+		final Random random = new Random(31);
+		for (int i = 0; i < 2000; ++i) {
+			final int kind = random.nextInt(5);
+			final int userType = random.nextInt(500) - 250;
+			final long key = ((long) kind << 32) | (userType & 0xFFFFFFFFL);
+			final int viewType = registry.getViewType(kind, userType);
+			final Integer previous = expected.get(key);
+			if (null == previous) {
+				assertEquals("new types are dense", expected.size(), viewType);
+				expected.put(key, viewType);
+			} else {
+				assertEquals(previous.intValue(), viewType);
+			}
+			assertEquals(kind, registry.getKind(viewType));
+			assertEquals(userType, registry.getUserType(viewType));
+		}
+		assertEquals(expected.size(), registry.size());
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			final long key = entry.getKey();
+			assertEquals(entry.getValue().intValue(), registry.findViewType((int) (key >> 32), (int) key));
+		}
+	}
+}